@@ -0,0 +1,173 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.classify.ConfusionMatrix;
+import spatialmusings.engine.classify.CrossValidation;
+import spatialmusings.engine.classify.RandomForest;
+import spatialmusings.engine.classify.RandomForestTrainer;
+import spatialmusings.engine.classify.Samples;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.TileExecutor;
+
+/**
+ * Accuracy assessment of a classification (06.1): the error matrix of validation samples,
+ * bootstrap intervals on its statistics, and k-fold cross-validation.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.AccuracyBenchmark [samples] [points]
+ * </pre>
+ *
+ * Counts {@code samples} synthetic (actual, predicted) pairs into a map of boxed counts and
+ * with {@link ConfusionMatrix#of}, and checks the matrices agree. Bootstraps accuracy by
+ * resampling rows and recounting, as a script would, against the per-cell Poisson bootstrap,
+ * and checks the intervals are close. Last, cross-validates a forest on {@code points} labelled
+ * points of a 13-band synthetic composite, re-sampling the composite for every fold against
+ * {@link CrossValidation} on samples taken once, and checks every point is scored once by both.
+ */
+public final class AccuracyBenchmark {
+
+    private static final int CLASSES = 5;
+    private static final int REPLICATES = 200;
+    private static final int FOLDS = 5;
+    private static final int ROUNDS = 3;
+
+    private AccuracyBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int points = args.length > 1 ? Integer.parseInt(args[1]) : 3_000;
+        Samples pairs = pairs(n);
+        float[] actual = pairs.column("class"), predicted = pairs.column("classification");
+        System.out.printf("%d samples, %d classes%n", n, CLASSES);
+
+        Map<Integer, Map<Integer, Long>> boxed = new HashMap<>();
+        double tBoxed = Timing.best(ROUNDS, () -> {
+            boxed.clear();
+            for (int i = 0; i < n; i++) {
+                boxed.computeIfAbsent((int) actual[i], a -> new HashMap<>()).merge((int) predicted[i], 1L, Long::sum);
+            }
+        });
+        System.out.printf("%-26s %8.3f s%n", "boxed counts", tBoxed);
+        ConfusionMatrix[] matrix = new ConfusionMatrix[1];
+        double tMatrix = Timing.best(ROUNDS, () -> matrix[0] = pairs.errorMatrix("class", "classification"));
+        System.out.printf("%-26s %8.3f s  (%.1fx)%n", "errorMatrix", tMatrix, tBoxed / tMatrix);
+        for (int a = 0; a < CLASSES; a++) {
+            for (int p = 0; p < CLASSES; p++) {
+                long expected = boxed.getOrDefault(a, Map.of()).getOrDefault(p, 0L);
+                if (matrix[0].count(a, p) != expected) {
+                    throw new AssertionError("Cell " + a + "," + p + ": " + matrix[0].count(a, p) + " vs " + expected);
+                }
+            }
+        }
+        System.out.println(matrix[0]);
+
+        double[] resampled = new double[2];
+        double tRows = Timing.best(ROUNDS, () -> {
+            SplittableRandom random = new SplittableRandom(7);
+            double[] acc = new double[REPLICATES];
+            for (int b = 0; b < REPLICATES; b++) {
+                long correct = 0;
+                for (int i = 0; i < n; i++) {
+                    int row = random.nextInt(n);
+                    if (actual[row] == predicted[row]) {
+                        correct++;
+                    }
+                }
+                acc[b] = correct / (double) n;
+            }
+            Arrays.sort(acc);
+            resampled[0] = acc[(int) Math.floor(0.025 * (REPLICATES - 1))];
+            resampled[1] = acc[(int) Math.ceil(0.975 * (REPLICATES - 1))];
+        });
+        System.out.printf("%-26s %8.3f s  accuracy %.4f-%.4f%n", "resampled rows x" + REPLICATES, tRows,
+                resampled[0], resampled[1]);
+        ConfusionMatrix.Intervals[] intervals = new ConfusionMatrix.Intervals[1];
+        double tPoisson = Timing.best(ROUNDS, () -> intervals[0] = matrix[0].bootstrap(REPLICATES, 0.95, 7));
+        double[] poisson = intervals[0].accuracy();
+        System.out.printf("%-26s %8.3f s  accuracy %.4f-%.4f (%.0fx)%n", "Poisson cells x" + REPLICATES, tPoisson,
+                poisson[0], poisson[1], tRows / tPoisson);
+        double width = resampled[1] - resampled[0];
+        if (Math.abs(poisson[0] - resampled[0]) > width / 2 || Math.abs(poisson[1] - resampled[1]) > width / 2) {
+            throw new AssertionError("Bootstrap intervals disagree");
+        }
+
+        List<String> bands = new ArrayList<>();
+        for (int b = 1; b <= 13; b++) {
+            bands.add("B" + b);
+        }
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 600_000, 9_950_000, 10, 10, 4096, 4096);
+        Image composite = new SyntheticImage(grid, bands, 7, 0.02);
+        FeatureCollection gcps = gcps(grid, points);
+        TileExecutor executor = TileExecutor.common();
+        RandomForestTrainer trainer = RandomForestTrainer.smileRandomForest(20).seed(42);
+        long[] scored = new long[1];
+        double tResample = Timing.best(ROUNDS, () -> {
+            scored[0] = 0;
+            for (int f = 0; f < FOLDS; f++) {
+                Samples samples = composite.sampleRegions(gcps, List.of("class", "fold"), executor);
+                int[] train = new int[samples.size()], test = new int[samples.size()];
+                int nTrain = 0, nTest = 0;
+                for (int i = 0; i < samples.size(); i++) {
+                    if (samples.get(i, "fold") == f) {
+                        test[nTest++] = i;
+                    } else {
+                        train[nTrain++] = i;
+                    }
+                }
+                RandomForest forest = trainer.train(samples.rows(Arrays.copyOf(train, nTrain)), "class", bands);
+                Samples held = samples.rows(Arrays.copyOf(test, nTest)).classify(forest);
+                scored[0] += held.errorMatrix("class", "classification").total();
+            }
+        });
+        System.out.printf("%-26s %8.3f s  (%d scored)%n", "re-sampled per fold", tResample, scored[0]);
+        CrossValidation[] cv = new CrossValidation[1];
+        double tCached = Timing.best(ROUNDS, () -> cv[0] = CrossValidation.kFold(
+                composite.sampleRegions(gcps, List.of("class"), executor), "class", bands, trainer, FOLDS, 42));
+        System.out.printf("%-26s %8.3f s  (%.2fx, %d scored)%n", "cached kFold", tCached, tResample / tCached,
+                cv[0].pooled().total());
+        if (cv[0].pooled().total() != scored[0]) {
+            throw new AssertionError("Cross-validation scored " + cv[0].pooled().total() + " points, expected " + scored[0]);
+        }
+        System.out.println(cv[0]);
+    }
+
+    /** Actual classes skewed towards the low ones, predicted right about 85% of the time. */
+    private static Samples pairs(int n) {
+        float[] actual = new float[n], predicted = new float[n];
+        for (int i = 0; i < n; i++) {
+            long h = SyntheticImage.mix(0xACC0L + i);
+            int a = Math.min(CLASSES - 1, Long.numberOfTrailingZeros(h | (1L << 40)) / 2);
+            actual[i] = a;
+            predicted[i] = (h >>> 44) % 100 < 85 ? a : (int) ((h >>> 20) % CLASSES);
+        }
+        return new Samples(List.of("class", "classification"), new float[][] {actual, predicted});
+    }
+
+    /** Labelled points over the grid, each with a class and a fold number 0 to FOLDS - 1. */
+    private static FeatureCollection gcps(PixelGrid grid, int points) {
+        List<Feature> gcps = new ArrayList<>();
+        for (int i = 0; i < points; i++) {
+            long h = SyntheticImage.mix(0xC0FFEEL + i);
+            double x = grid.originX() + ((h >>> 40) % (grid.width() * 10L)) / 10.0 * grid.pixelWidth();
+            double y = grid.originY() - ((h >>> 8) % (grid.height() * 10L)) / 10.0 * grid.pixelHeight();
+            Map<String, Object> props = new LinkedHashMap<>();
+            props.put("class", (int) (h & 3));
+            props.put("fold", i % FOLDS);
+            gcps.add(new Feature(Geometry.point(grid.crs(), x, y), props));
+        }
+        return new FeatureCollection(gcps);
+    }
+}
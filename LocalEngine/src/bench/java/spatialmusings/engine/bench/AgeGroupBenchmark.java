@@ -0,0 +1,141 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+import spatialmusings.engine.workflows.AgeGroups;
+import spatialmusings.engine.zonal.ZonalStatistics;
+
+/**
+ * WorldPop age categories (Engineering/process_worldpop_popdensity_GEE.py) reduced per admin
+ * unit as {@link AgeGroups} does.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.AgeGroupBenchmark [size]
+ * </pre>
+ *
+ * The 36 age/sex bands are synthetic and computed on read, so each band a tile decodes costs
+ * what decoding it from disk would relative to the sums. Compares one zonal pass per category,
+ * as reducing each exported category asset in turn amounts to, with a single pass over the
+ * {@code sumBands} image of all six, and reports how many bands each tile decoded. Checks that
+ * both give the same statistics for every unit and category.
+ */
+public final class AgeGroupBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final int UNITS = 12;
+
+    private AgeGroupBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 200_000, 9_900_000, 100, 100, size, size);
+        List<String> bands = new ArrayList<>();
+        for (String sex : new String[] {"F_", "M_"}) {
+            for (int age = 0; age <= 80; age = age == 0 ? 1 : age == 1 ? 5 : age + 5) {
+                bands.add(sex + age);
+            }
+        }
+        AtomicLong decoded = new AtomicLong();
+        Image worldpop = new Counted(new SyntheticImage(grid, bands, 2020, 0.1), decoded);
+        Map<String, List<String>> groups = AgeGroups.WORLDPOP;
+        ZonalStatistics zones = ZonalStatistics.of(units(grid), "unit");
+        TileExecutor executor = TileExecutor.common();
+        int tiles = zones.zoneGrid(grid, executor).tiles().size();
+        System.out.printf("%d bands of %dx%d px, %d categories, %d units, %d tiles, %d threads%n", bands.size(),
+                size, size, groups.size(), zones.zones().size(), tiles, executor.pool().getParallelism());
+
+        List<GroupedStats> separate = new ArrayList<>();
+        Runnable perCategory = () -> {
+            separate.clear();
+            for (Map.Entry<String, List<String>> g : groups.entrySet()) {
+                separate.add(zones.reduce(worldpop.sumBands(Map.of(g.getKey(), g.getValue())), false, executor)[0]);
+            }
+        };
+        GroupedStats[][] shared = new GroupedStats[1][];
+        Image categories = worldpop.sumBands(groups);
+        Runnable onePass = () -> shared[0] = zones.reduce(categories, false, executor);
+
+        double tSeparate = Timing.best(ROUNDS, perCategory);
+        decoded.set(0);
+        perCategory.run();
+        System.out.printf("%-28s %8.3f s  (%.1f bands decoded per tile)%n", "one pass per category", tSeparate,
+                decoded.get() / (double) tiles);
+        double tShared = Timing.best(ROUNDS, onePass);
+        decoded.set(0);
+        onePass.run();
+        System.out.printf("%-28s %8.3f s  (%.1fx, %.1f bands decoded per tile)%n", "sumBands, one pass", tShared,
+                tSeparate / tShared, decoded.get() / (double) tiles);
+
+        for (int g = 0; g < separate.size(); g++) {
+            for (int z = 0; z < zones.zones().size(); z++) {
+                double a = separate.get(g).stats(z).sum(), b = shared[0][g].stats(z).sum();
+                double n = separate.get(g).stats(z).count(), m = shared[0][g].stats(z).count();
+                if (a != b || n != m) {
+                    throw new AssertionError(categories.bandNames().get(g) + " in " + zones.zones().get(z) + ": "
+                            + a + " over " + n + " px vs " + b + " over " + m);
+                }
+            }
+        }
+        System.out.printf("%-28s statistics agree for all %d categories x %d units%n", "", separate.size(),
+                zones.zones().size());
+    }
+
+    /** {@code UNITS} x {@code UNITS} rectangular units tiling the grid, named unit_000.. */
+    private static FeatureCollection units(PixelGrid grid) {
+        Envelope e = grid.envelope();
+        double dx = e.width() / UNITS, dy = e.height() / UNITS;
+        List<Feature> out = new ArrayList<>();
+        for (int j = 0; j < UNITS; j++) {
+            for (int i = 0; i < UNITS; i++) {
+                Envelope cell = new Envelope(e.minX() + i * dx, e.minY() + j * dy, e.minX() + (i + 1) * dx,
+                        e.minY() + (j + 1) * dy);
+                out.add(new Feature(Geometry.rectangle(grid.crs(), cell),
+                        Map.of("unit", String.format("unit_%03d", j * UNITS + i))));
+            }
+        }
+        return new FeatureCollection(out);
+    }
+
+    /** Counts the bands decoded from the source. */
+    private static final class Counted extends Image {
+
+        private final Image source;
+        private final AtomicLong decoded;
+
+        Counted(Image source, AtomicLong decoded) {
+            this.source = source;
+            this.decoded = decoded;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return source.grid();
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return source.bandNames();
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            decoded.addAndGet(bands.length);
+            return source.read(window, bands);
+        }
+    }
+}
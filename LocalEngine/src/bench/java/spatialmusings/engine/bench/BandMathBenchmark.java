@@ -0,0 +1,123 @@
+package spatialmusings.engine.bench;
+
+import java.util.Arrays;
+import java.util.List;
+
+import spatialmusings.engine.expr.Expr;
+import spatialmusings.engine.expr.Kernels;
+import spatialmusings.engine.expr.Op;
+import spatialmusings.engine.expr.Program;
+import spatialmusings.engine.expr.ScalarKernels;
+
+/**
+ * Single-thread throughput of band math on the burn-severity chain from the Methods scripts,
+ * {@code dNBR = nbr(pre) - nbr(post)} and {@code burned = dNBR > 0.2}, over in-memory tiles.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.BandMathBenchmark [tiles]
+ * java --add-modules jdk.incubator.vector -cp out:vector:bench spatialmusings.engine.bench.BandMathBenchmark
+ * </pre>
+ *
+ * Compares one full-tile pass per operator (the unfused chain), the fused program on the scalar
+ * kernels, and the fused program on {@link Kernels#best()}; also checks that the fused results
+ * match the unfused ones exactly, NaNs included.
+ */
+public final class BandMathBenchmark {
+
+    private static final int TILE = 256;
+    private static final int ROUNDS = 5;
+
+    private BandMathBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int tiles = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int n = TILE * TILE;
+        float[][][] data = new float[tiles][4][n];
+        for (int t = 0; t < tiles; t++) {
+            for (int b = 0; b < 4; b++) {
+                for (int i = 0; i < n; i++) {
+                    long h = SyntheticImage.mix(t * 0x9E3779B97F4A7C15L + b * 0xC2B2AE3D27D4EB4FL + i);
+                    data[t][b][i] = (h & 31) == 0 ? Float.NaN : 100 + (h >>> 52) % 4000;
+                }
+            }
+        }
+        // Inputs 0 and 1 are the pre- and post-fire scenes, bands B8 and B12 each.
+        Expr nbrPre = Expr.apply(Op.NORMALIZED_DIFFERENCE, Expr.band(0, 0), Expr.band(0, 1));
+        Expr nbrPost = Expr.apply(Op.NORMALIZED_DIFFERENCE, Expr.band(1, 0), Expr.band(1, 1));
+        Expr dnbr = Expr.apply(Op.SUBTRACT, nbrPre, nbrPost);
+        Expr burned = Expr.apply(Op.GT, dnbr, Expr.constant(0.2));
+        Program program = new Program(Arrays.asList(dnbr, burned));
+
+        Kernels best = Kernels.best();
+        System.out.printf("%d tiles of %dx%d, %d instructions, best kernels: %s%n",
+                tiles, TILE, TILE, program.instructionCount(), best.name());
+
+        float[][][] reference = new float[tiles][2][n];
+        float[][][] fused = new float[tiles][2][n];
+        double unfused = time(() -> {
+            for (int t = 0; t < tiles; t++) {
+                unfused(data[t], reference[t]);
+            }
+        });
+        report("unfused", tiles * (double) n, unfused);
+        for (Kernels k : best == ScalarKernels.INSTANCE
+                ? List.<Kernels>of(ScalarKernels.INSTANCE) : List.of(ScalarKernels.INSTANCE, best)) {
+            double seconds = time(() -> {
+                for (int t = 0; t < tiles; t++) {
+                    program.run(k, leaves(program, data[t]), fused[t], n);
+                }
+            });
+            report("fused " + k.name(), tiles * (double) n, seconds);
+            for (int t = 0; t < tiles; t++) {
+                for (int o = 0; o < 2; o++) {
+                    if (!Arrays.equals(reference[t][o], fused[t][o])) {
+                        throw new AssertionError(k.name() + " differs from the reference in tile " + t);
+                    }
+                }
+            }
+        }
+    }
+
+    /** One full-tile pass per operator, as a chain of per-operator images computes it. */
+    private static void unfused(float[][] in, float[][] out) {
+        int n = in[0].length;
+        float[] pre = new float[n], post = new float[n];
+        for (int i = 0; i < n; i++) {
+            pre[i] = Op.NORMALIZED_DIFFERENCE.apply(in[0][i], in[1][i]);
+        }
+        for (int i = 0; i < n; i++) {
+            post[i] = Op.NORMALIZED_DIFFERENCE.apply(in[2][i], in[3][i]);
+        }
+        for (int i = 0; i < n; i++) {
+            out[0][i] = Op.SUBTRACT.apply(pre[i], post[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            out[1][i] = Op.GT.apply(out[0][i], 0.2f);
+        }
+    }
+
+    private static float[][] leaves(Program program, float[][] tile) {
+        List<int[]> leaves = program.leaves();
+        float[][] data = new float[leaves.size()][];
+        for (int s = 0; s < data.length; s++) {
+            data[s] = tile[leaves.get(s)[0] * 2 + leaves.get(s)[1]];
+        }
+        return data;
+    }
+
+    private static double time(Runnable r) {
+        r.run(); // warm-up
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            r.run();
+            best = Math.min(best, (System.nanoTime() - t0) / 1e9);
+        }
+        return best;
+    }
+
+    private static void report(String label, double pixels, double seconds) {
+        System.out.printf("%-16s %10.1f Mpx/s%n", label, pixels / seconds / 1e6);
+    }
+}
@@ -0,0 +1,240 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Cloud Score+ masking in a median composite, as in the NDVI time-series and change-detection
+ * scripts: {@code filtered.linkCollection(csPlus, ['cs']).map(maskLowQA).median()}.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.CloudMaskBenchmark [scenes] [size]
+ * </pre>
+ *
+ * Scenes are synthetic six-band composites paired by {@code system:index} with a synthetic
+ * {@code cs} image that is rainy-season shaped: 60% of 256-pixel tiles fully clouded, 25%
+ * clear and the rest mixed. Compares masking after every band has been read (what an eager
+ * join does) with the linked collection and {@code updateMask}, which reads {@code cs} first
+ * and skips the spectral bands of clouded tiles, under two sinks: a per-scene reduction (the
+ * NDVI time-series chart) and a median composite. Reports time and spectral pixels read.
+ */
+public final class CloudMaskBenchmark {
+
+    private static final List<String> BANDS = List.of("B2", "B3", "B4", "B8", "B11", "B12");
+    private static final int ROUNDS = 3;
+
+    private CloudMaskBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 600_000, 9_900_000, 10, 10, size, size);
+        AtomicLong spectral = new AtomicLong();
+        List<Image> s2 = new ArrayList<>();
+        List<Image> csPlus = new ArrayList<>();
+        for (int s = 0; s < n; s++) {
+            s2.add(new Counted(new SyntheticImage(grid, BANDS, s, 0.0), spectral));
+            csPlus.add(new CloudScore(grid, s));
+        }
+        // Cloud Score+ comes in its own order.
+        Collections.reverse(csPlus);
+        ImageCollection filtered = new ImageCollection(s2);
+        ImageCollection scores = new ImageCollection(csPlus);
+        TileExecutor executor = TileExecutor.common();
+        List<Window> tiles = executor.tiles(grid, grid.bounds());
+        System.out.printf("%d scenes, %dx%d px, %d bands, parallelism %d%n", n, size, size, BANDS.size(),
+                executor.pool().getParallelism());
+
+        ImageCollection eager = filtered.linkCollection(scores, "cs")
+                .map(image -> new MaskAfterRead(image, image.bandIndex("cs")))
+                .select(BANDS.toArray(new String[0]));
+        ImageCollection fused = filtered.linkCollection(scores, "cs")
+                .map(image -> image.updateMask(image.select("cs").gte(0.5)))
+                .select(BANDS.toArray(new String[0]));
+        double[] a = run("series, mask after read", eager.toList(), tiles, executor, spectral);
+        double[] b = run("series, linked mask", fused.toList(), tiles, executor, spectral);
+        check(a, b);
+        a = run("median, mask after read", List.of(eager.median()), tiles, executor, spectral);
+        b = run("median, linked mask", List.of(fused.median()), tiles, executor, spectral);
+        check(a, b);
+    }
+
+    /** Reads every tile of every image and returns each image's sum of its fourth band (B8). */
+    private static double[] run(String label, List<Image> images, List<Window> tiles, TileExecutor executor,
+                                AtomicLong spectral) {
+        double best = Double.MAX_VALUE;
+        long read = 0;
+        double[] sums = null;
+        for (int round = 0; round <= ROUNDS; round++) {
+            spectral.set(0);
+            long t0 = System.nanoTime();
+            sums = executor.reduce(tiles, () -> new double[images.size()], w -> {
+                double[] s = new double[images.size()];
+                for (int k = 0; k < s.length; k++) {
+                    for (float v : images.get(k).read(w).band(3)) {
+                        if (!Float.isNaN(v)) {
+                            s[k] += v;
+                        }
+                    }
+                }
+                return s;
+            }, (x, y) -> {
+                for (int k = 0; k < x.length; k++) {
+                    x[k] += y[k];
+                }
+                return x;
+            });
+            if (round > 0) {
+                best = Math.min(best, (System.nanoTime() - t0) / 1e9);
+            }
+            read = spectral.get();
+        }
+        System.out.printf("%-26s %8.3f s  %8.1f M spectral px read%n", label, best, read / 1e6);
+        return sums;
+    }
+
+    private static void check(double[] expected, double[] actual) {
+        if (!Arrays.equals(expected, actual)) {
+            throw new AssertionError("Linked masking changed the result");
+        }
+    }
+
+    /** Counts the spectral pixels read from a scene. */
+    private static final class Counted extends Image {
+        private final Image source;
+        private final AtomicLong counter;
+
+        Counted(Image source, AtomicLong counter) {
+            this.source = source;
+            this.counter = counter;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return source.grid();
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return source.bandNames();
+        }
+
+        @Override
+        public Map<String, Object> properties() {
+            return source.properties();
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            counter.addAndGet((long) window.size() * bands.length);
+            return source.read(window, bands);
+        }
+    }
+
+    /** Cloud Score+ {@code cs} band with per-tile cloud regimes. */
+    private static final class CloudScore extends Image {
+        private final PixelGrid grid;
+        private final long seed;
+        private final Map<String, Object> properties;
+
+        CloudScore(PixelGrid grid, long seed) {
+            this.grid = grid;
+            this.seed = seed;
+            this.properties = Map.of("system:index", "synthetic_" + seed);
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return grid;
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return List.of("cs", "cs_cdf");
+        }
+
+        @Override
+        public Map<String, Object> properties() {
+            return properties;
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            float[][] out = new float[bands.length][window.size()];
+            for (int r = 0; r < window.height(); r++) {
+                int y = window.y() + r;
+                for (int c = 0; c < window.width(); c++) {
+                    int x = window.x() + c;
+                    long regime = SyntheticImage.mix(seed * 0x9E3779B97F4A7C15L + (y >> 8) * 4099L + (x >> 8)) & 1023;
+                    float cs;
+                    if (regime < 614) {
+                        cs = 0.1f;
+                    } else if (regime < 870) {
+                        cs = 0.9f;
+                    } else {
+                        cs = (SyntheticImage.mix(seed + y * 0xC2B2AE3D27D4EB4FL + x) & 1023) / 1024f;
+                    }
+                    for (int b = 0; b < bands.length; b++) {
+                        out[b][r * window.width() + c] = cs;
+                    }
+                }
+            }
+            return new Tile(window, out);
+        }
+    }
+
+    /** Reads every band, score included, then masks where the score is below 0.5. */
+    private static final class MaskAfterRead extends Image {
+        private final Image source;
+        private final int score;
+
+        MaskAfterRead(Image source, int score) {
+            this.source = source;
+            this.score = score;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return source.grid();
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return source.bandNames();
+        }
+
+        @Override
+        public Map<String, Object> properties() {
+            return source.properties();
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            Tile all = source.read(window);
+            float[] cs = all.band(score).clone();
+            float[][] out = new float[bands.length][];
+            for (int b = 0; b < bands.length; b++) {
+                out[b] = all.band(bands[b]);
+                for (int i = 0; i < cs.length; i++) {
+                    if (!(cs[i] >= 0.5f)) {
+                        out[b][i] = Float.NaN;
+                    }
+                }
+            }
+            return new Tile(window, out);
+        }
+    }
+}
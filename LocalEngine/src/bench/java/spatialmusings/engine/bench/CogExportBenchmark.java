@@ -0,0 +1,181 @@
+package spatialmusings.engine.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.io.CogWriter;
+import spatialmusings.engine.io.GeoTiffReader;
+import spatialmusings.engine.io.GeoTiffWriter;
+import spatialmusings.engine.io.TileCache;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Exporting a composite the way the clipping workflow does, as an uncompressed GeoTIFF with
+ * {@link GeoTiffWriter} against a compressed COG with overviews from {@link CogWriter}.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.CogExportBenchmark [size] [bands]
+ * </pre>
+ *
+ * Exports a {@code size}-pixel-square synthetic image with a fifth of its pixels masked.
+ * Reports time and file size per writer, and the COG with one thread against the whole pool.
+ * Reads the COG back and checks full resolution against the image and the first overview
+ * against a 2 x 2 mean of it. Then stops an export part-way, resumes it, and checks the result
+ * is byte-identical to an uninterrupted export and reports how many tiles were recomputed.
+ */
+public final class CogExportBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private CogExportBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int bandCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        List<String> names = List.of("B2", "B3", "B4", "B8", "B11", "B12").subList(0, bandCount);
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 600_000, 9_950_000, 10, 10, size, size);
+        Image image = new SyntheticImage(grid, names, 7, 0.2);
+        Window all = grid.bounds();
+        TileExecutor executor = TileExecutor.common();
+        TileExecutor single = new TileExecutor(new ForkJoinPool(1), executor.tileSize());
+        Path plain = Files.createTempFile("export", ".tif");
+        Path cog = Files.createTempFile("export-cog", ".tif");
+        Path resumed = Files.createTempFile("export-resumed", ".tif");
+        try {
+            System.out.printf("%dx%d px, %d bands, tile %d, parallelism %d%n", size, size, bandCount,
+                    executor.tileSize(), executor.pool().getParallelism());
+            double tPlain = Timing.best(ROUNDS, () -> run(() -> GeoTiffWriter.write(image, all, plain, executor)));
+            System.out.printf("%-26s %8.3f s  %5d MB%n", "GeoTiffWriter", tPlain, Files.size(plain) >> 20);
+            double tSingle = Timing.best(ROUNDS, () -> run(() -> CogWriter.write(image, all, cog, single)));
+            System.out.printf("%-26s %8.3f s  %5d MB%n", "CogWriter, 1 thread", tSingle, Files.size(cog) >> 20);
+            double tCog = Timing.best(ROUNDS, () -> run(() -> CogWriter.write(image, all, cog, executor)));
+            System.out.printf("%-26s %8.3f s  %5d MB  (%.1fx over 1 thread)%n", "CogWriter, pool", tCog,
+                    Files.size(cog) >> 20, tSingle / tCog);
+            check(image, cog);
+
+            AtomicInteger reads = new AtomicInteger();
+            int tiles = executor.tiles(grid, all).size();
+            Image failing = new Counting(image, reads, tiles / 2);
+            try {
+                CogWriter.write(failing, all, resumed, executor);
+                throw new AssertionError("Export did not stop");
+            } catch (IllegalStateException expected) {
+                // Stopped part-way, as a killed export would.
+            }
+            int before = reads.get();
+            reads.set(0);
+            CogWriter.write(new Counting(image, reads, Integer.MAX_VALUE), all, resumed, executor);
+            System.out.printf("%-26s %d of %d tiles read before stopping, %d after resuming%n", "resume",
+                    before, tiles, reads.get());
+            // An image of a single batch has no checkpoint to resume from and is computed again.
+            if (reads.get() > tiles || !Arrays.equals(Files.readAllBytes(cog), Files.readAllBytes(resumed))) {
+                throw new AssertionError("Resumed export differs from an uninterrupted one");
+            }
+        } finally {
+            single.pool().shutdown();
+            Files.deleteIfExists(plain);
+            Files.deleteIfExists(cog);
+            Files.deleteIfExists(resumed);
+        }
+    }
+
+    /** Full resolution must equal the image, the first overview the NaN-ignoring 2 x 2 mean. */
+    private static void check(Image image, Path cog) throws Exception {
+        PixelGrid grid = image.grid();
+        int bands = image.bandNames().size();
+        int[] all = new int[bands];
+        Arrays.setAll(all, b -> b);
+        try (GeoTiffReader reader = GeoTiffReader.open(cog, new TileCache(0))) {
+            System.out.println(reader);
+            Tile expected = image.read(grid.bounds());
+            float[][] full = new float[bands][grid.width() * grid.height()];
+            reader.read(0, grid.bounds(), all, full);
+            PixelGrid g1 = reader.grid(1);
+            float[][] half = new float[bands][g1.width() * g1.height()];
+            reader.read(1, g1.bounds(), all, half);
+            for (int b = 0; b < bands; b++) {
+                if (!Arrays.equals(expected.band(b), full[b])) {
+                    throw new AssertionError("Band " + b + " differs at full resolution");
+                }
+                for (int y = 0; y < g1.height(); y++) {
+                    for (int x = 0; x < g1.width(); x++) {
+                        double sum = 0;
+                        int n = 0;
+                        for (int dy = 0; dy < 2 && 2 * y + dy < grid.height(); dy++) {
+                            for (int dx = 0; dx < 2 && 2 * x + dx < grid.width(); dx++) {
+                                float v = full[b][(2 * y + dy) * grid.width() + 2 * x + dx];
+                                if (!Float.isNaN(v)) {
+                                    sum += v;
+                                    n++;
+                                }
+                            }
+                        }
+                        float mean = n == 0 ? Float.NaN : (float) (sum / n);
+                        if (Float.compare(mean, half[b][y * g1.width() + x]) != 0) {
+                            throw new AssertionError("Band " + b + " overview differs at " + x + "," + y);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private interface IoRun {
+        void run() throws Exception;
+    }
+
+    private static void run(IoRun run) {
+        try {
+            run.run();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Counts tile reads, failing once {@code limit} have been made. */
+    private static final class Counting extends Image {
+        private final Image source;
+        private final AtomicInteger reads;
+        private final int limit;
+
+        Counting(Image source, AtomicInteger reads, int limit) {
+            this.source = source;
+            this.reads = reads;
+            this.limit = limit;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return source.grid();
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return source.bandNames();
+        }
+
+        @Override
+        public Map<String, Object> properties() {
+            return source.properties();
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            if (reads.incrementAndGet() > limit) {
+                throw new IllegalStateException("Stopped after " + limit + " tiles");
+            }
+            return source.read(window, bands);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package spatialmusings.engine.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * Writes test cloud-optimized GeoTIFFs: one uint16 band of Sentinel-2-like reflectance, tiled,
+ * DEFLATE or LZW compressed with horizontal differencing, and nearest-neighbour overviews at
+ * 2x, 4x, ... as {@code gdaladdo} makes by default. Pixel values come from {@link #value}, so
+ * readers can be checked against it at every level. Tile data comes first and the IFD chain
+ * last; readers find IFDs through the header, so only the byte layout differs from GDAL's.
+ */
+final class CogFixture {
+
+    static final int DEFLATE = 8;
+    static final int LZW = 5;
+
+    private CogFixture() {
+    }
+
+    /** Reflectance at full-resolution pixel ({@code x}, {@code y}): smooth fields plus noise. */
+    static int value(int x, int y) {
+        long h = SyntheticImage.mix(x * 0x9E3779B97F4A7C15L + y);
+        return 400 + ((x / 37 + y / 53) * 97) % 2500 + (int) (h & 31);
+    }
+
+    /** Value of pixel ({@code x}, {@code y}) of overview {@code level} (0 is full resolution). */
+    static int value(int level, int x, int y) {
+        return value(x << level, y << level);
+    }
+
+    static void write(Path path, int size, int tile, int compression, int overviews) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long at = 8;
+            List<Map<Integer, long[]>> ifds = new ArrayList<>();
+            for (int level = 0; level <= overviews; level++) {
+                int w = (size + (1 << level) - 1) >> level;
+                int across = (w + tile - 1) / tile;
+                long[] offsets = new long[across * across];
+                long[] counts = new long[across * across];
+                Deflater deflater = new Deflater(6);
+                for (int ty = 0; ty < across; ty++) {
+                    for (int tx = 0; tx < across; tx++) {
+                        byte[] plain = tileBytes(level, w, tx * tile, ty * tile, tile);
+                        byte[] packed = compression == LZW ? lzw(plain) : deflate(deflater, plain);
+                        offsets[ty * across + tx] = at;
+                        counts[ty * across + tx] = packed.length;
+                        write(ch, ByteBuffer.wrap(packed), at);
+                        at += packed.length;
+                    }
+                }
+                deflater.end();
+                Map<Integer, long[]> ifd = new TreeMap<>();
+                ifd.put(254, new long[] {level == 0 ? 0 : 1});
+                ifd.put(256, new long[] {w});
+                ifd.put(257, new long[] {w});
+                ifd.put(258, new long[] {16});
+                ifd.put(259, new long[] {compression});
+                ifd.put(262, new long[] {1});
+                ifd.put(277, new long[] {1});
+                ifd.put(284, new long[] {1});
+                ifd.put(317, new long[] {2});
+                ifd.put(322, new long[] {tile});
+                ifd.put(323, new long[] {tile});
+                ifd.put(324, offsets);
+                ifd.put(325, counts);
+                ifd.put(339, new long[] {1});
+                if (level == 0) {
+                    // UTM 37S, 10 m pixels; the two model tags carry double bits, written as DOUBLEs.
+                    ifd.put(33550, new long[] {Double.doubleToLongBits(10), Double.doubleToLongBits(10), 0});
+                    ifd.put(33922, new long[] {0, 0, 0, Double.doubleToLongBits(600_000),
+                        Double.doubleToLongBits(9_950_000), 0});
+                    ifd.put(34735, new long[] {1, 1, 0, 3, 1024, 0, 1, 1, 1025, 0, 1, 1, 3072, 0, 1, 32737});
+                }
+                ifds.add(ifd);
+            }
+            at = (at + 1) & ~1L;
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt((int) at).flip();
+            write(ch, header, 0);
+            for (int i = 0; i < ifds.size(); i++) {
+                ByteBuffer ifd = encode(ifds.get(i), at, i + 1 < ifds.size());
+                write(ch, ifd, at);
+                at += ifd.capacity();
+            }
+        }
+    }
+
+    /** Row-major little-endian uint16 tile with horizontal differencing; padding repeats the edge. */
+    private static byte[] tileBytes(int level, int width, int x0, int y0, int tile) {
+        ByteBuffer b = ByteBuffer.allocate(tile * tile * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int r = 0; r < tile; r++) {
+            int prev = 0;
+            for (int c = 0; c < tile; c++) {
+                int x = Math.min(x0 + c, width - 1), y = Math.min(y0 + r, width - 1);
+                int v = value(level, x, y);
+                b.putShort((short) (v - prev));
+                prev = v;
+            }
+        }
+        return b.array();
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] plain) {
+        deflater.reset();
+        deflater.setInput(plain);
+        deflater.finish();
+        byte[] out = new byte[plain.length + 1024];
+        int n = 0;
+        while (!deflater.finished()) {
+            n += deflater.deflate(out, n, out.length - n);
+        }
+        byte[] packed = new byte[n];
+        System.arraycopy(out, 0, packed, 0, n);
+        return packed;
+    }
+
+    /** TIFF LZW encoder (MSB-first, early change, clear when the table is full). */
+    static byte[] lzw(byte[] plain) {
+        BitWriter out = new BitWriter(plain.length);
+        Map<Integer, Integer> table = new HashMap<>();
+        int next = 258;
+        int width = 9;
+        out.put(256, width);
+        int current = plain[0] & 0xFF;
+        for (int i = 1; i < plain.length; i++) {
+            int b = plain[i] & 0xFF;
+            Integer code = table.get((current << 8) | b);
+            if (code != null) {
+                current = code;
+                continue;
+            }
+            out.put(current, width);
+            table.put((current << 8) | b, next++);
+            if (next == 1 << width && width < 12) {
+                width++;
+            }
+            current = b;
+            if (next == 4094) {
+                out.put(256, width);
+                table.clear();
+                next = 258;
+                width = 9;
+            }
+        }
+        out.put(current, width);
+        out.put(257, width);
+        return out.toByteArray();
+    }
+
+    private static final class BitWriter {
+        private byte[] bytes;
+        private int size;
+        private long buffer;
+        private int bits;
+
+        BitWriter(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void put(int code, int width) {
+            buffer = (buffer << width) | code;
+            bits += width;
+            while (bits >= 8) {
+                if (size == bytes.length) {
+                    bytes = java.util.Arrays.copyOf(bytes, 2 * size);
+                }
+                bytes[size++] = (byte) (buffer >>> (bits - 8));
+                bits -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (bits > 0) {
+                put(0, 8 - bits);
+            }
+            return java.util.Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /** Classic little-endian IFD at {@code at}; tags 33550 and 33922 hold doubles, the rest LONGs. */
+    private static ByteBuffer encode(Map<Integer, long[]> tags, long at, boolean more) {
+        int entries = tags.size();
+        int fixed = 2 + 12 * entries + 4;
+        int extra = 0;
+        for (Map.Entry<Integer, long[]> e : tags.entrySet()) {
+            int bytes = e.getValue().length * (isDouble(e.getKey()) ? 8 : e.getKey() == 34735 ? 2 : 4);
+            if (bytes > 4) {
+                extra += bytes;
+            }
+        }
+        ByteBuffer b = ByteBuffer.allocate(fixed + extra).order(ByteOrder.LITTLE_ENDIAN);
+        b.putShort((short) entries);
+        int data = fixed;
+        for (Map.Entry<Integer, long[]> e : tags.entrySet()) {
+            int tag = e.getKey();
+            long[] v = e.getValue();
+            int type = isDouble(tag) ? 12 : tag == 34735 ? 3 : 4;
+            int size = type == 12 ? 8 : type == 3 ? 2 : 4;
+            b.putShort((short) tag).putShort((short) type).putInt(v.length);
+            int pos = v.length * size > 4 ? data : b.position();
+            if (v.length * size > 4) {
+                b.putInt((int) (at + data));
+                data += v.length * size;
+            } else {
+                b.putInt(0);
+            }
+            for (int i = 0; i < v.length; i++) {
+                if (type == 12) {
+                    b.putLong(pos + 8 * i, v[i]);
+                } else if (type == 3) {
+                    b.putShort(pos + 2 * i, (short) v[i]);
+                } else {
+                    b.putInt(pos + 4 * i, (int) v[i]);
+                }
+            }
+        }
+        b.putInt(more ? (int) (at + b.capacity()) : 0);
+        b.rewind();
+        return b;
+    }
+
+    private static boolean isDouble(int tag) {
+        return tag == 33550 || tag == 33922;
+    }
+
+    private static void write(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        long at = position;
+        while (buf.hasRemaining()) {
+            at += ch.write(buf, at);
+        }
+    }
+}
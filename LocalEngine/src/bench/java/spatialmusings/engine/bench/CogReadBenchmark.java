@@ -0,0 +1,107 @@
+package spatialmusings.engine.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import spatialmusings.engine.io.GeoTiffReader;
+import spatialmusings.engine.io.TileCache;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Windowed and scaled reads of a cloud-optimized GeoTIFF, as the NDVI and land-cover workflows
+ * make them against Sentinel-2 band files: a ward-sized window at full resolution, and whole
+ * scenes at {@code scale: 1000}.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.CogReadBenchmark [size] [ward]
+ * </pre>
+ *
+ * Writes a {@code size}-pixel-square uint16 band (10980 is a full S2 granule) tiled at 512 with
+ * five nearest-neighbour overviews, once DEFLATE and once LZW compressed. Reports a ward window
+ * against the whole band, the whole band at 1000 m from the matching overview against from
+ * full resolution, and DEFLATE against LZW decoding with one thread and with the pool. Every
+ * read is checked against the fixture's values.
+ */
+public final class CogReadBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private CogReadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10980;
+        int ward = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        Path deflate = Files.createTempFile("cog-deflate", ".tif");
+        Path lzw = Files.createTempFile("cog-lzw", ".tif");
+        try {
+            long t0 = System.nanoTime();
+            CogFixture.write(deflate, size, 512, CogFixture.DEFLATE, 5);
+            CogFixture.write(lzw, size, 512, CogFixture.LZW, 5);
+            System.out.printf("%dx%d px, fixtures written in %.1f s (DEFLATE %d MB, LZW %d MB), parallelism %d%n",
+                    size, size, (System.nanoTime() - t0) / 1e9, Files.size(deflate) >> 20, Files.size(lzw) >> 20,
+                    ForkJoinPool.commonPool().getParallelism());
+            // Without a tile cache, so every round decodes (TileCacheBenchmark measures the cache).
+            TileCache none = new TileCache(0);
+            try (GeoTiffReader d = GeoTiffReader.open(deflate, none);
+                 GeoTiffReader l = GeoTiffReader.open(lzw, none)) {
+                System.out.println(d);
+                Window all = new Window(0, 0, size, size);
+                Window window = new Window(size / 3, size / 3, ward, ward);
+                check(d, 0, window);
+                check(l, 0, window);
+
+                double full = Timing.best(ROUNDS, () -> read(d, 0, all));
+                double part = Timing.best(ROUNDS, () -> read(d, 0, window));
+                System.out.printf("%-28s %8.3f s%n", "whole band", full);
+                System.out.printf("%-28s %8.3f s  (%.0fx less)%n", "ward window " + ward + " px", part, full / part);
+
+                int level = d.level(1000);
+                PixelGrid coarse = d.grid(level);
+                Window overview = new Window(0, 0, coarse.width(), coarse.height());
+                check(d, level, overview);
+                double scaled = Timing.best(ROUNDS, () -> read(d, level, overview));
+                System.out.printf("%-28s %8.3f s  (level %d, %.0f m pixels, %.0fx less than full resolution)%n",
+                        "whole band at 1000 m", scaled, level, coarse.pixelWidth(), full / scaled);
+
+                check(l, 0, all);
+                double lzwFull = Timing.best(ROUNDS, () -> read(l, 0, all));
+                System.out.printf("%-28s %8.3f s  (%.0f Mpx/s, DEFLATE %.0f Mpx/s)%n", "whole band LZW", lzwFull,
+                        all.size() / lzwFull / 1e6, all.size() / full / 1e6);
+
+                ForkJoinPool single = new ForkJoinPool(1);
+                try {
+                    double one = Timing.best(ROUNDS, () -> single.submit(() -> read(d, 0, all)).join());
+                    System.out.printf("%-28s %8.3f s  (pool %.1fx faster)%n", "whole band, one thread", one,
+                            one / full);
+                } finally {
+                    single.shutdown();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(deflate);
+            Files.deleteIfExists(lzw);
+        }
+    }
+
+    private static float[] read(GeoTiffReader r, int level, Window w) {
+        float[] out = new float[w.size()];
+        r.readUnchecked(level, w, new int[] {0}, new float[][] {out});
+        return out;
+    }
+
+    private static void check(GeoTiffReader r, int level, Window w) {
+        float[] got = read(r, level, w);
+        for (int y = 0; y < w.height(); y++) {
+            for (int x = 0; x < w.width(); x++) {
+                int expected = CogFixture.value(level, w.x() + x, w.y() + y);
+                if (got[y * w.width() + x] != expected) {
+                    throw new AssertionError(r + " level " + level + " pixel (" + (w.x() + x) + ", " + (w.y() + y)
+                            + ") is " + got[y * w.width() + x] + ", expected " + expected);
+                }
+            }
+        }
+    }
+}
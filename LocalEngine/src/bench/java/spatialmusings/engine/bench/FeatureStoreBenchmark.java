@@ -0,0 +1,142 @@
+package spatialmusings.engine.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.index.FeatureStore;
+import spatialmusings.engine.io.ShapefileReader;
+
+/**
+ * Shapefile load cost, then build time and query latency of {@link FeatureStore} against a linear
+ * {@link FeatureCollection#filter} scan, on {@code counties_pop.shp} and on a synthetic
+ * ward-scale layer of 1450 polygons over Kenya.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.FeatureStoreBenchmark [counties_pop.shp]
+ * </pre>
+ *
+ * Each measurement is warmed up first and then timed over repeated rounds, JMH-style; the
+ * reported figure is the best round's mean time per operation.
+ */
+public final class FeatureStoreBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final long ROUND_NANOS = 200_000_000L;
+
+    /** Keeps results alive so the JIT cannot drop the measured work. */
+    private static volatile int sink;
+
+    private FeatureStoreBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path shp = Paths.get(args.length > 0 ? args[0] : "../data/shp/counties_pop.shp");
+        long t0 = System.nanoTime();
+        ShapefileReader reader = ShapefileReader.open(shp);
+        long t1 = System.nanoTime();
+        sink += reader.value(0, "COUNTY").hashCode();
+        long t2 = System.nanoTime();
+        int vertices = 0;
+        for (int i = 0; i < reader.size(); i++) {
+            vertices += reader.geometry(i).vertexCount();
+        }
+        long t3 = System.nanoTime();
+        System.out.printf("%s: %d records; open %.2f ms, first column %.2f ms, all %d vertices %.2f ms%n",
+                shp.getFileName(), reader.size(), (t1 - t0) / 1e6, (t2 - t1) / 1e6, vertices, (t3 - t2) / 1e6);
+        FeatureCollection counties = reader.features();
+        run("counties", counties, "COUNTY", "Kisii");
+        run("wards", syntheticWards(), "ward", "ward_0725");
+    }
+
+    private static void run(String label, FeatureCollection layer, String property, Object value) {
+        FeatureStore[] store = {null};
+        double build = time(() -> {
+            store[0] = new FeatureStore(layer);
+            store[0].indexAttribute(property);
+            return store[0].size();
+        });
+        FeatureStore s = store[0];
+        // A Kisii-sized window near Lake Victoria, in WGS84 like the boundary layers.
+        Geometry box = Geometry.rectangle(Crs.WGS84, new Envelope(34.6, -0.9, 34.9, -0.6));
+        Filter eq = Filter.eq(property, value);
+        Filter bounds = Filter.bounds(box);
+
+        System.out.printf("%n%s: %d features, build + %s index %.1f us%n", label, layer.size(), property, build / 1e3);
+        System.out.printf("%-28s %12s %12s %10s%n", "query", "scan ns/op", "store ns/op", "matches");
+        report("eq(" + property + ")", layer, s, eq);
+        report("bounds(box)", layer, s, bounds);
+        report("eq and bounds", layer, s, eq.and(bounds));
+        double envelope = time(() -> s.query(box.envelope()).size());
+        System.out.printf("%-28s %12s %12.0f %10d%n", "envelope probe", "-", envelope, s.query(box.envelope()).size());
+    }
+
+    private static void report(String label, FeatureCollection layer, FeatureStore store, Filter filter) {
+        double scan = time(() -> layer.filter(filter).size());
+        double indexed = time(() -> store.filter(filter).size());
+        int matches = store.filter(filter).size();
+        if (matches != layer.filter(filter).size()) {
+            throw new AssertionError(label + ": store and scan disagree");
+        }
+        System.out.printf("%-28s %12.0f %12.0f %10d%n", label, scan, indexed, matches);
+    }
+
+    /** Best-round mean nanoseconds per call. */
+    private static double time(Supplier<Integer> op) {
+        long warmEnd = System.nanoTime() + ROUND_NANOS;
+        while (System.nanoTime() < warmEnd) {
+            sink += op.get();
+        }
+        double best = Double.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            long ops = 0;
+            long now;
+            do {
+                sink += op.get();
+                ops++;
+                now = System.nanoTime();
+            } while (now - start < ROUND_NANOS);
+            best = Math.min(best, (double) (now - start) / ops);
+        }
+        return best;
+    }
+
+    /** 1450 irregular hexagons, the number of wards in Kenya, with ward and county attributes. */
+    private static FeatureCollection syntheticWards() {
+        int across = 29, down = 50;
+        double x0 = 34.0, y0 = -4.7, dx = 8.0 / across, dy = 10.0 / down;
+        List<Feature> wards = new ArrayList<>();
+        for (int j = 0; j < down; j++) {
+            for (int i = 0; i < across; i++) {
+                double cx = x0 + (i + 0.5) * dx, cy = y0 + (j + 0.5) * dy;
+                double[] ring = new double[14];
+                for (int k = 0; k < 6; k++) {
+                    double a = -k * Math.PI / 3;
+                    double r = 0.5 + 0.1 * ((i * 7 + j * 13 + k) % 3);
+                    ring[2 * k] = cx + r * dx * Math.cos(a);
+                    ring[2 * k + 1] = cy + r * dy * Math.sin(a);
+                }
+                ring[12] = ring[0];
+                ring[13] = ring[1];
+                Map<String, Object> props = new LinkedHashMap<>();
+                int id = j * across + i;
+                props.put("ward", String.format("ward_%04d", id));
+                props.put("county", "county_" + id / 31);
+                wards.add(new Feature(Geometry.polygon(Crs.WGS84, ring), props));
+            }
+        }
+        return new FeatureCollection(wards);
+    }
+}
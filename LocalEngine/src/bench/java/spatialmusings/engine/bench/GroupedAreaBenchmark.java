@@ -0,0 +1,121 @@
+package spatialmusings.engine.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.index.FeatureStore;
+import spatialmusings.engine.raster.CoverageMask;
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.MaskCache;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Stats;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Per-class area of a three-class land-cover map over a county, as 06.5-calculating_area.java
+ * computes it with {@code pixelArea().addBands(classified)} and {@code sum().group()}.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.GroupedAreaBenchmark [counties_pop.shp] [county] [scale]
+ * </pre>
+ *
+ * Compares a literal port (a materialized pixel-area plane per tile and a map of {@link Stats}
+ * per tile, merged pairwise) against {@link Image#reduceGroups}, and checks that both report the
+ * same pixel count per class and areas within rounding. The region mask cache is warmed first so
+ * both passes measure the reduction only.
+ */
+public final class GroupedAreaBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private GroupedAreaBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path shp = Paths.get(args.length > 0 ? args[0] : "../data/shp/counties_pop.shp");
+        String county = args.length > 1 ? args[1] : "Kisii";
+        double scale = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Geometry wgs = FeatureStore.load(shp).eq("COUNTY", county).get(0).geometry();
+        Envelope e = wgs.envelope();
+        Crs utm = Crs.utmFor((e.minX() + e.maxX()) / 2, (e.minY() + e.maxY()) / 2);
+        PixelGrid grid = PixelGrid.covering(utm, wgs.transform(utm).envelope(), scale);
+        Image reflectance = new SyntheticImage(grid, List.of("B8"), 1, 0.02);
+        Image classified = reflectance.gt(1000).add(reflectance.gt(1800));
+        TileExecutor executor = TileExecutor.common();
+        System.out.printf("%s at %.0f m: %dx%d px, %d threads%n", county, scale, grid.width(), grid.height(),
+                executor.pool().getParallelism());
+        classified.reduceGroups(0, wgs, executor);
+
+        Map<Integer, Stats> naive = null;
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i <= ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            naive = naive(classified, wgs.transform(utm), executor);
+            best = i == 0 ? best : Math.min(best, (System.nanoTime() - t0) / 1e9);
+        }
+        System.out.printf("%-24s %8.3f s%n", "area plane + Stats map", best);
+
+        GroupedStats grouped = null;
+        best = Double.MAX_VALUE;
+        for (int i = 0; i <= ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            grouped = classified.reduceGroups(0, wgs, executor);
+            best = i == 0 ? best : Math.min(best, (System.nanoTime() - t0) / 1e9);
+        }
+        System.out.printf("%-24s %8.3f s%n", "reduceGroups", best);
+
+        for (int c : grouped.groups()) {
+            Stats expected = naive.get(c);
+            double area = grouped.area(c);
+            if (expected == null || expected.count() != grouped.stats(c).count()
+                    || Math.abs(expected.sum() - area) > 1e-6 * area) {
+                throw new AssertionError("Class " + c + " differs: " + expected.sum() + " vs " + area);
+            }
+            System.out.printf("class %d: %12.0f px %12.4f km2%n", c, grouped.stats(c).count(), area / 1e6);
+        }
+        if (naive.size() != grouped.groups().length) {
+            throw new AssertionError("Class sets differ: " + naive.keySet() + " vs " + Arrays.toString(grouped.groups()));
+        }
+    }
+
+    /** Sum of a per-pixel area plane grouped by class, one hash map of accumulators per tile. */
+    private static Map<Integer, Stats> naive(Image classified, Geometry g, TileExecutor executor) {
+        PixelGrid grid = classified.grid();
+        Window region = grid.windowOf(g.envelope());
+        return executor.reduce(executor.tiles(grid, region), HashMap::new, w -> {
+            Map<Integer, Stats> partial = new HashMap<>();
+            CoverageMask mask = MaskCache.shared().get(g, grid, w);
+            if (mask.isEmpty()) {
+                return partial;
+            }
+            Tile t = classified.read(w, new int[] {0});
+            float[] area = new float[w.size()];
+            for (int r = 0; r < w.height(); r++) {
+                Arrays.fill(area, r * w.width(), (r + 1) * w.width(), (float) grid.pixelArea(w.y() + r));
+            }
+            float[] cls = t.band(0);
+            mask.forEachRun((r, from, to) -> {
+                for (int i = r * w.width() + from; i < r * w.width() + to; i++) {
+                    if (!Float.isNaN(cls[i])) {
+                        partial.computeIfAbsent((int) cls[i], k -> new Stats()).add(area[i]);
+                    }
+                }
+            });
+            return partial;
+        }, (a, b) -> {
+            b.forEach((k, v) -> a.merge(k, v, Stats::merge));
+            return a;
+        });
+    }
+}
@@ -0,0 +1,111 @@
+package spatialmusings.engine.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.ops.MedianImage;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Memory and throughput of the streaming median against the number of scenes.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.MedianBenchmark [size] [bands]
+ * </pre>
+ *
+ * For each scene count it reports the per-tile state (per band) the compositor holds, what
+ * holding every scene's tile would have cost, peak heap during the run, throughput in output
+ * pixels and scene-pixels per second, and for sketch runs the mean absolute error against the
+ * exact median of the same pixels.
+ */
+public final class MedianBenchmark {
+
+    private static final int[] SCENE_COUNTS = {4, 8, 16, 32, 64, 128, 256};
+
+    private MedianBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int bandCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        List<String> bands = new ArrayList<>();
+        for (int b = 0; b < bandCount; b++) {
+            bands.add("B" + (b + 2));
+        }
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 600_000, 9_900_000, 10, 10, size, size);
+        TileExecutor executor = TileExecutor.common();
+        List<Window> tiles = executor.tiles(grid, grid.bounds());
+        int tilePixels = executor.tileSize() * executor.tileSize();
+
+        System.out.printf("%dx%d px, %d bands, %d tiles, parallelism %d%n",
+                size, size, bandCount, tiles.size(), executor.pool().getParallelism());
+        System.out.printf("%7s %7s %14s %14s %12s %12s %16s %10s%n", "scenes", "mode", "state/tile MB",
+                "naive/tile MB", "peak heap MB", "Mpx/s", "scene-Mpx/s", "sketch MAE");
+        for (int n : SCENE_COUNTS) {
+            List<Image> scenes = new ArrayList<>();
+            for (int s = 0; s < n; s++) {
+                scenes.add(new SyntheticImage(grid, bands, s, 0.3));
+            }
+            MedianImage median = new MedianImage(scenes);
+            run(median, tiles, executor); // warm-up
+            resetPeakHeap();
+            long t0 = System.nanoTime();
+            run(median, tiles, executor);
+            double seconds = (System.nanoTime() - t0) / 1e9;
+            double mpx = (double) size * size / 1e6;
+            String mae = n > MedianImage.DEFAULT_EXACT_LIMIT
+                    ? String.format("%.2f", sketchError(scenes, tiles.get(0)))
+                    : "-";
+            System.out.printf("%7d %7s %14.2f %14.2f %12.1f %12.2f %16.2f %10s%n", n,
+                    n <= MedianImage.DEFAULT_EXACT_LIMIT ? "exact" : "sketch",
+                    MedianImage.stateBytes(tilePixels, n, MedianImage.DEFAULT_EXACT_LIMIT) * bandCount / 1e6,
+                    4.0 * tilePixels * n * bandCount / 1e6,
+                    peakHeap() / 1e6, mpx / seconds, mpx * n / seconds, mae);
+        }
+    }
+
+    private static void run(Image image, List<Window> tiles, TileExecutor executor) {
+        executor.forEach(tiles, image::read);
+    }
+
+    /** Mean absolute difference between the sketch and the exact median over one tile. */
+    private static double sketchError(List<Image> scenes, Window tile) {
+        Tile sketch = new MedianImage(scenes).read(tile, new int[] {0});
+        Tile exact = new MedianImage(scenes, Integer.MAX_VALUE).read(tile, new int[] {0});
+        double sum = 0;
+        int n = 0;
+        for (int i = 0; i < tile.size(); i++) {
+            float a = sketch.band(0)[i], b = exact.band(0)[i];
+            if (!Float.isNaN(a) && !Float.isNaN(b)) {
+                sum += Math.abs(a - b);
+                n++;
+            }
+        }
+        return n == 0 ? Double.NaN : sum / n;
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        return Arrays.stream(ManagementFactory.getMemoryPoolMXBeans().toArray(new MemoryPoolMXBean[0]))
+                .filter(p -> p.getType() == MemoryType.HEAP)
+                .mapToLong(p -> p.getPeakUsage().getUsed())
+                .sum();
+    }
+}
@@ -0,0 +1,212 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.geom.PreparedGeometry;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Vectorizing burn scars and change patches (Methods/07-change_detection_forest_fires.java,
+ * 07.2-change_detection_urban_change.java) with {@link Image#reduceToVectors}.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.PatchBenchmark [size] [tile]
+ * </pre>
+ *
+ * Builds a two-class change mask of blobs with holes, speckle and diagonal contacts on a
+ * {@code size}-pixel square 10 m grid, and labels it twice for each connectivity: by gathering
+ * the whole mask into one array and flood-filling it, and tile by tile with the stitched
+ * labelling of {@code reduceToVectors}. Checks that both find the same patches with the same
+ * pixel counts, that every polygon's area is its pixel count times the pixel area, and that the
+ * polygons of the largest patches contain exactly their pixels' centres.
+ */
+public final class PatchBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final int CHECKED = 50;
+
+    private PatchBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int tile = args.length > 1 ? Integer.parseInt(args[1]) : TileExecutor.DEFAULT_TILE_SIZE;
+        PixelGrid grid = new PixelGrid(Crs.utmFor(38.5, 0.5), 400_000, 60_000, 10, 10, size, size);
+        Image mask = new ChangeMask(grid);
+        Geometry region = Geometry.rectangle(grid.crs(), grid.envelope());
+        TileExecutor executor = new TileExecutor(TileExecutor.common().pool(), tile);
+        System.out.printf("%dx%d px change mask, %d-px tiles, %d threads%n", size, size, tile,
+                executor.pool().getParallelism());
+
+        for (boolean eight : new boolean[] {false, true}) {
+            int[][] flood = new int[1][];
+            double tFlood = Timing.best(ROUNDS, () -> flood[0] = floodFill(mask, executor, eight));
+            FeatureCollection[] tiled = new FeatureCollection[1];
+            double tTiled = Timing.best(ROUNDS,
+                    () -> tiled[0] = mask.reduceToVectors(Reducer.mean(), region, eight, executor));
+            String name = eight ? "8-connected" : "4-connected";
+            System.out.printf("%-28s %8.3f s  (%d B/px whole mask and labels)%n", name + ", flood fill", tFlood, 8);
+            System.out.printf("%-28s %8.3f s  (%.1fx, %d patches)%n", name + ", reduceToVectors", tTiled,
+                    tFlood / tTiled, tiled[0].size());
+            check(grid, flood[0], tiled[0].toList());
+        }
+    }
+
+    /** Labels of the whole mask, one per pixel (-1 for background), from a breadth-first flood fill. */
+    private static int[] floodFill(Image mask, TileExecutor executor, boolean eight) {
+        PixelGrid grid = mask.grid();
+        int w = grid.width(), h = grid.height();
+        float[] cls = new float[w * h];
+        executor.forEach(executor.tiles(grid, grid.bounds()), t -> {
+            float[] v = mask.read(t, new int[] {0}).band(0);
+            for (int r = 0; r < t.height(); r++) {
+                System.arraycopy(v, r * t.width(), cls, (t.y() + r) * w + t.x(), t.width());
+            }
+        });
+        int[] label = new int[w * h];
+        Arrays.fill(label, -1);
+        int[] queue = new int[w * h];
+        int next = 0;
+        for (int start = 0; start < cls.length; start++) {
+            if (label[start] >= 0 || Float.isNaN(cls[start])) {
+                continue;
+            }
+            float c = cls[start];
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            label[start] = next;
+            while (head < tail) {
+                int i = queue[head++];
+                int x = i % w, y = i / w;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = x + dx, ny = y + dy;
+                        if ((dx == 0 && dy == 0) || (!eight && dx != 0 && dy != 0)
+                                || nx < 0 || ny < 0 || nx >= w || ny >= h) {
+                            continue;
+                        }
+                        int j = ny * w + nx;
+                        if (label[j] < 0 && cls[j] == c) {
+                            label[j] = next;
+                            queue[tail++] = j;
+                        }
+                    }
+                }
+            }
+            next++;
+        }
+        return label;
+    }
+
+    private static void check(PixelGrid grid, int[] label, List<Feature> patches) {
+        int count = 0;
+        for (int l : label) {
+            count = Math.max(count, l + 1);
+        }
+        long[] expected = new long[count];
+        for (int l : label) {
+            if (l >= 0) {
+                expected[l]++;
+            }
+        }
+        long[] got = new long[patches.size()];
+        for (int i = 0; i < got.length; i++) {
+            Feature f = patches.get(i);
+            got[i] = ((Number) f.get("pixels")).longValue();
+            double area = f.geometry().area();
+            if (Math.abs(area - got[i] * 100.0) > 1e-6 * area) {
+                throw new AssertionError("Patch " + i + " of " + got[i] + " px has a polygon of " + area + " m2");
+            }
+        }
+        Arrays.sort(expected);
+        Arrays.sort(got);
+        if (!Arrays.equals(expected, got)) {
+            throw new AssertionError("Flood fill found " + expected.length + " patches, reduceToVectors "
+                    + got.length);
+        }
+        List<Feature> largest = new ArrayList<>(patches);
+        largest.sort(Collections.reverseOrder((a, b) -> Long.compare(
+                ((Number) a.get("pixels")).longValue(), ((Number) b.get("pixels")).longValue())));
+        for (Feature f : largest.subList(0, Math.min(CHECKED, largest.size()))) {
+            PreparedGeometry g = new PreparedGeometry(f.geometry());
+            Window box = grid.windowOf(g.envelope()).intersection(grid.bounds());
+            int owner = -2;
+            long inside = 0;
+            for (int y = box.y(); y < box.maxY(); y++) {
+                for (int x = box.x(); x < box.maxX(); x++) {
+                    if (!g.contains(grid.centerX(x), grid.centerY(y))) {
+                        continue;
+                    }
+                    int l = label[y * grid.width() + x];
+                    if (owner == -2) {
+                        owner = l;
+                    }
+                    if (l < 0 || l != owner) {
+                        throw new AssertionError("Polygon of " + f.properties() + " covers pixel " + x + "," + y
+                                + " of patch " + l + " as well as " + owner);
+                    }
+                    inside++;
+                }
+            }
+            if (inside != ((Number) f.get("pixels")).longValue()) {
+                throw new AssertionError("Polygon of " + f.properties() + " covers " + inside + " pixel centres");
+            }
+        }
+        System.out.printf("%-28s %d patches agree, %d largest polygons cover exactly their pixels%n", "",
+                got.length, Math.min(CHECKED, got.length));
+    }
+
+    /**
+     * Class 1 (burned) and 2 (severely burned) blobs, with holes, speckle and diagonal-only
+     * contacts, over a masked background; band 1 is a dNBR-like value.
+     */
+    private static final class ChangeMask extends Image {
+
+        private final PixelGrid grid;
+
+        ChangeMask(PixelGrid grid) {
+            this.grid = grid;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return grid;
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return List.of("class", "dnbr");
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            float[][] out = new float[bands.length][window.size()];
+            for (int r = 0; r < window.height(); r++) {
+                int y = window.y() + r;
+                for (int c = 0; c < window.width(); c++) {
+                    int x = window.x() + c;
+                    double noise = (SyntheticImage.mix(0x5EEDL * 31 + (long) y * 0x9E3779B9L + x) >>> 11) * 0x1.0p-53;
+                    double v = Math.sin(x * 0.021 + 1.3) * Math.sin(y * 0.017 + 0.4)
+                            + 0.6 * Math.sin((x + y) * 0.053) * Math.cos((x - y) * 0.011) + 0.5 * noise;
+                    float cls = v > 1.1 ? 2 : v > 0.55 ? 1 : Float.NaN;
+                    for (int b = 0; b < bands.length; b++) {
+                        out[b][r * window.width() + c] = bands[b] == 0 ? cls : Float.isNaN(cls) ? Float.NaN : (float) v;
+                    }
+                }
+            }
+            return new Tile(window, out);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.plan.Plan;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.TileExecutor;
+
+/**
+ * The outputs of the fire change-detection script (07) computed one {@code reduceRegion} at a
+ * time, as the script's chain is written, against one {@link Plan}.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.PlanBenchmark [scenes] [size]
+ * </pre>
+ *
+ * Before and after collections of synthetic six-band scenes; {@code addNBR} is a function the
+ * script calls wherever it needs NBR, so the before and after medians are rebuilt for the dNBR
+ * and burned-area outputs. Outputs are mean pre-fire NBR, mean post-fire NBR and mean dNBR over
+ * the county, and the burned fraction over the whole scene of an image clipped to the county.
+ * Reports time per approach and the planner's node counts, and checks both give the same values.
+ */
+public final class PlanBenchmark {
+
+    private static final List<String> BANDS = List.of("B2", "B3", "B4", "B8", "B11", "B12");
+    private static final int ROUNDS = 3;
+
+    private PlanBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int scenes = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 600_000, 9_950_000, 10, 10, size, size);
+        List<Image> b = new ArrayList<>(), a = new ArrayList<>();
+        for (int s = 0; s < scenes; s++) {
+            b.add(new SyntheticImage(grid, BANDS, s, 0.2));
+            a.add(new SyntheticImage(grid, BANDS, 100 + s, 0.2));
+        }
+        ImageCollection before = new ImageCollection(b), after = new ImageCollection(a);
+        double x0 = grid.originX() + size * 2.0, y1 = grid.originY() - size * 2.0;
+        Geometry county = Geometry.rectangle(grid.crs(), new Envelope(x0, y1 - size * 5.0, x0 + size * 5.0, y1));
+        Geometry scene = Geometry.rectangle(grid.crs(), grid.envelope());
+        TileExecutor executor = TileExecutor.common();
+        System.out.printf("%d + %d scenes, %dx%d px, parallelism %d%n", scenes, scenes, size, size,
+                executor.pool().getParallelism());
+
+        double[] separate = new double[4];
+        double tSeparate = Timing.best(ROUNDS, () -> {
+            separate[0] = addNBR(before, county).reduceRegion(Reducer.mean(), county, executor).get("nbr");
+            separate[1] = addNBR(after, county).reduceRegion(Reducer.mean(), county, executor).get("nbr");
+            separate[2] = dNBR(before, after, county).reduceRegion(Reducer.mean(), county, executor).get("nbr");
+            separate[3] = dNBR(before, after, county).gt(0.1).reduceRegion(Reducer.mean(), scene, executor).get("nbr");
+        });
+        System.out.printf("%-22s %8.3f s%n", "one reduceRegion each", tSeparate);
+
+        double[] planned = new double[4];
+        Plan[] plan = new Plan[1];
+        double tPlan = Timing.best(ROUNDS, () -> {
+            plan[0] = new Plan()
+                    .reduceRegion("preNBR", addNBR(before, county), Reducer.mean(), county)
+                    .reduceRegion("postNBR", addNBR(after, county), Reducer.mean(), county)
+                    .reduceRegion("dNBR", dNBR(before, after, county), Reducer.mean(), county)
+                    .reduceRegion("burned", dNBR(before, after, county).gt(0.1), Reducer.mean(), scene);
+            Map<String, Map<String, Double>> r = plan[0].evaluate(executor);
+            planned[0] = r.get("preNBR").get("nbr");
+            planned[1] = r.get("postNBR").get("nbr");
+            planned[2] = r.get("dNBR").get("nbr");
+            planned[3] = r.get("burned").get("nbr");
+        });
+        System.out.printf("%-22s %8.3f s  (%.1fx, %s)%n", "one plan", tPlan, tSeparate / tPlan, plan[0].planner());
+        for (int i = 0; i < 4; i++) {
+            if (Math.abs(separate[i] - planned[i]) > 1e-9 * Math.max(1, Math.abs(separate[i]))) {
+                throw new AssertionError("Output " + i + ": plan gave " + planned[i] + ", separate " + separate[i]);
+            }
+        }
+    }
+
+    /** The script's {@code addNBR}: a fresh chain on every call. */
+    private static Image addNBR(ImageCollection collection, Geometry region) {
+        return collection.median().clip(region).normalizedDifference("B8", "B12").rename("nbr");
+    }
+
+    private static Image dNBR(ImageCollection before, ImageCollection after, Geometry region) {
+        return addNBR(before, region).subtract(addNBR(after, region));
+    }
+}
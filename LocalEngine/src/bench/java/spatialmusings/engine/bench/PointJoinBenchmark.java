@@ -0,0 +1,147 @@
+package spatialmusings.engine.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.index.FeatureStore;
+import spatialmusings.engine.index.PointJoin;
+
+/**
+ * Labelling occurrence points with their county ("Label points based on the polygons they fall
+ * in"), at GBIF scale.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.PointJoinBenchmark [counties_pop.shp] [points]
+ * </pre>
+ *
+ * Draws {@code points} uniform points over the layer's envelope and labels them three ways:
+ * testing every county with {@link Geometry#contains}, as {@code over} without an index does;
+ * probing the R-tree and testing the candidates with {@link Geometry#contains}; and
+ * {@link PointJoin#locate}, which tests candidates against prepared edge strips. The first two
+ * run on a sample of the points and are extrapolated. Checks the labels agree, then streams
+ * the points through {@link PointJoin#join} as a kingfisher-style CSV and checks the
+ * per-county counts.
+ */
+public final class PointJoinBenchmark {
+
+    private static final int SCAN_SAMPLE = 20_000;
+    private static final int ROUNDS = 3;
+
+    private PointJoinBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path shp = Paths.get(args.length > 0 ? args[0] : "../data/shp/counties_pop.shp");
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        FeatureStore store = FeatureStore.load(shp);
+        FeatureCollection counties = store.collection();
+        List<Feature> list = counties.toList();
+        Geometry[] geometries = new Geometry[list.size()];
+        Envelope extent = Envelope.EMPTY;
+        for (int i = 0; i < geometries.length; i++) {
+            geometries[i] = list.get(i).geometry().transform(Crs.WGS84);
+            extent = extent.union(geometries[i].envelope());
+        }
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            long h = SyntheticImage.mix(0xB12DL + i);
+            xs[i] = extent.minX() + (h >>> 40) / (double) (1L << 24) * extent.width();
+            ys[i] = extent.minY() + ((h >>> 16) & 0xFFFFFF) / (double) (1L << 24) * extent.height();
+        }
+        System.out.printf("%d points over %d counties%n", n, geometries.length);
+
+        int sample = Math.min(n, SCAN_SAMPLE);
+        int[] scanned = new int[sample];
+        double tScan = Timing.best(ROUNDS, () -> {
+            for (int i = 0; i < sample; i++) {
+                scanned[i] = -1;
+                for (int c = 0; c < geometries.length; c++) {
+                    if (geometries[c].contains(xs[i], ys[i])) {
+                        scanned[i] = c;
+                        break;
+                    }
+                }
+            }
+        }) * n / sample;
+        System.out.printf("%-26s %8.3f s  (from %d points)%n", "scan every county", tScan, sample);
+
+        int[] probed = new int[sample];
+        double tProbe = Timing.best(ROUNDS, () -> {
+            for (int i = 0; i < sample; i++) {
+                probed[i] = -1;
+                for (Feature f : store.query(new Envelope(xs[i], ys[i], xs[i], ys[i]))) {
+                    if (f.geometry().contains(xs[i], ys[i])) {
+                        probed[i] = list.indexOf(f);
+                        break;
+                    }
+                }
+            }
+        }) * n / sample;
+        System.out.printf("%-26s %8.3f s  (%.1fx, from %d points)%n", "R-tree, then contains", tProbe,
+                tScan / tProbe, sample);
+
+        PointJoin join = new PointJoin(counties, Crs.WGS84);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int[][] located = new int[1][];
+        double tJoin = Timing.best(ROUNDS, () -> located[0] = join.locate(xs, ys, pool));
+        System.out.printf("%-26s %8.3f s  (%.1fx, x%d)%n", "PointJoin.locate", tJoin, tScan / tJoin,
+                pool.getParallelism());
+        for (int i = 0; i < sample; i++) {
+            if (located[0][i] != probed[i] || scanned[i] != probed[i]) {
+                throw new AssertionError("Point " + i + " labelled " + located[0][i] + ", " + probed[i] + ", "
+                        + scanned[i]);
+            }
+        }
+
+        Path csv = Files.createTempFile("points", ".csv");
+        Path labelled = Files.createTempFile("labelled", ".csv");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(csv)) {
+                out.write("vernacularName,longitudeDecimal,latitudeDecimal,individualCount\n");
+                for (int i = 0; i < n; i++) {
+                    out.write("\"Kingfisher, Striped\"," + xs[i] + "," + ys[i] + "," + (1 + i % 3) + "\n");
+                }
+            }
+            long[] expected = new long[geometries.length];
+            double[] expectedSum = new double[geometries.length];
+            for (int i = 0; i < n; i++) {
+                if (located[0][i] >= 0) {
+                    expected[located[0][i]]++;
+                    expectedSum[located[0][i]] += 1 + i % 3;
+                }
+            }
+            PointJoin.Counts[] counts = new PointJoin.Counts[1];
+            double tCsv = Timing.best(ROUNDS, () -> {
+                try {
+                    counts[0] = join.join(csv, "longitudeDecimal", "latitudeDecimal", "individualCount", labelled,
+                            "COUNTY", pool);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            System.out.printf("%-26s %8.3f s  (%.1f MB CSV, labelled copy written)%n", "PointJoin.join", tCsv,
+                    Files.size(csv) / 1e6);
+            for (int c = 0; c < geometries.length; c++) {
+                if (counts[0].points(c) != expected[c] || counts[0].sum(c) != expectedSum[c]) {
+                    throw new AssertionError("County " + c + ": " + counts[0].points(c) + " points vs " + expected[c]);
+                }
+            }
+            if (counts[0].total() != n) {
+                throw new AssertionError("Joined " + counts[0].total() + " of " + n + " points");
+            }
+        } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(labelled);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * A year of low-cloud scenes composited as in Methods/03-mosaics_composites.java, by
+ * {@code median()} and by a Cloud Score+ quality mosaic.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.QualityMosaicBenchmark [size] [scenes]
+ * </pre>
+ *
+ * Each scene has four Sentinel-2-like bands and a {@code cs} score that is low where the scene
+ * is cloudy; scenes are 2-30% cloudy, as {@code CLOUDY_PIXEL_PERCENTAGE < 30} leaves them.
+ * Reports the throughput of the median, of {@code qualityMosaic("cs")} (the best score per
+ * pixel, which must read every score) and of {@code qualityMosaic("cs", 0.6)} over the scenes
+ * sorted by cloud cover, with how many score planes and how many scenes' bands each tile read.
+ * Checks both mosaics against a per-pixel search of every scene.
+ */
+public final class QualityMosaicBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final double GOOD = 0.6;
+    private static final String CLOUDY = "CLOUDY_PIXEL_PERCENTAGE";
+
+    private QualityMosaicBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 250_000, 9_860_000, 10, 10, size, size);
+        List<String> bands = List.of("B2", "B3", "B4", "B8");
+        AtomicLong scoreReads = new AtomicLong();
+        AtomicLong bandReads = new AtomicLong();
+        List<Image> scenes = new ArrayList<>();
+        for (int s = 0; s < count; s++) {
+            double cloud = 0.02 + 0.28 * (SyntheticImage.mix(s + 77) >>> 11) * 0x1.0p-53;
+            Image reflectance = new Counted(new SyntheticImage(grid, bands, s, cloud), bandReads);
+            scenes.add(reflectance.addBands(new CloudScore(grid, s, cloud, scoreReads)).set(CLOUDY, 100 * cloud));
+        }
+        ImageCollection filtered = new ImageCollection(scenes);
+        TileExecutor executor = TileExecutor.common();
+        List<Window> tiles = executor.tiles(grid, grid.bounds());
+        int[] rgbn = {0, 1, 2, 3};
+        System.out.printf("%d scenes of %dx%d px, %d tiles, %d threads%n", count, size, size, tiles.size(),
+                executor.pool().getParallelism());
+
+        Image median = filtered.select("B.*").median();
+        Image best = filtered.qualityMosaic("cs");
+        Image good = filtered.sort(CLOUDY).qualityMosaic("cs", GOOD);
+        double mpx = (double) size * size / 1e6;
+        double tMedian = Timing.best(ROUNDS, () -> executor.forEach(tiles, w -> median.read(w, rgbn)));
+        System.out.printf("%-32s %8.3f s %8.2f Mpx/s%n", "median()", tMedian, mpx / tMedian);
+        for (Object[] run : new Object[][] {{"qualityMosaic(cs)", best}, {"qualityMosaic(cs, 0.6), sorted", good}}) {
+            Image mosaic = (Image) run[1];
+            double t = Timing.best(ROUNDS, () -> executor.forEach(tiles, w -> mosaic.read(w, rgbn)));
+            scoreReads.set(0);
+            bandReads.set(0);
+            executor.forEach(tiles, w -> mosaic.read(w, rgbn));
+            System.out.printf("%-32s %8.3f s %8.2f Mpx/s  (%.1fx, %.1f score / %.1f band reads per tile)%n",
+                    run[0], t, mpx / t, tMedian / t, scoreReads.get() / (double) tiles.size(),
+                    bandReads.get() / (double) tiles.size());
+        }
+
+        Window w = tiles.get(tiles.size() / 2);
+        check(best.read(w, rgbn), filtered.toList(), w, Double.POSITIVE_INFINITY);
+        check(good.read(w, rgbn), filtered.sort(CLOUDY).toList(), w, GOOD);
+        System.out.printf("%-32s both mosaics match a per-pixel search of tile %s%n", "", w);
+    }
+
+    /** Compares {@code got} with the scene a per-pixel scan of {@code scenes} picks. */
+    private static void check(Tile got, List<Image> scenes, Window w, double good) {
+        Tile[] tiles = new Tile[scenes.size()];
+        for (int k = 0; k < tiles.length; k++) {
+            tiles[k] = scenes.get(k).read(w);
+        }
+        for (int i = 0; i < w.size(); i++) {
+            int pick = -1;
+            float score = Float.NEGATIVE_INFINITY;
+            for (int k = 0; k < tiles.length; k++) {
+                float s = tiles[k].band(4)[i];
+                if (pick < 0 || s > score) {
+                    pick = k;
+                    score = s;
+                }
+                if (score >= good) {
+                    break;
+                }
+            }
+            for (int b = 0; b < 4; b++) {
+                float e = tiles[pick].band(b)[i], g = got.band(b)[i];
+                if (Float.compare(e, g) != 0) {
+                    throw new AssertionError("Pixel " + i + " band " + b + ": expected " + e + " from scene " + pick
+                            + ", got " + g);
+                }
+            }
+        }
+    }
+
+    /** Counts the reads of a scene's bands. */
+    private static final class Counted extends Image {
+
+        private final Image source;
+        private final AtomicLong reads;
+
+        Counted(Image source, AtomicLong reads) {
+            this.source = source;
+            this.reads = reads;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return source.grid();
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return source.bandNames();
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            reads.incrementAndGet();
+            return source.read(window, bands);
+        }
+    }
+
+    /**
+     * A Cloud Score+-like {@code cs} band for {@link SyntheticImage} scene {@code seed}: 0.6 to 1
+     * where the scene is clear, below 0.1 where its pixel is masked as cloud.
+     */
+    private static final class CloudScore extends Image {
+
+        private final PixelGrid grid;
+        private final long seed;
+        private final double cloudFraction;
+        private final AtomicLong reads;
+
+        CloudScore(PixelGrid grid, long seed, double cloudFraction, AtomicLong reads) {
+            this.grid = grid;
+            this.seed = seed;
+            this.cloudFraction = cloudFraction;
+            this.reads = reads;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return grid;
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return List.of("cs");
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            reads.incrementAndGet();
+            float[] cs = new float[window.size()];
+            for (int r = 0; r < window.height(); r++) {
+                int y = window.y() + r;
+                for (int c = 0; c < window.width(); c++) {
+                    int x = window.x() + c;
+                    // The same hash SyntheticImage masks its clouds with.
+                    long h = SyntheticImage.mix(seed * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL + x);
+                    boolean cloud = (h >>> 40) / (double) (1L << 24) < cloudFraction;
+                    double u = (h & 0xFFFF) / 65536.0;
+                    cs[r * window.width() + c] = (float) (cloud ? 0.1 * u : 0.6 + 0.4 * u);
+                }
+            }
+            float[][] out = new float[bands.length][];
+            for (int b = 0; b < bands.length; b++) {
+                out[b] = b == 0 ? cs : cs.clone();
+            }
+            return new Tile(window, out);
+        }
+    }
+}
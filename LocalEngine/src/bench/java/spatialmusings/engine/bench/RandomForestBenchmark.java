@@ -0,0 +1,228 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.classify.DecisionTree;
+import spatialmusings.engine.classify.RandomForest;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+
+/**
+ * Random-forest inference throughput in pixels per second for a 50-tree forest over the ten
+ * Sentinel-2 bands of the classification scripts ({@code smileRandomForest(50)} on
+ * {@code composite.select('B.*')}).
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.RandomForestBenchmark [tiles]
+ * </pre>
+ *
+ * Trees are random but shaped like ones grown on a few hundred ground-control points (depth up
+ * to 18, a few hundred nodes). Compares a linked node-object walk per pixel and tree (how
+ * smile evaluates), the per-pixel walk over {@link DecisionTree}'s arrays, and
+ * {@link RandomForest}'s level-by-level block evaluation, single-threaded on in-memory tiles;
+ * then {@code classify} over a synthetic composite on every core. Predictions are checked to
+ * agree.
+ */
+public final class RandomForestBenchmark {
+
+    private static final int TILE = 256;
+    private static final int BANDS = 10;
+    private static final int TREES = 50;
+    private static final int CLASSES = 4;
+    private static final int ROUNDS = 5;
+
+    private static volatile float sink;
+
+    private RandomForestBenchmark() {
+    }
+
+    /** A tree as linked objects. */
+    private static final class Node {
+        int feature = -1;
+        float threshold;
+        Node left;
+        Node right;
+        int leaf;
+    }
+
+    public static void main(String[] args) {
+        int tiles = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int n = TILE * TILE;
+        List<String> names = new ArrayList<>();
+        for (int b = 0; b < BANDS; b++) {
+            names.add("B" + (b + 2));
+        }
+        List<Node> roots = new ArrayList<>();
+        List<DecisionTree> trees = new ArrayList<>();
+        long seed = 42;
+        for (int t = 0; t < TREES; t++) {
+            Node root = grow(seed + t * 7919L, 0, 1L);
+            roots.add(root);
+            trees.add(flatten(root));
+        }
+        RandomForest forest = new RandomForest(names, new float[] {0, 1, 2, 3}, trees);
+        int maxDepth = 0;
+        for (DecisionTree t : trees) {
+            maxDepth = Math.max(maxDepth, t.maxDepth());
+        }
+        System.out.printf("%s, max depth %d; %d tiles of %dx%d%n", forest, maxDepth, tiles, TILE, TILE);
+
+        float[][][] data = new float[tiles][BANDS][n];
+        for (int t = 0; t < tiles; t++) {
+            for (int b = 0; b < BANDS; b++) {
+                for (int i = 0; i < n; i++) {
+                    long h = SyntheticImage.mix(t * 0x9E3779B97F4A7C15L + b * 0xC2B2AE3D27D4EB4FL + i);
+                    data[t][b][i] = (h & 1023) == 0 ? Float.NaN : 300 + (h >>> 52) % 3000;
+                }
+            }
+        }
+        float[][] expected = new float[tiles][n];
+        float[][] actual = new float[tiles][n];
+        float[] x = new float[BANDS];
+        report("node objects", tiles * (double) n, time(() -> {
+            for (int t = 0; t < tiles; t++) {
+                for (int i = 0; i < n; i++) {
+                    expected[t][i] = objects(roots, data[t], i, x);
+                }
+            }
+        }));
+        report("tree arrays", tiles * (double) n, time(() -> {
+            for (int t = 0; t < tiles; t++) {
+                for (int i = 0; i < n; i++) {
+                    actual[t][i] = perPixel(trees, data[t], i, x);
+                }
+            }
+        }));
+        check("tree arrays", expected, actual);
+        report("blocked forest", tiles * (double) n, time(() -> {
+            for (int t = 0; t < tiles; t++) {
+                forest.classify(data[t], 0, n, actual[t]);
+            }
+        }));
+        check("blocked forest", expected, actual);
+
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 600_000, 9_950_000, 10, 10, 4096, 4096);
+        Image classified = new SyntheticImage(grid, names, 3, 0.02).classify(forest);
+        TileExecutor executor = TileExecutor.common();
+        double seconds = time(() -> executor.forEach(executor.tiles(grid, grid.bounds()), w -> {
+            Tile tile = classified.read(w);
+            sink += tile.band(0)[0];
+        }));
+        report("classify() x" + executor.pool().getParallelism(), (double) grid.width() * grid.height(), seconds);
+    }
+
+    /** Random tree: splits on random bands at thresholds in the data range, leaves from depth 3. */
+    private static Node grow(long seed, int depth, long path) {
+        long h = SyntheticImage.mix(seed * 31 + path);
+        Node node = new Node();
+        if (depth >= 18 || (depth >= 3 && (h & 15) < 7)) {
+            node.leaf = (int) ((h >>> 8) % CLASSES);
+            return node;
+        }
+        node.feature = (int) ((h >>> 16) % BANDS);
+        node.threshold = 300 + (h >>> 40) % 3000;
+        node.left = grow(seed, depth + 1, path * 2);
+        node.right = grow(seed, depth + 1, path * 2 + 1);
+        return node;
+    }
+
+    private static DecisionTree flatten(Node root) {
+        List<Node> nodes = new ArrayList<>();
+        collect(root, nodes);
+        Map<Node, Integer> index = new IdentityHashMap<>();
+        for (Node nd : nodes) {
+            index.put(nd, index.size());
+        }
+        int k = nodes.size();
+        int[] feature = new int[k], left = new int[k], right = new int[k], leaf = new int[k];
+        float[] threshold = new float[k];
+        for (int i = 0; i < k; i++) {
+            Node nd = nodes.get(i);
+            feature[i] = nd.feature;
+            threshold[i] = nd.threshold;
+            left[i] = nd.left == null ? 0 : index.get(nd.left);
+            right[i] = nd.right == null ? 0 : index.get(nd.right);
+            leaf[i] = nd.feature < 0 ? nd.leaf : 0;
+        }
+        return new DecisionTree(feature, threshold, left, right, leaf);
+    }
+
+    private static void collect(Node n, List<Node> out) {
+        out.add(n);
+        if (n.feature >= 0) {
+            collect(n.left, out);
+            collect(n.right, out);
+        }
+    }
+
+    private static float objects(List<Node> roots, float[][] bands, int i, float[] x) {
+        for (int b = 0; b < BANDS; b++) {
+            x[b] = bands[b][i];
+            if (Float.isNaN(x[b])) {
+                return Float.NaN;
+            }
+        }
+        int[] votes = new int[CLASSES];
+        for (Node n : roots) {
+            while (n.feature >= 0) {
+                n = x[n.feature] <= n.threshold ? n.left : n.right;
+            }
+            votes[n.leaf]++;
+        }
+        return majority(votes);
+    }
+
+    private static float perPixel(List<DecisionTree> trees, float[][] bands, int i, float[] x) {
+        for (int b = 0; b < BANDS; b++) {
+            x[b] = bands[b][i];
+            if (Float.isNaN(x[b])) {
+                return Float.NaN;
+            }
+        }
+        int[] votes = new int[CLASSES];
+        for (DecisionTree t : trees) {
+            votes[t.predict(x)]++;
+        }
+        return majority(votes);
+    }
+
+    private static int majority(int[] votes) {
+        int best = 0;
+        for (int c = 1; c < votes.length; c++) {
+            if (votes[c] > votes[best]) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static void check(String label, float[][] expected, float[][] actual) {
+        for (int t = 0; t < expected.length; t++) {
+            if (!Arrays.equals(expected[t], actual[t])) {
+                throw new AssertionError(label + " differs from the node-object walk in tile " + t);
+            }
+        }
+    }
+
+    private static double time(Runnable r) {
+        r.run(); // warm-up
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            r.run();
+            best = Math.min(best, (System.nanoTime() - t0) / 1e9);
+        }
+        return best;
+    }
+
+    private static void report(String label, double pixels, double seconds) {
+        System.out.printf("%-16s %10.2f Mpx/s%n", label, pixels / seconds / 1e6);
+    }
+}
@@ -0,0 +1,118 @@
+package spatialmusings.engine.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.index.FeatureStore;
+import spatialmusings.engine.raster.CoverageMask;
+import spatialmusings.engine.raster.MaskCache;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Rasterizer;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Cost of turning a county boundary into per-tile clip masks, single-threaded.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.RasterizeBenchmark [counties_pop.shp] [county] [scale]
+ * </pre>
+ *
+ * Compares a point-in-polygon test per pixel centre (with whole tiles inside or outside the
+ * boundary short-circuited), the scanline rasterizer, the rasterizer with fractional coverage,
+ * and a second pass through a warm {@link MaskCache}, as a repeated clip of the same region sees it.
+ */
+public final class RasterizeBenchmark {
+
+    private static volatile long sink;
+
+    private RasterizeBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path shp = Paths.get(args.length > 0 ? args[0] : "../data/shp/counties_pop.shp");
+        String county = args.length > 1 ? args[1] : "Kisii";
+        double scale = args.length > 2 ? Double.parseDouble(args[2]) : 30;
+        Geometry wgs = FeatureStore.load(shp).eq("COUNTY", county).get(0).geometry();
+        Envelope e = wgs.envelope();
+        Geometry g = wgs.transform(Crs.utmFor((e.minX() + e.maxX()) / 2, (e.minY() + e.maxY()) / 2));
+        PixelGrid grid = PixelGrid.covering(g.crs(), g.envelope(), scale);
+        List<Window> tiles = grid.tiles(grid.bounds(), TileExecutor.DEFAULT_TILE_SIZE);
+        System.out.printf("%s at %.0f m: %d vertices, %dx%d px, %d tiles%n", county, scale,
+                g.vertexCount(), grid.width(), grid.height(), tiles.size());
+
+        report("point-in-polygon", grid, () -> {
+            long n = 0;
+            for (Window w : tiles) {
+                n += perPixel(g, grid, w);
+            }
+            return n;
+        });
+        report("scanline", grid, () -> {
+            long n = 0;
+            for (Window w : tiles) {
+                n += Rasterizer.rasterize(g, grid, w).count();
+            }
+            return n;
+        });
+        report("scanline+fraction", grid, () -> {
+            long n = 0;
+            for (Window w : tiles) {
+                n += Rasterizer.rasterize(g, grid, w, true).count();
+            }
+            return n;
+        });
+        MaskCache cache = new MaskCache(MaskCache.DEFAULT_BUDGET_BYTES);
+        for (Window w : tiles) {
+            cache.get(g, grid, w);
+        }
+        report("cached", grid, () -> {
+            long n = 0;
+            for (Window w : tiles) {
+                n += cache.get(g, grid, w).count();
+            }
+            return n;
+        });
+        System.out.println(cache);
+    }
+
+    /** What clip did before masks: contains() at every centre of tiles straddling the boundary. */
+    private static long perPixel(Geometry g, PixelGrid grid, Window w) {
+        Envelope env = grid.envelope(w);
+        if (!g.intersects(env)) {
+            return 0;
+        }
+        if (g.covers(env)) {
+            return w.size();
+        }
+        long n = 0;
+        for (int r = 0; r < w.height(); r++) {
+            double y = grid.centerY(w.y() + r);
+            for (int c = 0; c < w.width(); c++) {
+                if (g.contains(grid.centerX(w.x() + c), y)) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private interface Pass {
+        long run();
+    }
+
+    private static void report(String label, PixelGrid grid, Pass pass) {
+        sink += pass.run(); // warm-up
+        long t0 = System.nanoTime();
+        long inside = pass.run();
+        double ms = (System.nanoTime() - t0) / 1e6;
+        sink += inside;
+        System.out.printf("%-18s %10.1f ms %12d px inside  %8.1f Mpx/s%n", label, ms, inside,
+                (double) grid.width() * grid.height() / ms / 1e3);
+    }
+}
@@ -0,0 +1,302 @@
+package spatialmusings.engine.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.jobs.RegionJob;
+import spatialmusings.engine.jobs.RegionScheduler;
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Class areas per ward (06.5) for every ward of a layer: one {@code reduceGroups} per ward, as
+ * running the script once per edited county line does, against a {@link RegionScheduler}.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.RegionSchedulerBenchmark [size] [wards-across]
+ * </pre>
+ *
+ * A three-class synthetic map of {@code size} pixels square is cut into {@code wards-across}
+ * squared jittered quadrilateral wards, listed in shuffled order as a shapefile might hold them.
+ * Reports both approaches and checks every ward's class areas agree. It then stops a scheduled
+ * run part-way and checks the rerun only computes the rest. It then runs the job in this JVM
+ * and a second worker JVM on one work directory and checks their table matches. Last, it leaves
+ * an expired claim on every batch, as a dead worker would, lets several workers race to take
+ * them over, and checks that no ward was prepared by more than one of them.
+ */
+public final class RegionSchedulerBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final int TAKEOVER_ROUNDS = 5;
+    private static final int TAKEOVER_WORKERS = 4;
+
+    private RegionSchedulerBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("worker")) {
+            worker(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Path.of(args[3]));
+            return;
+        }
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int across = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+        Image classes = classes(size);
+        FeatureCollection wards = wards(classes.grid(), across);
+        TileExecutor executor = TileExecutor.common();
+        System.out.printf("%dx%d px, %d wards, parallelism %d%n", size, size, wards.size(),
+                executor.pool().getParallelism());
+
+        Map<String, String> loop = new LinkedHashMap<>();
+        double tLoop = Timing.best(ROUNDS, () -> {
+            for (Feature ward : wards) {
+                GroupedStats stats = classes.reduceGroups(0, ward.geometry(), executor);
+                loop.put(ward.get("ward").toString(), rows(stats));
+            }
+        });
+        System.out.printf("%-26s %8.3f s%n", "one reduction per ward", tLoop);
+
+        Path dir = Files.createTempDirectory("scheduler");
+        try {
+            RegionScheduler[] scheduler = new RegionScheduler[1];
+            Path[] results = new Path[1];
+            int[] round = {0};
+            // A fresh work directory each round, or every round after the first finds the job done.
+            double tScheduled = Timing.best(ROUNDS, () -> {
+                scheduler[0] = new RegionScheduler(wards, "ward", dir.resolve("run" + round[0]++), executor);
+                try {
+                    results[0] = scheduler[0].run(job(classes, executor, Integer.MAX_VALUE));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            System.out.printf("%-26s %8.3f s  (%.2fx, %d tiles)%n", "scheduled", tScheduled, tLoop / tScheduled,
+                    scheduler[0].tilesRun());
+            Map<String, String> scheduled = read(results[0]);
+            if (!scheduled.equals(loop)) {
+                throw new AssertionError("Scheduled class areas differ from the per-ward loop");
+            }
+
+            Path resumed = dir.resolve("resumed");
+            int stopAt = wards.size() / 2;
+            try {
+                new RegionScheduler(wards, "ward", resumed, executor).run(job(classes, executor, stopAt));
+                throw new AssertionError("Job did not stop");
+            } catch (IllegalStateException expected) {
+                // Stopped part-way, as a killed run would.
+            }
+            RegionScheduler rerun = new RegionScheduler(wards, "ward", resumed, executor);
+            if (!read(rerun.run(job(classes, executor, Integer.MAX_VALUE))).equals(loop)) {
+                throw new AssertionError("Resumed class areas differ");
+            }
+            System.out.printf("%-26s %d of %d wards recomputed after stopping%n", "resume", rerun.regionsRun(),
+                    wards.size());
+            if (rerun.regionsRun() >= wards.size()) {
+                throw new AssertionError("Rerun recomputed every ward");
+            }
+
+            Path shared = dir.resolve("shared");
+            Process child = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"), "-cp",
+                    System.getProperty("java.class.path"), RegionSchedulerBenchmark.class.getName(), "worker",
+                    String.valueOf(size), String.valueOf(across), shared.toString()).inheritIO().start();
+            RegionScheduler here = new RegionScheduler(wards, "ward", shared, executor);
+            long t2 = System.nanoTime();
+            Path table = here.run(job(classes, executor, Integer.MAX_VALUE));
+            if (child.waitFor() != 0) {
+                throw new AssertionError("Worker JVM failed");
+            }
+            System.out.printf("%-26s %8.3f s  (%d of %d wards run in this JVM)%n", "two worker JVMs",
+                    (System.nanoTime() - t2) / 1e9, here.regionsRun(), wards.size());
+            if (!read(table).equals(loop)) {
+                throw new AssertionError("Two-worker class areas differ");
+            }
+
+            int batches = (wards.size() + RegionScheduler.DEFAULT_BATCH - 1) / RegionScheduler.DEFAULT_BATCH;
+            for (int r = 0; r < TAKEOVER_ROUNDS; r++) {
+                Path taken = dir.resolve("takeover" + r);
+                Files.createDirectories(taken.resolve("claims"));
+                for (int b = 0; b < batches; b++) {
+                    Path claim = Files.writeString(taken.resolve("claims").resolve("b" + b), "dead-worker");
+                    Files.setLastModifiedTime(claim, FileTime.fromMillis(0));
+                }
+                Map<String, Set<Integer>> owners = new ConcurrentHashMap<>();
+                List<Thread> threads = new ArrayList<>();
+                List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+                for (int w = 0; w < TAKEOVER_WORKERS; w++) {
+                    int id = w;
+                    Thread t = new Thread(() -> {
+                        try {
+                            new RegionScheduler(wards, "ward", taken, executor)
+                                    .run(owned(job(classes, executor, Integer.MAX_VALUE), id, owners));
+                        } catch (Throwable e) {
+                            failures.add(e);
+                        }
+                    });
+                    threads.add(t);
+                    t.start();
+                }
+                for (Thread t : threads) {
+                    t.join();
+                }
+                if (!failures.isEmpty()) {
+                    throw new AssertionError("Takeover worker failed", failures.get(0));
+                }
+                for (Map.Entry<String, Set<Integer>> e : owners.entrySet()) {
+                    if (e.getValue().size() > 1) {
+                        throw new AssertionError("Ward " + e.getKey() + " run by workers " + e.getValue());
+                    }
+                }
+                if (owners.size() != wards.size() || !read(taken.resolve(RegionScheduler.RESULTS)).equals(loop)) {
+                    throw new AssertionError("Takeover run lost wards or differs");
+                }
+            }
+            System.out.printf("%-26s %d x %d expired claims taken over by %d workers, one owner per ward%n",
+                    "takeover", TAKEOVER_ROUNDS, batches, TAKEOVER_WORKERS);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /** {@code job}, recording in {@code owners} that worker {@code id} prepared each ward. */
+    private static <A> RegionJob<A> owned(RegionJob<A> job, int id, Map<String, Set<Integer>> owners) {
+        return new RegionJob<A>() {
+            @Override
+            public String header() {
+                return job.header();
+            }
+
+            @Override
+            public Region<A> prepare(Feature ward) throws IOException {
+                owners.computeIfAbsent(ward.get("ward").toString(), k -> ConcurrentHashMap.newKeySet()).add(id);
+                return job.prepare(ward);
+            }
+        };
+    }
+
+    /** The second JVM of the shared run: same map, same wards, same directory. */
+    private static void worker(int size, int across, Path dir) throws IOException {
+        Image classes = classes(size);
+        TileExecutor executor = TileExecutor.common();
+        new RegionScheduler(wards(classes.grid(), across), "ward", dir, executor)
+                .run(job(classes, executor, Integer.MAX_VALUE));
+    }
+
+    /** Classes 0 to 2 from thresholds on a synthetic band, a fifth of the pixels masked. */
+    private static Image classes(int size) {
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 600_000, 9_950_000, 10, 10, size, size);
+        Image band = new SyntheticImage(grid, List.of("B4"), 3, 0.2);
+        return band.gt(1000).add(band.gt(1800)).rename("classification");
+    }
+
+    private static FeatureCollection wards(PixelGrid grid, int across) {
+        Random random = new Random(42);
+        double cell = grid.width() * grid.pixelWidth() / across;
+        double[][] xs = new double[across + 1][across + 1], ys = new double[across + 1][across + 1];
+        for (int i = 0; i <= across; i++) {
+            for (int j = 0; j <= across; j++) {
+                boolean edge = i == 0 || j == 0 || i == across || j == across;
+                xs[i][j] = grid.originX() + j * cell + (edge ? 0 : (random.nextDouble() - 0.5) * cell * 0.4);
+                ys[i][j] = grid.originY() - i * cell + (edge ? 0 : (random.nextDouble() - 0.5) * cell * 0.4);
+            }
+        }
+        List<Feature> wards = new ArrayList<>();
+        for (int i = 0; i < across; i++) {
+            for (int j = 0; j < across; j++) {
+                Geometry g = Geometry.polygon(grid.crs(), new double[] {
+                        xs[i][j], ys[i][j], xs[i][j + 1], ys[i][j + 1], xs[i + 1][j + 1], ys[i + 1][j + 1],
+                        xs[i + 1][j], ys[i + 1][j], xs[i][j], ys[i][j]});
+                Map<String, Object> props = new LinkedHashMap<>();
+                props.put("ward", "W" + (i * across + j));
+                wards.add(new Feature(g, props));
+            }
+        }
+        Collections.shuffle(wards, random);
+        return new FeatureCollection(wards);
+    }
+
+    /** The class-area job, failing when it prepares ward number {@code stopAt}. */
+    private static RegionJob<GroupedStats> job(Image classes, TileExecutor executor, int stopAt) {
+        int[] prepared = {0};
+        return new RegionJob<GroupedStats>() {
+            @Override
+            public String header() {
+                return "rows";
+            }
+
+            @Override
+            public Region<GroupedStats> prepare(Feature ward) {
+                if (prepared[0]++ == stopAt) {
+                    throw new IllegalStateException("Stopped at ward " + stopAt);
+                }
+                PixelGrid grid = classes.grid();
+                Geometry g = ward.geometry().transform(grid.crs());
+                List<Window> tiles = executor.tiles(grid, grid.windowOf(g.envelope()));
+                return new Region<GroupedStats>() {
+                    @Override
+                    public List<Window> tiles() {
+                        return tiles;
+                    }
+
+                    @Override
+                    public GroupedStats identity() {
+                        return new GroupedStats();
+                    }
+
+                    @Override
+                    public void tile(GroupedStats partial, Window tile) {
+                        classes.reduceGroups(partial, 0, g, tile);
+                    }
+
+                    @Override
+                    public GroupedStats merge(GroupedStats left, GroupedStats right) {
+                        return left.merge(right);
+                    }
+
+                    @Override
+                    public List<String> finish(GroupedStats total) {
+                        return Collections.singletonList(rows(total));
+                    }
+                };
+            }
+        };
+    }
+
+    /** Class areas and pixel counts as one field; pixel areas are equal, so sums are exact. */
+    private static String rows(GroupedStats stats) {
+        StringBuilder out = new StringBuilder();
+        for (int c : stats.groups()) {
+            out.append(c).append(':').append(stats.area(c)).append(':').append(stats.stats(c).count()).append(' ');
+        }
+        return out.toString().trim();
+    }
+
+    private static Map<String, String> read(Path results) throws IOException {
+        Map<String, String> out = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(results);
+        for (String line : lines.subList(1, lines.size())) {
+            int comma = line.indexOf(',');
+            out.put(line.substring(0, comma), line.substring(comma + 1));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,156 @@
+package spatialmusings.engine.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.io.SceneCatalog;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * The filter chain every workflow starts with ({@code CLOUDY_PIXEL_PERCENTAGE < 30}, a year,
+ * bounds of Kisii county) over a continental Sentinel-2 archive, on a {@link SceneCatalog}
+ * against {@link ImageCollection#filter}.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.SceneCatalogBenchmark [scenes]
+ * </pre>
+ *
+ * Synthesizes {@code scenes} granule records: 110 km UTM tiles on a one-degree lattice over
+ * Africa, revisited evenly from 2017 to 2024, with random cloud cover. The collection baseline
+ * holds every scene in memory with its footprint already known, which a real archive only gets
+ * after opening every scene's headers, so it is a lower bound on the scan. Reports catalog
+ * build, open and query times, and checks both select the same scenes.
+ */
+public final class SceneCatalogBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final long START = Filter.parseTime("2017-01-01");
+    private static final long END = Filter.parseTime("2024-01-01");
+
+    private SceneCatalogBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int scenes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<double[]> tiles = new ArrayList<>();
+        for (int lat = -34; lat < 36; lat++) {
+            for (int lon = -17; lon < 51; lon++) {
+                tiles.add(new double[] {lon + 0.5, lat + 0.5});
+            }
+        }
+        int visits = (scenes + tiles.size() - 1) / tiles.size();
+        long period = (END - START) / visits;
+        List<String> bands = List.of("B2", "B3", "B4", "B8", "B11", "B12");
+        List<String> files = List.of("B2.tif", "B3.tif", "B4.tif", "B8.tif", "B11.tif", "B12.tif");
+        Path dir = Files.createTempDirectory("catalog");
+        Path file = dir.resolve(SceneCatalog.FILE_NAME);
+
+        long t0 = System.nanoTime();
+        List<Image> images = new ArrayList<>(scenes);
+        SceneCatalog.Builder builder = new SceneCatalog.Builder();
+        for (int i = 0; i < scenes; i++) {
+            int tile = i % tiles.size(), visit = i / tiles.size();
+            double[] c = tiles.get(tile);
+            Crs utm = Crs.utmFor(c[0], c[1]);
+            double[] xy = Crs.transform(Crs.WGS84, utm, c[0], c[1]);
+            Envelope footprint = new Envelope(xy[0] - 54_900, xy[1] - 54_900, xy[0] + 54_900, xy[1] + 54_900);
+            Map<String, Object> props = new LinkedHashMap<>();
+            String name = "T" + tile + "_" + visit;
+            props.put("system:index", name);
+            props.put(Filter.TIME_START, START + visit * period + tile * 1000L);
+            props.put("CLOUDY_PIXEL_PERCENTAGE", (SyntheticImage.mix(i) >>> 11) * 0x1.0p-53 * 100);
+            props.put("MGRS_TILE", "T" + tile);
+            builder.add(dir.resolve(name), bands, files, props, utm, footprint);
+            images.add(new Stub(new PixelGrid(utm, footprint.minX(), footprint.maxY(), 10, 10, 10_980, 10_980), props));
+        }
+        builder.write(file);
+        builder = null;
+        System.out.printf("%d scenes on %d tiles; catalog built in %.1f s, %d MB%n", scenes, tiles.size(),
+                (System.nanoTime() - t0) / 1e9, Files.size(file) >> 20);
+
+        Geometry kisii = Geometry.rectangle(Crs.WGS84, new Envelope(34.58, -0.97, 35.0, -0.55));
+        Filter lowCloud = Filter.lt("CLOUDY_PIXEL_PERCENTAGE", 30);
+        Filter year = Filter.date("2019-01-01", "2020-01-01");
+        Filter bounds = Filter.bounds(kisii);
+        ImageCollection all = new ImageCollection(images);
+        images = null;
+        List<Object> scanned = new ArrayList<>();
+        double tScan = Timing.best(ROUNDS, () -> {
+            scanned.clear();
+            for (Image image : all.filter(lowCloud).filter(year).filter(bounds)) {
+                scanned.add(image.get("system:index"));
+            }
+        });
+        System.out.printf("%-26s %10.3f ms  (%d scenes)%n", "collection filter", tScan * 1e3, scanned.size());
+
+        long t1 = System.nanoTime();
+        try (SceneCatalog catalog = SceneCatalog.open(file)) {
+            System.out.printf("%-26s %10.3f ms  (%s)%n", "catalog open", (System.nanoTime() - t1) / 1e6, catalog);
+            List<Object> probed = new ArrayList<>();
+            Filter chain = lowCloud.and(year).and(bounds);
+            double tProbe = Timing.best(ROUNDS, () -> {
+                probed.clear();
+                for (Image image : catalog.filter(chain, "B4", "B8")) {
+                    probed.add(image.get("system:index"));
+                }
+            });
+            System.out.printf("%-26s %10.3f ms  (%.0fx faster)%n", "catalog filter", tProbe * 1e3, tScan / tProbe);
+            List<Object> a = new ArrayList<>(scanned), b = new ArrayList<>(probed);
+            Collections.sort(a, (x, y) -> x.toString().compareTo(y.toString()));
+            Collections.sort(b, (x, y) -> x.toString().compareTo(y.toString()));
+            if (!a.equals(b)) {
+                throw new AssertionError("Catalog selected " + b + ", collection " + a);
+            }
+            double tTile = Timing.best(ROUNDS, () -> catalog.count(Filter.eq("MGRS_TILE", "T1234")));
+            System.out.printf("%-26s %10.3f ms  (%d scenes, column scan)%n", "catalog eq MGRS_TILE", tTile * 1e3,
+                    catalog.count(Filter.eq("MGRS_TILE", "T1234")));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /** Metadata-only scene: filters look at its properties and grid and never read it. */
+    private static final class Stub extends Image {
+        private final PixelGrid grid;
+        private final Map<String, Object> properties;
+
+        Stub(PixelGrid grid, Map<String, Object> properties) {
+            this.grid = grid;
+            this.properties = properties;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return grid;
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return List.of("B4");
+        }
+
+        @Override
+        public Map<String, Object> properties() {
+            return properties;
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            throw new UnsupportedOperationException("metadata only");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package spatialmusings.engine.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.series.SeriesStore;
+import spatialmusings.engine.series.TimeSeries;
+
+/**
+ * The weekly crop-monitoring pattern on a {@link SeriesStore}: about three and a half years of
+ * NDVI means at Sentinel-2's 5-day revisit over a set of sub-county regions, then one new scene
+ * appended.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.SeriesBenchmark [regions] [scenes] [size]
+ * </pre>
+ *
+ * Reports the cost of the first full run, of the incremental run after one new scene arrives
+ * (against recomputing everything), of reopening the store, and of serving one year for a
+ * handful of regions from it. Values served from the store are checked against a fresh
+ * reduction.
+ */
+public final class SeriesBenchmark {
+
+    private static final long DAY = 86_400_000L;
+
+    private SeriesBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int regionCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int dates = args.length > 1 ? Integer.parseInt(args[1]) : 260;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 600_000, 9_950_000, 10, 10, size, size);
+        Map<String, Geometry> regions = new LinkedHashMap<>();
+        int across = (int) Math.ceil(Math.sqrt(regionCount));
+        double cell = size * 10.0 / across;
+        for (int i = 0; i < regionCount; i++) {
+            double x = grid.originX() + (i % across) * cell, y = grid.originY() - (i / across + 1) * cell;
+            regions.put("region_" + i, Geometry.rectangle(grid.crs(), new Envelope(x, y, x + cell, y + cell)));
+        }
+        List<Image> scenes = new ArrayList<>();
+        for (int d = 0; d <= dates; d++) {
+            scenes.add(new SyntheticImage(grid, List.of("ndvi"), d, 0.3));
+        }
+        ImageCollection history = new ImageCollection(scenes.subList(0, dates));
+        ImageCollection latest = new ImageCollection(scenes);
+        TileExecutor executor = TileExecutor.common();
+        Path file = Files.createTempFile("series", ".smts");
+        Files.delete(file);
+        System.out.printf("%d regions, %d scenes 5 days apart, %dx%d px, parallelism %d%n", regionCount, dates, size,
+                size, executor.pool().getParallelism());
+        try {
+            long t0 = System.nanoTime();
+            try (SeriesStore store = SeriesStore.open(file)) {
+                int n = store.update(history, regions, Reducer.mean(), executor);
+                report("full history", t0, n + " reductions");
+            }
+            t0 = System.nanoTime();
+            try (SeriesStore store = SeriesStore.open(file)) {
+                report("reopen", t0, store.toString());
+                t0 = System.nanoTime();
+                int n = store.update(latest, regions, Reducer.mean(), executor);
+                report("append one date", t0, n + " reductions, " + Files.size(file) + " bytes");
+            }
+            t0 = System.nanoTime();
+            try (SeriesStore scratch = SeriesStore.open(Files.createTempFile("series", ".smts"))) {
+                scratch.update(latest, regions, Reducer.mean(), executor);
+                report("recompute everything", t0, "");
+                Files.delete(scratch.file());
+            }
+
+            try (SeriesStore store = SeriesStore.open(file)) {
+                List<String> some = new ArrayList<>(regions.keySet()).subList(0, Math.min(5, regionCount));
+                long start = ((Number) scenes.get(dates / 2).get("system:time_start")).longValue();
+                int queries = 10_000;
+                long sink = 0;
+                t0 = System.nanoTime();
+                for (int q = 0; q < queries; q++) {
+                    for (TimeSeries s : store.series(some, "ndvi", "mean", start, start + 365 * DAY).values()) {
+                        sink += s.size();
+                    }
+                }
+                System.out.printf("%-22s %10.1f us per query (%d regions x 1 year, %d values)%n", "query",
+                        (System.nanoTime() - t0) / 1e3 / queries, some.size(), sink / queries);
+                Image last = scenes.get(dates);
+                String region = some.get(some.size() - 1);
+                double expected = last.reduceRegion(Reducer.mean(), regions.get(region), executor).get("ndvi");
+                long time = ((Number) last.get("system:time_start")).longValue();
+                double cached = store.series(region, "ndvi", "mean", time, time + 1).value(0);
+                if (Double.compare(expected, cached) != 0) {
+                    throw new AssertionError("Cached " + cached + " differs from recomputed " + expected);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void report(String label, long t0, String detail) {
+        System.out.printf("%-22s %10.3f s  %s%n", label, (System.nanoTime() - t0) / 1e9, detail);
+    }
+}
@@ -0,0 +1,82 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Deterministic in-memory scene for benchmarks: Sentinel-2-like integer reflectances from a
+ * hash of (seed, band, pixel), with a fraction of pixels masked as cloud. Costs no I/O and no
+ * resident memory, so benchmarks measure the operator rather than the disk.
+ */
+final class SyntheticImage extends Image {
+
+    private final PixelGrid grid;
+    private final List<String> names;
+    private final long seed;
+    private final double cloudFraction;
+    private final Map<String, Object> properties;
+
+    SyntheticImage(PixelGrid grid, List<String> names, long seed, double cloudFraction) {
+        this.grid = grid;
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+        this.seed = seed;
+        this.cloudFraction = cloudFraction;
+        Map<String, Object> props = new LinkedHashMap<>();
+        props.put("system:index", "synthetic_" + seed);
+        props.put("system:time_start", 1_546_300_800_000L + seed * 86_400_000L * 5);
+        this.properties = Collections.unmodifiableMap(props);
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return grid;
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return names;
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return properties;
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        float[][] out = new float[bands.length][window.size()];
+        for (int r = 0; r < window.height(); r++) {
+            int y = window.y() + r;
+            for (int c = 0; c < window.width(); c++) {
+                int x = window.x() + c;
+                boolean outside = x < 0 || y < 0 || x >= grid.width() || y >= grid.height();
+                long h = mix(seed * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL + x);
+                boolean cloud = (h >>> 40) / (double) (1L << 24) < cloudFraction;
+                for (int b = 0; b < bands.length; b++) {
+                    float v;
+                    if (outside || cloud) {
+                        v = Float.NaN;
+                    } else {
+                        v = 300 + bands[b] * 150 + (int) (mix(h + bands[b]) >>> 52) % 2000;
+                    }
+                    out[b][r * window.width() + c] = v;
+                }
+            }
+        }
+        return new Tile(window, out);
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
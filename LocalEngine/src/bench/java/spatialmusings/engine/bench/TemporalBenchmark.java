@@ -0,0 +1,170 @@
+package spatialmusings.engine.bench;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.PixelStats;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+import spatialmusings.engine.series.Temporal;
+
+/**
+ * Summarising 60 years of monthly TerraClimate-like {@code tmmx} (Methods/05-monthly_temperature_nairobi.java).
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.TemporalBenchmark [size] [years]
+ * </pre>
+ *
+ * Builds a {@code years * 12} image stack on a {@code size}-pixel square grid and computes
+ * annual means, the 1961-1990 monthly climatology and monthly anomalies against it, twice: as
+ * the script would, reading every image through {@code multiply(0.1)} into a scaled stack per
+ * tile and reducing that, and with {@link Temporal}, which streams raw values into running
+ * accumulators and scales each result once. Checks the two agree and reports the time and the
+ * per-pixel state each needs.
+ */
+public final class TemporalBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final int TILE = 128;
+    private static final int FIRST_YEAR = 1958;
+    private static final int BASE_FROM = 1961;
+    private static final int BASE_TO = 1990;
+
+    private static volatile float sink;
+
+    private TemporalBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int years = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        PixelGrid grid = new PixelGrid(Crs.WGS84, 36.5, -1.0, 1 / 24.0, 1 / 24.0, size, size);
+        List<Image> images = new ArrayList<>();
+        for (int y = 0; y < years; y++) {
+            for (int m = 1; m <= 12; m++) {
+                long t = LocalDate.of(FIRST_YEAR + y, m, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                images.add(new SyntheticImage(grid, List.of("tmmx"), y * 12L + m, 0.02).set(Filter.TIME_START, t));
+            }
+        }
+        int n = images.size();
+        TileExecutor executor = new TileExecutor(TileExecutor.common().pool(), TILE);
+        List<Window> tiles = executor.tiles(grid, grid.bounds());
+        System.out.printf("%d monthly images of %dx%d px, %d tiles of %d px%n", n, size, size, tiles.size(), TILE);
+
+        List<Image> scaled = new ImageCollection(images)
+                .map(image -> image.multiply(0.1).copyProperties(image, Filter.TIME_START)).toList();
+        Temporal tmmx = Temporal.of(new ImageCollection(images)).scale(0.1);
+        Image annual = tmmx.annual(Reducer.mean());
+        Image climatology = tmmx.climatology(Reducer.mean(), BASE_FROM, BASE_TO);
+        Image anomalies = tmmx.anomalies(BASE_FROM, BASE_TO);
+
+        double tEagerAnnual = Timing.best(ROUNDS, () -> executor.forEach(tiles,
+                w -> sink += annual(stack(scaled, w), years)[0][0]));
+        double tAnnual = Timing.best(ROUNDS, () -> executor.forEach(tiles, w -> sink += annual.read(w).band(0)[0]));
+        System.out.printf("%-36s %8.3f s  (%d B/px scaled stack)%n", "annual, map(multiply(0.1)) then mean",
+                tEagerAnnual, 4 * n);
+        System.out.printf("%-36s %8.3f s  (%.1fx, %d B/px running state)%n", "annual, Temporal", tAnnual,
+                tEagerAnnual / tAnnual, PixelStats.bytesPerPixel(false));
+
+        double tEagerAnomalies = Timing.best(ROUNDS, () -> executor.forEach(tiles,
+                w -> sink += anomalies(stack(scaled, w), years)[1][0][0]));
+        double tAnomalies = Timing.best(ROUNDS,
+                () -> executor.forEach(tiles, w -> sink += anomalies.read(w).band(0)[0]));
+        System.out.printf("%-36s %8.3f s  (%d B/px scaled stack)%n", "anomalies, map(multiply(0.1)) then",
+                tEagerAnomalies, 4 * n);
+        System.out.printf("%-36s %8.3f s  (%.1fx, %d B/px running state)%n", "anomalies, Temporal", tAnomalies,
+                tEagerAnomalies / tAnomalies, 13 * PixelStats.bytesPerPixel(false));
+
+        double[] worst = {0};
+        executor.forEach(tiles, w -> {
+            float[][] stack = stack(scaled, w);
+            float[][][] normals = anomalies(stack, years);
+            float[][][] expected = {annual(stack, years), normals[0], normals[1]};
+            Tile[] got = {annual.read(w), climatology.read(w), anomalies.read(w)};
+            double err = 0;
+            for (int o = 0; o < got.length; o++) {
+                for (int b = 0; b < expected[o].length; b++) {
+                    float[] a = expected[o][b], g = got[o].band(b);
+                    for (int i = 0; i < a.length; i++) {
+                        if (Float.isNaN(a[i]) != Float.isNaN(g[i])) {
+                            throw new AssertionError("Masks differ in output " + o + ", band " + b + ", pixel " + i);
+                        }
+                        if (!Float.isNaN(a[i])) {
+                            err = Math.max(err, Math.abs(a[i] - g[i]));
+                        }
+                    }
+                }
+            }
+            synchronized (worst) {
+                worst[0] = Math.max(worst[0], err);
+            }
+        });
+        System.out.printf("%-34s %.2e largest difference%n", "", worst[0]);
+        if (worst[0] > 1e-3) {
+            throw new AssertionError("Temporal reducers differ from the scaled stack by " + worst[0]);
+        }
+    }
+
+    /** One tile of every image of {@code scaled}: the scaled intermediate collection. */
+    private static float[][] stack(List<Image> scaled, Window w) {
+        float[][] stack = new float[scaled.size()][];
+        for (int k = 0; k < stack.length; k++) {
+            stack[k] = scaled.get(k).read(w).band(0);
+        }
+        return stack;
+    }
+
+    private static float[][] annual(float[][] stack, int years) {
+        float[][] annual = new float[years][];
+        for (int y = 0; y < years; y++) {
+            annual[y] = mean(stack, y * 12, 1, 12);
+        }
+        return annual;
+    }
+
+    /** The baseline climatology and the anomalies against it. */
+    private static float[][][] anomalies(float[][] stack, int years) {
+        int from = BASE_FROM - FIRST_YEAR, count = Math.min(BASE_TO - FIRST_YEAR, years - 1) - from + 1;
+        float[][] normals = new float[12][];
+        for (int m = 0; m < 12; m++) {
+            normals[m] = mean(stack, from * 12 + m, 12, count);
+        }
+        float[][] anomalies = new float[stack.length][stack[0].length];
+        for (int k = 0; k < stack.length; k++) {
+            for (int i = 0; i < anomalies[k].length; i++) {
+                anomalies[k][i] = stack[k][i] - normals[k % 12][i];
+            }
+        }
+        return new float[][][] {normals, anomalies};
+    }
+
+    /** Per-pixel mean of {@code count} images from {@code first}, {@code stride} apart, skipping NaN. */
+    private static float[] mean(float[][] stack, int first, int stride, int count) {
+        int pixels = stack[0].length;
+        double[] sum = new double[pixels];
+        int[] seen = new int[pixels];
+        for (int j = 0; j < count; j++) {
+            float[] v = stack[first + j * stride];
+            for (int i = 0; i < pixels; i++) {
+                if (!Float.isNaN(v[i])) {
+                    sum[i] += v[i];
+                    seen[i]++;
+                }
+            }
+        }
+        float[] out = new float[pixels];
+        for (int i = 0; i < pixels; i++) {
+            out[i] = seen[i] == 0 ? Float.NaN : (float) (sum[i] / seen[i]);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,123 @@
+package spatialmusings.engine.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import spatialmusings.engine.io.GeoTiffReader;
+import spatialmusings.engine.io.TileCache;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * The read pattern of the fire change-detection script (07) against a {@link TileCache}: the
+ * before and after composites, NBR of each, then the burned-area sum, every step pulling the
+ * same B8 and B12 tiles of one county again.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.TileCacheBenchmark [size] [budgetMB]
+ * </pre>
+ *
+ * Writes four {@code size}-pixel-square band files (before and after, B8 and B12) tiled at 512,
+ * and reads a county-sized window of them in 256-pixel tiles, as the engine's sinks do, once
+ * with caching disabled and once with a cache of {@code budgetMB}. Then checks scan resistance:
+ * a hot window is read, every band is scanned once in full through a cache smaller than the
+ * scan, and the hot window is read again.
+ */
+public final class TileCacheBenchmark {
+
+    private TileCacheBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        long budget = (args.length > 1 ? Long.parseLong(args[1]) : 256) << 20;
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                Path file = Files.createTempFile("tilecache", ".tif");
+                CogFixture.write(file, size, 512, CogFixture.DEFLATE, 0);
+                files.add(file);
+            }
+            TileExecutor executor = TileExecutor.common();
+            Window county = new Window(size / 8, size / 8, size * 3 / 4, size * 3 / 4);
+            System.out.printf("4 bands of %dx%d px, county %dx%d px, parallelism %d%n", size, size, county.width(),
+                    county.height(), executor.pool().getParallelism());
+
+            double[] sinks = new double[2];
+            for (int run = 0; run < 2; run++) {
+                TileCache cache = new TileCache(run == 0 ? 0 : budget);
+                List<GeoTiffReader> readers = open(files, cache);
+                try {
+                    long t0 = System.nanoTime();
+                    double sink = 0;
+                    sink += pass(readers, List.of(0, 1), county, executor); // before composite
+                    sink += pass(readers, List.of(2, 3), county, executor); // after composite
+                    sink += pass(readers, List.of(0, 1), county, executor); // NBR before
+                    sink += pass(readers, List.of(2, 3), county, executor); // NBR after
+                    sink += pass(readers, List.of(0, 1, 2, 3), county, executor); // burned area
+                    sinks[run] = sink;
+                    System.out.printf("%-18s %8.3f s  %s%n", run == 0 ? "no cache" : (budget >> 20) + " MB cache",
+                            (System.nanoTime() - t0) / 1e9, cache);
+                } finally {
+                    close(readers);
+                }
+            }
+            if (sinks[0] != sinks[1]) {
+                throw new AssertionError("Cached reads differ: " + sinks[1] + " vs " + sinks[0]);
+            }
+
+            // Hot window of 16 MB, then a one-off 4 x size^2 x 4-byte scan through a 64 MB cache.
+            TileCache cache = new TileCache(64L << 20);
+            List<GeoTiffReader> readers = open(files, cache);
+            try {
+                Window hot = new Window(0, 0, 2048, 2048);
+                for (int i = 0; i < 3; i++) {
+                    pass(readers, List.of(0), hot, executor);
+                }
+                pass(readers, List.of(0, 1, 2, 3), new Window(0, 0, size, size), executor);
+                long hits = cache.hits(), misses = cache.misses();
+                pass(readers, List.of(0), hot, executor);
+                System.out.printf("hot window after a %d MB scan through a 64 MB cache: %.0f%% hits  %s%n",
+                        4L * size * size * 4 >> 20,
+                        100.0 * (cache.hits() - hits) / (cache.hits() - hits + cache.misses() - misses), cache);
+            } finally {
+                close(readers);
+            }
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static double pass(List<GeoTiffReader> readers, List<Integer> bands, Window region,
+                               TileExecutor executor) {
+        return executor.reduce(executor.tiles(readers.get(0).grid(), region), () -> 0.0, w -> {
+            float[] buf = new float[w.size()];
+            double sum = 0;
+            for (int b : bands) {
+                readers.get(b).readUnchecked(w, new int[] {0}, new float[][] {buf});
+                for (float v : buf) {
+                    sum += v;
+                }
+            }
+            return sum;
+        }, Double::sum);
+    }
+
+    private static List<GeoTiffReader> open(List<Path> files, TileCache cache) throws Exception {
+        List<GeoTiffReader> readers = new ArrayList<>();
+        for (Path file : files) {
+            readers.add(GeoTiffReader.open(file, cache));
+        }
+        return readers;
+    }
+
+    private static void close(List<GeoTiffReader> readers) throws Exception {
+        for (GeoTiffReader r : readers) {
+            r.close();
+        }
+    }
+}
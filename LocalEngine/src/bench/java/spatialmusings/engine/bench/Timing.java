@@ -0,0 +1,20 @@
+package spatialmusings.engine.bench;
+
+/** Wall-clock timing shared by the benchmarks. */
+final class Timing {
+
+    private Timing() {
+    }
+
+    /** Fastest of {@code rounds} timed runs of {@code run} in seconds, after one untimed warm-up run. */
+    static double best(int rounds, Runnable run) {
+        run.run();
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long t0 = System.nanoTime();
+            run.run();
+            best = Math.min(best, (System.nanoTime() - t0) / 1e9);
+        }
+        return best;
+    }
+}
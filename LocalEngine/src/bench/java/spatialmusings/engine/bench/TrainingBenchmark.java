@@ -0,0 +1,183 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.classify.RandomForest;
+import spatialmusings.engine.classify.RandomForestTrainer;
+import spatialmusings.engine.classify.Samples;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Cost of the two training steps of the classification scripts:
+ * {@code composite.sampleRegions(gcps, ['class'])} and
+ * {@code smileRandomForest(50).train(samples, 'class', bands)}.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.TrainingBenchmark [points] [samples]
+ * </pre>
+ *
+ * Sampling draws labelled points over a 13-band synthetic composite whose reads, like a
+ * GeoTIFF's, decode every 256-pixel block they touch, and compares reading a 1-pixel window
+ * per point with {@code sampleRegions}. Training grows 50 trees on synthetic 13-band samples
+ * whose class depends on a few bands plus label noise, and reports the accuracy on held-out
+ * samples next to the time.
+ */
+public final class TrainingBenchmark {
+
+    private static final int BANDS = 13;
+    private static final int CLASSES = 5;
+    private static final int BLOCK = 256;
+    private static final int ROUNDS = 3;
+
+    private static volatile float sink;
+
+    private TrainingBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        List<String> names = new ArrayList<>();
+        for (int b = 1; b <= BANDS; b++) {
+            names.add("B" + b);
+        }
+
+        PixelGrid grid = new PixelGrid(Crs.epsg(32737), 600_000, 9_950_000, 10, 10, 4096, 4096);
+        Image composite = new BlockImage(new SyntheticImage(grid, names, 7, 0.02));
+        List<Feature> gcps = new ArrayList<>();
+        for (int i = 0; i < points; i++) {
+            long h = SyntheticImage.mix(0xC0FFEEL + i);
+            double x = grid.originX() + ((h >>> 40) % (grid.width() * 10L)) / 10.0 * grid.pixelWidth();
+            double y = grid.originY() - ((h >>> 8) % (grid.height() * 10L)) / 10.0 * grid.pixelHeight();
+            Map<String, Object> props = new LinkedHashMap<>();
+            props.put("class", (int) (h & 3));
+            gcps.add(new Feature(Geometry.point(grid.crs(), x, y), props));
+        }
+        FeatureCollection collection = new FeatureCollection(gcps);
+        System.out.printf("%d points over %dx%d px, %d bands%n", points, grid.width(), grid.height(), BANDS);
+        double perPoint = time(() -> {
+            for (Feature f : collection) {
+                Geometry g = f.geometry();
+                int col = (int) Math.floor(grid.col(g.envelope().minX()));
+                int row = (int) Math.floor(grid.row(g.envelope().maxY()));
+                sink += composite.read(new Window(col, row, 1, 1)).band(0)[0];
+            }
+        });
+        System.out.printf("%-22s %8.3f s%n", "read per point", perPoint);
+        TileExecutor single = new TileExecutor(new ForkJoinPool(1), TileExecutor.DEFAULT_TILE_SIZE);
+        Samples[] sampled = new Samples[1];
+        double batched = time(() -> sampled[0] = composite.sampleRegions(collection, List.of("class"), single));
+        System.out.printf("%-22s %8.3f s  (%s)%n", "sampleRegions x1", batched, sampled[0]);
+        TileExecutor common = TileExecutor.common();
+        System.out.printf("%-22s %8.3f s%n", "sampleRegions x" + common.pool().getParallelism(),
+                time(() -> sampled[0] = composite.sampleRegions(collection, List.of("class"), common)));
+
+        Samples train = samples(n, 1);
+        Samples test = samples(n / 5, 2);
+        RandomForestTrainer trainer = RandomForestTrainer.smileRandomForest(50).seed(42);
+        RandomForest[] forest = new RandomForest[1];
+        double seconds = time(() -> forest[0] = trainer.train(train, "class", names));
+        int correct = 0;
+        float[] x = new float[BANDS];
+        for (int i = 0; i < test.size(); i++) {
+            for (int b = 0; b < BANDS; b++) {
+                x[b] = test.get(i, names.get(b));
+            }
+            if (forest[0].classify(x) == test.get(i, "class")) {
+                correct++;
+            }
+        }
+        System.out.printf("%-22s %8.3f s  (%d x %d, x%d) %s, held-out accuracy %.3f%n", "train", seconds,
+                n, BANDS, ForkJoinPool.commonPool().getParallelism(), forest[0], correct / (double) test.size());
+    }
+
+    /**
+     * Reflectance-like samples whose class is set by thresholds on bands 3, 4 and 8 (NDVI-like
+     * and brightness), with 10% of labels replaced at random.
+     */
+    private static Samples samples(int n, long seed) {
+        List<String> names = new ArrayList<>();
+        for (int b = 1; b <= BANDS; b++) {
+            names.add("B" + b);
+        }
+        names.add("class");
+        Samples.Builder out = new Samples.Builder(names);
+        float[] row = new float[BANDS + 1];
+        for (int i = 0; i < n; i++) {
+            for (int b = 0; b < BANDS; b++) {
+                long h = SyntheticImage.mix(seed * 0x9E3779B97F4A7C15L + i * 31L + b);
+                row[b] = 300 + (h >>> 40) % 3000;
+            }
+            float red = row[3], nir = row[7], blue = row[1];
+            double ndvi = (nir - red) / (nir + red);
+            int c = ndvi > 0.3 ? (nir > 2000 ? 0 : 1) : ndvi > -0.2 ? (blue > 1800 ? 2 : 3) : 4;
+            long h = SyntheticImage.mix(seed + i * 0xD1B54A32D192ED03L);
+            if ((h & 1023) < 102) {
+                c = (int) ((h >>> 20) % CLASSES);
+            }
+            row[BANDS] = c;
+            out.add(row);
+        }
+        return out.build();
+    }
+
+    /** Reads whole 256-pixel blocks and crops them, as a tiled GeoTIFF without a cache does. */
+    private static final class BlockImage extends Image {
+
+        private final Image source;
+
+        BlockImage(Image source) {
+            this.source = source;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return source.grid();
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return source.bandNames();
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            int x0 = Math.floorDiv(window.x(), BLOCK) * BLOCK, y0 = Math.floorDiv(window.y(), BLOCK) * BLOCK;
+            int x1 = Math.floorDiv(window.maxX() + BLOCK - 1, BLOCK) * BLOCK;
+            int y1 = Math.floorDiv(window.maxY() + BLOCK - 1, BLOCK) * BLOCK;
+            Window blocks = new Window(x0, y0, x1 - x0, y1 - y0);
+            Tile t = source.read(blocks, bands);
+            float[][] out = new float[bands.length][window.size()];
+            for (int b = 0; b < bands.length; b++) {
+                for (int r = 0; r < window.height(); r++) {
+                    System.arraycopy(t.band(b), (window.y() - y0 + r) * blocks.width() + window.x() - x0,
+                            out[b], r * window.width(), window.width());
+                }
+            }
+            return new Tile(window, out);
+        }
+    }
+
+    private static double time(Runnable r) {
+        r.run(); // warm-up
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            r.run();
+            best = Math.min(best, (System.nanoTime() - t0) / 1e9);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,178 @@
+package spatialmusings.engine.bench;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Resampling;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.WarpGrid;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Reprojecting rasters onto a WorldPop-style base grid, as {@code match_raster_to_base} and
+ * {@code upsample_raster} in Engineering/extracting_zonalstatistics_xarray.py do.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.WarpBenchmark [size]
+ * </pre>
+ *
+ * A {@code size}-pixel square 30 m UTM raster is reprojected onto a 3-arc-second (about 100 m)
+ * geographic grid inside it. Mapping every target pixel corner into the source is timed exactly
+ * and through the interpolated {@link WarpGrid}. Nearest neighbour through the warp grid is
+ * timed against transforming every target pixel centre exactly, and the two must pick the same
+ * source pixel almost everywhere (they may differ only where a centre falls within the
+ * interpolation tolerance of a source pixel edge). Area-weighted sum is timed on a raster of
+ * ones and checked to give each target pixel its area in source pixels. Last, three rasters
+ * are reprojected onto the base and must share one warp grid.
+ */
+public final class WarpBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final double ARC_SECONDS_3 = 3 / 3600.0;
+
+    private static volatile float sink;
+
+    private WarpBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        PixelGrid utm = new PixelGrid(Crs.epsg(32737), 600_000, 9_950_000, 30, 30, size, size);
+        Envelope inner = Geometry.rectangle(utm.crs(), utm.envelope().expand(-0.05 * size * 30))
+                .transform(Crs.WGS84).envelope();
+        PixelGrid base = PixelGrid.covering(Crs.WGS84, inner, ARC_SECONDS_3);
+        TileExecutor executor = TileExecutor.common();
+        List<Window> tiles = executor.tiles(base, base.bounds());
+        System.out.printf("%dx%d px UTM 30 m onto %dx%d px geographic 3\", parallelism %d%n", size, size,
+                base.width(), base.height(), executor.pool().getParallelism());
+
+        double tCornersExact = Timing.best(ROUNDS, () -> executor.forEach(tiles, w -> {
+            double[] xy = new double[2 * (w.width() + 1) * (w.height() + 1)];
+            for (int r = 0, i = 0; r <= w.height(); r++) {
+                for (int c = 0; c <= w.width(); c++, i += 2) {
+                    xy[i] = base.originX() + (w.x() + c) * base.pixelWidth();
+                    xy[i + 1] = base.originY() - (w.y() + r) * base.pixelHeight();
+                }
+            }
+            sink += (float) Crs.transform(base.crs(), utm.crs(), xy)[0];
+        }));
+        System.out.printf("%-28s %8.3f s%n", "pixel corners, exact", tCornersExact);
+        long builds = WarpGrid.builds();
+        WarpGrid warp = WarpGrid.of(utm, base);
+        double tCornersGrid = Timing.best(ROUNDS, () -> executor.forEach(tiles, w -> {
+            double[] cols = new double[(w.width() + 1) * (w.height() + 1)], rows = new double[cols.length];
+            warp.corners(w, cols, rows);
+            sink += (float) cols[0];
+        }));
+        System.out.printf("%-28s %8.3f s  (%.1fx, control step %d px)%n", "pixel corners, warp grid",
+                tCornersGrid, tCornersExact / tCornersGrid, warp.step());
+
+        Image source = new SyntheticImage(utm, List.of("pop"), 11, 0.0);
+        Image exact = new ExactNearest(source, base);
+        double tExact = Timing.best(ROUNDS, () -> executor.forEach(tiles, w -> sink += exact.read(w).band(0)[0]));
+        System.out.printf("%-28s %8.3f s%n", "nearest, every pixel exact", tExact);
+        Image nearest = source.reproject(base, Resampling.NEAREST);
+        double tNearest = Timing.best(ROUNDS, () -> executor.forEach(tiles, w -> sink += nearest.read(w).band(0)[0]));
+        System.out.printf("%-28s %8.3f s  (%.1fx)%n", "nearest, warp grid", tNearest, tExact / tNearest);
+        LongAdder differ = new LongAdder(), total = new LongAdder();
+        executor.forEach(tiles, w -> {
+            float[] a = exact.read(w).band(0), b = nearest.read(w).band(0);
+            for (int i = 0; i < a.length; i++) {
+                if (Float.compare(a[i], b[i]) != 0) {
+                    differ.increment();
+                }
+            }
+            total.add(a.length);
+        });
+        System.out.printf("%-28s %d of %d pixels differ%n", "", differ.sum(), total.sum());
+        if (differ.sum() > total.sum() / 100) {
+            throw new AssertionError("Warp-grid nearest differs from exact on " + differ.sum() + " pixels");
+        }
+
+        Image ones = source.multiply(0).add(1);
+        Image summed = ones.reproject(base, Resampling.SUM);
+        double tSum = Timing.best(ROUNDS, () -> executor.forEach(tiles, w -> sink += summed.read(w).band(0)[0]));
+        double[] worst = {0};
+        executor.forEach(tiles, w -> {
+            float[] v = summed.read(w).band(0);
+            double err = 0;
+            for (int r = 0; r < w.height(); r++) {
+                double y0 = base.originY() - (w.y() + r + 1) * base.pixelHeight();
+                double area = Crs.WGS84.cellArea(0, y0, base.pixelWidth(), y0 + base.pixelHeight()) / (30.0 * 30.0);
+                for (int c = 0; c < w.width(); c++) {
+                    err = Math.max(err, Math.abs(v[r * w.width() + c] / area - 1));
+                }
+            }
+            synchronized (worst) {
+                worst[0] = Math.max(worst[0], err);
+            }
+        });
+        System.out.printf("%-28s %8.3f s  (area error at most %.2f%%)%n", "sum, warp grid", tSum, worst[0] * 100);
+        if (worst[0] > 0.01) {
+            throw new AssertionError("Area-weighted sums are off by " + worst[0] * 100 + "%");
+        }
+
+        for (int seed = 20; seed < 23; seed++) {
+            Image raster = new SyntheticImage(utm, List.of("r" + seed), seed, 0.0).reproject(base, Resampling.SUM);
+            executor.forEach(tiles, w -> sink += raster.read(w).band(0)[0]);
+        }
+        System.out.printf("%-28s %d warp grid built for 5 rasters%n", "", WarpGrid.builds() - builds);
+        if (WarpGrid.builds() - builds != 1) {
+            throw new AssertionError("Rasters on one grid built " + (WarpGrid.builds() - builds) + " warp grids");
+        }
+    }
+
+    /** Nearest neighbour with every target pixel centre transformed exactly. */
+    private static final class ExactNearest extends Image {
+
+        private final Image source;
+        private final PixelGrid target;
+
+        ExactNearest(Image source, PixelGrid target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            return target;
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return source.bandNames();
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            PixelGrid own = source.grid();
+            double[] xy = new double[2 * window.size()];
+            for (int r = 0; r < window.height(); r++) {
+                for (int c = 0; c < window.width(); c++) {
+                    int i = r * window.width() + c;
+                    xy[2 * i] = target.centerX(window.x() + c);
+                    xy[2 * i + 1] = target.centerY(window.y() + r);
+                }
+            }
+            double[] t = Crs.transform(target.crs(), own.crs(), xy);
+            Envelope env = Envelope.of(t);
+            Window span = own.windowOf(env).intersection(own.bounds());
+            Tile in = source.read(span, bands);
+            float[][] out = new float[bands.length][window.size()];
+            for (int i = 0; i < window.size(); i++) {
+                int col = (int) Math.floor(own.col(t[2 * i])), row = (int) Math.floor(own.row(t[2 * i + 1]));
+                boolean inside = span.contains(col, row);
+                for (int b = 0; b < bands.length; b++) {
+                    out[b][i] = inside ? in.band(b)[(row - span.y()) * span.width() + col - span.x()] : Float.NaN;
+                }
+            }
+            return new Tile(window, out);
+        }
+    }
+}
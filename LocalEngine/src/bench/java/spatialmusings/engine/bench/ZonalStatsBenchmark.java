@@ -0,0 +1,105 @@
+package spatialmusings.engine.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.zonal.ZonalStatistics;
+import spatialmusings.engine.zonal.ZoneGrid;
+
+/**
+ * Zonal statistics of one raster over 1450 synthetic wards tiling Kenya's extent, one ward at a
+ * time as the rasterstats script does, against {@link ZonalStatistics}' single pass over a
+ * zone-id grid.
+ *
+ * <pre>
+ * java -cp out:bench spatialmusings.engine.bench.ZonalStatsBenchmark [degrees-per-pixel]
+ * </pre>
+ *
+ * The raster is synthetic and computed on read, so reading a tile twice costs what it would on
+ * disk relative to the reduction. Sums per ward are checked to agree.
+ */
+public final class ZonalStatsBenchmark {
+
+    private ZonalStatsBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        double scale = args.length > 0 ? Double.parseDouble(args[0]) : 0.005;
+        FeatureCollection wards = wards();
+        PixelGrid grid = PixelGrid.covering(Crs.WGS84, new Envelope(33.9, -4.8, 42.1, 5.4), scale);
+        Image raster = new SyntheticImage(grid, List.of("pop"), 7, 0.05);
+        TileExecutor executor = TileExecutor.common();
+        System.out.printf("%d wards, %dx%d px, %d threads%n", wards.size(), grid.width(), grid.height(),
+                executor.pool().getParallelism());
+
+        long t0 = System.nanoTime();
+        double[] perZone = new double[wards.size()];
+        int i = 0;
+        for (Feature ward : wards) {
+            perZone[i++] = raster.reduceRegion(Reducer.sum(), ward.geometry(), executor).get("pop");
+        }
+        double perZoneSeconds = (System.nanoTime() - t0) / 1e9;
+
+        ZonalStatistics zonal = ZonalStatistics.of(wards, "ward");
+        long t1 = System.nanoTime();
+        ZoneGrid zones = zonal.zoneGrid(grid, executor);
+        long t2 = System.nanoTime();
+        GroupedStats stats = zonal.reduce(raster, false, executor)[0];
+        long t3 = System.nanoTime();
+        stats = zonal.reduce(raster, false, executor)[0];
+        long t4 = System.nanoTime();
+
+        System.out.printf("%-28s %8.2f s%n", "per ward (reduceRegion)", perZoneSeconds);
+        System.out.printf("%-28s %8.2f s  (%d tiles, %.1f MB)%n", "zone grid", (t2 - t1) / 1e9,
+                zones.tiles().size(), zones.bytes() / 1e6);
+        System.out.printf("%-28s %8.2f s  (second raster %.2f s)%n", "one pass, all wards", (t3 - t2) / 1e9,
+                (t4 - t3) / 1e9);
+
+        for (int z = 0; z < zonal.zones().size(); z++) {
+            // Wards are named ward_0000.. in feature order, so zone z is feature z.
+            double sum = stats.stats(z).sum();
+            if (Math.abs(sum - perZone[z]) > 1e-9 * Math.max(1, Math.abs(sum))) {
+                throw new AssertionError(zonal.zones().get(z) + ": " + sum + " vs " + perZone[z]);
+            }
+        }
+    }
+
+    /**
+     * 29 x 50 quadrilaterals on a jittered lattice over Kenya: neighbours share their edges, so
+     * the wards tile the extent without gaps or overlaps, as admin units do.
+     */
+    private static FeatureCollection wards() {
+        int across = 29, down = 50;
+        double x0 = 34.0, y0 = -4.7, dx = 8.0 / across, dy = 10.0 / down;
+        double[][] lx = new double[down + 1][across + 1], ly = new double[down + 1][across + 1];
+        for (int j = 0; j <= down; j++) {
+            for (int i = 0; i <= across; i++) {
+                long h = SyntheticImage.mix(j * 1000L + i);
+                boolean inner = i > 0 && i < across && j > 0 && j < down;
+                lx[j][i] = x0 + (i + (inner ? ((h & 0xFFFF) / 65536.0 - 0.5) * 0.6 : 0)) * dx;
+                ly[j][i] = y0 + (j + (inner ? ((h >>> 16 & 0xFFFF) / 65536.0 - 0.5) * 0.6 : 0)) * dy;
+            }
+        }
+        List<Feature> out = new ArrayList<>();
+        for (int j = 0; j < down; j++) {
+            for (int i = 0; i < across; i++) {
+                double[] ring = {lx[j][i], ly[j][i], lx[j + 1][i], ly[j + 1][i], lx[j + 1][i + 1], ly[j + 1][i + 1],
+                        lx[j][i + 1], ly[j][i + 1], lx[j][i], ly[j][i]};
+                out.add(new Feature(Geometry.polygon(Crs.WGS84, ring),
+                        Map.of("ward", String.format("ward_%04d", j * across + i))));
+            }
+        }
+        return new FeatureCollection(out);
+    }
+}
@@ -0,0 +1,13 @@
+package spatialmusings.engine;
+
+import spatialmusings.engine.geom.Geometry;
+
+/** Anything a {@link Filter} can test: an image (scene) or a feature. */
+public interface Element {
+
+    /** Property value, or null if absent. Numbers are {@link Number}s, timestamps epoch millis. */
+    Object get(String property);
+
+    /** Footprint used by {@link Filter#bounds}. */
+    Geometry geometry();
+}
@@ -0,0 +1,57 @@
+package spatialmusings.engine;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import spatialmusings.engine.geom.Geometry;
+
+/** Geometry plus attributes, the local stand-in for {@code ee.Feature}. */
+public final class Feature implements Element {
+
+    private final Supplier<Geometry> source;
+    private final Map<String, Object> properties;
+    private volatile Geometry geometry;
+
+    public Feature(Geometry geometry, Map<String, Object> properties) {
+        this.source = null;
+        this.geometry = geometry;
+        this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(properties));
+    }
+
+    /**
+     * Feature backed by a reader: the geometry is decoded on first use, and {@code properties}
+     * is kept as given rather than copied, so it may itself decode values on demand. It must
+     * not change afterwards.
+     */
+    public Feature(Supplier<Geometry> geometry, Map<String, Object> properties) {
+        this.source = geometry;
+        this.properties = Collections.unmodifiableMap(properties);
+    }
+
+    @Override
+    public Geometry geometry() {
+        Geometry g = geometry;
+        if (g == null) {
+            // Decoding is idempotent, so a race only costs a duplicate decode.
+            g = source.get();
+            geometry = g;
+        }
+        return g;
+    }
+
+    @Override
+    public Object get(String property) {
+        return properties.get(property);
+    }
+
+    public Map<String, Object> properties() {
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return "Feature[" + properties + ", " + geometry() + "]";
+    }
+}
@@ -0,0 +1,62 @@
+package spatialmusings.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Geometry;
+
+/** Ordered list of features, the local stand-in for {@code ee.FeatureCollection}. */
+public final class FeatureCollection implements Iterable<Feature> {
+
+    private final List<Feature> features;
+
+    public FeatureCollection(List<Feature> features) {
+        this.features = Collections.unmodifiableList(new ArrayList<>(features));
+    }
+
+    public FeatureCollection filter(Filter filter) {
+        List<Feature> out = new ArrayList<>();
+        for (Feature f : features) {
+            if (filter.test(f)) {
+                out.add(f);
+            }
+        }
+        return new FeatureCollection(out);
+    }
+
+    public FeatureCollection merge(FeatureCollection other) {
+        List<Feature> out = new ArrayList<>(features);
+        out.addAll(other.features);
+        return new FeatureCollection(out);
+    }
+
+    /** Union of all feature geometries, in the CRS of the first feature (WGS84 if empty). */
+    public Geometry geometry() {
+        Crs crs = features.isEmpty() ? Crs.WGS84 : features.get(0).geometry().crs();
+        List<Geometry> parts = new ArrayList<>(features.size());
+        for (Feature f : features) {
+            parts.add(f.geometry());
+        }
+        return Geometry.union(crs, parts);
+    }
+
+    public Feature first() {
+        return features.isEmpty() ? null : features.get(0);
+    }
+
+    public int size() {
+        return features.size();
+    }
+
+    public List<Feature> toList() {
+        return features;
+    }
+
+    @Override
+    public Iterator<Feature> iterator() {
+        return features.iterator();
+    }
+}
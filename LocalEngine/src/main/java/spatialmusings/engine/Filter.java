@@ -0,0 +1,241 @@
+package spatialmusings.engine;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+
+import spatialmusings.engine.geom.Geometry;
+
+/**
+ * Predicate over image or feature metadata, mirroring {@code ee.Filter}. Filters compose
+ * with {@link #and}, {@link #or} and {@link #not}.
+ */
+@FunctionalInterface
+public interface Filter {
+
+    String TIME_START = "system:time_start";
+
+    boolean test(Element element);
+
+    default Filter and(Filter other) {
+        return new And(this, other);
+    }
+
+    default Filter or(Filter other) {
+        return e -> test(e) || other.test(e);
+    }
+
+    default Filter not() {
+        return e -> !test(e);
+    }
+
+    static Filter eq(String property, Object value) {
+        return new Eq(property, value);
+    }
+
+    static Filter neq(String property, Object value) {
+        return eq(property, value).not();
+    }
+
+    static Filter lt(String property, Object value) {
+        return new Compare(property, Compare.Op.LT, value);
+    }
+
+    static Filter lte(String property, Object value) {
+        return new Compare(property, Compare.Op.LTE, value);
+    }
+
+    static Filter gt(String property, Object value) {
+        return new Compare(property, Compare.Op.GT, value);
+    }
+
+    static Filter gte(String property, Object value) {
+        return new Compare(property, Compare.Op.GTE, value);
+    }
+
+    /** {@code system:time_start} in {@code [start, end)}; dates are ISO dates or instants, UTC. */
+    static Filter date(String start, String end) {
+        return date(parseTime(start), parseTime(end));
+    }
+
+    static Filter date(long startMillis, long endMillis) {
+        return new Date(startMillis, endMillis);
+    }
+
+    /** Elements whose footprint intersects {@code geometry}, reprojected as needed. */
+    static Filter bounds(Geometry geometry) {
+        return new Bounds(geometry);
+    }
+
+    /** Parses {@code 2019-01-01}, {@code 2019-01-01T10:00:00} or an ISO instant to epoch millis (UTC). */
+    static long parseTime(String text) {
+        try {
+            return LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+            } catch (DateTimeParseException e2) {
+                return Instant.parse(text).toEpochMilli();
+            }
+        }
+    }
+
+    /** Orders numbers numerically and everything else by string; missing values sort as incomparable. */
+    private static int compare(Object a, Object b) {
+        if (a == null || b == null) {
+            return Integer.MAX_VALUE;
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    // Filters an index can answer are values rather than lambdas, so a store can look inside
+    // them (see FeatureStore and SceneCatalog); they behave exactly like the lambdas they replace.
+
+    /** {@link #eq}: numbers compare by value, anything else with {@code equals}. */
+    final class Eq implements Filter {
+        private final String property;
+        private final Object value;
+
+        Eq(String property, Object value) {
+            this.property = property;
+            this.value = value;
+        }
+
+        public String property() {
+            return property;
+        }
+
+        public Object value() {
+            return value;
+        }
+
+        @Override
+        public boolean test(Element e) {
+            Object v = e.get(property);
+            if (v instanceof Number && value instanceof Number) {
+                return ((Number) v).doubleValue() == ((Number) value).doubleValue();
+            }
+            return Objects.equals(v, value);
+        }
+    }
+
+    /** {@link #lt}, {@link #lte}, {@link #gt} and {@link #gte}. */
+    final class Compare implements Filter {
+
+        public enum Op { LT, LTE, GT, GTE }
+
+        private final String property;
+        private final Op op;
+        private final Object value;
+
+        Compare(String property, Op op, Object value) {
+            this.property = property;
+            this.op = op;
+            this.value = value;
+        }
+
+        public String property() {
+            return property;
+        }
+
+        public Op op() {
+            return op;
+        }
+
+        public Object value() {
+            return value;
+        }
+
+        @Override
+        public boolean test(Element e) {
+            int c = compare(e.get(property), value);
+            switch (op) {
+                case LT:
+                    return c < 0;
+                case LTE:
+                    return c <= 0;
+                case GT:
+                    return c > 0 && c != Integer.MAX_VALUE;
+                default:
+                    return c >= 0 && c != Integer.MAX_VALUE;
+            }
+        }
+    }
+
+    /** {@link #date}: {@code system:time_start} in {@code [startMillis, endMillis)}. */
+    final class Date implements Filter {
+        private final long startMillis;
+        private final long endMillis;
+
+        Date(long startMillis, long endMillis) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+
+        public long startMillis() {
+            return startMillis;
+        }
+
+        public long endMillis() {
+            return endMillis;
+        }
+
+        @Override
+        public boolean test(Element e) {
+            Object t = e.get(TIME_START);
+            if (!(t instanceof Number)) {
+                return false;
+            }
+            long millis = ((Number) t).longValue();
+            return millis >= startMillis && millis < endMillis;
+        }
+    }
+
+    /** {@link #bounds}. */
+    final class Bounds implements Filter {
+        private final Geometry geometry;
+
+        Bounds(Geometry geometry) {
+            this.geometry = geometry;
+        }
+
+        public Geometry geometry() {
+            return geometry;
+        }
+
+        @Override
+        public boolean test(Element e) {
+            return e.geometry().intersects(geometry);
+        }
+    }
+
+    /** {@link #and}. */
+    final class And implements Filter {
+        private final Filter left;
+        private final Filter right;
+
+        And(Filter left, Filter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        public Filter left() {
+            return left;
+        }
+
+        public Filter right() {
+            return right;
+        }
+
+        @Override
+        public boolean test(Element e) {
+            return left.test(e) && right.test(e);
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package spatialmusings.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import spatialmusings.engine.classify.RandomForest;
+import spatialmusings.engine.classify.Samples;
+import spatialmusings.engine.expr.Op;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.ops.AddBandsImage;
+import spatialmusings.engine.ops.ClassifiedImage;
+import spatialmusings.engine.ops.ClipImage;
+import spatialmusings.engine.ops.ExpressionImage;
+import spatialmusings.engine.ops.MaskImage;
+import spatialmusings.engine.ops.PropertiesImage;
+import spatialmusings.engine.ops.SelectImage;
+import spatialmusings.engine.ops.WarpImage;
+import spatialmusings.engine.raster.ConnectedComponents;
+import spatialmusings.engine.raster.CoverageMask;
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.MaskCache;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Resampling;
+import spatialmusings.engine.raster.Stats;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Lazy, tiled, multi-band raster mirroring {@code ee.Image}.
+ *
+ * <p>Nothing is computed when an image is built; operators only wrap their inputs. Pixels are
+ * pulled on demand, one {@link Window} at a time, by a sink such as {@link #reduceRegion} or an
+ * exporter, and each operator pulls exactly the window and bands it needs from its inputs.
+ * Masked pixels are NaN throughout.
+ */
+public abstract class Image implements Element {
+
+    /** Grid every window passed to {@link #read} is expressed in. */
+    public abstract PixelGrid grid();
+
+    public abstract List<String> bandNames();
+
+    /**
+     * Computes {@code bands} (indices into {@link #bandNames()}) for {@code window}. The result
+     * has one plane per requested band, in request order and is owned by the caller, which may
+     * modify it in place. Implementations must be thread-safe.
+     */
+    public abstract Tile read(Window window, int[] bands);
+
+    /** Image metadata ({@code system:index}, {@code system:time_start}, ...); empty by default. */
+    public Map<String, Object> properties() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Object get(String property) {
+        return properties().get(property);
+    }
+
+    /** Footprint of the image: its grid extent. */
+    @Override
+    public Geometry geometry() {
+        return Geometry.rectangle(grid().crs(), grid().envelope());
+    }
+
+    public final Tile read(Window window) {
+        return read(window, allBands());
+    }
+
+    public final int[] allBands() {
+        int[] all = new int[bandNames().size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    public final int bandIndex(String name) {
+        int i = bandNames().indexOf(name);
+        if (i < 0) {
+            throw new IllegalArgumentException("Band '" + name + "' not found in " + bandNames());
+        }
+        return i;
+    }
+
+    /**
+     * Reads {@code window}, given in the coordinates of {@code target}, from this image. The two
+     * grids must be {@linkplain PixelGrid#isAlignedWith aligned}; the returned tile carries the
+     * window as given.
+     */
+    public final Tile readAligned(PixelGrid target, Window window, int[] bands) {
+        PixelGrid own = grid();
+        if (own.equals(target)) {
+            return read(window, bands);
+        }
+        if (!target.isAlignedWith(own)) {
+            throw new IllegalArgumentException("Image grid " + own + " is not aligned with " + target);
+        }
+        Window local = window.translate(-target.offsetX(own), -target.offsetY(own));
+        if (!local.intersects(own.bounds())) {
+            return Tile.masked(window, bands.length);
+        }
+        return new Tile(window, read(local, bands).bands());
+    }
+
+    // ---------------------------------------------------------------- band selection
+
+    /** Selects bands by exact name or regular expression ({@code "B.*"}), in selector order. */
+    public Image select(String... selectors) {
+        List<String> names = bandNames();
+        List<Integer> picked = new ArrayList<>();
+        for (String selector : selectors) {
+            Pattern p = Pattern.compile(selector);
+            for (int i = 0; i < names.size(); i++) {
+                if ((names.get(i).equals(selector) || p.matcher(names.get(i)).matches()) && !picked.contains(i)) {
+                    picked.add(i);
+                }
+            }
+        }
+        if (picked.isEmpty()) {
+            throw new IllegalArgumentException("No band matches " + Arrays.toString(selectors) + " in " + names);
+        }
+        int[] indices = picked.stream().mapToInt(Integer::intValue).toArray();
+        return new SelectImage(this, indices, null);
+    }
+
+    public Image rename(String... names) {
+        if (names.length != bandNames().size()) {
+            throw new IllegalArgumentException("Expected " + bandNames().size() + " names, got " + names.length);
+        }
+        return new SelectImage(this, allBands(), Arrays.asList(names));
+    }
+
+    public Image addBands(Image other) {
+        return new AddBandsImage(this, other);
+    }
+
+    // ---------------------------------------------------------------- masking
+
+    /** Masks every pixel whose centre falls outside {@code geometry}. */
+    public Image clip(Geometry geometry) {
+        return new ClipImage(this, geometry);
+    }
+
+    /** Masks pixels where {@code mask} is zero or masked; a one-band mask applies to every band. */
+    public Image updateMask(Image mask) {
+        return new MaskImage(this, mask);
+    }
+
+    // ---------------------------------------------------------------- reprojection
+
+    /**
+     * This image on {@code target}'s grid, as rioxarray's {@code reproject_match(base,
+     * resampling)}; see {@link WarpImage}. Returns this image if it is already on that grid.
+     */
+    public Image reproject(PixelGrid target, Resampling resampling) {
+        return grid().equals(target) ? this : new WarpImage(this, target, resampling);
+    }
+
+    // ---------------------------------------------------------------- band math
+
+    /** {@code (first - second) / (first + second)} as a band named {@code nd}. */
+    public Image normalizedDifference(String first, String second) {
+        return ExpressionImage.normalizedDifference(this, bandIndex(first), bandIndex(second));
+    }
+
+    /**
+     * One band per entry of {@code groups}, named by its key, summing the bands named in its
+     * value; see {@link ExpressionImage#sums}. Every group reads from the same expression, so
+     * a tile of all groups decodes each source band once.
+     */
+    public Image sumBands(Map<String, List<String>> groups) {
+        List<String> names = new ArrayList<>(groups.size());
+        List<int[]> indices = new ArrayList<>(groups.size());
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            names.add(group.getKey());
+            indices.add(group.getValue().stream().mapToInt(this::bandIndex).toArray());
+        }
+        return ExpressionImage.sums(this, names, indices);
+    }
+
+    // Band math builds one fused expression rather than a chain of images; see ExpressionImage.
+
+    public Image add(Image other) { return ExpressionImage.binary(this, other, Op.ADD); }
+    public Image subtract(Image other) { return ExpressionImage.binary(this, other, Op.SUBTRACT); }
+    public Image multiply(Image other) { return ExpressionImage.binary(this, other, Op.MULTIPLY); }
+    public Image divide(Image other) { return ExpressionImage.binary(this, other, Op.DIVIDE); }
+    public Image min(Image other) { return ExpressionImage.binary(this, other, Op.MIN); }
+    public Image max(Image other) { return ExpressionImage.binary(this, other, Op.MAX); }
+
+    public Image add(double c) { return ExpressionImage.constant(this, Op.ADD, c); }
+    public Image subtract(double c) { return ExpressionImage.constant(this, Op.SUBTRACT, c); }
+    public Image multiply(double c) { return ExpressionImage.constant(this, Op.MULTIPLY, c); }
+    public Image divide(double c) { return ExpressionImage.constant(this, Op.DIVIDE, c); }
+
+    public Image gt(double c) { return ExpressionImage.constant(this, Op.GT, c); }
+    public Image gte(double c) { return ExpressionImage.constant(this, Op.GTE, c); }
+    public Image lt(double c) { return ExpressionImage.constant(this, Op.LT, c); }
+    public Image lte(double c) { return ExpressionImage.constant(this, Op.LTE, c); }
+    public Image eq(double c) { return ExpressionImage.constant(this, Op.EQ, c); }
+
+    // ---------------------------------------------------------------- classification
+
+    /**
+     * Band {@code classification} with the class {@code classifier} predicts for each pixel
+     * from this image's bands named in {@link RandomForest#inputs()}.
+     */
+    public Image classify(RandomForest classifier) {
+        return new ClassifiedImage(this, classifier);
+    }
+
+    public Samples sampleRegions(FeatureCollection collection, List<String> properties) {
+        return sampleRegions(collection, properties, TileExecutor.common());
+    }
+
+    /**
+     * Band values at every pixel whose centre falls inside a polygon of {@code collection}, or
+     * under one of its points, at the image's native grid, with the named feature properties
+     * appended (columns: the band names, then {@code properties}). Pixels masked in any band
+     * are dropped, as {@code ee.Image.sampleRegions} drops them. Properties must be numeric.
+     *
+     * <p>Features are first bucketed by the executor tiles they touch, so each tile is read
+     * once, with all bands, for every point and polygon in it, rather than once per point.
+     * Tiles are sampled in parallel and rows come out in tile order, then feature order.
+     */
+    public Samples sampleRegions(FeatureCollection collection, List<String> properties, TileExecutor executor) {
+        PixelGrid grid = grid();
+        Window bounds = grid.bounds();
+        int ts = executor.tileSize();
+        int across = (grid.width() + ts - 1) / ts;
+        List<Feature> features = collection.toList();
+        Geometry[] geometries = new Geometry[features.size()];
+        float[][] values = new float[features.size()][properties.size()];
+        Map<Integer, List<Integer>> byTile = new TreeMap<>();
+        for (int f = 0; f < geometries.length; f++) {
+            Feature feature = features.get(f);
+            for (int p = 0; p < properties.size(); p++) {
+                Object v = feature.get(properties.get(p));
+                if (!(v instanceof Number)) {
+                    throw new IllegalArgumentException("Property '" + properties.get(p) + "' of feature " + f
+                            + " is not a number: " + v);
+                }
+                values[f][p] = ((Number) v).floatValue();
+            }
+            Geometry g = feature.geometry().transform(grid.crs());
+            geometries[f] = g;
+            Window w = g.type() == Geometry.Type.POINT
+                    ? new Window((int) Math.floor(grid.col(g.envelope().minX())),
+                            (int) Math.floor(grid.row(g.envelope().maxY())), 1, 1)
+                    : grid.windowOf(g.envelope());
+            for (Window t : executor.tiles(grid, w)) {
+                byTile.computeIfAbsent(t.y() / ts * across + t.x() / ts, k -> new ArrayList<>()).add(f);
+            }
+        }
+        List<String> names = new ArrayList<>(bandNames());
+        names.addAll(properties);
+        Map<Window, List<Integer>> featuresOf = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<Integer>> e : byTile.entrySet()) {
+            int tx = e.getKey() % across, ty = e.getKey() / across;
+            featuresOf.put(new Window(tx * ts, ty * ts, ts, ts).intersection(bounds), e.getValue());
+        }
+        return executor.reduce(new ArrayList<>(featuresOf.keySet()), () -> new Samples.Builder(names),
+                w -> sampleTile(w, grid, geometries, values, featuresOf.get(w), names),
+                Samples.Builder::addAll).build();
+    }
+
+    private Samples.Builder sampleTile(Window w, PixelGrid grid, Geometry[] geometries, float[][] values,
+                                       List<Integer> members, List<String> names) {
+        Samples.Builder out = new Samples.Builder(names);
+        float[][] bands = read(w).bands();
+        int nb = bands.length;
+        float[] row = new float[names.size()];
+        for (int f : members) {
+            Geometry g = geometries[f];
+            System.arraycopy(values[f], 0, row, nb, values[f].length);
+            if (g.type() == Geometry.Type.POINT) {
+                int col = (int) Math.floor(grid.col(g.envelope().minX())) - w.x();
+                int r = (int) Math.floor(grid.row(g.envelope().maxY())) - w.y();
+                addSample(out, bands, r * w.width() + col, row);
+                continue;
+            }
+            CoverageMask mask = MaskCache.shared().get(g, grid, w);
+            mask.forEachRun((r, from, to) -> {
+                int base = r * w.width();
+                for (int i = base + from; i < base + to; i++) {
+                    addSample(out, bands, i, row);
+                }
+            });
+        }
+        return out;
+    }
+
+    private static void addSample(Samples.Builder out, float[][] bands, int i, float[] row) {
+        for (int b = 0; b < bands.length; b++) {
+            float v = bands[b][i];
+            if (Float.isNaN(v)) {
+                return;
+            }
+            row[b] = v;
+        }
+        out.add(row);
+    }
+
+    // ---------------------------------------------------------------- metadata
+
+    public Image set(String property, Object value) {
+        Map<String, Object> props = new LinkedHashMap<>(properties());
+        props.put(property, value);
+        return new PropertiesImage(this, props);
+    }
+
+    /** Copies the named properties (all if none are named) from {@code source}. */
+    public Image copyProperties(Image source, String... names) {
+        Map<String, Object> props = new LinkedHashMap<>(properties());
+        if (names.length == 0) {
+            props.putAll(source.properties());
+        } else {
+            for (String n : names) {
+                Object v = source.get(n);
+                if (v != null) {
+                    props.put(n, v);
+                }
+            }
+        }
+        return new PropertiesImage(this, props);
+    }
+
+    // ---------------------------------------------------------------- reductions
+
+    public Map<String, Double> reduceRegion(Reducer reducer, Geometry geometry) {
+        return reduceRegion(reducer, geometry, TileExecutor.common());
+    }
+
+    /**
+     * Reduces every band over the pixels whose centres fall inside {@code geometry}, at the
+     * image's native grid, returning {@code band -> value}. Tiles are reduced in parallel on
+     * {@code executor}; tiles outside the geometry are never read, and the geometry is rasterized
+     * once per tile through the shared {@link MaskCache}.
+     */
+    public Map<String, Double> reduceRegion(Reducer reducer, Geometry geometry, TileExecutor executor) {
+        PixelGrid grid = grid();
+        Geometry g = geometry.transform(grid.crs());
+        int[] bands = allBands();
+        Stats[] total;
+        if (g.type() == Geometry.Type.POINT) {
+            Envelope e = g.envelope();
+            Window px = new Window((int) Math.floor(grid.col(e.minX())), (int) Math.floor(grid.row(e.minY())), 1, 1);
+            total = Stats.newArray(bands.length);
+            if (px.intersects(grid.bounds())) {
+                Tile t = read(px, bands);
+                for (int b = 0; b < bands.length; b++) {
+                    total[b].add(t.band(b)[0]);
+                }
+            }
+        } else {
+            Window region = grid.windowOf(g.envelope());
+            total = executor.reduce(executor.tiles(grid, region), () -> Stats.newArray(bands.length),
+                    w -> reduceTile(grid, g, w, bands), Stats::merge);
+        }
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (int b = 0; b < bands.length; b++) {
+            out.put(bandNames().get(b), reducer.result(total[b]));
+        }
+        return out;
+    }
+
+    private Stats[] reduceTile(PixelGrid grid, Geometry g, Window w, int[] bands) {
+        Stats[] stats = Stats.newArray(bands.length);
+        CoverageMask mask = MaskCache.shared().get(g, grid, w);
+        if (mask.isEmpty()) {
+            return stats;
+        }
+        Tile t = read(w, bands);
+        mask.forEachRun((r, from, to) -> {
+            int base = r * w.width();
+            for (int b = 0; b < bands.length; b++) {
+                float[] v = t.band(b);
+                for (int i = base + from; i < base + to; i++) {
+                    stats[b].add(v[i]);
+                }
+            }
+        });
+        return stats;
+    }
+
+    public List<Map<String, Object>> reduceRegion(Reducer.Grouped reducer, Geometry geometry) {
+        return reduceRegion(reducer, geometry, TileExecutor.common());
+    }
+
+    /**
+     * Grouped reduction, as {@code reduceRegion({reducer: reducer.group(...)})}: reduces the
+     * image's other band separately for each value of band {@code groupField} and returns ee's
+     * {@code groups} list, one {@code {groupName: class, reducer: value}} map per class in
+     * ascending class order. See {@link #reduceGroups} for how pixels are visited.
+     *
+     * <p>An image holding only the group band reduces each pixel's area in square metres, so
+     * the class-area idiom {@code pixelArea().addBands(classified)} with {@code groupField: 1}
+     * ports as {@code classified} with group field 0.
+     */
+    public List<Map<String, Object>> reduceRegion(Reducer.Grouped reducer, Geometry geometry, TileExecutor executor) {
+        GroupedStats stats = reduceGroups(reducer.groupField(), geometry, executor);
+        List<Map<String, Object>> groups = new ArrayList<>();
+        for (int g : stats.groups()) {
+            Map<String, Object> group = new LinkedHashMap<>();
+            group.put(reducer.groupName(), g);
+            group.put(reducer.reducer().name(), reducer.reducer().result(stats.stats(g)));
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Statistics and area of every class of band {@code groupBand} (its integer part) over the
+     * pixels whose centres fall inside {@code geometry}, in a single pass. The values reduced
+     * are the image's one other band, or each pixel's area if the image has no other band;
+     * pixels where either is masked are skipped.
+     *
+     * <p>Each worker thread folds its tiles into one {@link GroupedStats}, primitive arrays
+     * indexed by class, and the per-thread partials are merged at the end. Pixel area comes
+     * from {@link PixelGrid#pixelArea} once per row and is never materialized as a band.
+     */
+    public GroupedStats reduceGroups(int groupBand, Geometry geometry, TileExecutor executor) {
+        int[] bands = groupBands(groupBand);
+        PixelGrid grid = grid();
+        Geometry g = geometry.transform(grid.crs());
+        Window region = grid.windowOf(g.envelope());
+        return executor.accumulate(executor.tiles(grid, region), GroupedStats::new,
+                (stats, w) -> groupTile(stats, grid, g, w, bands), GroupedStats::merge);
+    }
+
+    /**
+     * Folds one tile of {@link #reduceGroups} into {@code stats}, for callers that schedule
+     * tiles themselves, such as {@link spatialmusings.engine.jobs.RegionScheduler}. The tiles of
+     * a region are {@code executor.tiles(grid(), grid().windowOf(...))} of its envelope; pass
+     * the geometry already in the image's CRS so it is not reprojected for every tile.
+     */
+    public void reduceGroups(GroupedStats stats, int groupBand, Geometry geometry, Window tile) {
+        PixelGrid grid = grid();
+        groupTile(stats, grid, geometry.transform(grid.crs()), tile, groupBands(groupBand));
+    }
+
+    private int[] groupBands(int groupBand) {
+        int n = bandNames().size();
+        if (groupBand < 0 || groupBand >= n || n > 2) {
+            throw new IllegalArgumentException("Grouped reductions need a group band and at most one value band; got group "
+                    + groupBand + " of " + bandNames());
+        }
+        return n == 1 ? new int[] {0} : new int[] {groupBand, 1 - groupBand};
+    }
+
+    private void groupTile(GroupedStats stats, PixelGrid grid, Geometry g, Window w, int[] bands) {
+        CoverageMask mask = MaskCache.shared().get(g, grid, w);
+        if (mask.isEmpty()) {
+            return;
+        }
+        Tile t = read(w, bands);
+        float[] group = t.band(0);
+        float[] value = bands.length > 1 ? t.band(1) : null;
+        double[] areas = new double[w.height()];
+        for (int r = 0; r < areas.length; r++) {
+            areas[r] = grid.pixelArea(w.y() + r);
+        }
+        mask.forEachRun((r, from, to) -> {
+            double area = areas[r];
+            int base = r * w.width();
+            for (int i = base + from; i < base + to; i++) {
+                float c = group[i];
+                if (Float.isNaN(c)) {
+                    continue;
+                }
+                if (value == null) {
+                    stats.add((int) c, area, area);
+                } else if (!Float.isNaN(value[i])) {
+                    stats.add((int) c, value[i], area);
+                }
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------- vectors
+
+    public FeatureCollection reduceToVectors(Reducer reducer, Geometry geometry) {
+        return reduceToVectors(reducer, geometry, true, TileExecutor.common());
+    }
+
+    /**
+     * Connected patches of equal class, as {@code reduceToVectors({geometryType: 'polygon'})}:
+     * one polygon feature per patch of band 0 (its integer part) over the pixels whose centres
+     * fall inside {@code geometry}, with properties {@code label} (the class), {@code pixels},
+     * {@code area} in square metres and, if the image has a second band, {@code reducer} of that
+     * band over the patch. Masked pixels separate patches, so a change mask wants
+     * {@code updateMask} with itself to vectorize only the changed pixels.
+     *
+     * <p>Tiles are labelled in parallel on {@code executor} and stitched by
+     * {@link ConnectedComponents}, which never holds more than a tile of pixels; each feature's
+     * polygon is built from the patch outline when first asked for.
+     */
+    public FeatureCollection reduceToVectors(Reducer reducer, Geometry geometry, boolean eightConnected,
+                                             TileExecutor executor) {
+        int n = bandNames().size();
+        if (n > 2) {
+            throw new IllegalArgumentException("Vectorizing needs a class band and at most one value band; got "
+                    + bandNames());
+        }
+        int[] bands = allBands();
+        PixelGrid grid = grid();
+        Geometry g = geometry.transform(grid.crs());
+        ConnectedComponents components = new ConnectedComponents(grid, executor.tileSize(), eightConnected);
+        executor.forEach(executor.tiles(grid, grid.windowOf(g.envelope())), w -> {
+            Window halo = new Window(w.x() - 1, w.y() - 1, w.width() + 2, w.height() + 2).intersection(grid.bounds());
+            CoverageMask mask = MaskCache.shared().get(g, grid, halo);
+            if (mask.isEmpty()) {
+                return;
+            }
+            Tile t = read(halo, bands);
+            mask.maskOutside(t.band(0));
+            components.label(w, halo, t.band(0), n > 1 ? t.band(1) : null);
+        });
+        List<Feature> features = new ArrayList<>();
+        for (ConnectedComponents.Patch patch : components.patches()) {
+            Map<String, Object> props = new LinkedHashMap<>();
+            props.put("label", patch.label());
+            props.put("pixels", patch.pixels());
+            props.put("area", patch.area());
+            if (n > 1) {
+                props.put(reducer.name(), reducer.result(patch.stats()));
+            }
+            features.add(new Feature(patch::geometry, props));
+        }
+        return new FeatureCollection(features);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + bandNames();
+    }
+}
@@ -0,0 +1,145 @@
+package spatialmusings.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import spatialmusings.engine.ops.MedianImage;
+import spatialmusings.engine.ops.MosaicImage;
+import spatialmusings.engine.ops.QualityMosaicImage;
+
+/**
+ * Ordered list of images mirroring {@code ee.ImageCollection}. Filtering only looks at
+ * metadata and footprints; compositing returns a lazy {@link Image}.
+ */
+public final class ImageCollection implements Iterable<Image> {
+
+    private static final String INDEX = "system:index";
+
+    private final List<Image> images;
+
+    public ImageCollection(List<Image> images) {
+        this.images = Collections.unmodifiableList(new ArrayList<>(images));
+    }
+
+    public ImageCollection filter(Filter filter) {
+        List<Image> out = new ArrayList<>();
+        for (Image image : images) {
+            if (filter.test(image)) {
+                out.add(image);
+            }
+        }
+        return new ImageCollection(out);
+    }
+
+    /** Convenience for {@code filter(Filter.date(start, end))}. */
+    public ImageCollection filterDate(String start, String end) {
+        return filter(Filter.date(start, end));
+    }
+
+    public ImageCollection map(UnaryOperator<Image> fn) {
+        List<Image> out = new ArrayList<>(images.size());
+        for (Image image : images) {
+            out.add(fn.apply(image));
+        }
+        return new ImageCollection(out);
+    }
+
+    /**
+     * Adds the {@code bands} of the image in {@code other} with the same {@code system:index}
+     * to every image of this collection, as {@code linkCollection} does for Cloud Score+.
+     * Images without a match are kept unchanged. Pairing is one hash lookup per image; the
+     * linked bands stay lazy, so nothing of {@code other} is read until a sink pulls a tile,
+     * and {@code updateMask} on a linked score reads the score before any spectral band.
+     */
+    public ImageCollection linkCollection(ImageCollection other, String... bands) {
+        Map<Object, Image> byIndex = new HashMap<>();
+        for (Image image : other.images) {
+            Object index = image.get(INDEX);
+            if (index != null) {
+                byIndex.putIfAbsent(index, image);
+            }
+        }
+        return map(image -> {
+            Image match = byIndex.get(image.get(INDEX));
+            return match == null ? image : image.addBands(match.select(bands));
+        });
+    }
+
+    public ImageCollection select(String... selectors) {
+        return map(image -> image.select(selectors));
+    }
+
+    public ImageCollection merge(ImageCollection other) {
+        List<Image> out = new ArrayList<>(images);
+        out.addAll(other.images);
+        return new ImageCollection(out);
+    }
+
+    /** Sorts by a numeric property, e.g. {@code system:time_start}; missing values sort last. */
+    public ImageCollection sort(String property) {
+        return sort(property, true);
+    }
+
+    /** Sorts by a numeric property, descending if not {@code ascending}; missing values sort last either way. */
+    public ImageCollection sort(String property, boolean ascending) {
+        List<Image> out = new ArrayList<>(images);
+        out.sort((a, b) -> {
+            Object x = a.get(property), y = b.get(property);
+            if (!(x instanceof Number)) {
+                return y instanceof Number ? 1 : 0;
+            }
+            if (!(y instanceof Number)) {
+                return -1;
+            }
+            int c = Double.compare(((Number) x).doubleValue(), ((Number) y).doubleValue());
+            return ascending ? c : -c;
+        });
+        return new ImageCollection(out);
+    }
+
+    public Image median() {
+        return new MedianImage(images);
+    }
+
+    public Image mosaic() {
+        return new MosaicImage(images);
+    }
+
+    /** Per pixel, the image with the highest {@code scoreBand}, as {@code qualityMosaic(scoreBand)}. */
+    public Image qualityMosaic(String scoreBand) {
+        return new QualityMosaicImage(images, scoreBand, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Per pixel, the first image in collection order whose {@code scoreBand} reaches
+     * {@code good}, or the highest-scoring image where none does. Pixels stop looking once one
+     * does, so sort the collection best first: by {@code CLOUDY_PIXEL_PERCENTAGE} for a
+     * Cloud Score+ {@code cs} score, or by {@code system:time_start} descending for the most
+     * recent clear pixel. See {@link QualityMosaicImage}.
+     */
+    public Image qualityMosaic(String scoreBand, double good) {
+        return new QualityMosaicImage(images, scoreBand, good);
+    }
+
+    public Image first() {
+        return images.isEmpty() ? null : images.get(0);
+    }
+
+    public int size() {
+        return images.size();
+    }
+
+    public List<Image> toList() {
+        return images;
+    }
+
+    @Override
+    public Iterator<Image> iterator() {
+        return images.iterator();
+    }
+}
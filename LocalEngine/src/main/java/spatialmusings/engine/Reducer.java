@@ -0,0 +1,87 @@
+package spatialmusings.engine;
+
+import java.util.function.ToDoubleFunction;
+
+import spatialmusings.engine.raster.Stats;
+
+/**
+ * Region reducer mirroring {@code ee.Reducer}. Every reducer accumulates the same
+ * {@link Stats} and only differs in which statistic it reports, so partials from different
+ * tiles merge the same way whatever the reducer.
+ */
+public final class Reducer {
+
+    private final String name;
+    private final ToDoubleFunction<Stats> statistic;
+
+    private Reducer(String name, ToDoubleFunction<Stats> statistic) {
+        this.name = name;
+        this.statistic = statistic;
+    }
+
+    public static Reducer sum() { return new Reducer("sum", Stats::sum); }
+    public static Reducer mean() { return new Reducer("mean", Stats::mean); }
+    public static Reducer min() { return new Reducer("min", Stats::min); }
+    public static Reducer max() { return new Reducer("max", Stats::max); }
+    public static Reducer count() { return new Reducer("count", Stats::count); }
+    public static Reducer stdDev() { return new Reducer("stdDev", Stats::stdDev); }
+    public static Reducer variance() { return new Reducer("variance", Stats::variance); }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Reduces the other band separately for each value of band {@code groupField}, like
+     * {@code reducer.group({groupField, groupName})}; see {@code Image.reduceRegion}.
+     */
+    public Grouped group(int groupField, String groupName) {
+        return new Grouped(this, groupField, groupName);
+    }
+
+    /** The reported value; NaN for mean/min/max/stdDev of an empty region, where ee returns null. */
+    public double result(Stats stats) {
+        return statistic.applyAsDouble(stats);
+    }
+
+    @Override
+    public String toString() {
+        return "Reducer." + name + "()";
+    }
+
+    /** A reducer applied per group of a class band. */
+    public static final class Grouped {
+
+        private final Reducer reducer;
+        private final int groupField;
+        private final String groupName;
+
+        Grouped(Reducer reducer, int groupField, String groupName) {
+            if (groupField < 0) {
+                throw new IllegalArgumentException("groupField must not be negative: " + groupField);
+            }
+            this.reducer = reducer;
+            this.groupField = groupField;
+            this.groupName = groupName;
+        }
+
+        public Reducer reducer() {
+            return reducer;
+        }
+
+        /** Index of the band holding the group (class) values. */
+        public int groupField() {
+            return groupField;
+        }
+
+        /** Key the group value is reported under. */
+        public String groupName() {
+            return groupName;
+        }
+
+        @Override
+        public String toString() {
+            return reducer + ".group(" + groupField + ", '" + groupName + "')";
+        }
+    }
+}
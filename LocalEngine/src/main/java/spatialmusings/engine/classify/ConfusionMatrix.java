@@ -0,0 +1,434 @@
+package spatialmusings.engine.classify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Counts of actual (rows) against predicted (columns) class values, the local counterpart of
+ * {@code ee.ConfusionMatrix} as returned by {@code errorMatrix}. As in ee, class values are
+ * non-negative integers and index the rows and columns directly, so the matrix is
+ * {@code (max class + 1)} square.
+ *
+ * <p>{@link #of} counts in one pass over the two columns: rows are split into chunks on a
+ * fork-join pool and each worker thread adds into its own {@code long[]} counters, merged once
+ * at the end. Every statistic, including the {@link #bootstrap} intervals, is then derived
+ * from the counts alone without revisiting the samples. Instances are immutable.
+ */
+public final class ConfusionMatrix {
+
+    /** Rows per counting task; small enough to spread, large enough to amortize the task. */
+    private static final int CHUNK = 1 << 16;
+
+    private final int size;
+    private final long[] counts;
+    private final long total;
+
+    /** Matrix of {@code counts[actual][predicted]}, which must be square. */
+    public ConfusionMatrix(long[][] counts) {
+        this(counts.length, flatten(counts));
+    }
+
+    private ConfusionMatrix(int size, long[] counts) {
+        this.size = size;
+        this.counts = counts;
+        long t = 0;
+        for (long c : counts) {
+            t += c;
+        }
+        this.total = t;
+    }
+
+    private static long[] flatten(long[][] counts) {
+        int n = counts.length;
+        long[] flat = new long[n * n];
+        for (int i = 0; i < n; i++) {
+            if (counts[i].length != n) {
+                throw new IllegalArgumentException("Confusion matrix must be square; row " + i + " has "
+                        + counts[i].length + " of " + n);
+            }
+            for (int j = 0; j < n; j++) {
+                if (counts[i][j] < 0) {
+                    throw new IllegalArgumentException("Negative count at " + i + "," + j);
+                }
+                flat[i * n + j] = counts[i][j];
+            }
+        }
+        return flat;
+    }
+
+    /** {@code samples.errorMatrix(actual, predicted)} on the common pool. */
+    public static ConfusionMatrix of(Samples samples, String actual, String predicted) {
+        return of(samples, actual, predicted, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Counts every row of {@code samples} by its {@code actual} and {@code predicted} class.
+     * Rows where either is NaN (masked) are skipped.
+     */
+    public static ConfusionMatrix of(Samples samples, String actual, String predicted, ForkJoinPool pool) {
+        return count(samples.data(actual), samples.data(predicted), pool);
+    }
+
+    static ConfusionMatrix count(float[] actual, float[] predicted, ForkJoinPool pool) {
+        int n = actual.length;
+        if (predicted.length != n) {
+            throw new IllegalArgumentException("Columns differ in length: " + n + " vs " + predicted.length);
+        }
+        Map<Thread, Counter> perThread = new ConcurrentHashMap<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += CHUNK) {
+            int start = from, end = Math.min(n, from + CHUNK);
+            tasks.add(() -> {
+                perThread.computeIfAbsent(Thread.currentThread(), t -> new Counter()).add(actual, predicted, start, end);
+                return null;
+            });
+        }
+        if (tasks.size() == 1) {
+            perThread.computeIfAbsent(Thread.currentThread(), t -> new Counter()).add(actual, predicted, 0, n);
+        } else {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                join(f);
+            }
+        }
+        Counter total = new Counter();
+        for (Counter c : perThread.values()) {
+            total.merge(c);
+        }
+        return new ConfusionMatrix(total.size, Arrays.copyOf(total.counts, total.size * total.size));
+    }
+
+    /** One thread's counts, grown when a larger class value turns up. */
+    private static final class Counter {
+        int size;
+        long[] counts = new long[0];
+
+        void add(float[] actual, float[] predicted, int from, int to) {
+            for (int i = from; i < to; i++) {
+                float a = actual[i], p = predicted[i];
+                if (Float.isNaN(a) || Float.isNaN(p)) {
+                    continue;
+                }
+                int r = (int) a, c = (int) p;
+                if (r != a || c != p || r < 0 || c < 0) {
+                    throw new IllegalArgumentException("Class values must be non-negative integers; got "
+                            + a + " and " + p + " in row " + i);
+                }
+                if (r >= size || c >= size) {
+                    grow(Math.max(r, c) + 1);
+                }
+                counts[r * size + c]++;
+            }
+        }
+
+        void merge(Counter other) {
+            if (other.size > size) {
+                grow(other.size);
+            }
+            for (int r = 0; r < other.size; r++) {
+                for (int c = 0; c < other.size; c++) {
+                    counts[r * size + c] += other.counts[r * other.size + c];
+                }
+            }
+        }
+
+        private void grow(int n) {
+            long[] grown = new long[n * n];
+            for (int r = 0; r < size; r++) {
+                System.arraycopy(counts, r * size, grown, r * n, size);
+            }
+            counts = grown;
+            size = n;
+        }
+    }
+
+    private static void join(Future<?> f) {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while counting", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // ---------------------------------------------------------------- counts
+
+    /** Number of classes, one more than the largest class value seen. */
+    public int size() {
+        return size;
+    }
+
+    /** Samples counted. */
+    public long total() {
+        return total;
+    }
+
+    public long count(int actual, int predicted) {
+        return counts[actual * size + predicted];
+    }
+
+    /** The counts as {@code [actual][predicted]}, as ee's {@code array()}. */
+    public long[][] array() {
+        long[][] out = new long[size][size];
+        for (int r = 0; r < size; r++) {
+            System.arraycopy(counts, r * size, out[r], 0, size);
+        }
+        return out;
+    }
+
+    /** Cell-wise sum, e.g. of the folds of a cross-validation. */
+    public ConfusionMatrix merge(ConfusionMatrix other) {
+        int n = Math.max(size, other.size);
+        long[] sum = new long[n * n];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                sum[r * n + c] += counts[r * size + c];
+            }
+        }
+        for (int r = 0; r < other.size; r++) {
+            for (int c = 0; c < other.size; c++) {
+                sum[r * n + c] += other.counts[r * other.size + c];
+            }
+        }
+        return new ConfusionMatrix(n, sum);
+    }
+
+    // ---------------------------------------------------------------- statistics
+
+    /** Fraction of samples on the diagonal; NaN for an empty matrix. */
+    public double accuracy() {
+        return accuracy(size, counts, total);
+    }
+
+    /** Cohen's kappa: agreement beyond that expected from the row and column totals. */
+    public double kappa() {
+        return kappa(size, counts, total);
+    }
+
+    /** Per actual class, the fraction predicted correctly (recall); NaN for classes with no samples. */
+    public double[] producersAccuracy() {
+        double[] out = new double[size];
+        for (int c = 0; c < size; c++) {
+            out[c] = producers(size, counts, c);
+        }
+        return out;
+    }
+
+    /** Per predicted class, the fraction that is correct (precision), named as in ee; NaN if never predicted. */
+    public double[] consumersAccuracy() {
+        double[] out = new double[size];
+        for (int c = 0; c < size; c++) {
+            out[c] = consumers(size, counts, c);
+        }
+        return out;
+    }
+
+    private static double accuracy(int n, long[] m, long total) {
+        long diagonal = 0;
+        for (int c = 0; c < n; c++) {
+            diagonal += m[c * n + c];
+        }
+        return total == 0 ? Double.NaN : (double) diagonal / total;
+    }
+
+    private static double kappa(int n, long[] m, long total) {
+        if (total == 0) {
+            return Double.NaN;
+        }
+        double expected = 0;
+        for (int c = 0; c < n; c++) {
+            long row = 0, col = 0;
+            for (int k = 0; k < n; k++) {
+                row += m[c * n + k];
+                col += m[k * n + c];
+            }
+            expected += (double) row * col;
+        }
+        expected /= (double) total * total;
+        return (accuracy(n, m, total) - expected) / (1 - expected);
+    }
+
+    private static double producers(int n, long[] m, int c) {
+        long row = 0;
+        for (int k = 0; k < n; k++) {
+            row += m[c * n + k];
+        }
+        return row == 0 ? Double.NaN : (double) m[c * n + c] / row;
+    }
+
+    private static double consumers(int n, long[] m, int c) {
+        long col = 0;
+        for (int k = 0; k < n; k++) {
+            col += m[k * n + c];
+        }
+        return col == 0 ? Double.NaN : (double) m[c * n + c] / col;
+    }
+
+    // ---------------------------------------------------------------- bootstrap
+
+    /**
+     * Percentile bootstrap intervals of every statistic at {@code confidence} (e.g. 0.95).
+     *
+     * <p>This is the Poisson bootstrap: each replicate weights every sample by an independent
+     * Poisson(1) count, so a cell holding {@code n} samples is redrawn as one Poisson(n) count.
+     * Replicates cost one draw per cell rather than one per sample, however many samples were
+     * counted, and are reproducible from {@code seed}.
+     */
+    public Intervals bootstrap(int replicates, double confidence, long seed) {
+        if (replicates < 1 || !(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("Need replicates >= 1 and 0 < confidence < 1; got " + replicates
+                    + ", " + confidence);
+        }
+        int stats = 2 + 2 * size;
+        double[][] values = new double[stats][replicates];
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] m = new long[counts.length];
+        for (int b = 0; b < replicates; b++) {
+            long t = 0;
+            for (int i = 0; i < m.length; i++) {
+                m[i] = counts[i] == 0 ? 0 : poisson(random, counts[i]);
+                t += m[i];
+            }
+            values[0][b] = accuracy(size, m, t);
+            values[1][b] = kappa(size, m, t);
+            for (int c = 0; c < size; c++) {
+                values[2 + c][b] = producers(size, m, c);
+                values[2 + size + c][b] = consumers(size, m, c);
+            }
+        }
+        double[][] bounds = new double[stats][];
+        for (int s = 0; s < stats; s++) {
+            bounds[s] = percentiles(values[s], (1 - confidence) / 2);
+        }
+        return new Intervals(size, replicates, confidence, bounds);
+    }
+
+    /** The {@code tail} and {@code 1 - tail} percentiles of the non-NaN values. */
+    private static double[] percentiles(double[] v, double tail) {
+        double[] sorted = Arrays.stream(v).filter(x -> !Double.isNaN(x)).sorted().toArray();
+        if (sorted.length == 0) {
+            return new double[] {Double.NaN, Double.NaN};
+        }
+        int lo = (int) Math.floor(tail * (sorted.length - 1));
+        int hi = (int) Math.ceil((1 - tail) * (sorted.length - 1));
+        return new double[] {sorted[lo], sorted[hi]};
+    }
+
+    /**
+     * A Poisson({@code mean}) draw: inversion by multiplication for small means, Hormann's
+     * transformed rejection (PTRS) otherwise.
+     */
+    static long poisson(SplittableRandom random, double mean) {
+        if (mean < 10) {
+            double limit = Math.exp(-mean), p = 1;
+            long k = -1;
+            do {
+                k++;
+                p *= random.nextDouble();
+            } while (p > limit);
+            return k;
+        }
+        double slam = Math.sqrt(mean), loglam = Math.log(mean);
+        double b = 0.931 + 2.53 * slam, a = -0.059 + 0.02483 * b;
+        double invalpha = 1.1239 + 1.1328 / (b - 3.4), vr = 0.9277 - 3.6224 / (b - 2);
+        while (true) {
+            double u = random.nextDouble() - 0.5, v = random.nextDouble(), us = 0.5 - Math.abs(u);
+            long k = (long) Math.floor((2 * a / us + b) * u + mean + 0.43);
+            if (us >= 0.07 && v <= vr) {
+                return k;
+            }
+            if (k < 0 || (us < 0.013 && v > us)) {
+                continue;
+            }
+            if (Math.log(v) + Math.log(invalpha) - Math.log(a / (us * us) + b)
+                    <= -mean + k * loglam - logFactorial(k)) {
+                return k;
+            }
+        }
+    }
+
+    /** {@code ln(k!)}, exact for small {@code k}, Stirling's series beyond. */
+    private static double logFactorial(long k) {
+        if (k < 16) {
+            double f = 0;
+            for (long i = 2; i <= k; i++) {
+                f += Math.log(i);
+            }
+            return f;
+        }
+        double x = k + 1;
+        return (x - 0.5) * Math.log(x) - x + 0.5 * Math.log(2 * Math.PI)
+                + 1 / (12 * x) - 1 / (360 * x * x * x) + 1 / (1260 * x * x * x * x * x);
+    }
+
+    /** Bootstrap intervals, each as {@code {low, high}}. */
+    public static final class Intervals {
+        private final int size;
+        private final int replicates;
+        private final double confidence;
+        private final double[][] bounds;
+
+        Intervals(int size, int replicates, double confidence, double[][] bounds) {
+            this.size = size;
+            this.replicates = replicates;
+            this.confidence = confidence;
+            this.bounds = bounds;
+        }
+
+        public int replicates() {
+            return replicates;
+        }
+
+        public double confidence() {
+            return confidence;
+        }
+
+        public double[] accuracy() {
+            return bounds[0].clone();
+        }
+
+        public double[] kappa() {
+            return bounds[1].clone();
+        }
+
+        public double[] producersAccuracy(int c) {
+            return bounds[2 + c].clone();
+        }
+
+        public double[] consumersAccuracy(int c) {
+            return bounds[2 + size + c].clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Intervals[%.0f%%, %d replicates, accuracy %.4f-%.4f, kappa %.4f-%.4f]",
+                    confidence * 100, replicates, bounds[0][0], bounds[0][1], bounds[1][0], bounds[1][1]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("ConfusionMatrix[");
+        for (int r = 0; r < size; r++) {
+            out.append(r == 0 ? "[" : ", [");
+            for (int c = 0; c < size; c++) {
+                out.append(c == 0 ? "" : ", ").append(counts[r * size + c]);
+            }
+            out.append(']');
+        }
+        return out.append(String.format(", accuracy %.4f, kappa %.4f]", accuracy(), kappa())).toString();
+    }
+}
@@ -0,0 +1,109 @@
+package spatialmusings.engine.classify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Stratified k-fold cross-validation of a random forest on samples taken once. Where the
+ * script's split would be re-drawn and the composite re-sampled for every fold, the folds here
+ * are row subsets of the same {@link Samples}: each fold trains on the other folds' rows and
+ * classifies its own, and the per-fold confusion matrices are summed.
+ *
+ * <p>Rows are dealt to folds class by class in a shuffled order from {@code seed}, so every
+ * fold holds each class in proportion. Rows with no class (NaN) are left out.
+ */
+public final class CrossValidation {
+
+    private final List<ConfusionMatrix> folds;
+    private final ConfusionMatrix pooled;
+
+    private CrossValidation(List<ConfusionMatrix> folds) {
+        this.folds = Collections.unmodifiableList(folds);
+        ConfusionMatrix sum = folds.get(0);
+        for (int f = 1; f < folds.size(); f++) {
+            sum = sum.merge(folds.get(f));
+        }
+        this.pooled = sum;
+    }
+
+    public static CrossValidation kFold(Samples samples, String classProperty, List<String> inputProperties,
+                                        RandomForestTrainer trainer, int k, long seed) {
+        return kFold(samples, classProperty, inputProperties, trainer, k, seed, ForkJoinPool.commonPool());
+    }
+
+    public static CrossValidation kFold(Samples samples, String classProperty, List<String> inputProperties,
+                                        RandomForestTrainer trainer, int k, long seed, ForkJoinPool pool) {
+        if (k < 2) {
+            throw new IllegalArgumentException("Cross-validation needs at least 2 folds; got " + k);
+        }
+        float[] label = samples.data(classProperty);
+        Map<Float, List<Integer>> byClass = new TreeMap<>();
+        for (int i = 0; i < label.length; i++) {
+            if (!Float.isNaN(label[i])) {
+                byClass.computeIfAbsent(label[i], c -> new ArrayList<>()).add(i);
+            }
+        }
+        List<List<Integer>> members = new ArrayList<>();
+        for (int f = 0; f < k; f++) {
+            members.add(new ArrayList<>());
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        int next = 0;
+        for (List<Integer> rows : byClass.values()) {
+            for (int i = rows.size() - 1; i > 0; i--) {
+                Collections.swap(rows, i, random.nextInt(i + 1));
+            }
+            for (int row : rows) {
+                members.get(next).add(row);
+                next = (next + 1) % k;
+            }
+        }
+
+        List<ConfusionMatrix> folds = new ArrayList<>(k);
+        for (int f = 0; f < k; f++) {
+            List<Integer> test = members.get(f);
+            if (test.isEmpty()) {
+                throw new IllegalArgumentException("Too few samples for " + k + " folds: " + samples);
+            }
+            int[] testRows = new int[test.size()];
+            for (int i = 0; i < testRows.length; i++) {
+                testRows[i] = test.get(i);
+            }
+            int[] trainRows = new int[label.length];
+            int n = 0;
+            for (int g = 0; g < k; g++) {
+                if (g != f) {
+                    for (int row : members.get(g)) {
+                        trainRows[n++] = row;
+                    }
+                }
+            }
+            RandomForest forest = trainer.train(samples.rows(Arrays.copyOf(trainRows, n)), classProperty,
+                    inputProperties, pool);
+            Samples held = samples.rows(testRows);
+            folds.add(ConfusionMatrix.count(held.data(classProperty), forest.predict(held, pool), pool));
+        }
+        return new CrossValidation(folds);
+    }
+
+    /** One matrix per fold, each counting that fold's held-out rows. */
+    public List<ConfusionMatrix> folds() {
+        return folds;
+    }
+
+    /** The folds' matrices summed: every sample classified once, by a forest that never saw it. */
+    public ConfusionMatrix pooled() {
+        return pooled;
+    }
+
+    @Override
+    public String toString() {
+        return "CrossValidation[" + folds.size() + " folds, " + pooled + "]";
+    }
+}
@@ -0,0 +1,92 @@
+package spatialmusings.engine.classify;
+
+/**
+ * One trained classification tree as parallel node arrays, root at node 0.
+ *
+ * <p>Internal node {@code n} sends a sample to {@code left[n]} when
+ * {@code x[feature[n]] <= threshold[n]} and to {@code right[n]} otherwise, the convention of
+ * smile's trees; leaves have {@code feature[n] < 0} and predict class index {@code leaf[n]}.
+ * Instances are immutable; {@link RandomForest} re-lays the nodes of its trees out for
+ * block evaluation, and checks their features against its inputs as it does.
+ */
+public final class DecisionTree {
+
+    private final int[] feature;
+    private final float[] threshold;
+    private final int[] left;
+    private final int[] right;
+    private final int[] leaf;
+    private final int maxDepth;
+
+    public DecisionTree(int[] feature, float[] threshold, int[] left, int[] right, int[] leaf) {
+        int n = feature.length;
+        if (n == 0 || threshold.length != n || left.length != n || right.length != n || leaf.length != n) {
+            throw new IllegalArgumentException("Node arrays must be non-empty and of equal length");
+        }
+        this.feature = feature.clone();
+        this.threshold = threshold.clone();
+        this.left = left.clone();
+        this.right = right.clone();
+        this.leaf = leaf.clone();
+        this.maxDepth = depth();
+    }
+
+    /** Depth of the tree, checking that every node is reached exactly once from the root. */
+    private int depth() {
+        int n = feature.length;
+        int[] level = new int[n];
+        boolean[] seen = new boolean[n];
+        int[] stack = new int[n];
+        int top = 0, max = 0;
+        stack[top++] = 0;
+        seen[0] = true;
+        while (top > 0) {
+            int node = stack[--top];
+            max = Math.max(max, level[node]);
+            if (feature[node] < 0) {
+                if (leaf[node] < 0) {
+                    throw new IllegalArgumentException("Leaf " + node + " has no class");
+                }
+                continue;
+            }
+            for (int c : new int[] {left[node], right[node]}) {
+                if (c <= 0 || c >= n || seen[c]) {
+                    throw new IllegalArgumentException("Node " + node + " has invalid child " + c);
+                }
+                seen[c] = true;
+                level[c] = level[node] + 1;
+                stack[top++] = c;
+            }
+        }
+        for (int node = 0; node < n; node++) {
+            if (!seen[node]) {
+                throw new IllegalArgumentException("Node " + node + " is not reachable from the root");
+            }
+        }
+        return max;
+    }
+
+    public int nodeCount() {
+        return feature.length;
+    }
+
+    /** Number of splits on the longest root-to-leaf path. */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /** Class index for one sample, following the nodes one at a time. */
+    public int predict(float[] x) {
+        int n = 0;
+        while (feature[n] >= 0) {
+            n = x[feature[n]] <= threshold[n] ? left[n] : right[n];
+        }
+        return leaf[n];
+    }
+
+    int feature(int node) { return feature[node]; }
+    float threshold(int node) { return threshold[node]; }
+    int left(int node) { return left[node]; }
+    int right(int node) { return right[node]; }
+    int leaf(int node) { return leaf[node]; }
+}
@@ -0,0 +1,248 @@
+package spatialmusings.engine.classify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Trained random forest, the local counterpart of a trained {@code smileRandomForest}, laid
+ * out for fast inference.
+ *
+ * <p>The nodes of all trees live in two flat arrays. Each tree is stored breadth first, with the
+ * two children of a split next to each other. {@code links} holds an int pair per node: the
+ * left child and the split band, or {@code ~class} in the second slot for a leaf.
+ * {@code threshold} holds the split value. A step is therefore
+ * {@code node = links[2 node] + (x[band] > threshold[node] ? 1 : 0)}, and one cache line
+ * serves both the step and the leaf test.
+ *
+ * <p>{@link #classify(float[][], int, int, float[])} copies a block of pixels into a band-major
+ * scratch array and runs the block through each tree one level at a time. Pixels drop out as
+ * they reach a leaf, so the work per tree is each pixel's path length, not the tree's depth.
+ * Compacting the still-active list only adds a count, so the inner loop has no data-dependent
+ * branch. Per-pixel node walks, by contrast, mispredict about half their steps. The block's
+ * inputs stay in cache across all trees.
+ *
+ * <p>The forest predicts by majority vote, with ties going to the lowest class index. A pixel
+ * with any input masked (NaN) is masked in the output, as ee's {@code classify} does.
+ * Instances are immutable and thread-safe.
+ */
+public final class RandomForest {
+
+    /** Pixels evaluated together; their inputs, node indices and votes stay in L1. */
+    static final int BLOCK = 256;
+
+    private final List<String> inputs;
+    private final float[] classes;
+    private final int[] roots;
+    private final int[] links;
+    private final float[] threshold;
+
+    /**
+     * Forest over the bands {@code inputs}, in the order the trees' feature indices refer to;
+     * tree leaves predict an index into {@code classes}, the class values written out.
+     */
+    public RandomForest(List<String> inputs, float[] classes, List<DecisionTree> trees) {
+        if (trees.isEmpty() || classes.length == 0) {
+            throw new IllegalArgumentException("Need at least one tree and one class");
+        }
+        this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+        this.classes = classes.clone();
+        int total = 0;
+        for (DecisionTree t : trees) {
+            total += t.nodeCount();
+        }
+        roots = new int[trees.size()];
+        links = new int[2 * total];
+        threshold = new float[total];
+        int next = 0;
+        int[] queue = new int[0];
+        for (int t = 0; t < trees.size(); t++) {
+            DecisionTree tree = trees.get(t);
+            roots[t] = next;
+            if (queue.length < tree.nodeCount()) {
+                queue = new int[tree.nodeCount()];
+            }
+            // Breadth first: queue[k] is the source node stored at roots[t] + k.
+            int head = 0, tail = 0;
+            queue[tail++] = 0;
+            while (head < tail) {
+                int src = queue[head];
+                int dst = roots[t] + head++;
+                int f = tree.feature(src);
+                if (f < 0) {
+                    int c = tree.leaf(src);
+                    if (c >= classes.length) {
+                        throw new IllegalArgumentException("Leaf class " + c + " but only " + classes.length + " classes");
+                    }
+                    links[2 * dst] = dst;
+                    links[2 * dst + 1] = ~c;
+                } else {
+                    if (f >= inputs.size()) {
+                        throw new IllegalArgumentException("Split on feature " + f + " but only " + inputs.size() + " inputs");
+                    }
+                    links[2 * dst] = roots[t] + tail;
+                    links[2 * dst + 1] = f;
+                    threshold[dst] = tree.threshold(src);
+                    queue[tail++] = tree.left(src);
+                    queue[tail++] = tree.right(src);
+                }
+            }
+            next += tail;
+        }
+    }
+
+    /** Names of the bands the forest reads, in feature order. */
+    public List<String> inputs() {
+        return inputs;
+    }
+
+    /** Class values, indexed by the class indices the trees predict. */
+    public float[] classes() {
+        return classes.clone();
+    }
+
+    public int treeCount() {
+        return roots.length;
+    }
+
+    public int nodeCount() {
+        return threshold.length;
+    }
+
+    /** Predicted class value of one sample, given in {@link #inputs()} order; NaN if any input is. */
+    public float classify(float[] x) {
+        for (float v : x) {
+            if (Float.isNaN(v)) {
+                return Float.NaN;
+            }
+        }
+        int[] votes = new int[classes.length];
+        for (int t = 0; t < roots.length; t++) {
+            int n = roots[t];
+            while (links[2 * n + 1] >= 0) {
+                n = links[2 * n] + (x[links[2 * n + 1]] > threshold[n] ? 1 : 0);
+            }
+            votes[~links[2 * n + 1]]++;
+        }
+        return classes[argmax(votes, 0, classes.length)];
+    }
+
+    /**
+     * Classifies pixels {@code [offset, offset + n)} of {@code bands} (one array per input, in
+     * {@link #inputs()} order) into {@code out} at the same positions.
+     */
+    public void classify(float[][] bands, int offset, int n, float[] out) {
+        int f = inputs.size();
+        if (bands.length != f) {
+            throw new IllegalArgumentException("Expected " + f + " bands, got " + bands.length);
+        }
+        int k = classes.length;
+        float[] x = new float[f * BLOCK];
+        int[] node = new int[BLOCK];
+        int[] active = new int[BLOCK];
+        int[] votes = new int[BLOCK * k];
+        for (int from = offset, end = offset + n; from < end; from += BLOCK) {
+            int len = Math.min(BLOCK, end - from);
+            for (int b = 0; b < f; b++) {
+                System.arraycopy(bands[b], from, x, b * BLOCK, len);
+            }
+            Arrays.fill(votes, 0, len * k, 0);
+            for (int t = 0; t < roots.length; t++) {
+                int root = roots[t];
+                int live = links[2 * root + 1] >= 0 ? len : 0;
+                for (int p = 0; p < len; p++) {
+                    node[p] = root;
+                    active[p] = p;
+                }
+                // One level per pass over the pixels still at a split. A pixel stays listed
+                // only if it landed on another split; the sign bit of links[2 next + 1] is the count.
+                while (live > 0) {
+                    int kept = 0;
+                    for (int j = 0; j < live; j++) {
+                        int p = active[j];
+                        int m = node[p];
+                        int next = links[2 * m] + (x[links[2 * m + 1] * BLOCK + p] > threshold[m] ? 1 : 0);
+                        node[p] = next;
+                        active[kept] = p;
+                        kept += ~links[2 * next + 1] >>> 31;
+                    }
+                    live = kept;
+                }
+                for (int p = 0; p < len; p++) {
+                    votes[p * k + ~links[2 * node[p] + 1]]++;
+                }
+            }
+            for (int p = 0; p < len; p++) {
+                out[from + p] = classes[argmax(votes, p * k, k)];
+            }
+            for (int b = 0; b < f; b++) {
+                for (int p = 0; p < len; p++) {
+                    if (Float.isNaN(x[b * BLOCK + p])) {
+                        out[from + p] = Float.NaN;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Predicted class of every row of {@code samples}, read from the columns named by
+     * {@link #inputs()}, in chunks of blocks on {@code pool}.
+     */
+    float[] predict(Samples samples, ForkJoinPool pool) {
+        float[][] bands = new float[inputs.size()][];
+        for (int b = 0; b < bands.length; b++) {
+            bands[b] = samples.data(inputs.get(b));
+        }
+        int n = samples.size();
+        float[] out = new float[n];
+        int chunk = 64 * BLOCK;
+        if (n <= chunk) {
+            classify(bands, 0, n, out);
+            return out;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += chunk) {
+            int start = from, len = Math.min(chunk, n - from);
+            tasks.add(() -> {
+                classify(bands, start, len, out);
+                return null;
+            });
+        }
+        for (Future<Void> f : pool.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while classifying", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return out;
+    }
+
+    private static int argmax(int[] votes, int from, int k) {
+        int best = 0;
+        for (int c = 1; c < k; c++) {
+            if (votes[from + c] > votes[from + best]) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        return "RandomForest[" + roots.length + " trees, " + threshold.length + " nodes, inputs=" + inputs + "]";
+    }
+}
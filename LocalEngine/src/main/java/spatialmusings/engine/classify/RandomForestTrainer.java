@@ -0,0 +1,440 @@
+package spatialmusings.engine.classify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Random-forest training with the knobs and defaults of {@code ee.Classifier.smileRandomForest}:
+ * Gini splits on {@code variablesPerSplit} random bands per node (square root of the band count
+ * by default), leaves of at least {@code minLeafPopulation} samples, and each tree grown on a
+ * {@code bagFraction} of the samples drawn without replacement (with replacement at 1.0).
+ *
+ * <p>Every feature column is sorted once for the whole forest. A tree keeps, per feature, its
+ * bag's sample ids in that order, and a node is the same contiguous range in every feature's
+ * list. Finding a node's best split is then one scan per candidate feature over the node's
+ * range with running class counts, and splitting a node stably partitions the ranges. Nothing
+ * is re-sorted below the root and no per-node arrays are allocated. Trees are grown in
+ * parallel on a {@link ForkJoinPool}, each from its own seeded random stream, so the forest
+ * does not depend on the pool size.
+ *
+ * <p>Instances are immutable; the setters return modified copies.
+ */
+public final class RandomForestTrainer {
+
+    private final int numberOfTrees;
+    private final int variablesPerSplit;
+    private final int minLeafPopulation;
+    private final double bagFraction;
+    private final long seed;
+
+    private RandomForestTrainer(int numberOfTrees, int variablesPerSplit, int minLeafPopulation,
+                                double bagFraction, long seed) {
+        if (numberOfTrees < 1 || minLeafPopulation < 1 || !(bagFraction > 0 && bagFraction <= 1)) {
+            throw new IllegalArgumentException("Invalid forest settings: " + numberOfTrees + " trees, min leaf "
+                    + minLeafPopulation + ", bag fraction " + bagFraction);
+        }
+        this.numberOfTrees = numberOfTrees;
+        this.variablesPerSplit = variablesPerSplit;
+        this.minLeafPopulation = minLeafPopulation;
+        this.bagFraction = bagFraction;
+        this.seed = seed;
+    }
+
+    /** {@code smileRandomForest(numberOfTrees)} with ee's defaults. */
+    public static RandomForestTrainer smileRandomForest(int numberOfTrees) {
+        return new RandomForestTrainer(numberOfTrees, 0, 1, 0.5, 0);
+    }
+
+    /** Bands tried per split; 0 means the square root of the band count. */
+    public RandomForestTrainer variablesPerSplit(int n) {
+        return new RandomForestTrainer(numberOfTrees, n, minLeafPopulation, bagFraction, seed);
+    }
+
+    public RandomForestTrainer minLeafPopulation(int n) {
+        return new RandomForestTrainer(numberOfTrees, variablesPerSplit, n, bagFraction, seed);
+    }
+
+    public RandomForestTrainer bagFraction(double fraction) {
+        return new RandomForestTrainer(numberOfTrees, variablesPerSplit, minLeafPopulation, fraction, seed);
+    }
+
+    public RandomForestTrainer seed(long seed) {
+        return new RandomForestTrainer(numberOfTrees, variablesPerSplit, minLeafPopulation, bagFraction, seed);
+    }
+
+    public RandomForest train(Samples samples, String classProperty, List<String> inputProperties) {
+        return train(samples, classProperty, inputProperties, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Trains on the rows of {@code samples}: features from the {@code inputProperties} columns,
+     * classes from the distinct values of {@code classProperty}. Rows with a NaN in any of them
+     * are skipped, as ee skips samples with masked bands.
+     */
+    public RandomForest train(Samples samples, String classProperty, List<String> inputProperties, ForkJoinPool pool) {
+        int p = inputProperties.size();
+        if (p == 0) {
+            throw new IllegalArgumentException("No input properties to train on");
+        }
+        float[][] raw = new float[p][];
+        for (int j = 0; j < p; j++) {
+            raw[j] = samples.data(inputProperties.get(j));
+        }
+        float[] label = samples.data(classProperty);
+        int[] keep = new int[samples.size()];
+        int n = 0;
+        rows:
+        for (int i = 0; i < samples.size(); i++) {
+            if (Float.isNaN(label[i])) {
+                continue;
+            }
+            for (float[] col : raw) {
+                if (Float.isNaN(col[i])) {
+                    continue rows;
+                }
+            }
+            keep[n++] = i;
+        }
+        if (n == 0) {
+            throw new IllegalArgumentException("No complete training samples in " + samples);
+        }
+        float[][] x = new float[p][n];
+        float[] y = new float[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < p; j++) {
+                x[j][i] = raw[j][keep[i]];
+            }
+            y[i] = label[keep[i]];
+        }
+        TreeSet<Float> distinct = new TreeSet<>();
+        for (float v : y) {
+            distinct.add(v);
+        }
+        float[] classes = new float[distinct.size()];
+        int c = 0;
+        for (float v : distinct) {
+            classes[c++] = v;
+        }
+        int[] cls = new int[n];
+        for (int i = 0; i < n; i++) {
+            cls[i] = Arrays.binarySearch(classes, y[i]);
+        }
+        int mtry = variablesPerSplit > 0 ? Math.min(variablesPerSplit, p) : Math.max(1, (int) Math.sqrt(p));
+        Data data = new Data(x, cls, classes.length, presort(x, pool));
+
+        List<Callable<DecisionTree>> tasks = new ArrayList<>(numberOfTrees);
+        for (int t = 0; t < numberOfTrees; t++) {
+            long treeSeed = seed * 0x9E3779B97F4A7C15L + t;
+            tasks.add(() -> new Grower(data, mtry, minLeafPopulation, bagFraction, new SplittableRandom(treeSeed)).grow());
+        }
+        List<DecisionTree> trees = new ArrayList<>(numberOfTrees);
+        for (Future<DecisionTree> f : pool.invokeAll(tasks)) {
+            trees.add(join(f));
+        }
+        return new RandomForest(inputProperties, classes, trees);
+    }
+
+    private static DecisionTree join(Future<DecisionTree> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while training", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /** Row ids of every feature column in ascending value order, sorted as packed longs. */
+    private static int[][] presort(float[][] x, ForkJoinPool pool) {
+        int[][] order = new int[x.length][];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int j = 0; j < x.length; j++) {
+            int feature = j;
+            tasks.add(() -> {
+                float[] col = x[feature];
+                long[] keys = new long[col.length];
+                for (int i = 0; i < col.length; i++) {
+                    int bits = Float.floatToIntBits(col[i]);
+                    // Flip so that signed int order matches float order, then pack the row id below.
+                    bits ^= (bits >> 31) & 0x7FFFFFFF;
+                    keys[i] = ((long) bits << 32) | i;
+                }
+                Arrays.sort(keys);
+                int[] ids = new int[col.length];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = (int) keys[i];
+                }
+                order[feature] = ids;
+                return null;
+            });
+        }
+        for (Future<Void> f : pool.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while training", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return order;
+    }
+
+    /** Training matrix shared read-only by all trees. */
+    private static final class Data {
+        final float[][] x;
+        final int[] cls;
+        final int classes;
+        final int[][] order;
+
+        Data(float[][] x, int[] cls, int classes, int[][] order) {
+            this.x = x;
+            this.cls = cls;
+            this.classes = classes;
+            this.order = order;
+        }
+    }
+
+    /** Grows one tree; all scratch state is per instance. */
+    private static final class Grower {
+        private final Data d;
+        private final int mtry;
+        private final int minLeaf;
+        private final SplittableRandom random;
+        /** Bag multiplicity of every row. */
+        private final int[] weight;
+        /** Per feature, the bag's row ids in value order; a node is one range of each. */
+        private final int[][] sorted;
+        private final int[] scratch;
+        private final boolean[] goesLeft;
+        private final int[] features;
+        private final double[] total;
+        private final double[] left;
+
+        // Growing node arrays of the tree under construction.
+        private int[] feature = new int[64];
+        private float[] threshold = new float[64];
+        private int[] lo = new int[64];
+        private int[] hi = new int[64];
+        private int[] leaf = new int[64];
+        private int[] childLeft = new int[64];
+        private int[] childRight = new int[64];
+        private int nodes;
+
+        // Best split of the node being examined.
+        private int bestFeature;
+        private float bestThreshold;
+        private double bestScore;
+
+        Grower(Data d, int mtry, int minLeaf, double bagFraction, SplittableRandom random) {
+            this.d = d;
+            this.mtry = mtry;
+            this.minLeaf = minLeaf;
+            this.random = random;
+            int n = d.cls.length;
+            weight = new int[n];
+            if (bagFraction >= 1) {
+                for (int i = 0; i < n; i++) {
+                    weight[random.nextInt(n)]++;
+                }
+            } else {
+                int m = Math.max(1, (int) Math.round(n * bagFraction));
+                int[] perm = new int[n];
+                for (int i = 0; i < n; i++) {
+                    perm[i] = i;
+                }
+                for (int i = 0; i < m; i++) {
+                    int k = i + random.nextInt(n - i);
+                    int tmp = perm[i];
+                    perm[i] = perm[k];
+                    perm[k] = tmp;
+                    weight[perm[i]] = 1;
+                }
+            }
+            int bag = 0;
+            for (int w : weight) {
+                if (w > 0) {
+                    bag++;
+                }
+            }
+            int p = d.x.length;
+            sorted = new int[p][bag];
+            for (int j = 0; j < p; j++) {
+                int k = 0;
+                for (int i : d.order[j]) {
+                    if (weight[i] > 0) {
+                        sorted[j][k++] = i;
+                    }
+                }
+            }
+            scratch = new int[bag];
+            goesLeft = new boolean[n];
+            features = new int[p];
+            for (int j = 0; j < p; j++) {
+                features[j] = j;
+            }
+            total = new double[d.classes];
+            left = new double[d.classes];
+        }
+
+        DecisionTree grow() {
+            int root = newNode(0, sorted.length == 0 ? 0 : sorted[0].length);
+            int[] stack = new int[64];
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int node = stack[--top];
+                if (!split(node)) {
+                    continue;
+                }
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * stack.length);
+                }
+                stack[top++] = childRight[node];
+                stack[top++] = childLeft[node];
+            }
+            int[] right = Arrays.copyOf(childRight, nodes);
+            return new DecisionTree(Arrays.copyOf(feature, nodes), Arrays.copyOf(threshold, nodes),
+                    Arrays.copyOf(childLeft, nodes), right, Arrays.copyOf(leaf, nodes));
+        }
+
+        private int newNode(int from, int to) {
+            if (nodes == feature.length) {
+                int size = 2 * nodes;
+                feature = Arrays.copyOf(feature, size);
+                threshold = Arrays.copyOf(threshold, size);
+                lo = Arrays.copyOf(lo, size);
+                hi = Arrays.copyOf(hi, size);
+                leaf = Arrays.copyOf(leaf, size);
+                childLeft = Arrays.copyOf(childLeft, size);
+                childRight = Arrays.copyOf(childRight, size);
+            }
+            int id = nodes++;
+            lo[id] = from;
+            hi[id] = to;
+            feature[id] = -1;
+            return id;
+        }
+
+        /** Splits {@code node} if some split improves purity; otherwise makes it a leaf. */
+        private boolean split(int node) {
+            int from = lo[node], to = hi[node];
+            Arrays.fill(total, 0);
+            double count = 0;
+            int[] any = sorted[0];
+            for (int k = from; k < to; k++) {
+                int i = any[k];
+                total[d.cls[i]] += weight[i];
+                count += weight[i];
+            }
+            int majority = 0;
+            int distinct = 0;
+            double parent = 0;
+            for (int c = 0; c < total.length; c++) {
+                if (total[c] > total[majority]) {
+                    majority = c;
+                }
+                if (total[c] > 0) {
+                    distinct++;
+                }
+                parent += total[c] * total[c];
+            }
+            leaf[node] = majority;
+            if (distinct < 2 || count < 2 * minLeaf) {
+                return false;
+            }
+            bestScore = parent / count;
+            bestFeature = -1;
+            // Partial Fisher-Yates: the first mtry entries of features are this node's candidates.
+            for (int k = 0; k < mtry; k++) {
+                int r = k + random.nextInt(features.length - k);
+                int tmp = features[k];
+                features[k] = features[r];
+                features[r] = tmp;
+                scan(features[k], from, to, count);
+            }
+            if (bestFeature < 0) {
+                return false;
+            }
+            float[] col = d.x[bestFeature];
+            for (int k = from; k < to; k++) {
+                int i = any[k];
+                goesLeft[i] = col[i] <= bestThreshold;
+            }
+            int mid = from;
+            for (int j = 0; j < sorted.length; j++) {
+                mid = partition(sorted[j], from, to);
+            }
+            feature[node] = bestFeature;
+            threshold[node] = bestThreshold;
+            int l = newNode(from, mid);
+            int r = newNode(mid, to);
+            childLeft[node] = l;
+            childRight[node] = r;
+            return true;
+        }
+
+        /** Best Gini split of feature {@code j} over the node's range, kept if it beats the current best. */
+        private void scan(int j, int from, int to, double count) {
+            int[] ids = sorted[j];
+            float[] col = d.x[j];
+            Arrays.fill(left, 0);
+            double nLeft = 0;
+            // sum over classes of left^2 and right^2, updated incrementally.
+            double sqLeft = 0, sqRight = 0;
+            for (double t : total) {
+                sqRight += t * t;
+            }
+            for (int k = from; k < to - 1; k++) {
+                int i = ids[k];
+                int c = d.cls[i];
+                int w = weight[i];
+                double lc = left[c], rc = total[c] - lc;
+                sqLeft += w * (2 * lc + w);
+                sqRight -= w * (2 * rc - w);
+                left[c] = lc + w;
+                nLeft += w;
+                float v = col[i], next = col[ids[k + 1]];
+                if (v == next || nLeft < minLeaf || count - nLeft < minLeaf) {
+                    continue;
+                }
+                double score = sqLeft / nLeft + sqRight / (count - nLeft);
+                if (score > bestScore + 1e-12 * count) {
+                    bestScore = score;
+                    bestFeature = j;
+                    float t = (v + next) / 2;
+                    // Midpoints can round up to next; the split must still send v left and next right.
+                    bestThreshold = t < next ? t : v;
+                }
+            }
+        }
+
+        /** Stable partition of {@code ids[from, to)} by {@link #goesLeft}; returns the first right index. */
+        private int partition(int[] ids, int from, int to) {
+            int l = from, r = 0;
+            for (int k = from; k < to; k++) {
+                int i = ids[k];
+                if (goesLeft[i]) {
+                    ids[l++] = i;
+                } else {
+                    scratch[r++] = i;
+                }
+            }
+            System.arraycopy(scratch, 0, ids, l, r);
+            return l;
+        }
+    }
+}
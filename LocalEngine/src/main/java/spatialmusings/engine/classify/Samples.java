@@ -0,0 +1,206 @@
+package spatialmusings.engine.classify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Training or validation samples as named float columns, the result of
+ * {@code Image.sampleRegions}: one row per sampled pixel, one column per band followed by one
+ * per copied feature property. Instances are immutable.
+ */
+public final class Samples {
+
+    private final List<String> names;
+    private final float[][] columns;
+    private final int size;
+
+    public Samples(List<String> names, float[][] columns) {
+        if (names.size() != columns.length) {
+            throw new IllegalArgumentException("Need one column per name: " + names.size() + " vs " + columns.length);
+        }
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+        this.size = columns.length == 0 ? 0 : columns[0].length;
+        this.columns = new float[columns.length][];
+        for (int c = 0; c < columns.length; c++) {
+            if (columns[c].length != size) {
+                throw new IllegalArgumentException("Column '" + names.get(c) + "' has " + columns[c].length
+                        + " rows, expected " + size);
+            }
+            this.columns[c] = columns[c].clone();
+        }
+    }
+
+    public List<String> names() {
+        return names;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float[] column(String name) {
+        return columns[index(name)].clone();
+    }
+
+    /** Value of column {@code name} in row {@code row}. */
+    public float get(int row, String name) {
+        return columns[index(name)][row];
+    }
+
+    /** The rows listed, in that order. */
+    public Samples rows(int[] rows) {
+        float[][] out = new float[columns.length][rows.length];
+        for (int c = 0; c < columns.length; c++) {
+            for (int i = 0; i < rows.length; i++) {
+                out[c][i] = columns[c][rows[i]];
+            }
+        }
+        return new Samples(names, out);
+    }
+
+    /**
+     * {@code samples.randomColumn(name, seed)}: these rows plus column {@code name} of uniform
+     * values in {@code [0, 1)}, each a hash of {@code seed} and the row index, so a split on it
+     * is the same on every run.
+     */
+    public Samples randomColumn(String name, long seed) {
+        if (names.contains(name)) {
+            throw new IllegalArgumentException("Column '" + name + "' already exists in " + names);
+        }
+        float[] random = new float[size];
+        for (int i = 0; i < size; i++) {
+            long z = seed + (i + 1) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            random[i] = ((z ^ (z >>> 31)) >>> 40) * 0x1.0p-24f;
+        }
+        List<String> outNames = new ArrayList<>(names);
+        outNames.add(name);
+        float[][] out = Arrays.copyOf(columns, columns.length + 1);
+        out[columns.length] = random;
+        return new Samples(outNames, out);
+    }
+
+    /** The rows whose column {@code name} is below {@code value}, e.g. a training split on a random column. */
+    public Samples lt(String name, double value) {
+        return select(name, value, true);
+    }
+
+    /** The rows whose column {@code name} is at least {@code value}; NaN rows are in neither half. */
+    public Samples gte(String name, double value) {
+        return select(name, value, false);
+    }
+
+    private Samples select(String name, double value, boolean below) {
+        float[] col = columns[index(name)];
+        int[] rows = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (below ? col[i] < value : col[i] >= value) {
+                rows[n++] = i;
+            }
+        }
+        return rows(Arrays.copyOf(rows, n));
+    }
+
+    /** {@code samples.classify(classifier)}: these rows plus a {@code classification} column. */
+    public Samples classify(RandomForest forest) {
+        return classify(forest, "classification", ForkJoinPool.commonPool());
+    }
+
+    /**
+     * These rows plus column {@code outputName} holding {@code forest}'s prediction for each,
+     * from the columns named by its inputs; NaN where any input is.
+     */
+    public Samples classify(RandomForest forest, String outputName, ForkJoinPool pool) {
+        if (names.contains(outputName)) {
+            throw new IllegalArgumentException("Column '" + outputName + "' already exists in " + names);
+        }
+        List<String> outNames = new ArrayList<>(names);
+        outNames.add(outputName);
+        float[][] out = Arrays.copyOf(columns, columns.length + 1);
+        out[columns.length] = forest.predict(this, pool);
+        return new Samples(outNames, out);
+    }
+
+    /** {@code samples.errorMatrix(actual, predicted)}: see {@link ConfusionMatrix#of}. */
+    public ConfusionMatrix errorMatrix(String actual, String predicted) {
+        return ConfusionMatrix.of(this, actual, predicted);
+    }
+
+    private int index(String name) {
+        int i = names.indexOf(name);
+        if (i < 0) {
+            throw new IllegalArgumentException("Column '" + name + "' not found in " + names);
+        }
+        return i;
+    }
+
+    /** The column itself rather than a copy, for code in this package that only reads it. */
+    float[] data(String name) {
+        return columns[index(name)];
+    }
+
+    @Override
+    public String toString() {
+        return "Samples[" + size + " rows, " + names + "]";
+    }
+
+    /** Row-at-a-time accumulation, e.g. one builder per tile merged in tile order. */
+    public static final class Builder {
+
+        private final List<String> names;
+        private float[] rows = new float[256];
+        private int count;
+
+        public Builder(List<String> names) {
+            this.names = names;
+        }
+
+        /** Appends one row, given in column order. */
+        public Builder add(float[] row) {
+            int w = names.size();
+            if (row.length != w) {
+                throw new IllegalArgumentException("Row has " + row.length + " values, expected " + w);
+            }
+            ensure(count + 1);
+            System.arraycopy(row, 0, rows, count * w, w);
+            count++;
+            return this;
+        }
+
+        /** Appends the rows of {@code other}, which must have the same columns. */
+        public Builder addAll(Builder other) {
+            int w = names.size();
+            ensure(count + other.count);
+            System.arraycopy(other.rows, 0, rows, count * w, other.count * w);
+            count += other.count;
+            return this;
+        }
+
+        private void ensure(int n) {
+            long needed = (long) n * names.size();
+            if (needed > rows.length) {
+                rows = Arrays.copyOf(rows, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, 2L * rows.length)));
+            }
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public Samples build() {
+            int w = names.size();
+            float[][] columns = new float[w][count];
+            for (int i = 0; i < count; i++) {
+                for (int c = 0; c < w; c++) {
+                    columns[c][i] = rows[i * w + c];
+                }
+            }
+            return new Samples(names, columns);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package spatialmusings.engine.expr;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Immutable per-pixel expression node: a band of an input image, a constant, or a binary
+ * {@link Op} over two nodes. Nodes compare structurally, so identical subexpressions collapse
+ * to one instruction when a {@link Program} is compiled.
+ */
+public final class Expr {
+
+    private enum Kind { BAND, CONSTANT, OP }
+
+    private final Kind kind;
+    private final int input;
+    private final int band;
+    private final float value;
+    private final Op op;
+    private final Expr left;
+    private final Expr right;
+    private final int hash;
+
+    private Expr(Kind kind, int input, int band, float value, Op op, Expr left, Expr right) {
+        this.kind = kind;
+        this.input = input;
+        this.band = band;
+        this.value = value;
+        this.op = op;
+        this.left = left;
+        this.right = right;
+        this.hash = Objects.hash(kind, input, band, Float.floatToIntBits(value), op, left, right);
+    }
+
+    /** Band {@code band} of input image {@code input}. */
+    public static Expr band(int input, int band) {
+        return new Expr(Kind.BAND, input, band, 0, null, null, null);
+    }
+
+    public static Expr constant(double value) {
+        return new Expr(Kind.CONSTANT, -1, -1, (float) value, null, null, null);
+    }
+
+    public static Expr apply(Op op, Expr left, Expr right) {
+        return new Expr(Kind.OP, -1, -1, 0, op, left, right);
+    }
+
+    public boolean isBand() { return kind == Kind.BAND; }
+    public boolean isConstant() { return kind == Kind.CONSTANT; }
+    public boolean isOp() { return kind == Kind.OP; }
+
+    public int input() { return input; }
+    public int band() { return band; }
+    public float value() { return value; }
+    public Op op() { return op; }
+    public Expr left() { return left; }
+    public Expr right() { return right; }
+
+    /** Same expression with every band reference's input {@code i} replaced by {@code mapping[i]}. */
+    public Expr remapInputs(int[] mapping) {
+        switch (kind) {
+            case BAND: return mapping[input] == input ? this : band(mapping[input], band);
+            case CONSTANT: return this;
+            default: return apply(op, left.remapInputs(mapping), right.remapInputs(mapping));
+        }
+    }
+
+    /** Number of operator nodes, counting shared subtrees once per occurrence. */
+    public int size() {
+        return kind == Kind.OP ? 1 + left.size() + right.size() : 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Expr)) {
+            return false;
+        }
+        Expr e = (Expr) o;
+        return hash == e.hash && kind == e.kind && input == e.input && band == e.band
+                && Float.floatToIntBits(value) == Float.floatToIntBits(e.value)
+                && op == e.op && Objects.equals(left, e.left) && Objects.equals(right, e.right);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case BAND: return "in" + input + "[" + band + "]";
+            case CONSTANT: return Float.toString(value);
+            default: return op.name().toLowerCase(Locale.ROOT) + "(" + left + ", " + right + ")";
+        }
+    }
+}
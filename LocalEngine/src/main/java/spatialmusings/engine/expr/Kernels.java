@@ -0,0 +1,27 @@
+package spatialmusings.engine.expr;
+
+/**
+ * Block kernels a {@link Program} runs: one operator over {@code n} consecutive floats.
+ * Implementations must match {@link Op#apply} exactly in which pixels end up NaN.
+ */
+public interface Kernels {
+
+    /** System property that forces a kernel set: {@code scalar} or {@code vector}. */
+    String PROPERTY = "spatialmusings.kernels";
+
+    /** {@code out[oo + i] = op(a[ao + i], b[bo + i])}. */
+    void apply(Op op, float[] a, int ao, float[] b, int bo, float[] out, int oo, int n);
+
+    /** {@code out[oo + i] = op(a[ao + i], c)}. */
+    void apply(Op op, float[] a, int ao, float c, float[] out, int oo, int n);
+
+    String name();
+
+    /**
+     * The Vector API kernels when they were compiled in and {@code jdk.incubator.vector} is
+     * available at run time, the scalar kernels otherwise.
+     */
+    static Kernels best() {
+        return KernelsHolder.BEST;
+    }
+}
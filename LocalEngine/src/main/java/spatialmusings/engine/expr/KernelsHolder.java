@@ -0,0 +1,26 @@
+package spatialmusings.engine.expr;
+
+/** Resolves {@link Kernels#best()} once, lazily. */
+final class KernelsHolder {
+
+    static final Kernels BEST = resolve();
+
+    private KernelsHolder() {
+    }
+
+    private static Kernels resolve() {
+        String forced = System.getProperty(Kernels.PROPERTY, "");
+        if (!"scalar".equals(forced)) {
+            try {
+                // Compiled from src/vector only when the incubator module is present; see README.
+                Class<?> c = Class.forName("spatialmusings.engine.expr.VectorKernels");
+                return (Kernels) c.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                if ("vector".equals(forced)) {
+                    throw new IllegalStateException("Vector kernels requested but unavailable", e);
+                }
+            }
+        }
+        return ScalarKernels.INSTANCE;
+    }
+}
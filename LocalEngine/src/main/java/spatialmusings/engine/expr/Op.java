@@ -0,0 +1,44 @@
+package spatialmusings.engine.expr;
+
+/**
+ * Binary per-pixel operators. Every operator returns NaN when either operand is NaN, so masks
+ * propagate; comparisons yield 1 or 0 otherwise.
+ */
+public enum Op {
+    ADD, SUBTRACT, MULTIPLY,
+    /** Division by zero masks the pixel. */
+    DIVIDE,
+    /** {@code (a - b) / (a + b)}; a negative operand masks the pixel and {@code 0 / 0} is 0, as in ee. */
+    NORMALIZED_DIFFERENCE,
+    MIN, MAX,
+    GT, GTE, LT, LTE, EQ, NEQ;
+
+    /** Reference scalar semantics; kernels must agree with this bit for bit on NaN handling. */
+    public float apply(float a, float b) {
+        if (Float.isNaN(a) || Float.isNaN(b)) {
+            return Float.NaN;
+        }
+        switch (this) {
+            case ADD: return a + b;
+            case SUBTRACT: return a - b;
+            case MULTIPLY: return a * b;
+            case DIVIDE: return b == 0 ? Float.NaN : a / b;
+            case NORMALIZED_DIFFERENCE: {
+                if (a < 0 || b < 0) {
+                    return Float.NaN;
+                }
+                float sum = a + b;
+                return sum == 0 ? 0f : (a - b) / sum;
+            }
+            case MIN: return Math.min(a, b);
+            case MAX: return Math.max(a, b);
+            case GT: return a > b ? 1 : 0;
+            case GTE: return a >= b ? 1 : 0;
+            case LT: return a < b ? 1 : 0;
+            case LTE: return a <= b ? 1 : 0;
+            case EQ: return a == b ? 1 : 0;
+            case NEQ: return a != b ? 1 : 0;
+            default: throw new AssertionError(this);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package spatialmusings.engine.expr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of output expressions compiled into one straight-line block program.
+ *
+ * <p>Each distinct band reference becomes a leaf slot and each distinct operator node one
+ * instruction writing its own register, so shared subexpressions are computed once. The
+ * program runs over the tile in blocks of {@link #BLOCK} pixels: every instruction processes a
+ * block before the next one starts, so intermediates stay in cache-sized registers and the tile
+ * is streamed from memory once per output instead of once per operator.
+ */
+public final class Program {
+
+    public static final int BLOCK = 1024;
+
+    /** Operand marker for an immediate constant; registers are encoded as {@code ~index}. */
+    private static final int CONSTANT = Integer.MIN_VALUE;
+
+    private final List<int[]> leaves = new ArrayList<>();
+    private final Map<Expr, Integer> slots = new HashMap<>();
+    private final List<Op> ops = new ArrayList<>();
+    private final List<Integer> lefts = new ArrayList<>();
+    private final List<Integer> rights = new ArrayList<>();
+    private final List<Float> constants = new ArrayList<>();
+    private final int[] outputs;
+    private final float[] outputConstants;
+
+    private final Op[] opArray;
+    private final int[] leftArray;
+    private final int[] rightArray;
+    private final float[] constArray;
+
+    public Program(List<Expr> roots) {
+        outputs = new int[roots.size()];
+        outputConstants = new float[roots.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            Expr root = roots.get(i);
+            if (root.isConstant()) {
+                outputs[i] = CONSTANT;
+                outputConstants[i] = root.value();
+            } else {
+                outputs[i] = compile(root);
+            }
+        }
+        opArray = ops.toArray(new Op[0]);
+        leftArray = lefts.stream().mapToInt(Integer::intValue).toArray();
+        rightArray = rights.stream().mapToInt(Integer::intValue).toArray();
+        constArray = new float[constants.size()];
+        for (int i = 0; i < constArray.length; i++) {
+            constArray[i] = constants.get(i);
+        }
+    }
+
+    /** Returns the slot holding {@code e}: a leaf index, or {@code ~k} for instruction {@code k}'s register. */
+    private int compile(Expr e) {
+        Integer known = slots.get(e);
+        if (known != null) {
+            return known;
+        }
+        int slot;
+        if (e.isBand()) {
+            slot = leaves.size();
+            leaves.add(new int[] {e.input(), e.band()});
+            slots.put(e, slot);
+            return slot;
+        }
+        Expr l = e.left(), r = e.right();
+        if (l.isConstant() && !r.isConstant() && commutes(e.op())) {
+            l = e.right();
+            r = e.left();
+        }
+        int left = l.isConstant() ? materialise(l.value()) : compile(l);
+        int right = r.isConstant() ? CONSTANT : compile(r);
+        ops.add(e.op());
+        lefts.add(left);
+        rights.add(right);
+        constants.add(r.isConstant() ? r.value() : 0f);
+        slot = ~(ops.size() - 1);
+        slots.put(e, slot);
+        return slot;
+    }
+
+    /** A constant on the left of a non-commuting operator is broadcast into a register. */
+    private int materialise(float value) {
+        Expr key = Expr.constant(value);
+        Integer known = slots.get(key);
+        if (known != null) {
+            return known;
+        }
+        ops.add(Op.ADD);
+        lefts.add(CONSTANT);
+        rights.add(CONSTANT);
+        constants.add(value);
+        int slot = ~(ops.size() - 1);
+        slots.put(key, slot);
+        return slot;
+    }
+
+    private static boolean commutes(Op op) {
+        return op == Op.ADD || op == Op.MULTIPLY || op == Op.MIN || op == Op.MAX || op == Op.EQ || op == Op.NEQ;
+    }
+
+    /** {@code {input, band}} for every leaf slot, in slot order. */
+    public List<int[]> leaves() {
+        return Collections.unmodifiableList(leaves);
+    }
+
+    public int instructionCount() {
+        return opArray.length;
+    }
+
+    /**
+     * Runs the program over {@code n} pixels. {@code leafData[s]} is the data for leaf slot
+     * {@code s}; {@code out[k]} receives output {@code k}.
+     */
+    public void run(Kernels kernels, float[][] leafData, float[][] out, int n) {
+        float[][] registers = new float[opArray.length][BLOCK];
+        for (int start = 0; start < n; start += BLOCK) {
+            int len = Math.min(BLOCK, n - start);
+            for (int k = 0; k < opArray.length; k++) {
+                int l = leftArray[k];
+                int r = rightArray[k];
+                float[] dst = registers[k];
+                if (l == CONSTANT) {
+                    Arrays.fill(dst, 0, len, constArray[k]);
+                    continue;
+                }
+                float[] a = l >= 0 ? leafData[l] : registers[~l];
+                int ao = l >= 0 ? start : 0;
+                if (r == CONSTANT) {
+                    kernels.apply(opArray[k], a, ao, constArray[k], dst, 0, len);
+                } else {
+                    float[] b = r >= 0 ? leafData[r] : registers[~r];
+                    kernels.apply(opArray[k], a, ao, b, r >= 0 ? start : 0, dst, 0, len);
+                }
+            }
+            for (int o = 0; o < outputs.length; o++) {
+                int s = outputs[o];
+                if (s == CONSTANT) {
+                    Arrays.fill(out[o], start, start + len, outputConstants[o]);
+                } else if (s >= 0) {
+                    System.arraycopy(leafData[s], start, out[o], start, len);
+                } else {
+                    System.arraycopy(registers[~s], 0, out[o], start, len);
+                }
+            }
+        }
+    }
+}
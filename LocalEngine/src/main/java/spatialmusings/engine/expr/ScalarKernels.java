@@ -0,0 +1,99 @@
+package spatialmusings.engine.expr;
+
+import java.util.Arrays;
+
+/** Portable kernels: one tight loop per operator, which HotSpot auto-vectorises where it can. */
+public final class ScalarKernels implements Kernels {
+
+    public static final ScalarKernels INSTANCE = new ScalarKernels();
+
+    private ScalarKernels() {
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public void apply(Op op, float[] a, int ao, float[] b, int bo, float[] out, int oo, int n) {
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    out[oo + i] = a[ao + i] + b[bo + i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < n; i++) {
+                    out[oo + i] = a[ao + i] - b[bo + i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < n; i++) {
+                    out[oo + i] = a[ao + i] * b[bo + i];
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < n; i++) {
+                    float y = b[bo + i];
+                    out[oo + i] = y == 0 ? Float.NaN : a[ao + i] / y;
+                }
+                break;
+            case NORMALIZED_DIFFERENCE:
+                for (int i = 0; i < n; i++) {
+                    float x = a[ao + i], y = b[bo + i];
+                    float sum = x + y;
+                    // NaN fails both comparisons, so masked operands land in the first branch.
+                    out[oo + i] = !(x >= 0 && y >= 0) ? Float.NaN : sum == 0 ? 0f : (x - y) / sum;
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    out[oo + i] = op.apply(a[ao + i], b[bo + i]);
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void apply(Op op, float[] a, int ao, float c, float[] out, int oo, int n) {
+        if (Float.isNaN(c)) {
+            Arrays.fill(out, oo, oo + n, Float.NaN);
+            return;
+        }
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    out[oo + i] = a[ao + i] + c;
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < n; i++) {
+                    out[oo + i] = a[ao + i] - c;
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < n; i++) {
+                    out[oo + i] = a[ao + i] * c;
+                }
+                break;
+            case GT:
+                for (int i = 0; i < n; i++) {
+                    float v = a[ao + i];
+                    out[oo + i] = v != v ? Float.NaN : v > c ? 1f : 0f;
+                }
+                break;
+            case GTE:
+                for (int i = 0; i < n; i++) {
+                    float v = a[ao + i];
+                    out[oo + i] = v != v ? Float.NaN : v >= c ? 1f : 0f;
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    out[oo + i] = op.apply(a[ao + i], c);
+                }
+                break;
+        }
+    }
+}
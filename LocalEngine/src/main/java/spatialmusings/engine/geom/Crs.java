@@ -0,0 +1,229 @@
+package spatialmusings.engine.geom;
+
+import java.util.Locale;
+
+/**
+ * Coordinate reference system identified by its EPSG code.
+ *
+ * <p>Only the systems our Kenyan workflows actually meet are implemented: geographic WGS84
+ * (EPSG:4326, the CRS of kenya_wards and GAUL), Web Mercator (EPSG:3857) and the WGS84 UTM
+ * zones (EPSG:326xx north, 327xx south) that Sentinel-2 granules are delivered in. Any other
+ * code can still be carried around and compared, but transforming out of or into it throws
+ * {@link UnsupportedOperationException}.
+ */
+public final class Crs {
+
+    public static final Crs WGS84 = new Crs(4326);
+    public static final Crs WEB_MERCATOR = new Crs(3857);
+
+    private static final double A = 6378137.0;
+    private static final double F = 1 / 298.257223563;
+    private static final double E2 = F * (2 - F);
+    private static final double EP2 = E2 / (1 - E2);
+    private static final double K0 = 0.9996;
+    private static final double M1 = 1 - E2 / 4 - 3 * E2 * E2 / 64 - 5 * E2 * E2 * E2 / 256;
+    private static final double M2 = 3 * E2 / 8 + 3 * E2 * E2 / 32 + 45 * E2 * E2 * E2 / 1024;
+    private static final double M3 = 15 * E2 * E2 / 256 + 45 * E2 * E2 * E2 / 1024;
+    private static final double M4 = 35 * E2 * E2 * E2 / 3072;
+    private static final double E1 = (1 - Math.sqrt(1 - E2)) / (1 + Math.sqrt(1 - E2));
+
+    private final int code;
+
+    private Crs(int code) {
+        this.code = code;
+    }
+
+    public static Crs epsg(int code) {
+        switch (code) {
+            case 4326: return WGS84;
+            case 3857: return WEB_MERCATOR;
+            default: return new Crs(code);
+        }
+    }
+
+    /** Parses {@code "EPSG:32737"} (case-insensitive) or a bare code. */
+    public static Crs parse(String text) {
+        String s = text.trim().toUpperCase(Locale.ROOT);
+        if (s.startsWith("EPSG:")) {
+            s = s.substring(5);
+        }
+        try {
+            return epsg(Integer.parseInt(s));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an EPSG code: " + text, e);
+        }
+    }
+
+    /** UTM zone on the WGS84 datum that contains the given longitude. */
+    public static Crs utmFor(double lon, double lat) {
+        int zone = (int) Math.floor((lon + 180) / 6) + 1;
+        zone = Math.max(1, Math.min(60, zone));
+        return epsg((lat >= 0 ? 32600 : 32700) + zone);
+    }
+
+    public int code() {
+        return code;
+    }
+
+    public boolean isGeographic() {
+        return code == 4326;
+    }
+
+    public boolean isSupported() {
+        return code == 4326 || code == 3857 || utmZone() > 0;
+    }
+
+    private int utmZone() {
+        int zone = code % 100;
+        int hemisphere = code - zone;
+        return (hemisphere == 32600 || hemisphere == 32700) && zone >= 1 && zone <= 60 ? zone : 0;
+    }
+
+    /** Transforms interleaved {@code x, y} coordinates from {@code from} to {@code to}. */
+    public static double[] transform(Crs from, Crs to, double[] xy) {
+        double[] out = xy.clone();
+        if (from.equals(to)) {
+            return out;
+        }
+        from.toLonLat(out);
+        to.fromLonLat(out);
+        return out;
+    }
+
+    /** Transforms a single point, returning {@code {x, y}}. */
+    public static double[] transform(Crs from, Crs to, double x, double y) {
+        return transform(from, to, new double[] {x, y});
+    }
+
+    /** In place: native coordinates to longitude/latitude in degrees. */
+    void toLonLat(double[] xy) {
+        if (code == 4326) {
+            return;
+        }
+        if (code == 3857) {
+            for (int i = 0; i + 1 < xy.length; i += 2) {
+                xy[i] = Math.toDegrees(xy[i] / A);
+                xy[i + 1] = Math.toDegrees(Math.atan(Math.sinh(xy[i + 1] / A)));
+            }
+            return;
+        }
+        int zone = requireUtm();
+        double lon0 = Math.toRadians(zone * 6 - 183);
+        double falseNorthing = code >= 32700 ? 10_000_000 : 0;
+        for (int i = 0; i + 1 < xy.length; i += 2) {
+            double x = xy[i] - 500_000;
+            double m = (xy[i + 1] - falseNorthing) / K0;
+            double mu = m / (A * M1);
+            double phi1 = mu
+                    + (3 * E1 / 2 - 27 * E1 * E1 * E1 / 32) * Math.sin(2 * mu)
+                    + (21 * E1 * E1 / 16 - 55 * E1 * E1 * E1 * E1 / 32) * Math.sin(4 * mu)
+                    + (151 * E1 * E1 * E1 / 96) * Math.sin(6 * mu)
+                    + (1097 * E1 * E1 * E1 * E1 / 512) * Math.sin(8 * mu);
+            double sin1 = Math.sin(phi1);
+            double cos1 = Math.cos(phi1);
+            double tan1 = Math.tan(phi1);
+            double c1 = EP2 * cos1 * cos1;
+            double t1 = tan1 * tan1;
+            double w = 1 - E2 * sin1 * sin1;
+            double n1 = A / Math.sqrt(w);
+            double r1 = A * (1 - E2) / (w * Math.sqrt(w));
+            double d = x / (n1 * K0);
+            double d2 = d * d;
+            double lat = phi1 - (n1 * tan1 / r1) * (d2 / 2
+                    - (5 + 3 * t1 + 10 * c1 - 4 * c1 * c1 - 9 * EP2) * d2 * d2 / 24
+                    + (61 + 90 * t1 + 298 * c1 + 45 * t1 * t1 - 252 * EP2 - 3 * c1 * c1) * d2 * d2 * d2 / 720);
+            double lon = lon0 + (d
+                    - (1 + 2 * t1 + c1) * d2 * d / 6
+                    + (5 - 2 * c1 + 28 * t1 - 3 * c1 * c1 + 8 * EP2 + 24 * t1 * t1) * d2 * d2 * d / 120) / cos1;
+            xy[i] = Math.toDegrees(lon);
+            xy[i + 1] = Math.toDegrees(lat);
+        }
+    }
+
+    /** In place: longitude/latitude in degrees to native coordinates. */
+    void fromLonLat(double[] xy) {
+        if (code == 4326) {
+            return;
+        }
+        if (code == 3857) {
+            for (int i = 0; i + 1 < xy.length; i += 2) {
+                xy[i] = A * Math.toRadians(xy[i]);
+                xy[i + 1] = A * Math.log(Math.tan(Math.PI / 4 + Math.toRadians(xy[i + 1]) / 2));
+            }
+            return;
+        }
+        int zone = requireUtm();
+        double lon0 = Math.toRadians(zone * 6 - 183);
+        double falseNorthing = code >= 32700 ? 10_000_000 : 0;
+        for (int i = 0; i + 1 < xy.length; i += 2) {
+            double phi = Math.toRadians(xy[i + 1]);
+            double sin = Math.sin(phi);
+            double cos = Math.cos(phi);
+            double tan = Math.tan(phi);
+            double n = A / Math.sqrt(1 - E2 * sin * sin);
+            double t = tan * tan;
+            double c = EP2 * cos * cos;
+            double a = (Math.toRadians(xy[i]) - lon0) * cos;
+            double a2 = a * a;
+            double m = A * (M1 * phi - M2 * Math.sin(2 * phi) + M3 * Math.sin(4 * phi) - M4 * Math.sin(6 * phi));
+            double x = K0 * n * (a
+                    + (1 - t + c) * a2 * a / 6
+                    + (5 - 18 * t + t * t + 72 * c - 58 * EP2) * a2 * a2 * a / 120);
+            double y = K0 * (m + n * tan * (a2 / 2
+                    + (5 - t + 9 * c + 4 * c * c) * a2 * a2 / 24
+                    + (61 - 58 * t + t * t + 600 * c - 330 * EP2) * a2 * a2 * a2 / 720));
+            xy[i] = x + 500_000;
+            xy[i + 1] = y + falseNorthing;
+        }
+    }
+
+    /**
+     * Area in square metres of the axis-aligned cell {@code [x0, x1] x [y0, y1]} in this CRS.
+     *
+     * <p>Geographic and Web Mercator cells are measured on the WGS84 ellipsoid (the closed-form
+     * area of a latitude band), so the area of a pixel depends only on its row. UTM cells return
+     * their grid area, which is within the square of the 0.9996 scale factor of the ground area
+     * anywhere in the zone and is what areas computed in the projected CRS agree with.
+     */
+    public double cellArea(double x0, double y0, double x1, double y1) {
+        if (code == 4326 || code == 3857) {
+            double[] ll = {x0, y0, x1, y1};
+            toLonLat(ll);
+            double dLon = Math.toRadians(Math.abs(ll[2] - ll[0]));
+            double q = authalic(Math.toRadians(ll[3])) - authalic(Math.toRadians(ll[1]));
+            return A * A * (1 - E2) / 2 * dLon * Math.abs(q);
+        }
+        requireUtm();
+        return Math.abs((x1 - x0) * (y1 - y0));
+    }
+
+    /** The ellipsoid's {@code q(phi)}; a latitude band's area is proportional to its difference. */
+    private static double authalic(double phi) {
+        double e = Math.sqrt(E2);
+        double s = Math.sin(phi);
+        return s / (1 - E2 * s * s) - Math.log((1 - e * s) / (1 + e * s)) / (2 * e);
+    }
+
+    private int requireUtm() {
+        int zone = utmZone();
+        if (zone == 0) {
+            throw new UnsupportedOperationException("No transform implemented for " + this);
+        }
+        return zone;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Crs && ((Crs) o).code == code;
+    }
+
+    @Override
+    public int hashCode() {
+        return code;
+    }
+
+    @Override
+    public String toString() {
+        return "EPSG:" + code;
+    }
+}
@@ -0,0 +1,118 @@
+package spatialmusings.engine.geom;
+
+/**
+ * Axis-aligned bounding box in the units of whatever CRS it was computed in.
+ * An envelope does not carry its CRS; callers keep track of it alongside.
+ */
+public final class Envelope {
+
+    public static final Envelope EMPTY = new Envelope(
+            Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    public Envelope(double minX, double minY, double maxX, double maxY) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /** Envelope of interleaved {@code x, y} coordinates. */
+    public static Envelope of(double[] xy) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i + 1 < xy.length; i += 2) {
+            minX = Math.min(minX, xy[i]);
+            maxX = Math.max(maxX, xy[i]);
+            minY = Math.min(minY, xy[i + 1]);
+            maxY = Math.max(maxY, xy[i + 1]);
+        }
+        return new Envelope(minX, minY, maxX, maxY);
+    }
+
+    public double minX() { return minX; }
+    public double minY() { return minY; }
+    public double maxX() { return maxX; }
+    public double maxY() { return maxY; }
+
+    public double width() { return isEmpty() ? 0 : maxX - minX; }
+    public double height() { return isEmpty() ? 0 : maxY - minY; }
+
+    public boolean isEmpty() {
+        return !(minX <= maxX && minY <= maxY);
+    }
+
+    public boolean contains(double x, double y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    public boolean contains(Envelope other) {
+        return !other.isEmpty() && other.minX >= minX && other.maxX <= maxX
+                && other.minY >= minY && other.maxY <= maxY;
+    }
+
+    public boolean intersects(Envelope other) {
+        return !isEmpty() && !other.isEmpty()
+                && other.minX <= maxX && other.maxX >= minX
+                && other.minY <= maxY && other.maxY >= minY;
+    }
+
+    public Envelope intersection(Envelope other) {
+        if (!intersects(other)) {
+            return EMPTY;
+        }
+        return new Envelope(Math.max(minX, other.minX), Math.max(minY, other.minY),
+                Math.min(maxX, other.maxX), Math.min(maxY, other.maxY));
+    }
+
+    public Envelope union(Envelope other) {
+        if (isEmpty()) {
+            return other;
+        }
+        if (other.isEmpty()) {
+            return this;
+        }
+        return new Envelope(Math.min(minX, other.minX), Math.min(minY, other.minY),
+                Math.max(maxX, other.maxX), Math.max(maxY, other.maxY));
+    }
+
+    public Envelope expand(double distance) {
+        return isEmpty() ? this
+                : new Envelope(minX - distance, minY - distance, maxX + distance, maxY + distance);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Envelope)) {
+            return false;
+        }
+        Envelope e = (Envelope) o;
+        if (isEmpty() || e.isEmpty()) {
+            return isEmpty() && e.isEmpty();
+        }
+        return minX == e.minX && minY == e.minY && maxX == e.maxX && maxY == e.maxY;
+    }
+
+    @Override
+    public int hashCode() {
+        if (isEmpty()) {
+            return 0;
+        }
+        long h = Double.doubleToLongBits(minX);
+        h = 31 * h + Double.doubleToLongBits(minY);
+        h = 31 * h + Double.doubleToLongBits(maxX);
+        h = 31 * h + Double.doubleToLongBits(maxY);
+        return Long.hashCode(h);
+    }
+
+    @Override
+    public String toString() {
+        return isEmpty() ? "Envelope[empty]"
+                : "Envelope[" + minX + ", " + minY + ", " + maxX + ", " + maxY + "]";
+    }
+}
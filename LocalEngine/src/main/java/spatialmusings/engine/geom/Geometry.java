@@ -0,0 +1,472 @@
+package spatialmusings.engine.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Point, polygon or multipolygon in a given CRS, the local stand-in for {@code ee.Geometry}.
+ *
+ * <p>Coordinates are stored as {@code polygons[p][r]} = interleaved {@code x, y} of ring
+ * {@code r} of polygon {@code p}; ring 0 is the shell and the rest are holes. A point is
+ * stored as a single one-vertex ring. Containment uses the even-odd rule over all rings of a
+ * polygon, so ring orientation does not matter.
+ */
+public final class Geometry {
+
+    public enum Type { POINT, POLYGON, MULTIPOLYGON }
+
+    private final Type type;
+    private final Crs crs;
+    private final double[][][] polygons;
+    private final Envelope envelope;
+    /** Structural hash, cached: geometries key rasterized-mask caches and are hashed often. */
+    private final int hash;
+
+    private Geometry(Type type, Crs crs, double[][][] polygons) {
+        this.type = type;
+        this.crs = crs;
+        this.polygons = polygons;
+        Envelope env = Envelope.EMPTY;
+        for (double[][] polygon : polygons) {
+            if (polygon.length > 0) {
+                env = env.union(Envelope.of(polygon[0]));
+            }
+        }
+        this.envelope = env;
+        this.hash = 31 * crs.hashCode() + Arrays.deepHashCode(polygons);
+    }
+
+    public static Geometry point(double lon, double lat) {
+        return point(Crs.WGS84, lon, lat);
+    }
+
+    public static Geometry point(Crs crs, double x, double y) {
+        return new Geometry(Type.POINT, crs, new double[][][] {{{x, y}}});
+    }
+
+    /** Polygon from a shell ring and optional hole rings, each as interleaved {@code x, y}. */
+    public static Geometry polygon(Crs crs, double[]... rings) {
+        return new Geometry(Type.POLYGON, crs, new double[][][] {rings});
+    }
+
+    public static Geometry multiPolygon(Crs crs, double[][][] polygons) {
+        return new Geometry(polygons.length == 1 ? Type.POLYGON : Type.MULTIPOLYGON, crs, polygons);
+    }
+
+    /**
+     * Polygon or multipolygon from rings that carry their role in their orientation, as in a
+     * shapefile: clockwise rings are shells, and each counter-clockwise ring becomes a hole of
+     * the shell that contains it (or a shell of its own if none does).
+     */
+    public static Geometry fromOrientedRings(Crs crs, List<double[]> rings) {
+        List<List<double[]>> polygons = new ArrayList<>();
+        List<double[]> holes = new ArrayList<>();
+        for (double[] ring : rings) {
+            if (signedArea(ring) <= 0) {
+                List<double[]> polygon = new ArrayList<>();
+                polygon.add(ring);
+                polygons.add(polygon);
+            } else {
+                holes.add(ring);
+            }
+        }
+        for (double[] hole : holes) {
+            List<double[]> owner = null;
+            for (List<double[]> polygon : polygons) {
+                double[] shell = polygon.get(0);
+                if (Envelope.of(shell).contains(hole[0], hole[1])
+                        && containsInPolygon(new double[][] {shell}, hole[0], hole[1])) {
+                    owner = polygon;
+                    break;
+                }
+            }
+            if (owner == null) {
+                owner = new ArrayList<>();
+                polygons.add(owner);
+            }
+            owner.add(hole);
+        }
+        double[][][] out = new double[polygons.size()][][];
+        for (int p = 0; p < out.length; p++) {
+            out[p] = polygons.get(p).toArray(new double[0][]);
+        }
+        return multiPolygon(crs, out);
+    }
+
+    public static Geometry rectangle(Crs crs, Envelope env) {
+        return polygon(crs, new double[] {
+            env.minX(), env.minY(), env.maxX(), env.minY(),
+            env.maxX(), env.maxY(), env.minX(), env.maxY(), env.minX(), env.minY()});
+    }
+
+    /** Union of several geometries, the equivalent of {@code FeatureCollection.geometry()}. */
+    public static Geometry union(Crs crs, List<Geometry> parts) {
+        List<double[][]> polygons = new ArrayList<>();
+        for (Geometry g : parts) {
+            Geometry t = g.transform(crs);
+            if (t.type != Type.POINT) {
+                polygons.addAll(Arrays.asList(t.polygons));
+            }
+        }
+        return multiPolygon(crs, polygons.toArray(new double[0][][]));
+    }
+
+    /** Parses {@code POINT}, {@code POLYGON} and {@code MULTIPOLYGON} well-known text. */
+    public static Geometry fromWkt(String wkt, Crs crs) {
+        String s = wkt.trim();
+        int open = s.indexOf('(');
+        if (open < 0) {
+            throw new IllegalArgumentException("Unsupported WKT: " + wkt);
+        }
+        String kind = s.substring(0, open).trim().toUpperCase(Locale.ROOT);
+        String body = s.substring(open);
+        switch (kind) {
+            case "POINT": {
+                double[] xy = parseRing(body.substring(1, body.lastIndexOf(')')));
+                return point(crs, xy[0], xy[1]);
+            }
+            case "POLYGON":
+                return multiPolygon(crs, new double[][][] {parsePolygon(body)});
+            case "MULTIPOLYGON": {
+                List<double[][]> polygons = new ArrayList<>();
+                for (String part : splitTopLevel(body.substring(1, body.lastIndexOf(')')))) {
+                    polygons.add(parsePolygon(part));
+                }
+                return multiPolygon(crs, polygons.toArray(new double[0][][]));
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported WKT type: " + kind);
+        }
+    }
+
+    private static double[][] parsePolygon(String body) {
+        String inner = body.trim();
+        inner = inner.substring(1, inner.lastIndexOf(')'));
+        List<String> rings = splitTopLevel(inner);
+        double[][] out = new double[rings.size()][];
+        for (int i = 0; i < out.length; i++) {
+            String r = rings.get(i).trim();
+            out[i] = parseRing(r.substring(1, r.lastIndexOf(')')));
+        }
+        return out;
+    }
+
+    private static List<String> splitTopLevel(String s) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                parts.add(s.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(s.substring(start));
+        return parts;
+    }
+
+    private static double[] parseRing(String s) {
+        String[] vertices = s.split(",");
+        double[] xy = new double[vertices.length * 2];
+        for (int i = 0; i < vertices.length; i++) {
+            String[] parts = vertices[i].trim().split("\\s+");
+            xy[2 * i] = Double.parseDouble(parts[0]);
+            xy[2 * i + 1] = Double.parseDouble(parts[1]);
+        }
+        return xy;
+    }
+
+    /** Well-known text that {@link #fromWkt} reads back: {@code POINT}, {@code POLYGON} or {@code MULTIPOLYGON}. */
+    public String toWkt() {
+        StringBuilder sb = new StringBuilder();
+        if (type == Type.POINT) {
+            double[] xy = polygons[0][0];
+            return sb.append("POINT (").append(xy[0]).append(' ').append(xy[1]).append(')').toString();
+        }
+        sb.append(type == Type.POLYGON ? "POLYGON " : "MULTIPOLYGON (");
+        for (int p = 0; p < polygons.length; p++) {
+            sb.append(p == 0 ? "(" : ", (");
+            for (int r = 0; r < polygons[p].length; r++) {
+                double[] ring = polygons[p][r];
+                sb.append(r == 0 ? "(" : ", (");
+                for (int i = 0; i < ring.length; i += 2) {
+                    sb.append(i == 0 ? "" : ", ").append(ring[i]).append(' ').append(ring[i + 1]);
+                }
+                sb.append(')');
+            }
+            sb.append(')');
+        }
+        return type == Type.POLYGON ? sb.toString() : sb.append(')').toString();
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public Crs crs() {
+        return crs;
+    }
+
+    public Envelope envelope() {
+        return envelope;
+    }
+
+    public int polygonCount() {
+        return type == Type.POINT ? 0 : polygons.length;
+    }
+
+    /** Rings of polygon {@code p}; callers must not modify the returned arrays. */
+    public double[][] rings(int p) {
+        return polygons[p];
+    }
+
+    public boolean isEmpty() {
+        return envelope.isEmpty();
+    }
+
+    public Geometry transform(Crs target) {
+        if (crs.equals(target)) {
+            return this;
+        }
+        double[][][] out = new double[polygons.length][][];
+        for (int p = 0; p < polygons.length; p++) {
+            out[p] = new double[polygons[p].length][];
+            for (int r = 0; r < polygons[p].length; r++) {
+                out[p][r] = Crs.transform(crs, target, polygons[p][r]);
+            }
+        }
+        return new Geometry(type, target, out);
+    }
+
+    /** Even-odd point-in-polygon test; always false for point geometries. */
+    public boolean contains(double x, double y) {
+        if (type == Type.POINT || !envelope.contains(x, y)) {
+            return false;
+        }
+        for (double[][] polygon : polygons) {
+            if (Envelope.of(polygon[0]).contains(x, y) && containsInPolygon(polygon, x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsInPolygon(double[][] rings, double x, double y) {
+        boolean inside = false;
+        for (double[] ring : rings) {
+            int n = ring.length / 2;
+            for (int i = 0, j = n - 1; i < n; j = i++) {
+                double yi = ring[2 * i + 1];
+                double yj = ring[2 * j + 1];
+                if ((yi > y) != (yj > y)) {
+                    double xi = ring[2 * i];
+                    double xj = ring[2 * j];
+                    if (x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                        inside = !inside;
+                    }
+                }
+            }
+        }
+        return inside;
+    }
+
+    /** True if the geometry and the envelope share at least one point. */
+    public boolean intersects(Envelope env) {
+        if (!envelope.intersects(env)) {
+            return false;
+        }
+        if (type == Type.POINT) {
+            return env.contains(polygons[0][0][0], polygons[0][0][1]);
+        }
+        if (env.contains(envelope) || contains(env.minX(), env.minY())) {
+            return true;
+        }
+        for (double[][] polygon : polygons) {
+            for (double[] ring : polygon) {
+                int n = ring.length / 2;
+                for (int i = 0, j = n - 1; i < n; j = i++) {
+                    if (segmentIntersects(env, ring[2 * j], ring[2 * j + 1], ring[2 * i], ring[2 * i + 1])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** True if every point of the envelope lies inside the geometry. */
+    public boolean covers(Envelope env) {
+        if (type == Type.POINT || !envelope.contains(env) || !contains(env.minX(), env.minY())) {
+            return false;
+        }
+        for (double[][] polygon : polygons) {
+            for (double[] ring : polygon) {
+                int n = ring.length / 2;
+                for (int i = 0, j = n - 1; i < n; j = i++) {
+                    if (segmentIntersects(env, ring[2 * j], ring[2 * j + 1], ring[2 * i], ring[2 * i + 1])) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** True if the two geometries share at least one point; {@code other} is reprojected first. */
+    public boolean intersects(Geometry other) {
+        Geometry o = other.transform(crs);
+        if (!envelope.intersects(o.envelope)) {
+            return false;
+        }
+        if (type == Type.POINT) {
+            double x = polygons[0][0][0], y = polygons[0][0][1];
+            return o.type == Type.POINT ? o.envelope.contains(x, y) : o.contains(x, y);
+        }
+        if (o.type == Type.POINT) {
+            return contains(o.polygons[0][0][0], o.polygons[0][0][1]);
+        }
+        if (contains(o.polygons[0][0][0], o.polygons[0][0][1])
+                || o.contains(polygons[0][0][0], polygons[0][0][1])) {
+            return true;
+        }
+        for (double[][] polygon : polygons) {
+            for (double[] ring : polygon) {
+                int n = ring.length / 2;
+                for (int i = 0, j = n - 1; i < n; j = i++) {
+                    Envelope edge = new Envelope(
+                            Math.min(ring[2 * j], ring[2 * i]), Math.min(ring[2 * j + 1], ring[2 * i + 1]),
+                            Math.max(ring[2 * j], ring[2 * i]), Math.max(ring[2 * j + 1], ring[2 * i + 1]));
+                    if (o.envelope.intersects(edge) && o.crossesSegment(ring[2 * j], ring[2 * j + 1], ring[2 * i], ring[2 * i + 1])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean crossesSegment(double ax, double ay, double bx, double by) {
+        for (double[][] polygon : polygons) {
+            for (double[] ring : polygon) {
+                int n = ring.length / 2;
+                for (int i = 0, j = n - 1; i < n; j = i++) {
+                    if (segmentsIntersect(ax, ay, bx, by, ring[2 * j], ring[2 * j + 1], ring[2 * i], ring[2 * i + 1])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Planar area in squared CRS units (square metres for projected systems). */
+    public double area() {
+        double area = 0;
+        for (int p = 0; p < polygonCount(); p++) {
+            double[][] rings = polygons[p];
+            for (int r = 0; r < rings.length; r++) {
+                double a = Math.abs(signedArea(rings[r]));
+                area += r == 0 ? a : -a;
+            }
+        }
+        return area;
+    }
+
+    static double signedArea(double[] ring) {
+        int n = ring.length / 2;
+        double sum = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            sum += ring[2 * j] * ring[2 * i + 1] - ring[2 * i] * ring[2 * j + 1];
+        }
+        return sum / 2;
+    }
+
+    /** Vertex count over all rings, a rough measure of how expensive the geometry is to test. */
+    public int vertexCount() {
+        int n = 0;
+        for (double[][] polygon : polygons) {
+            for (double[] ring : polygon) {
+                n += ring.length / 2;
+            }
+        }
+        return n;
+    }
+
+    static boolean segmentIntersects(Envelope env, double x0, double y0, double x1, double y1) {
+        // Liang-Barsky clipping of the segment against the envelope.
+        double t0 = 0, t1 = 1;
+        double dx = x1 - x0, dy = y1 - y0;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {x0 - env.minX(), env.maxX() - x0, y0 - env.minY(), env.maxY() - y0};
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+                if (t0 > t1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static boolean segmentsIntersect(double ax, double ay, double bx, double by,
+                                     double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+        if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0))) {
+            return true;
+        }
+        return (d1 == 0 && onSegment(cx, cy, dx, dy, ax, ay))
+                || (d2 == 0 && onSegment(cx, cy, dx, dy, bx, by))
+                || (d3 == 0 && onSegment(ax, ay, bx, by, cx, cy))
+                || (d4 == 0 && onSegment(ax, ay, bx, by, dx, dy));
+    }
+
+    private static double cross(double ax, double ay, double bx, double by, double px, double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    private static boolean onSegment(double ax, double ay, double bx, double by, double px, double py) {
+        return px >= Math.min(ax, bx) && px <= Math.max(ax, bx) && py >= Math.min(ay, by) && py <= Math.max(ay, by);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Geometry)) {
+            return false;
+        }
+        Geometry g = (Geometry) o;
+        return hash == g.hash && type == g.type && crs.equals(g.crs) && Arrays.deepEquals(polygons, g.polygons);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + crs + ", " + vertexCount() + " vertices, " + envelope + "]";
+    }
+}
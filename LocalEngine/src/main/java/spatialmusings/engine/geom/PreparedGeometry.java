@@ -0,0 +1,148 @@
+package spatialmusings.engine.geom;
+
+import java.util.Arrays;
+
+/**
+ * A polygon or multipolygon indexed for repeated point-in-polygon tests, such as labelling
+ * many points with the county they fall in.
+ *
+ * <p>{@link Geometry#contains} walks every edge of every ring for each point. This splits the
+ * envelope into horizontal strips of equal height and lists, per strip, the edges whose y
+ * range overlaps it. A test then computes the point's strip and counts crossings of only those
+ * edges, a handful for a county outline instead of thousands. Horizontal edges never cross a
+ * ray and are left out.
+ *
+ * <p>The crossing test is the same even-odd rule as {@link Geometry#contains}, with the same
+ * arithmetic, and parity is kept per polygon, so both agree on every point, including those on
+ * edges. Edges are held in flat arrays, strip by strip. Instances are immutable and
+ * thread-safe.
+ */
+public final class PreparedGeometry {
+
+    /** Upper bound on strips, so a huge outline does not allocate a huge offset table. */
+    private static final int MAX_STRIPS = 1 << 16;
+
+    private final Geometry geometry;
+    private final Envelope envelope;
+    private final double minY;
+    private final double scale;
+    private final int strips;
+    /** Start of each strip's edges in {@link #edges} and {@link #part}; {@code strips + 1} entries. */
+    private final int[] offsets;
+    /** Four doubles per listed edge: {@code xi, yi, xj, yj}, as {@link Geometry#contains} orders them. */
+    private final double[] edges;
+    /** Polygon of each listed edge, ascending within a strip. */
+    private final int[] part;
+
+    public PreparedGeometry(Geometry geometry) {
+        this.geometry = geometry;
+        this.envelope = geometry.envelope();
+        int edgeCount = 0;
+        for (int p = 0; p < geometry.polygonCount(); p++) {
+            for (double[] ring : geometry.rings(p)) {
+                edgeCount += ring.length / 2;
+            }
+        }
+        this.strips = Math.max(1, Math.min(MAX_STRIPS, edgeCount / 4));
+        this.minY = envelope.minY();
+        double height = envelope.height();
+        this.scale = height > 0 ? strips / height : 0;
+
+        // Two passes over the edges: count per strip, then fill.
+        int[] count = new int[strips + 1];
+        forEachEdge((p, xi, yi, xj, yj) -> {
+            int from = strip(Math.min(yi, yj)), to = strip(Math.max(yi, yj));
+            for (int s = from; s <= to; s++) {
+                count[s + 1]++;
+            }
+        });
+        for (int s = 0; s < strips; s++) {
+            count[s + 1] += count[s];
+        }
+        this.offsets = count.clone();
+        this.edges = new double[4 * offsets[strips]];
+        this.part = new int[offsets[strips]];
+        int[] next = Arrays.copyOf(offsets, strips);
+        forEachEdge((p, xi, yi, xj, yj) -> {
+            int from = strip(Math.min(yi, yj)), to = strip(Math.max(yi, yj));
+            for (int s = from; s <= to; s++) {
+                int e = next[s]++;
+                edges[4 * e] = xi;
+                edges[4 * e + 1] = yi;
+                edges[4 * e + 2] = xj;
+                edges[4 * e + 3] = yj;
+                part[e] = p;
+            }
+        });
+    }
+
+    public Geometry geometry() {
+        return geometry;
+    }
+
+    public Envelope envelope() {
+        return envelope;
+    }
+
+    /** Same answer as {@link Geometry#contains(double, double)}. */
+    public boolean contains(double x, double y) {
+        if (!envelope.contains(x, y)) {
+            return false;
+        }
+        int s = strip(y);
+        boolean inside = false;
+        int current = -1;
+        for (int e = offsets[s], end = offsets[s + 1]; e < end; e++) {
+            if (part[e] != current) {
+                if (inside) {
+                    return true;
+                }
+                current = part[e];
+            }
+            double yi = edges[4 * e + 1];
+            double yj = edges[4 * e + 3];
+            if ((yi > y) != (yj > y)) {
+                double xi = edges[4 * e];
+                double xj = edges[4 * e + 2];
+                if (x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /** Number of edge entries across all strips; at least the non-horizontal edge count. */
+    public int indexedEdges() {
+        return part.length;
+    }
+
+    private int strip(double y) {
+        int s = (int) ((y - minY) * scale);
+        return s < 0 ? 0 : s >= strips ? strips - 1 : s;
+    }
+
+    private void forEachEdge(EdgeVisitor visitor) {
+        for (int p = 0; p < geometry.polygonCount(); p++) {
+            for (double[] ring : geometry.rings(p)) {
+                int n = ring.length / 2;
+                for (int i = 0, j = n - 1; i < n; j = i++) {
+                    double yi = ring[2 * i + 1], yj = ring[2 * j + 1];
+                    if (yi != yj) {
+                        visitor.edge(p, ring[2 * i], yi, ring[2 * j], yj);
+                    }
+                }
+            }
+        }
+    }
+
+    private interface EdgeVisitor {
+        void edge(int part, double xi, double yi, double xj, double yj);
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedGeometry[" + geometry.polygonCount() + " polygons, " + strips + " strips, "
+                + part.length + " edges]";
+    }
+}
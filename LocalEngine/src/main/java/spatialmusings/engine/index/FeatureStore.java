@@ -0,0 +1,206 @@
+package spatialmusings.engine.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.io.ShapefileReader;
+
+/**
+ * Indexed, read-only feature table for boundary layers we query over and over, such as wards
+ * and counties: an {@link StrTree} over the feature envelopes plus a hash index per attribute,
+ * built the first time the attribute is looked up.
+ *
+ * <p>{@link #filter} answers the same {@link Filter}s as {@link FeatureCollection#filter}, with
+ * the same result in the same order. {@link Filter#eq} becomes a hash probe and
+ * {@link Filter#bounds} an R-tree probe followed by the exact intersection test on the
+ * candidates only; {@link Filter#and} intersects the probes of its sides. Any other filter
+ * falls back to a scan, applied to the probed candidates when it is one side of an
+ * {@code and}.
+ */
+public final class FeatureStore {
+
+    private final List<Feature> features;
+    private final Crs crs;
+    private final StrTree tree;
+    private final ConcurrentMap<String, Map<Object, int[]>> attributes = new ConcurrentHashMap<>();
+
+    public FeatureStore(FeatureCollection collection) {
+        this.features = collection.toList();
+        this.crs = features.isEmpty() ? Crs.WGS84 : features.get(0).geometry().crs();
+        Envelope[] envelopes = new Envelope[features.size()];
+        for (int i = 0; i < envelopes.length; i++) {
+            envelopes[i] = features.get(i).geometry().transform(crs).envelope();
+        }
+        this.tree = new StrTree(envelopes);
+    }
+
+    private FeatureStore(List<Feature> features, Crs crs, Envelope[] envelopes) {
+        this.features = features;
+        this.crs = crs;
+        this.tree = new StrTree(envelopes);
+    }
+
+    /**
+     * Loads and indexes a shapefile such as {@code data/shp/counties_pop.shp}. The R-tree is
+     * built from the record headers, so no geometry is decoded until a query needs it.
+     */
+    public static FeatureStore load(Path shp) throws IOException {
+        ShapefileReader reader = ShapefileReader.open(shp);
+        Envelope[] envelopes = new Envelope[reader.size()];
+        for (int i = 0; i < envelopes.length; i++) {
+            envelopes[i] = reader.envelope(i);
+        }
+        return new FeatureStore(reader.features().toList(), reader.crs(), envelopes);
+    }
+
+    public int size() {
+        return features.size();
+    }
+
+    /** CRS the spatial index is built in: that of the first feature. */
+    public Crs crs() {
+        return crs;
+    }
+
+    public FeatureCollection collection() {
+        return new FeatureCollection(features);
+    }
+
+    /** Builds the hash index on {@code property} now rather than on its first lookup. */
+    public void indexAttribute(String property) {
+        attribute(property);
+    }
+
+    /** Features whose {@code property} equals {@code value}, as {@link Filter#eq} decides it. */
+    public List<Feature> eq(String property, Object value) {
+        return select(attribute(property).getOrDefault(key(value), new int[0]));
+    }
+
+    /** Features whose envelope intersects {@code env}, given in {@link #crs()}. */
+    public List<Feature> query(Envelope env) {
+        return select(tree.query(env));
+    }
+
+    /** Features whose geometry intersects {@code geometry}, reprojected as needed. */
+    public List<Feature> intersecting(Geometry geometry) {
+        return filter(Filter.bounds(geometry)).toList();
+    }
+
+    public FeatureCollection filter(Filter filter) {
+        Filter exact = localise(filter);
+        int[] ids = probe(exact);
+        List<Feature> out = new ArrayList<>();
+        if (ids == null) {
+            for (Feature f : features) {
+                if (exact.test(f)) {
+                    out.add(f);
+                }
+            }
+        } else {
+            for (int id : ids) {
+                Feature f = features.get(id);
+                if (exact.test(f)) {
+                    out.add(f);
+                }
+            }
+        }
+        return new FeatureCollection(out);
+    }
+
+    /** Reprojects bounds geometries into the store CRS once, instead of once per feature tested. */
+    private Filter localise(Filter filter) {
+        if (filter instanceof Filter.Bounds) {
+            Geometry g = ((Filter.Bounds) filter).geometry();
+            return g.crs().equals(crs) ? filter : Filter.bounds(g.transform(crs));
+        }
+        if (filter instanceof Filter.And) {
+            Filter.And and = (Filter.And) filter;
+            Filter left = localise(and.left()), right = localise(and.right());
+            return left == and.left() && right == and.right() ? filter : left.and(right);
+        }
+        return filter;
+    }
+
+    /** Sorted candidate ids for {@code filter}, or null if no index narrows it down. */
+    private int[] probe(Filter filter) {
+        if (filter instanceof Filter.Eq) {
+            Filter.Eq eq = (Filter.Eq) filter;
+            return attribute(eq.property()).getOrDefault(key(eq.value()), new int[0]);
+        }
+        if (filter instanceof Filter.Bounds) {
+            return tree.query(((Filter.Bounds) filter).geometry().envelope());
+        }
+        if (filter instanceof Filter.And) {
+            int[] left = probe(((Filter.And) filter).left());
+            int[] right = probe(((Filter.And) filter).right());
+            if (left == null || right == null) {
+                return left == null ? right : left;
+            }
+            return intersect(left, right);
+        }
+        return null;
+    }
+
+    private Map<Object, int[]> attribute(String property) {
+        return attributes.computeIfAbsent(property, p -> {
+            Map<Object, List<Integer>> lists = new HashMap<>();
+            for (int i = 0; i < features.size(); i++) {
+                Object v = features.get(i).get(p);
+                if (v != null) {
+                    lists.computeIfAbsent(key(v), k -> new ArrayList<>()).add(i);
+                }
+            }
+            Map<Object, int[]> index = new HashMap<>(lists.size() * 2);
+            lists.forEach((k, ids) -> index.put(k, ids.stream().mapToInt(Integer::intValue).toArray()));
+            return Collections.unmodifiableMap(index);
+        });
+    }
+
+    /** Numbers compare by value in {@link Filter#eq}, so {@code 1}, {@code 1L} and {@code 1.0} share a key. */
+    private static Object key(Object value) {
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            return d == 0 ? 0.0 : d;
+        }
+        return value;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private List<Feature> select(int[] ids) {
+        List<Feature> out = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            out.add(features.get(id));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,414 @@
+package spatialmusings.engine.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.geom.PreparedGeometry;
+
+/**
+ * Labels points with the polygon they fall in, the local counterpart of {@code sp::over} in
+ * "Label points based on the polygons they fall in": kingfisher sightings against counties.
+ *
+ * <p>Each point first probes an {@link StrTree} over the polygon envelopes; only the candidates
+ * it returns are tested exactly, with a {@link PreparedGeometry} built on a polygon's first
+ * test and kept for the rest. A point on a boundary shared by several polygons goes to the
+ * first of them in layer order, as {@code over} picks the first match.
+ *
+ * <p>{@link #join} streams a CSV of points in batches: the calling thread reads lines while
+ * pool threads parse, locate and count earlier batches, and batches are written out and summed
+ * in file order, so memory holds a few batches however long the file is. Instances are
+ * thread-safe.
+ */
+public final class PointJoin {
+
+    /** Lines per task: enough work to amortize a task, few enough to keep several in flight. */
+    static final int BATCH = 1 << 14;
+
+    private final List<Feature> polygons;
+    private final Crs crs;
+    private final Geometry[] geometries;
+    private final StrTree tree;
+    private final AtomicReferenceArray<PreparedGeometry> prepared;
+
+    /** Index over {@code polygons}, reprojected once into {@code pointCrs}, the CRS of the points. */
+    public PointJoin(FeatureCollection polygons, Crs pointCrs) {
+        this.polygons = polygons.toList();
+        this.crs = pointCrs;
+        this.geometries = new Geometry[this.polygons.size()];
+        Envelope[] envelopes = new Envelope[geometries.length];
+        for (int i = 0; i < geometries.length; i++) {
+            geometries[i] = this.polygons.get(i).geometry().transform(pointCrs);
+            envelopes[i] = geometries[i].envelope();
+        }
+        this.tree = new StrTree(envelopes);
+        this.prepared = new AtomicReferenceArray<>(geometries.length);
+    }
+
+    public int size() {
+        return polygons.size();
+    }
+
+    public Crs crs() {
+        return crs;
+    }
+
+    public Feature polygon(int i) {
+        return polygons.get(i);
+    }
+
+    /** Index of the first polygon containing {@code (x, y)}, or -1. */
+    public int locate(double x, double y) {
+        return new Locator().locate(x, y);
+    }
+
+    /** {@link #locate(double, double)} of every point, in batches on {@code pool}. */
+    public int[] locate(double[] xs, double[] ys, ForkJoinPool pool) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Coordinate arrays differ in length: " + xs.length + " vs " + ys.length);
+        }
+        int[] out = new int[xs.length];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < xs.length; from += BATCH) {
+            int start = from, end = Math.min(xs.length, from + BATCH);
+            tasks.add(() -> {
+                Locator locator = new Locator();
+                for (int i = start; i < end; i++) {
+                    out[i] = locator.locate(xs[i], ys[i]);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> f : pool.invokeAll(tasks)) {
+            join(f);
+        }
+        return out;
+    }
+
+    /**
+     * Labels every point of {@code csv} and counts them per polygon.
+     *
+     * @param xColumn      column of x (longitude) in {@link #crs()}
+     * @param yColumn      column of y (latitude)
+     * @param weightColumn column summed per polygon, e.g. individual counts, or null; empty
+     *                     values are left out of the sums
+     * @param labelled     CSV written with {@code labelProperty} of each point's polygon
+     *                     appended to its line (empty if none), or null
+     */
+    public Counts join(Path csv, String xColumn, String yColumn, String weightColumn, Path labelled,
+                       String labelProperty, ForkJoinPool pool) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String header = in.readLine();
+            if (header == null) {
+                throw new IOException(csv + " is empty");
+            }
+            List<String> names = Arrays.asList(split(header, new String[0]));
+            int xi = column(names, xColumn, csv), yi = column(names, yColumn, csv);
+            int wi = weightColumn == null ? -1 : column(names, weightColumn, csv);
+            Path tmp = labelled == null ? null : labelled.resolveSibling(labelled.getFileName() + ".tmp");
+            Counts total = new Counts(size());
+            try (BufferedWriter out = tmp == null ? null : Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                if (out != null) {
+                    out.write(header);
+                    out.write(',');
+                    out.write(quote(labelProperty));
+                    out.newLine();
+                }
+                String[] labels = new String[size()];
+                for (int i = 0; i < labels.length; i++) {
+                    Object v = polygons.get(i).get(labelProperty);
+                    labels[i] = v == null ? "" : quote(v.toString());
+                }
+                int inFlight = 2 * pool.getParallelism() + 1;
+                ArrayDeque<Future<Batch>> pending = new ArrayDeque<>();
+                long line = 1;
+                while (true) {
+                    List<String> lines = new ArrayList<>(BATCH);
+                    String s;
+                    while (lines.size() < BATCH && (s = in.readLine()) != null) {
+                        lines.add(s);
+                    }
+                    if (lines.isEmpty()) {
+                        break;
+                    }
+                    long first = line + 1;
+                    line += lines.size();
+                    pending.add(pool.submit(() -> batch(lines, first, names.size(), xi, yi, wi,
+                            out == null ? null : labels, csv)));
+                    if (pending.size() >= inFlight) {
+                        drain(pending.poll(), total, out);
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    drain(pending.poll(), total, out);
+                }
+            }
+            if (tmp != null) {
+                Files.move(tmp, labelled, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return total;
+        }
+    }
+
+    private Batch batch(List<String> lines, long firstLine, int width, int xi, int yi, int wi, String[] labels,
+                        Path csv) throws IOException {
+        Batch batch = new Batch(size(), labels == null ? null : new StringBuilder(lines.size() * 64));
+        Locator locator = new Locator();
+        String[] fields = new String[width];
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            split(line, fields);
+            double x = coordinate(fields[xi]), y = coordinate(fields[yi]);
+            int p = Double.isNaN(x) || Double.isNaN(y) ? -1 : locator.locate(x, y);
+            double w;
+            try {
+                w = wi < 0 || fields[wi] == null || fields[wi].isEmpty() ? Double.NaN : Double.parseDouble(fields[wi]);
+            } catch (NumberFormatException e) {
+                throw new IOException(csv + " line " + (firstLine + i) + ": '" + fields[wi] + "' is not a number");
+            }
+            batch.counts.add(p, w);
+            if (labels != null) {
+                batch.text.append(line).append(',').append(p < 0 ? "" : labels[p]).append('\n');
+            }
+        }
+        return batch;
+    }
+
+    /** Adds the batch of {@code f} to the totals and writes its lines, rethrowing its read errors. */
+    private static void drain(Future<Batch> f, Counts total, BufferedWriter out) throws IOException {
+        Batch batch;
+        try {
+            batch = f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while joining points", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        total.merge(batch.counts);
+        if (out != null) {
+            out.append(batch.text);
+        }
+    }
+
+    /** Parsed coordinate, or NaN for a missing or unparseable one: such points match nothing. */
+    private static double coordinate(String field) {
+        if (field == null || field.isEmpty()) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(field);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static int column(List<String> names, String name, Path csv) throws IOException {
+        int i = names.indexOf(name);
+        if (i < 0) {
+            throw new IOException(csv + " has no column '" + name + "'; columns are " + names);
+        }
+        return i;
+    }
+
+    /**
+     * Splits one CSV line into {@code fields}, unquoting fields in double quotes; missing
+     * trailing fields are null. With an empty array, returns a new one holding every field.
+     */
+    static String[] split(String line, String[] fields) {
+        List<String> all = fields.length == 0 ? new ArrayList<>() : null;
+        Arrays.fill(fields, null);
+        int n = 0, i = 0, len = line.length();
+        while (i <= len) {
+            String field;
+            if (i < len && line.charAt(i) == '"') {
+                StringBuilder b = new StringBuilder();
+                int j = i + 1;
+                while (j < len) {
+                    char c = line.charAt(j);
+                    if (c == '"') {
+                        if (j + 1 < len && line.charAt(j + 1) == '"') {
+                            b.append('"');
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    b.append(c);
+                    j++;
+                }
+                field = b.toString();
+                i = line.indexOf(',', j);
+                i = i < 0 ? len + 1 : i + 1;
+            } else {
+                int comma = line.indexOf(',', i);
+                int end = comma < 0 ? len : comma;
+                field = line.substring(i, end);
+                i = end + 1;
+            }
+            if (all != null) {
+                all.add(field);
+            } else if (n < fields.length) {
+                fields[n] = field;
+            }
+            n++;
+        }
+        return all != null ? all.toArray(new String[0]) : fields;
+    }
+
+    private static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    private PreparedGeometry prepared(int id) {
+        PreparedGeometry p = prepared.get(id);
+        if (p == null) {
+            // Preparing is idempotent, so a race only costs a duplicate index.
+            p = new PreparedGeometry(geometries[id]);
+            prepared.compareAndSet(id, null, p);
+        }
+        return p;
+    }
+
+    private static void join(Future<?> f) {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while joining points", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /** One thread's point lookups: the tree calls back with candidates, the lowest containing id wins. */
+    private final class Locator implements IntConsumer {
+        private double x;
+        private double y;
+        private int best;
+
+        int locate(double x, double y) {
+            this.x = x;
+            this.y = y;
+            best = Integer.MAX_VALUE;
+            tree.query(new Envelope(x, y, x, y), this);
+            return best == Integer.MAX_VALUE ? -1 : best;
+        }
+
+        @Override
+        public void accept(int id) {
+            if (id < best && prepared(id).contains(x, y)) {
+                best = id;
+            }
+        }
+    }
+
+    private static final class Batch {
+        final Counts counts;
+        final StringBuilder text;
+
+        Batch(int size, StringBuilder text) {
+            this.counts = new Counts(size);
+            this.text = text;
+        }
+    }
+
+    /** Points and weight sums per polygon, plus those of the points that fell in none. */
+    public static final class Counts {
+        private final long[] points;
+        private final double[] sums;
+        private long unmatched;
+        private double unmatchedSum;
+
+        Counts(int size) {
+            this.points = new long[size];
+            this.sums = new double[size];
+        }
+
+        void add(int polygon, double weight) {
+            double w = Double.isNaN(weight) ? 0 : weight;
+            if (polygon < 0) {
+                unmatched++;
+                unmatchedSum += w;
+            } else {
+                points[polygon]++;
+                sums[polygon] += w;
+            }
+        }
+
+        void merge(Counts other) {
+            for (int i = 0; i < points.length; i++) {
+                points[i] += other.points[i];
+                sums[i] += other.sums[i];
+            }
+            unmatched += other.unmatched;
+            unmatchedSum += other.unmatchedSum;
+        }
+
+        public int size() {
+            return points.length;
+        }
+
+        public long points(int polygon) {
+            return points[polygon];
+        }
+
+        public double sum(int polygon) {
+            return sums[polygon];
+        }
+
+        public long unmatched() {
+            return unmatched;
+        }
+
+        public double unmatchedSum() {
+            return unmatchedSum;
+        }
+
+        public long total() {
+            long t = unmatched;
+            for (long p : points) {
+                t += p;
+            }
+            return t;
+        }
+
+        @Override
+        public String toString() {
+            return "Counts[" + total() + " points, " + unmatched + " unmatched]";
+        }
+    }
+}
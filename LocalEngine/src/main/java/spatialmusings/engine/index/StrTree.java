@@ -0,0 +1,193 @@
+package spatialmusings.engine.index;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import spatialmusings.engine.geom.Envelope;
+
+/**
+ * Static R-tree over item envelopes, bulk-loaded with Sort-Tile-Recursive packing (Leutenegger,
+ * Lopez and Edgington, 1997). Each level is sorted into vertical slices by centre x, each slice
+ * by centre y, and runs of {@code nodeCapacity} entries become one parent, so nodes are full and
+ * barely overlap.
+ *
+ * <p>The tree is a handful of flat arrays, one set per level: node bounds as
+ * {@code minX, minY, maxX, maxY} quadruples and, above the leaves, the child range each node
+ * covers in the level below. Queries walk it with a small explicit stack instead of recursing
+ * over node objects. Instances are immutable and safe to share between threads.
+ */
+public final class StrTree {
+
+    public static final int DEFAULT_NODE_CAPACITY = 16;
+
+    private final int size;
+    private final int[] ids;
+    /** {@code bounds[level]}: four doubles per node; level 0 holds the items in packed order. */
+    private final double[][] bounds;
+    /** {@code firstChild[level]}: for level > 0, start of each node's children in level - 1. */
+    private final int[][] firstChild;
+    private final int[][] childCount;
+
+    public StrTree(Envelope[] items) {
+        this(items, DEFAULT_NODE_CAPACITY);
+    }
+
+    public StrTree(Envelope[] items, int nodeCapacity) {
+        if (nodeCapacity < 2) {
+            throw new IllegalArgumentException("Node capacity must be at least 2, got " + nodeCapacity);
+        }
+        size = items.length;
+        int levels = 1;
+        for (long n = size; n > 1; n = (n + nodeCapacity - 1) / nodeCapacity) {
+            levels++;
+        }
+        bounds = new double[levels][];
+        firstChild = new int[levels][];
+        childCount = new int[levels][];
+
+        double[] leaf = new double[4 * size];
+        for (int i = 0; i < size; i++) {
+            Envelope e = items[i];
+            leaf[4 * i] = e.minX();
+            leaf[4 * i + 1] = e.minY();
+            leaf[4 * i + 2] = e.maxX();
+            leaf[4 * i + 3] = e.maxY();
+        }
+        int[] order = pack(leaf, size, nodeCapacity);
+        ids = order;
+        bounds[0] = permute(leaf, order);
+        firstChild[0] = new int[0];
+        childCount[0] = new int[0];
+
+        for (int level = 1; level < levels; level++) {
+            double[] below = bounds[level - 1];
+            int n = below.length / 4;
+            int parents = (n + nodeCapacity - 1) / nodeCapacity;
+            double[] up = new double[4 * parents];
+            int[] first = new int[parents];
+            int[] count = new int[parents];
+            for (int p = 0; p < parents; p++) {
+                int from = p * nodeCapacity, to = Math.min(n, from + nodeCapacity);
+                first[p] = from;
+                count[p] = to - from;
+                up[4 * p] = Double.POSITIVE_INFINITY;
+                up[4 * p + 1] = Double.POSITIVE_INFINITY;
+                up[4 * p + 2] = Double.NEGATIVE_INFINITY;
+                up[4 * p + 3] = Double.NEGATIVE_INFINITY;
+                for (int c = from; c < to; c++) {
+                    up[4 * p] = Math.min(up[4 * p], below[4 * c]);
+                    up[4 * p + 1] = Math.min(up[4 * p + 1], below[4 * c + 1]);
+                    up[4 * p + 2] = Math.max(up[4 * p + 2], below[4 * c + 2]);
+                    up[4 * p + 3] = Math.max(up[4 * p + 3], below[4 * c + 3]);
+                }
+            }
+            if (level + 1 < levels) {
+                // Sort this level's nodes STR-fashion too; each keeps its own child range.
+                int[] o = pack(up, parents, nodeCapacity);
+                up = permute(up, o);
+                first = permute(first, o);
+                count = permute(count, o);
+            }
+            bounds[level] = up;
+            firstChild[level] = first;
+            childCount[level] = count;
+        }
+    }
+
+    /**
+     * STR order of {@code n} boxes: sort by centre x, cut into {@code ceil(sqrt(pages))} slices,
+     * sort each slice by centre y.
+     */
+    private static int[] pack(double[] box, int n, int capacity) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(box[4 * a] + box[4 * a + 2], box[4 * b] + box[4 * b + 2]));
+        int pages = (n + capacity - 1) / capacity;
+        int slices = (int) Math.ceil(Math.sqrt(pages));
+        int perSlice = slices == 0 ? n : ((pages + slices - 1) / slices) * capacity;
+        for (int from = 0; from < n; from += perSlice) {
+            Arrays.sort(order, from, Math.min(n, from + perSlice),
+                    (a, b) -> Double.compare(box[4 * a + 1] + box[4 * a + 3], box[4 * b + 1] + box[4 * b + 3]));
+        }
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) {
+            out[i] = order[i];
+        }
+        return out;
+    }
+
+    private static double[] permute(double[] box, int[] order) {
+        double[] out = new double[box.length];
+        for (int i = 0; i < order.length; i++) {
+            System.arraycopy(box, 4 * order[i], out, 4 * i, 4);
+        }
+        return out;
+    }
+
+    private static int[] permute(int[] values, int[] order) {
+        int[] out = new int[values.length];
+        for (int i = 0; i < order.length; i++) {
+            out[i] = values[order[i]];
+        }
+        return out;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Calls {@code hits} with the index of every item whose envelope intersects {@code env}. */
+    public void query(Envelope env, IntConsumer hits) {
+        if (size == 0 || env.isEmpty()) {
+            return;
+        }
+        double qx0 = env.minX(), qy0 = env.minY(), qx1 = env.maxX(), qy1 = env.maxY();
+        int top = bounds.length - 1;
+        // Depth-first, so roughly one node's worth of children per level is pending at once.
+        int[] stackLevel = new int[Math.max(64, bounds[top].length / 4)];
+        int[] stackNode = new int[stackLevel.length];
+        int sp = 0;
+        for (int i = 0; i < bounds[top].length / 4; i++) {
+            stackLevel[sp] = top;
+            stackNode[sp++] = i;
+        }
+        while (sp > 0) {
+            int level = stackLevel[--sp];
+            int node = stackNode[sp];
+            double[] b = bounds[level];
+            if (b[4 * node] > qx1 || b[4 * node + 2] < qx0 || b[4 * node + 1] > qy1 || b[4 * node + 3] < qy0) {
+                continue;
+            }
+            if (level == 0) {
+                hits.accept(ids[node]);
+                continue;
+            }
+            int from = firstChild[level][node], to = from + childCount[level][node];
+            if (sp + (to - from) > stackNode.length) {
+                stackLevel = Arrays.copyOf(stackLevel, 2 * (sp + to - from));
+                stackNode = Arrays.copyOf(stackNode, stackLevel.length);
+            }
+            for (int c = to - 1; c >= from; c--) {
+                stackLevel[sp] = level - 1;
+                stackNode[sp++] = c;
+            }
+        }
+    }
+
+    /** Indices of the items whose envelopes intersect {@code env}, in ascending order. */
+    public int[] query(Envelope env) {
+        int[][] buf = {new int[16]};
+        int[] n = {0};
+        query(env, i -> {
+            if (n[0] == buf[0].length) {
+                buf[0] = Arrays.copyOf(buf[0], 2 * n[0]);
+            }
+            buf[0][n[0]++] = i;
+        });
+        int[] out = Arrays.copyOf(buf[0], n[0]);
+        Arrays.sort(out);
+        return out;
+    }
+}
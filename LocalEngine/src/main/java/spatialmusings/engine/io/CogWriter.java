@@ -0,0 +1,566 @@
+package spatialmusings.engine.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Writes an image as a cloud-optimized GeoTIFF: DEFLATE-compressed, tiled, band-sequential
+ * float32 with NaN nodata, with internal overviews halving the size down to one tile. This is
+ * the export {@code Export.image.toDrive} stands for in our scripts; {@link GeoTiffWriter}
+ * writes the same pixels uncompressed and without overviews.
+ *
+ * <p>The image is computed once, a few rows of tiles at a time. Tiles are read and compressed
+ * in parallel on the executor's pool. Each full-resolution tile is averaged 2 x 2 (ignoring
+ * NaN) into its overview tile, and an overview tile is compressed as soon as its last quarter
+ * arrives, so overviews cost no second pass over the image. A single writer then lays the
+ * batch out in a fixed order: each full-resolution tile, followed by the overview tiles it
+ * completed. It takes offsets from a running sum of compressed sizes and writes the whole
+ * batch with one gathering write. The image directories are reserved at the front of the file
+ * (their size depends only on the tile counts) and filled in once every tile is down.
+ *
+ * <p>Progress is journaled next to the output ({@code out.tif.journal}): after each batch the
+ * data is forced to disk and the tiles written and the next row are recorded. If an export
+ * stops part-way, writing the same image to the same path picks up at the last completed
+ * batch: partly filled overview tiles are rebuilt from the tiles already in the file, and the
+ * result is byte-for-byte what an uninterrupted export writes. The journal is deleted when
+ * the file is complete.
+ */
+public final class CogWriter {
+
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final int MAGIC = 0x534D434A; // "SMCJ"
+    private static final int VERSION = 1;
+    private static final byte SLOT = 'S';
+    private static final byte CHECKPOINT = 'C';
+    /**
+     * Float mantissas are close to noise to DEFLATE: level 6 packs them only a tenth smaller
+     * than level 1 at a seventh of the speed.
+     */
+    private static final int DEFLATE_LEVEL = Deflater.BEST_SPEED;
+    /** Tiles computed per batch, per worker thread, so workers stay busy across row ends. */
+    private static final int TILES_PER_THREAD = 4;
+
+    private CogWriter() {
+    }
+
+    /** Writes the part of {@code image} covering {@code region}, as {@code Export.image} does. */
+    public static void write(Image image, Geometry region, Path out) throws IOException {
+        PixelGrid grid = image.grid();
+        Window window = grid.windowOf(region.transform(grid.crs()).envelope()).intersection(grid.bounds());
+        write(image, window, out, TileExecutor.common());
+    }
+
+    /**
+     * Writes {@code window} of {@code image} to {@code out}, tiled at the executor's tile size,
+     * resuming a previous export of the same window to the same path if its journal is there.
+     */
+    public static void write(Image image, Window window, Path out, TileExecutor executor) throws IOException {
+        if (window.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to export: empty window");
+        }
+        new Export(image, window, out, executor).run();
+    }
+
+    /** One export in progress: layout, pyramid of partly filled overview tiles, and the files. */
+    private static final class Export {
+        final Image image;
+        final Window window;
+        final PixelGrid grid;
+        final Path out;
+        final Path journalPath;
+        final TileExecutor executor;
+        final int bands;
+        final int ts;
+        /** Per level: width, height, tiles across and down. */
+        final int[] width;
+        final int[] height;
+        final int[] across;
+        final int[] down;
+        final int levels;
+        final boolean bigTiff;
+        final long dataStart;
+        final long[][] offsets;
+        final long[][] counts;
+        final List<Map<Integer, Partial>> partial = new ArrayList<>();
+        final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+        /** Tiles of the current batch in file order, each with its compressed bands. */
+        final List<Slot> slots = new ArrayList<>();
+        long cursor;
+        FileChannel data;
+        FileChannel journal;
+
+        Export(Image image, Window window, Path out, TileExecutor executor) {
+            this.image = image;
+            this.window = window;
+            this.grid = image.grid().subGrid(window);
+            this.out = out;
+            this.journalPath = out.resolveSibling(out.getFileName() + JOURNAL_SUFFIX);
+            this.executor = executor;
+            this.bands = image.bandNames().size();
+            this.ts = executor.tileSize();
+            List<int[]> dims = new ArrayList<>();
+            int w = grid.width(), h = grid.height();
+            dims.add(new int[] {w, h});
+            while (w > ts || h > ts) {
+                w = (w + 1) / 2;
+                h = (h + 1) / 2;
+                dims.add(new int[] {w, h});
+            }
+            levels = dims.size();
+            width = new int[levels];
+            height = new int[levels];
+            across = new int[levels];
+            down = new int[levels];
+            offsets = new long[levels][];
+            counts = new long[levels][];
+            long raw = 0;
+            for (int k = 0; k < levels; k++) {
+                width[k] = dims.get(k)[0];
+                height[k] = dims.get(k)[1];
+                across[k] = (width[k] + ts - 1) / ts;
+                down[k] = (height[k] + ts - 1) / ts;
+                offsets[k] = new long[across[k] * down[k] * bands];
+                counts[k] = new long[across[k] * down[k] * bands];
+                raw += (long) offsets[k].length * ts * ts * Float.BYTES;
+                partial.add(new HashMap<>());
+            }
+            // DEFLATE never grows data by more than a fraction of a percent.
+            bigTiff = raw + raw / 64 > 0xF000_0000L;
+            long at = bigTiff ? 16 : 8;
+            for (int k = 0; k < levels; k++) {
+                at += directory(k).size();
+            }
+            dataStart = (at + 15) & ~15L;
+        }
+
+        void run() throws IOException {
+            try {
+                // Inside the try, so the channels resume() opened are closed if replaying fails.
+                int row = resume();
+                int perBatch = Math.max(1, TILES_PER_THREAD * executor.pool().getParallelism() / across[0]);
+                for (; row < down[0]; row += perBatch) {
+                    int rows = Math.min(perBatch, down[0] - row);
+                    batch(row, rows);
+                    checkpoint(row + rows);
+                }
+                for (int k = 0; k < levels; k++) {
+                    if (!partial.get(k).isEmpty()) {
+                        throw new IllegalStateException("Overview level " + k + " left incomplete");
+                    }
+                }
+                long at = bigTiff ? 16 : 8;
+                GeoTiffWriter.writeFully(data, GeoTiffWriter.header(bigTiff, at), 0);
+                for (int k = 0; k < levels; k++) {
+                    IfdBuilder ifd = directory(k);
+                    long next = k + 1 < levels ? at + ifd.size() : 0;
+                    GeoTiffWriter.writeFully(data, ifd.encode(at, next), at);
+                    at = next;
+                }
+                data.force(true);
+            } finally {
+                if (data != null) {
+                    data.close();
+                }
+                if (journal != null) {
+                    journal.close();
+                }
+                for (Deflater d : deflaters) {
+                    d.end();
+                }
+            }
+            Files.delete(journalPath);
+        }
+
+        /** Directory of level {@code k}, with the offsets known so far (zero for tiles not yet written). */
+        IfdBuilder directory(int k) {
+            PixelGrid g = new PixelGrid(grid.crs(), grid.originX(), grid.originY(),
+                    grid.pixelWidth() * grid.width() / width[k], grid.pixelHeight() * grid.height() / height[k],
+                    width[k], height[k]);
+            IfdBuilder ifd = GeoTiffWriter.describe(g, bands, ts, bigTiff)
+                    .shorts(TiffDirectory.COMPRESSION, TiffDirectory.COMPRESSION_DEFLATE)
+                    .offsets(TiffDirectory.TILE_OFFSETS, offsets[k])
+                    .offsets(TiffDirectory.TILE_BYTE_COUNTS, counts[k]);
+            if (k > 0) {
+                ifd.longs(TiffDirectory.NEW_SUBFILE_TYPE, 1);
+            }
+            return ifd;
+        }
+
+        // ------------------------------------------------------------ computing
+
+        /** Computes, compresses and writes full-resolution tile rows {@code [row, row + rows)}. */
+        void batch(int row, int rows) throws IOException {
+            List<Window> tiles = new ArrayList<>();
+            for (int ty = row; ty < row + rows; ty++) {
+                for (int tx = 0; tx < across[0]; tx++) {
+                    tiles.add(new Window(tx * ts, ty * ts, Math.min(ts, width[0] - tx * ts),
+                            Math.min(ts, height[0] - ty * ts)));
+                }
+            }
+            Map<Integer, float[][]> pixels = new ConcurrentHashMap<>();
+            Map<Integer, byte[][]> packed = new ConcurrentHashMap<>();
+            executor.forEach(tiles, t -> {
+                Tile tile = image.read(t.translate(window.x(), window.y()));
+                float[][] padded = new float[bands][];
+                for (int b = 0; b < bands; b++) {
+                    padded[b] = pad(tile.band(b), t.width(), t.height());
+                }
+                int index = (t.y() / ts) * across[0] + t.x() / ts;
+                packed.put(index, compress(padded));
+                pixels.put(index, padded);
+            });
+            // In tile order, so the file layout does not depend on which worker finished first.
+            for (Window t : tiles) {
+                int tx = t.x() / ts, ty = t.y() / ts, index = ty * across[0] + tx;
+                slots.add(new Slot(0, index, packed.get(index)));
+                deposit(0, tx, ty, pixels.remove(index), true);
+            }
+            flush();
+        }
+
+        /**
+         * Averages tile {@code (tx, ty)} of level {@code k} into its overview tile. A completed
+         * overview tile is queued for compression and written after the tile that completed it
+         * when {@code emit}; otherwise (rebuilding after a resume) it stays pending.
+         */
+        void deposit(int k, int tx, int ty, float[][] pixels, boolean emit) {
+            if (k + 1 >= levels) {
+                return;
+            }
+            int px = tx / 2, py = ty / 2, key = py * across[k + 1] + px;
+            Partial p = partial.get(k + 1).computeIfAbsent(key, x -> new Partial(bands, ts, children(k, px, py)));
+            int cw = Math.min(ts, width[k] - tx * ts), ch = Math.min(ts, height[k] - ty * ts);
+            int ox = (tx & 1) * ts / 2, oy = (ty & 1) * ts / 2;
+            for (int b = 0; b < bands; b++) {
+                float[] src = pixels[b], dst = p.pixels[b];
+                for (int y = 0; y < (ch + 1) / 2; y++) {
+                    for (int x = 0; x < (cw + 1) / 2; x++) {
+                        double sum = 0;
+                        int n = 0;
+                        for (int dy = 0; dy < 2 && 2 * y + dy < ch; dy++) {
+                            for (int dx = 0; dx < 2 && 2 * x + dx < cw; dx++) {
+                                float v = src[(2 * y + dy) * ts + 2 * x + dx];
+                                if (!Float.isNaN(v)) {
+                                    sum += v;
+                                    n++;
+                                }
+                            }
+                        }
+                        dst[(oy + y) * ts + ox + x] = n == 0 ? Float.NaN : (float) (sum / n);
+                    }
+                }
+            }
+            if (++p.received == p.expected && emit) {
+                partial.get(k + 1).remove(key);
+                float[][] done = p.pixels;
+                slots.add(new Slot(k + 1, key, executor.pool().submit(() -> compress(done))));
+                deposit(k + 1, px, py, done, true);
+            }
+        }
+
+        /** Number of level-{@code k} tiles under overview tile {@code (px, py)}. */
+        int children(int k, int px, int py) {
+            int nx = Math.min(2, across[k] - 2 * px), ny = Math.min(2, down[k] - 2 * py);
+            return nx * ny;
+        }
+
+        float[] pad(float[] src, int w, int h) {
+            float[] out = new float[ts * ts];
+            if (w < ts || h < ts) {
+                Arrays.fill(out, Float.NaN);
+            }
+            for (int r = 0; r < h; r++) {
+                System.arraycopy(src, r * w, out, r * ts, w);
+            }
+            return out;
+        }
+
+        byte[][] compress(float[][] pixels) {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                deflater = new Deflater(DEFLATE_LEVEL);
+            }
+            ByteBuffer plain = ByteBuffer.allocate(ts * ts * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] buf = new byte[plain.capacity() + 1024];
+            byte[][] out = new byte[pixels.length][];
+            for (int b = 0; b < pixels.length; b++) {
+                plain.clear();
+                plain.asFloatBuffer().put(pixels[b]);
+                deflater.reset();
+                deflater.setInput(plain.array());
+                deflater.finish();
+                int n = 0;
+                while (!deflater.finished()) {
+                    if (n == buf.length) {
+                        buf = Arrays.copyOf(buf, 2 * n);
+                    }
+                    n += deflater.deflate(buf, n, buf.length - n);
+                }
+                out[b] = Arrays.copyOf(buf, n);
+            }
+            deflaters.add(deflater);
+            return out;
+        }
+
+        // ------------------------------------------------------------ writing
+
+        /** Writes the queued slots in order at the running offset, with one gathering write. */
+        void flush() throws IOException {
+            List<ByteBuffer> buffers = new ArrayList<>();
+            long at = cursor;
+            for (Slot s : slots) {
+                byte[][] bytes = s.bytes();
+                int tiles = across[s.level] * down[s.level];
+                for (int b = 0; b < bands; b++) {
+                    offsets[s.level][b * tiles + s.index] = at;
+                    counts[s.level][b * tiles + s.index] = bytes[b].length;
+                    at += bytes[b].length;
+                    buffers.add(ByteBuffer.wrap(bytes[b]));
+                }
+            }
+            ByteBuffer[] srcs = buffers.toArray(new ByteBuffer[0]);
+            data.position(cursor);
+            long remaining = at - cursor;
+            while (remaining > 0) {
+                remaining -= data.write(srcs);
+            }
+            cursor = at;
+        }
+
+        /** Makes the batch durable, then records its tiles and the next row in the journal. */
+        void checkpoint(int nextRow) throws IOException {
+            data.force(false);
+            ByteBuffer rec = ByteBuffer.allocate(slots.size() * (9 + 12 * bands) + 17);
+            for (Slot s : slots) {
+                int tiles = across[s.level] * down[s.level];
+                rec.put(SLOT).putInt(s.level).putInt(s.index);
+                for (int b = 0; b < bands; b++) {
+                    rec.putLong(offsets[s.level][b * tiles + s.index]).putInt((int) counts[s.level][b * tiles + s.index]);
+                }
+            }
+            rec.put(CHECKPOINT).putInt(nextRow).putLong(cursor).putInt(slots.size());
+            rec.flip();
+            GeoTiffWriter.writeFully(journal, rec, journal.size());
+            journal.force(false);
+            slots.clear();
+        }
+
+        // ------------------------------------------------------------ resuming
+
+        /** Opens the files, restoring a previous run's progress if its journal matches; returns the first row to compute. */
+        int resume() throws IOException {
+            ByteBuffer header = journalHeader();
+            if (Files.exists(out) && Files.exists(journalPath)) {
+                journal = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                data = FileChannel.open(out, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                int row = replay(header);
+                if (row > 0) {
+                    return row;
+                }
+                data.close();
+                journal.close();
+            }
+            data = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ);
+            journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ);
+            GeoTiffWriter.writeFully(journal, header, 0);
+            cursor = dataStart;
+            return 0;
+        }
+
+        /** Identifies the export: layout, grid and band count. */
+        ByteBuffer journalHeader() {
+            ByteBuffer h = ByteBuffer.allocate(72);
+            h.putInt(MAGIC).putInt(VERSION).putInt(width[0]).putInt(height[0]).putInt(bands).putInt(ts)
+                    .putInt(levels).putInt(grid.crs().code()).putLong(dataStart)
+                    .putDouble(grid.originX()).putDouble(grid.originY())
+                    .putDouble(grid.pixelWidth()).putDouble(grid.pixelHeight());
+            h.flip();
+            return h;
+        }
+
+        /**
+         * Restores offsets and the cursor up to the journal's last complete checkpoint and
+         * rebuilds the partly filled overview tiles; returns the next row, or 0 to start over.
+         */
+        int replay(ByteBuffer expected) throws IOException {
+            long size = journal.size();
+            if (size < expected.remaining() || size > Integer.MAX_VALUE) {
+                return 0;
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining() && journal.read(buf, buf.position()) >= 0) {
+                // Positional reads until the buffer is full.
+            }
+            buf.flip();
+            ByteBuffer head = buf.slice(0, expected.remaining());
+            if (!head.equals(expected)) {
+                return 0;
+            }
+            buf.position(expected.remaining());
+            List<long[]> pending = new ArrayList<>();
+            int row = 0;
+            long end = buf.position();
+            int slotBytes = 8 + 12 * bands;
+            while (buf.hasRemaining()) {
+                byte type = buf.get();
+                if (type == SLOT && buf.remaining() >= slotBytes) {
+                    long[] s = new long[2 + 2 * bands];
+                    s[0] = buf.getInt();
+                    s[1] = buf.getInt();
+                    for (int b = 0; b < bands; b++) {
+                        s[2 + 2 * b] = buf.getLong();
+                        s[3 + 2 * b] = buf.getInt();
+                    }
+                    pending.add(s);
+                } else if (type == CHECKPOINT && buf.remaining() >= 16) {
+                    int next = buf.getInt();
+                    long at = buf.getLong();
+                    if (buf.getInt() != pending.size()) {
+                        break;
+                    }
+                    for (long[] s : pending) {
+                        int level = (int) s[0], index = (int) s[1], tiles = across[level] * down[level];
+                        for (int b = 0; b < bands; b++) {
+                            offsets[level][b * tiles + index] = s[2 + 2 * b];
+                            counts[level][b * tiles + index] = s[3 + 2 * b];
+                        }
+                    }
+                    pending.clear();
+                    row = next;
+                    cursor = at;
+                    end = buf.position();
+                } else {
+                    break;
+                }
+            }
+            if (row == 0 || data.size() < cursor) {
+                return 0;
+            }
+            // Drop a torn batch after the last checkpoint.
+            data.truncate(cursor);
+            journal.truncate(end);
+            rebuild();
+            return row;
+        }
+
+        /**
+         * Refills every overview tile that is not written yet from its children that are, read
+         * back from the file, bottom level first.
+         */
+        void rebuild() throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                for (int k = 0; k + 1 < levels; k++) {
+                    int tiles = across[k] * down[k];
+                    for (int ty = 0; ty < down[k]; ty++) {
+                        for (int tx = 0; tx < across[k]; tx++) {
+                            int parent = (ty / 2) * across[k + 1] + tx / 2;
+                            if (counts[k][ty * across[k] + tx] == 0 || counts[k + 1][parent] != 0) {
+                                continue;
+                            }
+                            float[][] pixels = new float[bands][];
+                            for (int b = 0; b < bands; b++) {
+                                pixels[b] = inflate(inflater, offsets[k][b * tiles + ty * across[k] + tx],
+                                        (int) counts[k][b * tiles + ty * across[k] + tx]);
+                            }
+                            deposit(k, tx, ty, pixels, false);
+                        }
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+
+        float[] inflate(Inflater inflater, long offset, int length) throws IOException {
+            ByteBuffer packed = ByteBuffer.allocate(length);
+            while (packed.hasRemaining()) {
+                if (data.read(packed, offset + packed.position()) < 0) {
+                    throw new IOException(out + " is shorter than its journal");
+                }
+            }
+            byte[] plain = new byte[ts * ts * Float.BYTES];
+            inflater.reset();
+            inflater.setInput(packed.array());
+            try {
+                int n = 0;
+                while (n < plain.length && !inflater.finished()) {
+                    n += inflater.inflate(plain, n, plain.length - n);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(out + " has a corrupt tile at " + offset, e);
+            }
+            float[] pixels = new float[ts * ts];
+            ByteBuffer.wrap(plain).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(pixels);
+            return pixels;
+        }
+    }
+
+    /** An overview tile still waiting for some of its children. */
+    private static final class Partial {
+        final float[][] pixels;
+        final int expected;
+        int received;
+
+        Partial(int bands, int ts, int expected) {
+            this.pixels = new float[bands][ts * ts];
+            for (float[] p : pixels) {
+                Arrays.fill(p, Float.NaN);
+            }
+            this.expected = expected;
+        }
+    }
+
+    /** One tile in file order: its compressed bands, or the task compressing them. */
+    private static final class Slot {
+        final int level;
+        final int index;
+        private final byte[][] bytes;
+        private final ForkJoinTask<byte[][]> task;
+
+        Slot(int level, int index, byte[][] bytes) {
+            this.level = level;
+            this.index = index;
+            this.bytes = bytes;
+            this.task = null;
+        }
+
+        Slot(int level, int index, ForkJoinTask<byte[][]> task) {
+            this.level = level;
+            this.index = index;
+            this.bytes = null;
+            this.task = task;
+        }
+
+        byte[][] bytes() {
+            return bytes != null ? bytes : task.join();
+        }
+    }
+}
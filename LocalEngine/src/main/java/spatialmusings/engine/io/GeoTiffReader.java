@@ -0,0 +1,585 @@
+package spatialmusings.engine.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Reads windows of a (Geo)TIFF as {@code float} bands.
+ *
+ * <p>Handles classic and BigTIFF, stripped and tiled layouts, chunky and planar sample
+ * organisation, 8/16/32/64-bit integer and float samples, no compression, DEFLATE or LZW, and
+ * horizontal differencing. Only the internal chunks that intersect a requested window are
+ * read, through positional reads on a shared {@link FileChannel}, so one reader can serve
+ * every worker thread at once.
+ *
+ * <p>Reduced-resolution images (the overviews of a cloud-optimized GeoTIFF) are read as
+ * levels 1, 2, ... after the full-resolution level 0; {@link #level(double)} picks the one
+ * to read for a requested scale. A window spanning several chunks decodes them in parallel
+ * on the fork-join pool, each chunk straight into its part of the destination, and the
+ * compressed and decoded byte buffers, inflaters and LZW tables are pooled per reader rather
+ * than allocated per chunk. Decoded chunks are kept in a {@link TileCache}, the shared one
+ * unless another is given, so readers of the same file share them.
+ */
+public final class GeoTiffReader implements Closeable {
+
+    private static final int GT_MODEL_TYPE = 1024;
+    private static final int GT_RASTER_TYPE = 1025;
+    private static final int GEOGRAPHIC_TYPE = 2048;
+    private static final int PROJECTED_CS_TYPE = 3072;
+    private static final int RASTER_PIXEL_IS_POINT = 2;
+    /** NewSubfileType bits: reduced-resolution version of another image; transparency mask. */
+    private static final int REDUCED_RESOLUTION = 1;
+    private static final int TRANSPARENCY_MASK = 4;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final TileCache cache;
+    /** Identifies this version of the file in the cache: path, size and modification time. */
+    private final String dataset;
+    private final ByteOrder order;
+    private final Level[] levels;
+    private final double noData;
+    private final Queue<Decoder> decoders = new ConcurrentLinkedQueue<>();
+
+    private GeoTiffReader(Path path, FileChannel channel, TileCache cache) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.cache = cache;
+        this.dataset = path.toAbsolutePath().normalize() + ":" + channel.size() + ":"
+                + Files.getLastModifiedTime(path).toMillis();
+        ByteBuffer header = TiffDirectory.readFully(channel, 0, 16, ByteOrder.LITTLE_ENDIAN);
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException("Not a TIFF file: " + path);
+        }
+        header.order(order);
+        int magic = header.getShort(2) & 0xFFFF;
+        boolean bigTiff = magic == 43;
+        if (magic != 42 && !bigTiff) {
+            throw new IOException("Not a TIFF file: " + path);
+        }
+        long first = bigTiff ? header.getLong(8) : header.getInt(4) & 0xFFFFFFFFL;
+        TiffDirectory ifd = TiffDirectory.read(channel, first, order, bigTiff);
+        Level full = new Level(ifd, null, 0);
+        noData = parseNoData(ifd.string(TiffDirectory.GDAL_NODATA));
+        List<Level> all = new ArrayList<>();
+        all.add(full);
+        // Overviews follow the full-resolution image in the IFD chain; skip masks and anything
+        // that is not a smaller version of the same bands.
+        long next = ifd.nextOffset();
+        for (int ordinal = 1; next != 0 && all.size() < 32; ordinal++) {
+            TiffDirectory sub = TiffDirectory.read(channel, next, order, bigTiff);
+            next = sub.nextOffset();
+            int type = sub.intValue(TiffDirectory.NEW_SUBFILE_TYPE, 0);
+            if ((type & REDUCED_RESOLUTION) == 0 || (type & TRANSPARENCY_MASK) != 0
+                    || sub.intValue(TiffDirectory.SAMPLES_PER_PIXEL, 1) != full.samplesPerPixel) {
+                continue;
+            }
+            all.add(new Level(sub, full.grid, ordinal));
+        }
+        all.sort((a, b) -> Double.compare(a.grid.pixelWidth(), b.grid.pixelWidth()));
+        levels = all.toArray(new Level[0]);
+    }
+
+    public static GeoTiffReader open(Path path) throws IOException {
+        return open(path, TileCache.shared());
+    }
+
+    /** Opens {@code path} keeping decoded chunks in {@code cache}; a zero-budget cache disables caching. */
+    public static GeoTiffReader open(Path path, TileCache cache) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new GeoTiffReader(path, channel, cache);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** GDAL writes nodata as text: a number, {@code nan}, {@code inf} or {@code -inf}. */
+    private static double parseNoData(String text) {
+        if (text == null || text.isBlank()) {
+            return Double.NaN;
+        }
+        String s = text.trim().toLowerCase(Locale.ROOT);
+        switch (s) {
+            case "nan": return Double.NaN;
+            case "inf": case "+inf": return Double.POSITIVE_INFINITY;
+            case "-inf": return Double.NEGATIVE_INFINITY;
+            default: return Double.parseDouble(s);
+        }
+    }
+
+    private PixelGrid readGrid(TiffDirectory ifd, int width, int height) throws IOException {
+        Crs crs = Crs.WGS84;
+        boolean pixelIsPoint = false;
+        long[] keys = ifd.longs(TiffDirectory.GEO_KEY_DIRECTORY);
+        if (keys != null && keys.length >= 4) {
+            int n = (int) keys[3];
+            for (int i = 0; i < n && 4 + 4 * i + 3 < keys.length; i++) {
+                int key = (int) keys[4 + 4 * i];
+                int location = (int) keys[4 + 4 * i + 1];
+                int value = (int) keys[4 + 4 * i + 3];
+                if (location != 0) {
+                    continue;
+                }
+                if (key == PROJECTED_CS_TYPE && value != 32767) {
+                    crs = Crs.epsg(value);
+                } else if (key == GEOGRAPHIC_TYPE && value != 32767 && !isProjected(keys)) {
+                    crs = Crs.epsg(value);
+                } else if (key == GT_RASTER_TYPE) {
+                    pixelIsPoint = value == RASTER_PIXEL_IS_POINT;
+                }
+            }
+        }
+        double sx, sy, ox, oy;
+        double[] transform = ifd.doubles(TiffDirectory.MODEL_TRANSFORMATION);
+        double[] scale = ifd.doubles(TiffDirectory.MODEL_PIXEL_SCALE);
+        double[] tie = ifd.doubles(TiffDirectory.MODEL_TIEPOINT);
+        if (transform != null && transform.length >= 8) {
+            if (transform[1] != 0 || transform[4] != 0) {
+                throw new IOException("Rotated rasters are not supported: " + path);
+            }
+            sx = transform[0];
+            sy = -transform[5];
+            ox = transform[3];
+            oy = transform[7];
+        } else if (scale != null && tie != null && tie.length >= 6) {
+            sx = scale[0];
+            sy = scale[1];
+            ox = tie[3] - tie[0] * sx;
+            oy = tie[4] + tie[1] * sy;
+        } else {
+            sx = 1;
+            sy = 1;
+            ox = 0;
+            oy = height;
+        }
+        if (pixelIsPoint) {
+            ox -= sx / 2;
+            oy += sy / 2;
+        }
+        return new PixelGrid(crs, ox, oy, sx, sy, width, height);
+    }
+
+    private static boolean isProjected(long[] keys) {
+        int n = (int) keys[3];
+        for (int i = 0; i < n && 4 + 4 * i + 3 < keys.length; i++) {
+            if (keys[4 + 4 * i] == GT_MODEL_TYPE) {
+                return keys[4 + 4 * i + 3] == 1;
+            }
+        }
+        return false;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /** Grid of the full-resolution image. */
+    public PixelGrid grid() {
+        return levels[0].grid;
+    }
+
+    /** Number of resolution levels: the full image plus its overviews. */
+    public int levelCount() {
+        return levels.length;
+    }
+
+    /** Grid of level {@code level}, 0 being full resolution and each further level coarser. */
+    public PixelGrid grid(int level) {
+        return levels[level].grid;
+    }
+
+    /**
+     * The coarsest level whose pixels are no larger than {@code scale} (in CRS units), i.e. the
+     * overview a read at that scale should resample from; 0 if even the full image is coarser.
+     */
+    public int level(double scale) {
+        int best = 0;
+        for (int l = 1; l < levels.length; l++) {
+            if (levels[l].grid.pixelWidth() <= scale * (1 + 1e-9)) {
+                best = l;
+            }
+        }
+        return best;
+    }
+
+    public int bandCount() {
+        return levels[0].samplesPerPixel;
+    }
+
+    public double noData() {
+        return noData;
+    }
+
+    /**
+     * Reads {@code bands} (0-based sample indices) of {@code window} into {@code dst}, one
+     * row-major array per band. Pixels outside the raster and nodata pixels become NaN.
+     */
+    public void read(Window window, int[] bands, float[][] dst) throws IOException {
+        read(0, window, bands, dst);
+    }
+
+    /** {@link #read(Window, int[], float[][])} from level {@code level}, in that level's grid. */
+    public void read(int level, Window window, int[] bands, float[][] dst) throws IOException {
+        for (float[] d : dst) {
+            Arrays.fill(d, 0, window.size(), Float.NaN);
+        }
+        Level l = levels[level];
+        Window w = window.intersection(l.grid.bounds());
+        if (w.isEmpty()) {
+            return;
+        }
+        int cx0 = w.x() / l.chunkWidth, cx1 = (w.maxX() - 1) / l.chunkWidth;
+        int cy0 = w.y() / l.chunkHeight, cy1 = (w.maxY() - 1) / l.chunkHeight;
+        int chunks = (cx1 - cx0 + 1) * (cy1 - cy0 + 1) * (l.planar ? bands.length : 1);
+        if (chunks == 1) {
+            for (int b = 0; b < (l.planar ? bands.length : 1); b++) {
+                l.readChunk(cx0, cy0, l.planar ? b : -1, window, w, bands, dst);
+            }
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int b = 0; b < (l.planar ? bands.length : 1); b++) {
+                    int x = cx, y = cy, band = l.planar ? b : -1;
+                    tasks.add(ForkJoinTask.adapt(() -> {
+                        try {
+                            l.readChunk(x, y, band, window, w, bands, dst);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                }
+            }
+        }
+        try {
+            ForkJoinTask.invokeAll(tasks);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Convenience wrapper that converts I/O failures into {@link UncheckedIOException}. */
+    public void readUnchecked(Window window, int[] bands, float[][] dst) {
+        readUnchecked(0, window, bands, dst);
+    }
+
+    public void readUnchecked(int level, Window window, int[] bands, float[][] dst) {
+        try {
+            read(level, window, bands, dst);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        for (Decoder d = decoders.poll(); d != null; d = decoders.poll()) {
+            d.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GeoTiffReader[" + path + ", " + grid() + ", " + bandCount() + " band(s)"
+                + (levels.length > 1 ? ", " + (levels.length - 1) + " overview(s)" : "") + "]";
+    }
+
+    /** One image of the file: the full-resolution image or an overview. */
+    private final class Level {
+        final PixelGrid grid;
+        final int samplesPerPixel;
+        final int bitsPerSample;
+        final int sampleFormat;
+        final int compression;
+        final int predictor;
+        final boolean planar;
+        final int chunkWidth;
+        final int chunkHeight;
+        final int chunksAcross;
+        final int chunksDown;
+        final long[] offsets;
+        final long[] byteCounts;
+        /** Position of the image in the file's IFD chain, naming the level in cache keys. */
+        final int ordinal;
+
+        /** Parses {@code ifd}; {@code full} is the full-resolution grid an overview scales, or null. */
+        Level(TiffDirectory ifd, PixelGrid full, int ordinal) throws IOException {
+            this.ordinal = ordinal;
+            int width = ifd.intValue(TiffDirectory.IMAGE_WIDTH, 0);
+            int height = ifd.intValue(TiffDirectory.IMAGE_LENGTH, 0);
+            samplesPerPixel = ifd.intValue(TiffDirectory.SAMPLES_PER_PIXEL, 1);
+            bitsPerSample = ifd.intValue(TiffDirectory.BITS_PER_SAMPLE, 1);
+            sampleFormat = ifd.intValue(TiffDirectory.SAMPLE_FORMAT, 1);
+            compression = ifd.intValue(TiffDirectory.COMPRESSION, TiffDirectory.COMPRESSION_NONE);
+            predictor = ifd.intValue(TiffDirectory.PREDICTOR, 1);
+            planar = ifd.intValue(TiffDirectory.PLANAR_CONFIGURATION, 1) == 2;
+            if (bitsPerSample % 8 != 0) {
+                throw new IOException("Unsupported bits per sample " + bitsPerSample + " in " + path);
+            }
+            if (compression != TiffDirectory.COMPRESSION_NONE && compression != TiffDirectory.COMPRESSION_DEFLATE
+                    && compression != TiffDirectory.COMPRESSION_ADOBE_DEFLATE
+                    && compression != TiffDirectory.COMPRESSION_LZW) {
+                throw new IOException("Unsupported compression " + compression + " in " + path);
+            }
+            if (predictor != 1 && predictor != 2) {
+                throw new IOException("Unsupported predictor " + predictor + " in " + path);
+            }
+            if (ifd.has(TiffDirectory.TILE_WIDTH)) {
+                chunkWidth = ifd.intValue(TiffDirectory.TILE_WIDTH, 0);
+                chunkHeight = ifd.intValue(TiffDirectory.TILE_LENGTH, 0);
+                offsets = ifd.longs(TiffDirectory.TILE_OFFSETS);
+                byteCounts = ifd.longs(TiffDirectory.TILE_BYTE_COUNTS);
+            } else {
+                chunkWidth = width;
+                chunkHeight = Math.min(ifd.intValue(TiffDirectory.ROWS_PER_STRIP, height), height);
+                offsets = ifd.longs(TiffDirectory.STRIP_OFFSETS);
+                byteCounts = ifd.longs(TiffDirectory.STRIP_BYTE_COUNTS);
+            }
+            chunksAcross = (width + chunkWidth - 1) / chunkWidth;
+            chunksDown = (height + chunkHeight - 1) / chunkHeight;
+            if (full == null) {
+                grid = readGrid(ifd, width, height);
+            } else {
+                // Overviews carry no georeferencing of their own: same origin and extent, larger pixels.
+                grid = new PixelGrid(full.crs(), full.originX(), full.originY(),
+                        full.pixelWidth() * full.width() / width, full.pixelHeight() * full.height() / height,
+                        width, height);
+            }
+        }
+
+        /**
+         * Copies the overlap of chunk ({@code cx}, {@code cy}) with {@code w} into {@code dst}, laid
+         * out as {@code target}, for planar data only sample {@code bands[band]}. The chunk comes from
+         * the cache if every band needed is there, and is otherwise decoded and cached, all its
+         * samples for interleaved data.
+         */
+        void readChunk(int cx, int cy, int band, Window target, Window w, int[] bands, float[][] dst)
+                throws IOException {
+            Window chunk = new Window(cx * chunkWidth, cy * chunkHeight, chunkWidth, chunkHeight);
+            Window overlap = chunk.intersection(w);
+            int tile = cy * chunksAcross + cx;
+            boolean caching = cache.budgetBytes() > 0;
+            if (caching && fromCache(tile, band, chunk, overlap, target, bands, dst)) {
+                return;
+            }
+            int samples = planar ? 1 : samplesPerPixel;
+            int index = (planar ? bands[band] * chunksAcross * chunksDown : 0) + tile;
+            Decoder d = decoders.poll();
+            if (d == null) {
+                d = new Decoder();
+            }
+            try {
+                float[] decoded = decode(index, samples, d);
+                if (decoded == null) {
+                    return;
+                }
+                if (caching) {
+                    int count = chunkWidth * chunkHeight;
+                    for (int s = 0; s < samples; s++) {
+                        cache.put(key(tile, planar ? bands[band] : s), decoded, s, samples, count);
+                    }
+                }
+                if (planar) {
+                    copy(decoded, 1, 0, chunk, overlap, target, dst[band]);
+                } else {
+                    for (int b = 0; b < bands.length; b++) {
+                        copy(decoded, samplesPerPixel, bands[b], chunk, overlap, target, dst[b]);
+                    }
+                }
+            } finally {
+                decoders.offer(d);
+            }
+        }
+
+        private boolean fromCache(int tile, int band, Window chunk, Window overlap, Window target, int[] bands,
+                                  float[][] dst) {
+            int src = (overlap.y() - chunk.y()) * chunkWidth + (overlap.x() - chunk.x());
+            int out = (overlap.y() - target.y()) * target.width() + (overlap.x() - target.x());
+            for (int b = planar ? band : 0; b < (planar ? band + 1 : bands.length); b++) {
+                if (!cache.copy(key(tile, bands[b]), src, chunkWidth, dst[b], out, target.width(),
+                        overlap.width(), overlap.height())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private TileCache.Key key(int tile, int sample) {
+            return new TileCache.Key(dataset, ordinal, tile, sample);
+        }
+
+        private void copy(float[] samples, int stride, int sample, Window chunk, Window overlap,
+                          Window target, float[] dst) {
+            for (int y = overlap.y(); y < overlap.maxY(); y++) {
+                int src = ((y - chunk.y()) * chunkWidth + (overlap.x() - chunk.x())) * stride + sample;
+                int out = (y - target.y()) * target.width() + (overlap.x() - target.x());
+                for (int x = 0; x < overlap.width(); x++, src += stride) {
+                    dst[out + x] = samples[src];
+                }
+            }
+        }
+
+        /**
+         * Decodes one strip/tile into the decoder's interleaved float samples, or returns null for a
+         * sparse (absent) chunk. The returned array belongs to {@code d}.
+         */
+        private float[] decode(int index, int samples, Decoder d) throws IOException {
+            if (index >= offsets.length || byteCounts[index] == 0) {
+                return null;
+            }
+            int compressed = (int) byteCounts[index];
+            byte[] raw = d.raw(compressed);
+            TiffDirectory.readFully(channel, offsets[index], ByteBuffer.wrap(raw, 0, compressed));
+            int bytesPerSample = bitsPerSample / 8;
+            int expected = chunkWidth * chunkHeight * samples * bytesPerSample;
+            byte[] plain;
+            int length;
+            if (compression == TiffDirectory.COMPRESSION_NONE) {
+                plain = raw;
+                length = Math.min(compressed, expected);
+            } else if (compression == TiffDirectory.COMPRESSION_LZW) {
+                plain = d.plain(expected);
+                length = d.lzw().decode(raw, compressed, plain, expected);
+            } else {
+                plain = d.plain(expected);
+                Inflater inflater = d.inflater();
+                inflater.reset();
+                inflater.setInput(raw, 0, compressed);
+                length = 0;
+                try {
+                    while (length < expected && !inflater.finished()) {
+                        int k = inflater.inflate(plain, length, expected - length);
+                        if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        length += k;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt DEFLATE chunk " + index + " in " + path, e);
+                }
+            }
+            ByteBuffer data = ByteBuffer.wrap(plain, 0, length).order(order);
+            int rows = Math.min(chunkHeight, length / Math.max(1, chunkWidth * samples * bytesPerSample));
+            return toFloat(data, samples, rows, d.samples(chunkWidth * chunkHeight * samples));
+        }
+
+        private float[] toFloat(ByteBuffer data, int samples, int rows, float[] out) {
+            int rowSamples = chunkWidth * samples;
+            Arrays.fill(out, rows * rowSamples, chunkWidth * chunkHeight * samples, Float.NaN);
+            boolean isFloat = sampleFormat == 3;
+            boolean signed = sampleFormat == 2;
+            int bytes = bitsPerSample / 8;
+            long mask = bitsPerSample == 64 ? -1L : (1L << bitsPerSample) - 1;
+            long[] prev = new long[samples];
+            float nd = (float) noData;
+            boolean hasNoData = !Double.isNaN(noData);
+            for (int r = 0; r < rows; r++) {
+                Arrays.fill(prev, 0);
+                for (int i = 0; i < rowSamples; i++) {
+                    int at = (r * rowSamples + i) * bytes;
+                    float v;
+                    if (isFloat) {
+                        v = bytes == 4 ? data.getFloat(at) : (float) data.getDouble(at);
+                    } else {
+                        long raw;
+                        switch (bytes) {
+                            case 1: raw = data.get(at) & 0xFFL; break;
+                            case 2: raw = data.getShort(at) & 0xFFFFL; break;
+                            case 4: raw = data.getInt(at) & 0xFFFFFFFFL; break;
+                            default: raw = data.getLong(at); break;
+                        }
+                        if (predictor == 2) {
+                            int s = i % samples;
+                            raw = (raw + prev[s]) & mask;
+                            prev[s] = raw;
+                        }
+                        if (signed && bitsPerSample < 64 && (raw & (1L << (bitsPerSample - 1))) != 0) {
+                            raw |= ~mask;
+                        }
+                        v = raw;
+                    }
+                    out[r * rowSamples + i] = hasNoData && v == nd ? Float.NaN : v;
+                }
+            }
+            return out;
+        }
+    }
+
+    /** Per-thread decode state, pooled by the reader: grown on demand and never shrunk. */
+    private static final class Decoder {
+        private byte[] raw = new byte[0];
+        private byte[] plain = new byte[0];
+        private float[] samples = new float[0];
+        private Inflater inflater;
+        private Lzw lzw;
+
+        byte[] raw(int size) {
+            if (raw.length < size) {
+                raw = new byte[size];
+            }
+            return raw;
+        }
+
+        byte[] plain(int size) {
+            if (plain.length < size) {
+                plain = new byte[size];
+            }
+            return plain;
+        }
+
+        float[] samples(int size) {
+            if (samples.length < size) {
+                samples = new float[size];
+            }
+            return samples;
+        }
+
+        Inflater inflater() {
+            if (inflater == null) {
+                inflater = new Inflater();
+            }
+            return inflater;
+        }
+
+        Lzw lzw() {
+            if (lzw == null) {
+                lzw = new Lzw();
+            }
+            return lzw;
+        }
+
+        void end() {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+}
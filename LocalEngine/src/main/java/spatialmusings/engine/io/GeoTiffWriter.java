@@ -0,0 +1,153 @@
+package spatialmusings.engine.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Writes an image as an uncompressed, tiled, band-sequential float32 GeoTIFF with NaN nodata,
+ * the local counterpart of {@code Export.image.toDrive}. Every tile has a fixed size and
+ * therefore a fixed file offset, so tiles are computed and written concurrently.
+ */
+public final class GeoTiffWriter {
+
+    private GeoTiffWriter() {
+    }
+
+    /** Writes the part of {@code image} covering {@code region}, as {@code Export.image} does. */
+    public static void write(Image image, Geometry region, Path out) throws IOException {
+        PixelGrid grid = image.grid();
+        Window window = grid.windowOf(region.transform(grid.crs()).envelope()).intersection(grid.bounds());
+        write(image, window, out, TileExecutor.common());
+    }
+
+    public static void write(Image image, Window window, Path out, TileExecutor executor) throws IOException {
+        if (window.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to export: empty window");
+        }
+        PixelGrid grid = image.grid().subGrid(window);
+        int bands = image.bandNames().size();
+        int ts = executor.tileSize();
+        int across = (grid.width() + ts - 1) / ts;
+        int down = (grid.height() + ts - 1) / ts;
+        long tileBytes = (long) ts * ts * Float.BYTES;
+        long tileCount = (long) across * down * bands;
+        boolean bigTiff = tileCount * tileBytes > 0xF000_0000L;
+
+        long[] offsets = new long[(int) tileCount];
+        long[] counts = new long[(int) tileCount];
+        IfdBuilder ifd = describe(grid, bands, ts, bigTiff);
+        // The directory size depends only on the number of tiles, so size it with placeholders.
+        ifd.offsets(TiffDirectory.TILE_OFFSETS, offsets);
+        ifd.offsets(TiffDirectory.TILE_BYTE_COUNTS, counts);
+        long header = bigTiff ? 16 : 8;
+        long dataStart = (header + ifd.size() + 15) & ~15L;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = dataStart + i * tileBytes;
+            counts[i] = tileBytes;
+        }
+        ifd.offsets(TiffDirectory.TILE_OFFSETS, offsets);
+        ifd.offsets(TiffDirectory.TILE_BYTE_COUNTS, counts);
+
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ)) {
+            writeFully(ch, header(bigTiff, header), 0);
+            writeFully(ch, ifd.encode(header, 0), header);
+            List<Window> tiles = grid.tiles(grid.bounds(), ts);
+            try {
+                executor.forEach(tiles, t -> {
+                    Tile data = image.read(t.translate(window.x(), window.y()));
+                    int tx = t.x() / ts, ty = t.y() / ts;
+                    ByteBuffer buf = ByteBuffer.allocate((int) tileBytes).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int b = 0; b < bands; b++) {
+                        buf.clear();
+                        float[] src = data.band(b);
+                        for (int r = 0; r < ts; r++) {
+                            for (int c = 0; c < ts; c++) {
+                                buf.putFloat(r < t.height() && c < t.width() ? src[r * t.width() + c] : Float.NaN);
+                            }
+                        }
+                        buf.flip();
+                        try {
+                            writeFully(ch, buf, offsets[(b * down + ty) * across + tx]);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /** Tags shared by every float32 band-sequential image we write, minus tile offsets. */
+    static IfdBuilder describe(PixelGrid grid, int bands, int tileSize, boolean bigTiff) {
+        long[] bps = new long[bands];
+        long[] format = new long[bands];
+        Arrays.fill(bps, 32);
+        Arrays.fill(format, 3);
+        IfdBuilder ifd = new IfdBuilder(bigTiff)
+                .longs(TiffDirectory.IMAGE_WIDTH, grid.width())
+                .longs(TiffDirectory.IMAGE_LENGTH, grid.height())
+                .shorts(TiffDirectory.BITS_PER_SAMPLE, bps)
+                .shorts(TiffDirectory.COMPRESSION, TiffDirectory.COMPRESSION_NONE)
+                .shorts(TiffDirectory.PHOTOMETRIC, 1)
+                .shorts(TiffDirectory.SAMPLES_PER_PIXEL, bands)
+                .shorts(TiffDirectory.PLANAR_CONFIGURATION, 2)
+                .shorts(TiffDirectory.TILE_WIDTH, tileSize)
+                .shorts(TiffDirectory.TILE_LENGTH, tileSize)
+                .shorts(TiffDirectory.SAMPLE_FORMAT, format)
+                .doubles(TiffDirectory.MODEL_PIXEL_SCALE, grid.pixelWidth(), grid.pixelHeight(), 0)
+                .doubles(TiffDirectory.MODEL_TIEPOINT, 0, 0, 0, grid.originX(), grid.originY(), 0)
+                .shorts(TiffDirectory.GEO_KEY_DIRECTORY, geoKeys(grid.crs()))
+                .ascii(TiffDirectory.GDAL_NODATA, "nan");
+        if (bands > 1) {
+            ifd.shorts(TiffDirectory.EXTRA_SAMPLES, new long[bands - 1]);
+        }
+        return ifd;
+    }
+
+    static long[] geoKeys(Crs crs) {
+        boolean geographic = crs.isGeographic();
+        return new long[] {
+            1, 1, 0, 3,
+            1024, 0, 1, geographic ? 2 : 1,
+            1025, 0, 1, 1,
+            geographic ? 2048 : 3072, 0, 1, crs.code()
+        };
+    }
+
+    static ByteBuffer header(boolean bigTiff, long firstIfd) {
+        ByteBuffer b = ByteBuffer.allocate(bigTiff ? 16 : 8).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte) 'I').put((byte) 'I');
+        if (bigTiff) {
+            b.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(firstIfd);
+        } else {
+            b.putShort((short) 42).putInt((int) firstIfd);
+        }
+        b.flip();
+        return b;
+    }
+
+    static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        long at = position;
+        while (buf.hasRemaining()) {
+            at += ch.write(buf, at);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package spatialmusings.engine.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds one TIFF image file directory, classic or BigTIFF, little-endian. Values too large to
+ * sit in an entry are laid out right after the directory, so {@link #size} is the whole
+ * footprint an IFD occupies in the file.
+ */
+final class IfdBuilder {
+
+    private static final class Entry {
+        final int type;
+        final long count;
+        final byte[] data;
+
+        Entry(int type, long count, byte[] data) {
+            this.type = type;
+            this.count = count;
+            this.data = data;
+        }
+    }
+
+    private final boolean bigTiff;
+    private final Map<Integer, Entry> entries = new TreeMap<>();
+
+    IfdBuilder(boolean bigTiff) {
+        this.bigTiff = bigTiff;
+    }
+
+    IfdBuilder shorts(int tag, long... values) {
+        ByteBuffer b = buffer(values.length * 2);
+        for (long v : values) {
+            b.putShort((short) v);
+        }
+        entries.put(tag, new Entry(TiffDirectory.TYPE_SHORT, values.length, b.array()));
+        return this;
+    }
+
+    /** LONG for classic TIFF, LONG8 for BigTIFF: the type used for offsets and byte counts. */
+    IfdBuilder offsets(int tag, long... values) {
+        if (!bigTiff) {
+            return longs(tag, values);
+        }
+        ByteBuffer b = buffer(values.length * 8);
+        for (long v : values) {
+            b.putLong(v);
+        }
+        entries.put(tag, new Entry(TiffDirectory.TYPE_LONG8, values.length, b.array()));
+        return this;
+    }
+
+    IfdBuilder longs(int tag, long... values) {
+        ByteBuffer b = buffer(values.length * 4);
+        for (long v : values) {
+            b.putInt((int) v);
+        }
+        entries.put(tag, new Entry(TiffDirectory.TYPE_LONG, values.length, b.array()));
+        return this;
+    }
+
+    IfdBuilder doubles(int tag, double... values) {
+        ByteBuffer b = buffer(values.length * 8);
+        for (double v : values) {
+            b.putDouble(v);
+        }
+        entries.put(tag, new Entry(TiffDirectory.TYPE_DOUBLE, values.length, b.array()));
+        return this;
+    }
+
+    IfdBuilder ascii(int tag, String value) {
+        byte[] s = (value + "\0").getBytes(StandardCharsets.US_ASCII);
+        entries.put(tag, new Entry(TiffDirectory.TYPE_ASCII, s.length, s));
+        return this;
+    }
+
+    private int inlineCapacity() {
+        return bigTiff ? 8 : 4;
+    }
+
+    private int entrySize() {
+        return bigTiff ? 20 : 12;
+    }
+
+    private int headSize() {
+        return (bigTiff ? 8 : 2) + entries.size() * entrySize() + (bigTiff ? 8 : 4);
+    }
+
+    /** Bytes the directory and its out-of-line values occupy. */
+    long size() {
+        long size = headSize();
+        for (Entry e : entries.values()) {
+            if (e.data.length > inlineCapacity()) {
+                size += (e.data.length + 1) & ~1L;
+            }
+        }
+        return size;
+    }
+
+    /** Serialises the directory as if it were written at {@code position}. */
+    ByteBuffer encode(long position, long nextIfd) {
+        ByteBuffer out = buffer((int) size());
+        long overflow = position + headSize();
+        int overflowAt = headSize();
+        if (bigTiff) {
+            out.putLong(entries.size());
+        } else {
+            out.putShort((short) entries.size());
+        }
+        for (Map.Entry<Integer, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            out.putShort(me.getKey().shortValue());
+            out.putShort((short) e.type);
+            if (bigTiff) {
+                out.putLong(e.count);
+            } else {
+                out.putInt((int) e.count);
+            }
+            if (e.data.length <= inlineCapacity()) {
+                byte[] padded = new byte[inlineCapacity()];
+                System.arraycopy(e.data, 0, padded, 0, e.data.length);
+                out.put(padded);
+            } else {
+                if (bigTiff) {
+                    out.putLong(overflow);
+                } else {
+                    out.putInt((int) overflow);
+                }
+                int at = out.position();
+                out.position(overflowAt);
+                out.put(e.data);
+                out.position(at);
+                int padded = (e.data.length + 1) & ~1;
+                overflow += padded;
+                overflowAt += padded;
+            }
+        }
+        if (bigTiff) {
+            out.putLong(nextIfd);
+        } else {
+            out.putInt((int) nextIfd);
+        }
+        out.position(0);
+        return out;
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,101 @@
+package spatialmusings.engine.io;
+
+import java.io.IOException;
+
+/**
+ * TIFF LZW decoder (MSB-first codes of 9 to 12 bits, with the "early change" code-width
+ * switch libtiff and GDAL write). The string table lives in primitive arrays that are reset,
+ * not reallocated, between chunks, so one instance serves any number of chunks of one thread.
+ */
+final class Lzw {
+
+    private static final int CLEAR = 256;
+    private static final int END = 257;
+    private static final int FIRST = 258;
+    private static final int MAX_CODES = 4096;
+
+    private final int[] prefix = new int[MAX_CODES];
+    private final byte[] suffix = new byte[MAX_CODES];
+    private final byte[] first = new byte[MAX_CODES];
+    private final int[] length = new int[MAX_CODES];
+
+    Lzw() {
+        for (int c = 0; c < 256; c++) {
+            prefix[c] = -1;
+            suffix[c] = (byte) c;
+            first[c] = (byte) c;
+            length[c] = 1;
+        }
+    }
+
+    /** Decodes {@code in[0, inLength)} into {@code out}, stopping when it is full; returns the bytes written. */
+    int decode(byte[] in, int inLength, byte[] out, int outLength) throws IOException {
+        int next = FIRST;
+        int width = 9;
+        int previous = -1;
+        long bitBuffer = 0;
+        int bits = 0;
+        int pos = 0;
+        int n = 0;
+        while (n < outLength) {
+            while (bits < width) {
+                if (pos >= inLength) {
+                    return n;
+                }
+                bitBuffer = (bitBuffer << 8) | (in[pos++] & 0xFF);
+                bits += 8;
+            }
+            int code = (int) (bitBuffer >>> (bits - width)) & ((1 << width) - 1);
+            bits -= width;
+            if (code == END) {
+                break;
+            }
+            if (code == CLEAR) {
+                next = FIRST;
+                width = 9;
+                previous = -1;
+                continue;
+            }
+            if (previous < 0) {
+                if (code >= 256) {
+                    throw new IOException("Corrupt LZW data: code " + code + " after a clear");
+                }
+                out[n++] = (byte) code;
+                previous = code;
+                continue;
+            }
+            if (code > next || (code == next && next >= MAX_CODES)) {
+                throw new IOException("Corrupt LZW data: code " + code + " with " + next + " table entries");
+            }
+            if (next < MAX_CODES) {
+                // For code == next (the KwKwK case) the new entry is exactly the string to emit.
+                prefix[next] = previous;
+                suffix[next] = code < next ? first[code] : first[previous];
+                first[next] = first[previous];
+                length[next] = length[previous] + 1;
+                next++;
+                if (next == (1 << width) - 1 && width < 12) {
+                    width++;
+                }
+            }
+            n = emit(code, out, n, outLength);
+            previous = code;
+        }
+        return n;
+    }
+
+    /** Writes the string of {@code code} at {@code out[n]}, truncated at {@code limit}. */
+    private int emit(int code, byte[] out, int n, int limit) {
+        int len = length[code];
+        int end = n + len;
+        int c = code;
+        // Walk from the last byte back to the first, skipping the part past the limit.
+        for (int i = end - 1; i >= n; i--) {
+            if (i < limit) {
+                out[i] = suffix[c];
+            }
+            c = prefix[c];
+        }
+        return Math.min(end, limit);
+    }
+}
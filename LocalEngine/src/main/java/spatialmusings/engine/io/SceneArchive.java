@@ -0,0 +1,194 @@
+package spatialmusings.engine.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+
+/**
+ * A local image collection laid out on disk as one directory per scene:
+ *
+ * <pre>
+ * s2_harmonized/
+ *   20190114T074231_20190114T075544_T36MZE/
+ *     B2.tif  B3.tif  B4.tif  B8.tif  ...
+ *     scene.properties
+ * </pre>
+ *
+ * {@code scene.properties} holds one {@code key = value} per line, split at the first
+ * {@code =} so ee names such as {@code system:time_start} can be used as-is. Numeric values
+ * become numbers and {@code system:time_start} may be an ISO date. {@code system:index}
+ * defaults to the directory name and {@code bands} (comma-separated) fixes the band order,
+ * which otherwise is the natural order of the file names (B1, B2, ..., B8, B8A, ..., B12).
+ */
+public final class SceneArchive implements Closeable {
+
+    public static final String PROPERTIES_FILE = "scene.properties";
+
+    private final Path root;
+    private final List<SceneImage> scenes;
+
+    private SceneArchive(Path root, List<SceneImage> scenes) {
+        this.root = root;
+        this.scenes = scenes;
+    }
+
+    public static SceneArchive open(Path root) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(root, Files::isDirectory)) {
+            ds.forEach(dirs::add);
+        }
+        dirs.sort(Comparator.comparing(p -> p.getFileName().toString()));
+        List<SceneImage> scenes = new ArrayList<>();
+        for (Path dir : dirs) {
+            SceneImage scene = openScene(dir);
+            if (scene != null) {
+                scenes.add(scene);
+            }
+        }
+        return new SceneArchive(root, scenes);
+    }
+
+    /** Opens a single scene directory, or returns null if it holds no GeoTIFF. */
+    public static SceneImage openScene(Path dir) throws IOException {
+        Map<String, Path> files = new LinkedHashMap<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.{tif,tiff,TIF,TIFF}")) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                files.put(name.substring(0, name.lastIndexOf('.')), p);
+            }
+        }
+        if (files.isEmpty()) {
+            return null;
+        }
+        Path propsFile = dir.resolve(PROPERTIES_FILE);
+        Map<String, Object> props = Files.exists(propsFile) ? readProperties(propsFile) : new LinkedHashMap<>();
+        props.putIfAbsent("system:index", dir.getFileName().toString());
+        List<String> names;
+        Object order = props.get("bands");
+        if (order != null) {
+            names = new ArrayList<>();
+            for (String s : order.toString().split(",")) {
+                names.add(s.trim());
+            }
+        } else {
+            names = new ArrayList<>(files.keySet());
+            names.sort(SceneArchive::compareBandNames);
+        }
+        List<Path> paths = new ArrayList<>();
+        for (String n : names) {
+            Path p = files.get(n);
+            if (p == null) {
+                throw new IOException("Band " + n + " listed in " + propsFile + " has no file");
+            }
+            paths.add(p);
+        }
+        return new SceneImage(names, paths, props);
+    }
+
+    public static Map<String, Object> readProperties(Path file) throws IOException {
+        Map<String, Object> props = new LinkedHashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String s = line.trim();
+                int eq = s.indexOf('=');
+                if (s.isEmpty() || s.startsWith("#") || eq < 0) {
+                    continue;
+                }
+                String key = s.substring(0, eq).trim();
+                String value = s.substring(eq + 1).trim();
+                props.put(key, parseValue(key, value));
+            }
+        }
+        return props;
+    }
+
+    private static Object parseValue(String key, String value) {
+        if (Filter.TIME_START.equals(key) || "system:time_end".equals(key)) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return Filter.parseTime(value);
+            }
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    /** Natural order on band names: letters compare as text, digit runs numerically. */
+    static int compareBandNames(String a, String b) {
+        String[] pa = a.toUpperCase(Locale.ROOT).split("(?<=\\D)(?=\\d)|(?<=\\d)(?=\\D)");
+        String[] pb = b.toUpperCase(Locale.ROOT).split("(?<=\\D)(?=\\d)|(?<=\\d)(?=\\D)");
+        for (int i = 0; i < Math.min(pa.length, pb.length); i++) {
+            int c;
+            if (Character.isDigit(pa[i].charAt(0)) && Character.isDigit(pb[i].charAt(0))) {
+                c = Long.compare(Long.parseLong(pa[i]), Long.parseLong(pb[i]));
+            } else {
+                c = pa[i].compareTo(pb[i]);
+            }
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(pa.length, pb.length);
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    public List<SceneImage> scenes() {
+        return Collections.unmodifiableList(scenes);
+    }
+
+    public ImageCollection collection() {
+        return new ImageCollection(new ArrayList<Image>(scenes));
+    }
+
+    /** The scenes read at {@code scale} CRS units per pixel; see {@link SceneImage#atScale}. */
+    public ImageCollection collection(double scale) {
+        List<Image> out = new ArrayList<>(scenes.size());
+        for (SceneImage s : scenes) {
+            out.add(s.atScale(scale));
+        }
+        return new ImageCollection(out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (SceneImage s : scenes) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SceneArchive[" + root + ", " + scenes.size() + " scenes]";
+    }
+}
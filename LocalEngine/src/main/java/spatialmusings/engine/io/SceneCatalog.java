@@ -0,0 +1,994 @@
+package spatialmusings.engine.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import spatialmusings.engine.Element;
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.PixelGrid;
+
+/**
+ * Scene metadata of an archive in one memory-mapped, columnar file, so a collection can be
+ * filtered without listing scene directories or opening any GeoTIFF.
+ *
+ * <p>Rows are sorted by {@code system:time_start} (then {@code system:index}) and every scene
+ * property is a column: numbers as doubles or longs, strings as codes into a per-column
+ * dictionary. Footprints are kept as CRS code and envelope, and a spatial index lists, for
+ * every one-degree WGS84 cell, the rows whose footprint touches it, in row order. Opening
+ * maps the file and reads only the section offsets.
+ *
+ * <p>{@link #filter} answers the same {@link Filter}s as {@link ImageCollection#filter} on the
+ * archive's collection, with the same scenes. The conjuncts of a filter are compiled before any
+ * row is looked at: {@link Filter#date} becomes a binary search on the time column,
+ * {@link Filter#bounds} a probe of the cells under the region restricted to that time range by
+ * binary search in each cell's list, and {@link Filter#eq} or {@link Filter#lt} and friends on a
+ * property a primitive test on its column. Anything else is tested against a view of the row's
+ * columns. Only the scenes that pass are built, and only with the bands asked for.
+ */
+public final class SceneCatalog implements Closeable {
+
+    /**
+     * File name {@link #openOrBuild} keeps the catalog of an archive under, in its root; each
+     * rebuild is written next to it as {@code scenes.<n>.catalog} with {@code n} counting up.
+     */
+    public static final String FILE_NAME = "scenes.catalog";
+    private static final Pattern GENERATION = Pattern.compile("scenes(?:\\.(\\d+))?\\.catalog");
+
+    private static final int MAGIC = 0x534D5343; // "SMSC"
+    private static final int VERSION = 1;
+    private static final int NUMBERS = 1;
+    private static final int LONGS = 2;
+    private static final int STRINGS = 4;
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final long NO_LONG = Long.MIN_VALUE;
+    private static final int CELLS_X = 360;
+    private static final int CELLS_Y = 180;
+    /** Cell for footprints with no WGS84 envelope; every spatial probe includes it. */
+    private static final int UNPLACED = CELLS_X * CELLS_Y;
+    /**
+     * Degrees added around footprints and regions before they are binned: envelopes are
+     * reprojected by their corners only, and a UTM edge bows out by less than this.
+     */
+    private static final double MARGIN = 0.05;
+
+    private final Path file;
+    private final Path base;
+    private final int size;
+    private final int timed;
+    private final LongBuffer time;
+    private final IntBuffer crs;
+    private final DoubleBuffer envelopes;
+    private final IntBuffer layoutIds;
+    private final Strings layouts;
+    private final Strings paths;
+    private final Map<String, Column> columns;
+    private final IntBuffer cellStart;
+    private final IntBuffer postings;
+    private final Map<Integer, Layout> parsedLayouts = new ConcurrentHashMap<>();
+    private final Map<Integer, Crs> crsByCode = new ConcurrentHashMap<>();
+    private final List<SceneImage> opened = new ArrayList<>();
+
+    private SceneCatalog(Path file, ByteBuffer buf) throws IOException {
+        this.file = file;
+        this.base = file.toAbsolutePath().normalize().getParent();
+        if (buf.remaining() < 20 || buf.getInt() != MAGIC) {
+            throw new IOException(file + " is not a scene catalog");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException(file + " has unsupported version " + version);
+        }
+        size = buf.getInt();
+        timed = buf.getInt();
+        int columnCount = buf.getInt();
+        time = view(buf, 8L * size).asLongBuffer();
+        crs = view(buf, 4L * size).asIntBuffer();
+        envelopes = view(buf, 32L * size).asDoubleBuffer();
+        layoutIds = view(buf, 4L * size).asIntBuffer();
+        layouts = new Strings(buf);
+        paths = new Strings(buf);
+        Strings names = new Strings(buf);
+        Map<String, Column> cols = new LinkedHashMap<>();
+        for (int c = 0; c < columnCount; c++) {
+            int kind = buf.getInt();
+            LongBuffer numbers = (kind & NUMBERS) != 0 ? view(buf, 8L * size).asLongBuffer() : null;
+            LongBuffer longs = (kind & LONGS) != 0 ? view(buf, 8L * size).asLongBuffer() : null;
+            IntBuffer codes = null;
+            Strings dictionary = null;
+            if ((kind & STRINGS) != 0) {
+                codes = view(buf, 4L * size).asIntBuffer();
+                dictionary = new Strings(buf);
+            }
+            cols.put(names.get(c), new Column(numbers, longs, codes, dictionary));
+        }
+        columns = Collections.unmodifiableMap(cols);
+        int cells = buf.getInt();
+        cellStart = view(buf, 4L * (cells + 1)).asIntBuffer();
+        postings = view(buf, 4L * cellStart.get(cells)).asIntBuffer();
+    }
+
+    public static SceneCatalog open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GB; split the archive by year or zone");
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            buf.order(ByteOrder.BIG_ENDIAN);
+            try {
+                return new SceneCatalog(file, buf);
+            } catch (RuntimeException e) {
+                throw new IOException(file + " is truncated or corrupt", e);
+            }
+        }
+    }
+
+    /**
+     * The catalog of the archive at {@code root}, the newest {@code scenes*.catalog} there. It
+     * is (re)built, which opens every scene's headers once, if it is missing or older than the
+     * root directory, i.e. if scene directories were added or removed since.
+     *
+     * <p>A rebuild is written under the next generation's name rather than over the current
+     * file, which catalogs already open in this or another process may still map: a mapping is
+     * only released by GC, and Windows refuses to replace a mapped file. Older generations are
+     * deleted where the platform allows it, and otherwise on a later rebuild.
+     */
+    public static SceneCatalog openOrBuild(Path root) throws IOException {
+        Path file = null;
+        long generation = -1;
+        List<Path> older = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "scenes*.catalog")) {
+            for (Path f : files) {
+                Matcher m = GENERATION.matcher(f.getFileName().toString());
+                if (!m.matches()) {
+                    continue;
+                }
+                long g = m.group(1) == null ? 0 : Long.parseLong(m.group(1));
+                if (g > generation) {
+                    if (file != null) {
+                        older.add(file);
+                    }
+                    file = f;
+                    generation = g;
+                } else {
+                    older.add(f);
+                }
+            }
+        }
+        if (file == null || Files.getLastModifiedTime(file).compareTo(Files.getLastModifiedTime(root)) < 0) {
+            if (file != null) {
+                older.add(file);
+            }
+            file = root.resolve(generation < 0 ? FILE_NAME : "scenes." + (generation + 1) + ".catalog");
+            try (SceneArchive archive = SceneArchive.open(root)) {
+                build(archive, file);
+            }
+            for (Path f : older) {
+                try {
+                    Files.deleteIfExists(f);
+                } catch (IOException e) {
+                    // Still mapped by an open catalog; the next rebuild tries again.
+                }
+            }
+            // Writing and deleting files touched the root; the catalog is current as of now.
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+        }
+        return open(file);
+    }
+
+    /**
+     * Writes the catalog of every scene in {@code archive} to {@code file}, which must not be
+     * open as a catalog if it exists (see {@link #openOrBuild}).
+     */
+    public static void build(SceneArchive archive, Path file) throws IOException {
+        Builder builder = new Builder();
+        for (SceneImage scene : archive.scenes()) {
+            builder.add(scene);
+        }
+        builder.write(file);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Property names that have a column, in the order first seen when the catalog was built. */
+    public List<String> properties() {
+        return new ArrayList<>(columns.keySet());
+    }
+
+    /**
+     * Scenes passing {@code filter}, in row order, with only the bands matching
+     * {@code bands} (as {@link Image#select} matches them; all bands if none are given). Band
+     * files that are not selected are never opened; the scene grid is that of the finest
+     * selected band. Scenes stay open until the catalog is closed.
+     */
+    public ImageCollection filter(Filter filter, String... bands) {
+        int[] rows = rows(filter);
+        List<Image> out = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            out.add(scene(row, bands));
+        }
+        return new ImageCollection(out);
+    }
+
+    /** {@link #filter(Filter, String...)} with each scene read at {@code scale}; see {@link SceneImage#atScale}. */
+    public ImageCollection filter(Filter filter, double scale, String... bands) {
+        int[] rows = rows(filter);
+        List<Image> out = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            out.add(scene(row, bands).atScale(scale));
+        }
+        return new ImageCollection(out);
+    }
+
+    /** Number of scenes passing {@code filter}; builds no scene. */
+    public int count(Filter filter) {
+        return rows(filter).length;
+    }
+
+    // ---------------------------------------------------------------- probes
+
+    /** Sorted rows passing {@code filter}. */
+    private int[] rows(Filter filter) {
+        List<Filter> conjuncts = new ArrayList<>();
+        flatten(filter, conjuncts);
+        int from = 0, to = size;
+        Filter.Bounds region = null;
+        List<RowTest> tests = new ArrayList<>();
+        for (Filter f : conjuncts) {
+            if (f instanceof Filter.Date) {
+                Filter.Date d = (Filter.Date) f;
+                from = Math.max(from, Math.max(timed, lowerBound(d.startMillis())));
+                to = Math.min(to, lowerBound(d.endMillis()));
+            } else if (f instanceof Filter.Bounds && region == null) {
+                region = (Filter.Bounds) f;
+            } else {
+                RowTest t = compile(f);
+                if (t == null) {
+                    return new int[0];
+                }
+                tests.add(t);
+            }
+        }
+        if (from >= to) {
+            return new int[0];
+        }
+        int[] candidates;
+        if (region != null) {
+            candidates = cells(region.geometry(), from, to);
+            // The exact intersection is the most expensive test, so it goes last.
+            tests.add(boundsTest(region.geometry()));
+        } else {
+            candidates = null;
+        }
+        int n = candidates == null ? to - from : candidates.length;
+        int[] out = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int row = candidates == null ? from + i : candidates[i];
+            boolean pass = true;
+            for (int t = 0; t < tests.size() && pass; t++) {
+                pass = tests.get(t).test(row);
+            }
+            if (pass) {
+                out[count++] = row;
+            }
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    private static void flatten(Filter filter, List<Filter> out) {
+        if (filter instanceof Filter.And) {
+            flatten(((Filter.And) filter).left(), out);
+            flatten(((Filter.And) filter).right(), out);
+        } else {
+            out.add(filter);
+        }
+    }
+
+    /** First timed row at or after {@code millis}. */
+    private int lowerBound(long millis) {
+        int lo = timed, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (time.get(mid) < millis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Sorted, distinct rows in {@code [from, to)} listed in a cell under {@code geometry}. */
+    private int[] cells(Geometry geometry, int from, int to) {
+        Envelope env;
+        try {
+            env = geometry.transform(Crs.WGS84).envelope().expand(MARGIN);
+        } catch (UnsupportedOperationException e) {
+            env = new Envelope(-180, -90, 180, 90);
+        }
+        int x0 = cellX(env.minX()), x1 = cellX(env.maxX()), y0 = cellY(env.minY()), y1 = cellY(env.maxY());
+        List<Integer> cells = new ArrayList<>();
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                cells.add(cy * CELLS_X + cx);
+            }
+        }
+        cells.add(UNPLACED);
+        int[] out = new int[64];
+        int n = 0;
+        for (int cell : cells) {
+            int lo = cellStart.get(cell), end = cellStart.get(cell + 1), hi = end;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (postings.get(mid) < from) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int p = lo; p < end && postings.get(p) < to; p++) {
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, 2 * n);
+                }
+                out[n++] = postings.get(p);
+            }
+        }
+        Arrays.sort(out, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct == 0 || out[i] != out[distinct - 1]) {
+                out[distinct++] = out[i];
+            }
+        }
+        return Arrays.copyOf(out, distinct);
+    }
+
+    private static int cellX(double lon) {
+        return Math.max(0, Math.min(CELLS_X - 1, (int) Math.floor(lon + 180)));
+    }
+
+    private static int cellY(double lat) {
+        return Math.max(0, Math.min(CELLS_Y - 1, (int) Math.floor(lat + 90)));
+    }
+
+    /** {@link Filter#bounds} on a row: envelope first, then the exact test ee's footprint makes. */
+    private RowTest boundsTest(Geometry geometry) {
+        Map<Integer, Geometry> local = new HashMap<>();
+        return row -> {
+            Crs c = crs(crs.get(row));
+            Geometry g = local.computeIfAbsent(c.code(), k -> geometry.transform(c));
+            Envelope e = envelope(row);
+            return g.envelope().intersects(e) && Geometry.rectangle(c, e).intersects(g);
+        };
+    }
+
+    /**
+     * Test for one conjunct, on primitive columns where the filter and column allow it and on a
+     * row view otherwise; null if no row can pass.
+     */
+    private RowTest compile(Filter f) {
+        if (f instanceof Filter.Eq) {
+            Filter.Eq eq = (Filter.Eq) f;
+            Column c = columns.get(eq.property());
+            if (c != null && eq.value() instanceof Number && c.numericOnly()) {
+                double x = ((Number) eq.value()).doubleValue();
+                return row -> c.number(row) == x;
+            }
+            if (c != null && eq.value() instanceof String && c.stringsOnly()) {
+                Integer code = c.dictionary.codes().get(eq.value());
+                if (code == null) {
+                    return null;
+                }
+                int k = code;
+                return row -> c.codes.get(row) == k;
+            }
+        } else if (f instanceof Filter.Compare) {
+            Filter.Compare cmp = (Filter.Compare) f;
+            Column c = columns.get(cmp.property());
+            if (c != null && cmp.value() instanceof Number && c.numericOnly()) {
+                double x = ((Number) cmp.value()).doubleValue();
+                Filter.Compare.Op op = cmp.op();
+                return row -> {
+                    double v = c.number(row);
+                    if (Double.isNaN(v) && c.isMissing(row)) {
+                        return false;
+                    }
+                    int r = Double.compare(v, x);
+                    switch (op) {
+                        case LT:
+                            return r < 0;
+                        case LTE:
+                            return r <= 0;
+                        case GT:
+                            return r > 0;
+                        default:
+                            return r >= 0;
+                    }
+                };
+            }
+        }
+        return row -> f.test(new Row(row));
+    }
+
+    @FunctionalInterface
+    private interface RowTest {
+        boolean test(int row);
+    }
+
+    // ---------------------------------------------------------------- rows
+
+    private Crs crs(int code) {
+        return crsByCode.computeIfAbsent(code, Crs::epsg);
+    }
+
+    private Envelope envelope(int row) {
+        int at = 4 * row;
+        return new Envelope(envelopes.get(at), envelopes.get(at + 1), envelopes.get(at + 2), envelopes.get(at + 3));
+    }
+
+    private Object property(int row, String name) {
+        if (Filter.TIME_START.equals(name)) {
+            long t = time.get(row);
+            return t == NO_TIME ? null : t;
+        }
+        Column c = columns.get(name);
+        return c == null ? null : c.get(row);
+    }
+
+    private SceneImage scene(int row, String... bands) {
+        Layout layout = parsedLayouts.computeIfAbsent(layoutIds.get(row), id -> Layout.parse(layouts.get(id)));
+        int[] picked = layout.select(bands);
+        Path dir = base.resolve(paths.get(row));
+        List<String> names = new ArrayList<>(picked.length);
+        List<Path> files = new ArrayList<>(picked.length);
+        for (int b : picked) {
+            names.add(layout.names.get(b));
+            files.add(dir.resolve(layout.files.get(b)));
+        }
+        Map<String, Object> props = new LinkedHashMap<>();
+        long t = time.get(row);
+        if (t != NO_TIME) {
+            props.put(Filter.TIME_START, t);
+        }
+        for (Map.Entry<String, Column> e : columns.entrySet()) {
+            Object v = e.getValue().get(row);
+            if (v != null) {
+                props.put(e.getKey(), v);
+            }
+        }
+        SceneImage scene = new SceneImage(names, files, props);
+        synchronized (opened) {
+            opened.add(scene);
+        }
+        return scene;
+    }
+
+    /** A row as an {@link Element}, for filters with no column test. */
+    private final class Row implements Element {
+        private final int row;
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(String property) {
+            return SceneCatalog.this.property(row, property);
+        }
+
+        @Override
+        public Geometry geometry() {
+            return Geometry.rectangle(crs(crs.get(row)), envelope(row));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        synchronized (opened) {
+            for (SceneImage s : opened) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            opened.clear();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SceneCatalog[" + file + ", " + size + " scenes, " + columns.size() + " properties]";
+    }
+
+    private static ByteBuffer view(ByteBuffer buf, long bytes) {
+        int at = buf.position();
+        ByteBuffer v = buf.slice(at, Math.toIntExact(bytes)).order(ByteOrder.BIG_ENDIAN);
+        buf.position(at + (int) bytes);
+        return v;
+    }
+
+    /**
+     * One property column; a row is missing where every array it has says so. Doubles are
+     * stored as their raw bits, so the missing marker stays distinct from a NaN value.
+     */
+    private static final class Column {
+        final LongBuffer numbers;
+        final LongBuffer longs;
+        final IntBuffer codes;
+        final Strings dictionary;
+
+        Column(LongBuffer numbers, LongBuffer longs, IntBuffer codes, Strings dictionary) {
+            this.numbers = numbers;
+            this.longs = longs;
+            this.codes = codes;
+            this.dictionary = dictionary;
+        }
+
+        boolean numericOnly() {
+            return codes == null;
+        }
+
+        boolean stringsOnly() {
+            return numbers == null && longs == null;
+        }
+
+        /** Numeric value, NaN where missing or a string. */
+        double number(int row) {
+            if (longs != null) {
+                long v = longs.get(row);
+                return v == NO_LONG ? Double.NaN : v;
+            }
+            return numbers == null ? Double.NaN : Double.longBitsToDouble(numbers.get(row));
+        }
+
+        boolean isMissing(int row) {
+            return get(row) == null;
+        }
+
+        Object get(int row) {
+            if (longs != null && longs.get(row) != NO_LONG) {
+                return longs.get(row);
+            }
+            if (numbers != null && numbers.get(row) != Builder.MISSING_BITS) {
+                return Double.longBitsToDouble(numbers.get(row));
+            }
+            if (codes != null && codes.get(row) >= 0) {
+                return dictionary.get(codes.get(row));
+            }
+            return null;
+        }
+    }
+
+    /** Strings as {@code count, offsets[count + 1], UTF-8 bytes}, decoded on lookup. */
+    private static final class Strings {
+        private final IntBuffer offsets;
+        private final ByteBuffer bytes;
+        private final int count;
+        private volatile Map<String, Integer> codes;
+
+        Strings(ByteBuffer buf) {
+            count = buf.getInt();
+            offsets = view(buf, 4L * (count + 1)).asIntBuffer();
+            bytes = view(buf, offsets.get(count));
+        }
+
+        String get(int i) {
+            int from = offsets.get(i), to = offsets.get(i + 1);
+            byte[] utf = new byte[to - from];
+            bytes.get(from, utf);
+            return new String(utf, StandardCharsets.UTF_8);
+        }
+
+        /** Code of every string, built on first use (a dictionary lookup for {@link Filter#eq}). */
+        Map<String, Integer> codes() {
+            Map<String, Integer> m = codes;
+            if (m == null) {
+                m = new HashMap<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    m.put(get(i), i);
+                }
+                codes = m;
+            }
+            return m;
+        }
+    }
+
+    /** Band names and files, relative to the scene directory, shared by scenes stored alike. */
+    private static final class Layout {
+        final List<String> names;
+        final List<String> files;
+
+        Layout(List<String> names, List<String> files) {
+            this.names = names;
+            this.files = files;
+        }
+
+        static String format(List<String> names, List<String> files) {
+            StringBuilder sb = new StringBuilder();
+            for (int b = 0; b < names.size(); b++) {
+                sb.append(b == 0 ? "" : "\n").append(names.get(b)).append('\t').append(files.get(b));
+            }
+            return sb.toString();
+        }
+
+        static Layout parse(String text) {
+            List<String> names = new ArrayList<>(), files = new ArrayList<>();
+            for (String line : text.split("\n")) {
+                int tab = line.indexOf('\t');
+                names.add(line.substring(0, tab));
+                files.add(line.substring(tab + 1));
+            }
+            return new Layout(names, files);
+        }
+
+        /** Indices of the bands {@code selectors} pick, as {@link Image#select} picks them. */
+        int[] select(String... selectors) {
+            if (selectors.length == 0) {
+                int[] all = new int[names.size()];
+                for (int i = 0; i < all.length; i++) {
+                    all[i] = i;
+                }
+                return all;
+            }
+            List<Integer> picked = new ArrayList<>();
+            for (String selector : selectors) {
+                Pattern p = Pattern.compile(selector);
+                for (int i = 0; i < names.size(); i++) {
+                    if ((names.get(i).equals(selector) || p.matcher(names.get(i)).matches()) && !picked.contains(i)) {
+                        picked.add(i);
+                    }
+                }
+            }
+            if (picked.isEmpty()) {
+                throw new IllegalArgumentException("No band matches " + Arrays.toString(selectors) + " in " + names);
+            }
+            return picked.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Collects scene rows column by column and writes a catalog file. Paths are stored
+     * relative to the directory of the file written, so an archive and its catalog can move
+     * together.
+     */
+    public static final class Builder {
+
+        /** A NaN no parsed property value has, marking a missing number. */
+        static final long MISSING_BITS = 0x7ff8dead0000beefL;
+
+        private int size;
+        private long[] time = new long[1024];
+        private int[] crs = new int[1024];
+        private double[] envelopes = new double[4 * 1024];
+        private int[] layoutIds = new int[1024];
+        private Path[] dirs = new Path[1024];
+        private final Dictionary layouts = new Dictionary();
+        private final Map<String, BuilderColumn> columns = new LinkedHashMap<>();
+
+        /** Adds a scene; reads its grid, so its band headers are opened if they are not yet. */
+        public Builder add(SceneImage scene) {
+            List<String> files = new ArrayList<>();
+            Path dir = scene.file(0).toAbsolutePath().getParent();
+            for (int b = 0; b < scene.bandNames().size(); b++) {
+                files.add(dir.relativize(scene.file(b).toAbsolutePath()).toString());
+            }
+            PixelGrid grid = scene.grid();
+            return add(dir, scene.bandNames(), files, scene.properties(), grid.crs(), grid.envelope());
+        }
+
+        /**
+         * Adds a scene stored in {@code dir} as {@code files} (relative to {@code dir}), one per
+         * band, whose finest band covers {@code footprint} in {@code crs}.
+         */
+        public Builder add(Path dir, List<String> bands, List<String> files, Map<String, Object> properties,
+                           Crs crs, Envelope footprint) {
+            if (bands.size() != files.size() || bands.isEmpty()) {
+                throw new IllegalArgumentException("Need one file per band");
+            }
+            ensure(size + 1);
+            int row = size++;
+            Object t = properties.get(Filter.TIME_START);
+            time[row] = t instanceof Number ? ((Number) t).longValue() : NO_TIME;
+            this.crs[row] = crs.code();
+            envelopes[4 * row] = footprint.minX();
+            envelopes[4 * row + 1] = footprint.minY();
+            envelopes[4 * row + 2] = footprint.maxX();
+            envelopes[4 * row + 3] = footprint.maxY();
+            layoutIds[row] = layouts.code(Layout.format(bands, files));
+            dirs[row] = dir.toAbsolutePath().normalize();
+            for (Map.Entry<String, Object> e : properties.entrySet()) {
+                if (!Filter.TIME_START.equals(e.getKey()) && e.getValue() != null) {
+                    columns.computeIfAbsent(e.getKey(), k -> new BuilderColumn()).set(row, e.getValue());
+                }
+            }
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private void ensure(int n) {
+            if (n > time.length) {
+                int cap = Math.max(n, 2 * time.length);
+                time = Arrays.copyOf(time, cap);
+                crs = Arrays.copyOf(crs, cap);
+                envelopes = Arrays.copyOf(envelopes, 4 * cap);
+                layoutIds = Arrays.copyOf(layoutIds, cap);
+                dirs = Arrays.copyOf(dirs, cap);
+            }
+        }
+
+        /**
+         * Sorts the rows and writes them to {@code file}, replacing it atomically. An existing
+         * {@code file} must not be open as a catalog: on Windows its mapping blocks the replace.
+         */
+        public void write(Path file) throws IOException {
+            Path base = file.toAbsolutePath().normalize().getParent();
+            BuilderColumn index = columns.get("system:index");
+            Integer[] boxed = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                boxed[i] = i;
+            }
+            Arrays.sort(boxed, (a, b) -> {
+                int c = Long.compare(time[a], time[b]);
+                return c != 0 || index == null ? c : index.compareStrings(a, b);
+            });
+            int[] order = new int[size];
+            int timed = size;
+            for (int i = 0; i < size; i++) {
+                order[i] = boxed[i];
+                if (timed == size && time[order[i]] != NO_TIME) {
+                    timed = i;
+                }
+            }
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(size);
+                out.writeInt(timed);
+                out.writeInt(columns.size());
+                for (int r : order) {
+                    out.writeLong(time[r]);
+                }
+                for (int r : order) {
+                    out.writeInt(crs[r]);
+                }
+                for (int r : order) {
+                    for (int k = 0; k < 4; k++) {
+                        out.writeDouble(envelopes[4 * r + k]);
+                    }
+                }
+                for (int r : order) {
+                    out.writeInt(layoutIds[r]);
+                }
+                writeStrings(out, layouts.strings);
+                List<String> relative = new ArrayList<>(size);
+                for (int r : order) {
+                    relative.add(dirs[r].startsWith(base) ? base.relativize(dirs[r]).toString() : dirs[r].toString());
+                }
+                writeStrings(out, relative);
+                writeStrings(out, new ArrayList<>(columns.keySet()));
+                for (BuilderColumn c : columns.values()) {
+                    c.write(out, order, size);
+                }
+                writeCells(out, order);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /** The spatial index: rows (in written order) per one-degree cell, then the unplaced ones. */
+        private void writeCells(DataOutputStream out, int[] order) throws IOException {
+            int[][] ranges = new int[size][];
+            int[] counts = new int[UNPLACED + 2];
+            Map<Integer, Crs> crsByCode = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                int r = order[i];
+                Crs c = crsByCode.computeIfAbsent(crs[r], Crs::epsg);
+                Envelope e = new Envelope(envelopes[4 * r], envelopes[4 * r + 1], envelopes[4 * r + 2], envelopes[4 * r + 3]);
+                try {
+                    Envelope w = Geometry.rectangle(c, e).transform(Crs.WGS84).envelope().expand(MARGIN);
+                    ranges[i] = new int[] {cellX(w.minX()), cellY(w.minY()), cellX(w.maxX()), cellY(w.maxY())};
+                    for (int cy = ranges[i][1]; cy <= ranges[i][3]; cy++) {
+                        for (int cx = ranges[i][0]; cx <= ranges[i][2]; cx++) {
+                            counts[cy * CELLS_X + cx + 1]++;
+                        }
+                    }
+                } catch (UnsupportedOperationException ex) {
+                    counts[UNPLACED + 1]++;
+                }
+            }
+            for (int c = 1; c < counts.length; c++) {
+                counts[c] += counts[c - 1];
+            }
+            int[] postings = new int[counts[UNPLACED + 1]];
+            int[] fill = Arrays.copyOf(counts, UNPLACED + 1);
+            for (int i = 0; i < size; i++) {
+                int[] g = ranges[i];
+                if (g == null) {
+                    postings[fill[UNPLACED]++] = i;
+                    continue;
+                }
+                for (int cy = g[1]; cy <= g[3]; cy++) {
+                    for (int cx = g[0]; cx <= g[2]; cx++) {
+                        postings[fill[cy * CELLS_X + cx]++] = i;
+                    }
+                }
+            }
+            out.writeInt(UNPLACED + 1);
+            for (int count : counts) {
+                out.writeInt(count);
+            }
+            for (int p : postings) {
+                out.writeInt(p);
+            }
+        }
+
+        private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+            byte[][] utf = new byte[strings.size()][];
+            out.writeInt(strings.size());
+            int offset = 0;
+            out.writeInt(0);
+            for (int i = 0; i < utf.length; i++) {
+                utf[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                offset += utf[i].length;
+                out.writeInt(offset);
+            }
+            for (byte[] b : utf) {
+                out.write(b);
+            }
+        }
+
+        /** Values of one property by insertion row; missing rows stay at their marker. */
+        private final class BuilderColumn {
+            double[] numbers;
+            long[] longs;
+            int[] codes;
+            Dictionary dictionary;
+
+            void set(int row, Object value) {
+                if (value instanceof Long || value instanceof Integer) {
+                    if (numbers == null) {
+                        longs = grow(longs, row);
+                        longs[row] = ((Number) value).longValue();
+                        return;
+                    }
+                } else if (value instanceof Number) {
+                    promote();
+                }
+                if (value instanceof Number) {
+                    numbers = grow(numbers, row);
+                    numbers[row] = ((Number) value).doubleValue();
+                } else {
+                    if (codes == null) {
+                        codes = new int[time.length];
+                        Arrays.fill(codes, -1);
+                        dictionary = new Dictionary();
+                    } else if (codes.length <= row) {
+                        int old = codes.length;
+                        codes = Arrays.copyOf(codes, time.length);
+                        Arrays.fill(codes, old, codes.length, -1);
+                    }
+                    codes[row] = dictionary.code(value.toString());
+                }
+            }
+
+            /** Once a column holds a fractional number, its integers are stored as doubles too. */
+            private void promote() {
+                if (numbers == null) {
+                    numbers = grow((double[]) null, 0);
+                    if (longs != null) {
+                        for (int r = 0; r < longs.length; r++) {
+                            if (longs[r] != NO_LONG) {
+                                numbers[r] = longs[r];
+                            }
+                        }
+                        longs = null;
+                    }
+                }
+            }
+
+            private long[] grow(long[] a, int row) {
+                if (a == null || a.length <= row) {
+                    int old = a == null ? 0 : a.length;
+                    a = a == null ? new long[time.length] : Arrays.copyOf(a, time.length);
+                    Arrays.fill(a, old, a.length, NO_LONG);
+                }
+                return a;
+            }
+
+            private double[] grow(double[] a, int row) {
+                if (a == null || a.length <= row) {
+                    int old = a == null ? 0 : a.length;
+                    a = a == null ? new double[time.length] : Arrays.copyOf(a, time.length);
+                    Arrays.fill(a, old, a.length, Double.longBitsToDouble(MISSING_BITS));
+                }
+                return a;
+            }
+
+            int compareStrings(int a, int b) {
+                String x = codes == null || a >= codes.length || codes[a] < 0 ? "" : dictionary.strings.get(codes[a]);
+                String y = codes == null || b >= codes.length || codes[b] < 0 ? "" : dictionary.strings.get(codes[b]);
+                return x.compareTo(y);
+            }
+
+            void write(DataOutputStream out, int[] order, int rows) throws IOException {
+                int kind = (numbers != null ? NUMBERS : 0) | (longs != null ? LONGS : 0) | (codes != null ? STRINGS : 0);
+                out.writeInt(kind);
+                if (numbers != null) {
+                    for (int r : order) {
+                        out.writeLong(r < numbers.length ? Double.doubleToRawLongBits(numbers[r]) : MISSING_BITS);
+                    }
+                }
+                if (longs != null) {
+                    for (int r : order) {
+                        out.writeLong(r < longs.length ? longs[r] : NO_LONG);
+                    }
+                }
+                if (codes != null) {
+                    for (int r : order) {
+                        out.writeInt(r < codes.length ? codes[r] : -1);
+                    }
+                    writeStrings(out, dictionary.strings);
+                }
+            }
+        }
+    }
+
+    /** Distinct strings in first-seen order. */
+    private static final class Dictionary {
+        final List<String> strings = new ArrayList<>();
+        final Map<String, Integer> codes = new HashMap<>();
+
+        int code(String s) {
+            Integer c = codes.get(s);
+            if (c == null) {
+                c = strings.size();
+                strings.add(s);
+                codes.put(s, c);
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package spatialmusings.engine.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * One scene stored as a GeoTIFF per band, e.g. a Sentinel-2 granule. The scene grid is the
+ * grid of its finest band; coarser bands (20 m, 60 m) are resampled to it by nearest neighbour
+ * as they are read. Band files are opened on first use and stay open until {@link #close}.
+ */
+public final class SceneImage extends Image implements Closeable {
+
+    private final List<String> names;
+    private final List<Path> files;
+    private final Map<String, Object> properties;
+    private volatile GeoTiffReader[] readers;
+    private volatile PixelGrid grid;
+
+    public SceneImage(List<String> names, List<Path> files, Map<String, Object> properties) {
+        if (names.size() != files.size() || names.isEmpty()) {
+            throw new IllegalArgumentException("Need one file per band");
+        }
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(properties));
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return names;
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return properties;
+    }
+
+    public Path file(int band) {
+        return files.get(band);
+    }
+
+    @Override
+    public PixelGrid grid() {
+        PixelGrid g = grid;
+        if (g == null) {
+            GeoTiffReader[] rs = readers();
+            g = rs[0].grid();
+            for (GeoTiffReader r : rs) {
+                if (r.grid().pixelWidth() < g.pixelWidth()) {
+                    g = r.grid();
+                }
+            }
+            grid = g;
+        }
+        return g;
+    }
+
+    private GeoTiffReader[] readers() {
+        GeoTiffReader[] rs = readers;
+        if (rs == null) {
+            synchronized (this) {
+                rs = readers;
+                if (rs == null) {
+                    rs = new GeoTiffReader[files.size()];
+                    try {
+                        for (int i = 0; i < rs.length; i++) {
+                            rs[i] = GeoTiffReader.open(files.get(i));
+                        }
+                    } catch (IOException e) {
+                        closeQuietly(rs);
+                        throw new UncheckedIOException(e);
+                    }
+                    readers = rs;
+                }
+            }
+        }
+        return rs;
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        PixelGrid g = grid();
+        GeoTiffReader[] rs = readers();
+        float[][] out = new float[bands.length][];
+        for (int b = 0; b < bands.length; b++) {
+            GeoTiffReader r = rs[bands[b]];
+            out[b] = new float[window.size()];
+            if (r.grid().isAlignedWith(g)) {
+                Window local = window.translate(-r.grid().offsetX(g), -r.grid().offsetY(g));
+                r.readUnchecked(local, new int[] {0}, new float[][] {out[b]});
+            } else {
+                readResampled(r, 0, g, window, out[b]);
+            }
+        }
+        return new Tile(window, out);
+    }
+
+    /**
+     * This scene at {@code scale} CRS units per pixel, as ee reads an image at a requested
+     * {@code scale}. Each band is read from the coarsest overview of its file that is no coarser
+     * than the scale, by nearest neighbour, onto a grid of that pixel size whose origin is
+     * snapped to a multiple of the scale, so scenes of one CRS stay aligned at any scale. The
+     * view shares this scene's open files.
+     */
+    public Image atScale(double scale) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
+        return new Scaled(this, scale);
+    }
+
+    /** Nearest-neighbour read of a band, from level {@code level} of its file, onto grid {@code g}. */
+    private static void readResampled(GeoTiffReader r, int level, PixelGrid g, Window window, float[] dst) {
+        PixelGrid src = r.grid(level);
+        int[] cols = new int[window.width()];
+        int[] rows = new int[window.height()];
+        int c0 = Integer.MAX_VALUE, c1 = Integer.MIN_VALUE, r0 = Integer.MAX_VALUE, r1 = Integer.MIN_VALUE;
+        for (int c = 0; c < cols.length; c++) {
+            cols[c] = (int) Math.floor(src.col(g.centerX(window.x() + c)));
+            c0 = Math.min(c0, cols[c]);
+            c1 = Math.max(c1, cols[c]);
+        }
+        for (int y = 0; y < rows.length; y++) {
+            rows[y] = (int) Math.floor(src.row(g.centerY(window.y() + y)));
+            r0 = Math.min(r0, rows[y]);
+            r1 = Math.max(r1, rows[y]);
+        }
+        Window sw = new Window(c0, r0, c1 - c0 + 1, r1 - r0 + 1);
+        if ((long) sw.size() > 4L * window.size()) {
+            // Much finer source (no suitable overview): read only the source rows sampled.
+            float[] row = new float[sw.width()];
+            for (int y = 0; y < rows.length; y++) {
+                r.readUnchecked(level, new Window(c0, rows[y], sw.width(), 1), new int[] {0}, new float[][] {row});
+                for (int c = 0; c < cols.length; c++) {
+                    dst[y * cols.length + c] = row[cols[c] - c0];
+                }
+            }
+            return;
+        }
+        float[] buf = new float[sw.size()];
+        r.readUnchecked(level, sw, new int[] {0}, new float[][] {buf});
+        for (int y = 0; y < rows.length; y++) {
+            int srcRow = (rows[y] - r0) * sw.width();
+            for (int c = 0; c < cols.length; c++) {
+                dst[y * cols.length + c] = buf[srcRow + cols[c] - c0];
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        GeoTiffReader[] rs = readers;
+        readers = null;
+        if (rs != null) {
+            closeQuietly(rs);
+        }
+    }
+
+    private static void closeQuietly(GeoTiffReader[] rs) {
+        for (GeoTiffReader r : rs) {
+            if (r != null) {
+                try {
+                    r.close();
+                } catch (IOException ignored) {
+                    // nothing useful to do with a failed close of a read-only channel
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SceneImage[" + properties.get("system:index") + ", " + names + "]";
+    }
+
+    /** {@link #atScale}: the scene resampled from overviews to a coarser grid. */
+    private static final class Scaled extends Image {
+
+        private final SceneImage scene;
+        private final double scale;
+        private volatile PixelGrid grid;
+
+        Scaled(SceneImage scene, double scale) {
+            this.scene = scene;
+            this.scale = scale;
+        }
+
+        @Override
+        public PixelGrid grid() {
+            PixelGrid g = grid;
+            if (g == null) {
+                PixelGrid n = scene.grid();
+                double x0 = Math.floor(n.originX() / scale) * scale;
+                double y0 = Math.ceil(n.originY() / scale) * scale;
+                double x1 = Math.ceil((n.originX() + n.width() * n.pixelWidth()) / scale) * scale;
+                double y1 = Math.floor((n.originY() - n.height() * n.pixelHeight()) / scale) * scale;
+                g = new PixelGrid(n.crs(), x0, y0, scale, scale,
+                        (int) Math.round((x1 - x0) / scale), (int) Math.round((y0 - y1) / scale));
+                grid = g;
+            }
+            return g;
+        }
+
+        @Override
+        public List<String> bandNames() {
+            return scene.bandNames();
+        }
+
+        @Override
+        public Map<String, Object> properties() {
+            return scene.properties();
+        }
+
+        @Override
+        public Tile read(Window window, int[] bands) {
+            PixelGrid g = grid();
+            GeoTiffReader[] rs = scene.readers();
+            float[][] out = new float[bands.length][];
+            for (int b = 0; b < bands.length; b++) {
+                GeoTiffReader r = rs[bands[b]];
+                out[b] = new float[window.size()];
+                readResampled(r, r.level(scale), g, window, out[b]);
+            }
+            return new Tile(window, out);
+        }
+
+        @Override
+        public String toString() {
+            return scene + " at " + scale;
+        }
+    }
+}
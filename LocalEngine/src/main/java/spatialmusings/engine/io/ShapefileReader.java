@@ -0,0 +1,357 @@
+package spatialmusings.engine.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+
+/**
+ * Memory-mapped reader for an ESRI shapefile ({@code .shp} plus its {@code .shx}, {@code .dbf},
+ * {@code .prj} and {@code .cpg} siblings), the local counterpart of uploading it as an ee table
+ * asset such as {@code data/shp/counties_pop}.
+ *
+ * <p>Opening maps the files and parses the headers only. Records are located through the
+ * {@code .shx} offsets, so {@link #envelope} reads four doubles from the record header and
+ * {@link #geometry} bulk-copies one ring at a time straight out of the mapping. DBF attributes
+ * are decoded a column at a time, the first time any record's value in that column is asked
+ * for, and cached; features from {@link #features} decode their geometry on first use too.
+ *
+ * <p>Point and polygon shapes (including their Z and M variants, whose extra ordinates are
+ * dropped) are supported. DBF character fields become strings, numeric fields {@code Long}s
+ * when they have no decimals and {@code Double}s otherwise, logical fields {@code Boolean}s;
+ * blank values are left out of the properties. Each file must be under 2 GB, the format's own
+ * limit for {@code .shp}. Instances are thread-safe.
+ */
+public final class ShapefileReader {
+
+    private static final Pattern UTM = Pattern.compile("UTM[ _]ZONE[ _](\\d{1,2})([NS])");
+
+    private final Path path;
+    private final Crs crs;
+    private final ByteBuffer shp;
+    private final ByteBuffer shx;
+    private final ByteBuffer dbf;
+    private final Charset charset;
+    private final int size;
+    private final int dbfHeaderBytes;
+    private final int dbfRecordBytes;
+    private final List<String> fieldNames;
+    /** {@code {type, offset in record, length, decimals}} per DBF field. */
+    private final Map<String, int[]> fields;
+    private final ConcurrentMap<String, Object[]> columns = new ConcurrentHashMap<>();
+
+    private ShapefileReader(Path path) throws IOException {
+        this.path = path;
+        this.crs = readCrs(sibling(path, "prj"));
+        this.charset = charset(sibling(path, "cpg"));
+        this.shp = map(path).order(ByteOrder.LITTLE_ENDIAN);
+        this.shx = map(sibling(path, "shx")).order(ByteOrder.BIG_ENDIAN);
+        this.dbf = map(sibling(path, "dbf")).order(ByteOrder.LITTLE_ENDIAN);
+        if (shp.order(ByteOrder.BIG_ENDIAN).getInt(0) != 9994) {
+            throw new IOException(path + " is not a shapefile");
+        }
+        shp.order(ByteOrder.LITTLE_ENDIAN);
+        this.size = (int) ((2L * shx.getInt(24) - 100) / 8);
+        int records = dbf.getInt(4);
+        if (records != size) {
+            throw new IOException(path + ": " + size + " shapes but " + records + " DBF records");
+        }
+        this.dbfHeaderBytes = dbf.getShort(8) & 0xFFFF;
+        this.dbfRecordBytes = dbf.getShort(10) & 0xFFFF;
+        List<String> names = new ArrayList<>();
+        Map<String, int[]> byName = new LinkedHashMap<>();
+        int offset = 1;
+        for (int at = 32; at < dbfHeaderBytes - 1 && dbf.get(at) != 0x0D; at += 32) {
+            byte[] raw = new byte[11];
+            dbf.get(at, raw);
+            int end = 0;
+            while (end < raw.length && raw[end] != 0) {
+                end++;
+            }
+            String name = new String(raw, 0, end, StandardCharsets.US_ASCII);
+            int len = dbf.get(at + 16) & 0xFF;
+            names.add(name);
+            byName.put(name, new int[] {dbf.get(at + 11), offset, len, dbf.get(at + 17) & 0xFF});
+            offset += len;
+        }
+        this.fieldNames = Collections.unmodifiableList(names);
+        this.fields = byName;
+    }
+
+    public static ShapefileReader open(Path shp) throws IOException {
+        return new ShapefileReader(shp);
+    }
+
+    /** Every record as a lazily decoded feature. */
+    public static FeatureCollection read(Path shp) throws IOException {
+        return open(shp).features();
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public Crs crs() {
+        return crs;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<String> fieldNames() {
+        return fieldNames;
+    }
+
+    /** Byte offset of record {@code i}'s content in the {@code .shp}, from the {@code .shx}. */
+    private int content(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Record " + i + " of " + size);
+        }
+        return 2 * shx.getInt(100 + 8 * i) + 8;
+    }
+
+    /** Bounding box of record {@code i}, read from its header without decoding the shape. */
+    public Envelope envelope(int i) {
+        int at = content(i);
+        switch (shp.getInt(at)) {
+            case 0:
+                return Envelope.EMPTY;
+            case 1:
+            case 11:
+            case 21: {
+                double x = shp.getDouble(at + 4), y = shp.getDouble(at + 12);
+                return new Envelope(x, y, x, y);
+            }
+            default:
+                return new Envelope(shp.getDouble(at + 4), shp.getDouble(at + 12),
+                        shp.getDouble(at + 20), shp.getDouble(at + 28));
+        }
+    }
+
+    public Geometry geometry(int i) {
+        int at = content(i);
+        int type = shp.getInt(at);
+        switch (type) {
+            case 0:
+                return Geometry.multiPolygon(crs, new double[0][][]);
+            case 1:
+            case 11:
+            case 21:
+                return Geometry.point(crs, shp.getDouble(at + 4), shp.getDouble(at + 12));
+            case 5:
+            case 15:
+            case 25: {
+                int parts = shp.getInt(at + 36);
+                int points = shp.getInt(at + 40);
+                int xy = at + 44 + 4 * parts;
+                DoubleBuffer coords = shp.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+                        .position(xy).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                List<double[]> rings = new ArrayList<>(parts);
+                for (int p = 0; p < parts; p++) {
+                    int start = shp.getInt(at + 44 + 4 * p);
+                    int end = p + 1 < parts ? shp.getInt(at + 48 + 4 * p) : points;
+                    double[] ring = new double[2 * (end - start)];
+                    coords.get(2 * start, ring);
+                    rings.add(ring);
+                }
+                return Geometry.fromOrientedRings(crs, rings);
+            }
+            default:
+                throw new IllegalStateException(path + ": unsupported shape type " + type + " in record " + i);
+        }
+    }
+
+    /** Value of {@code field} in record {@code i}, or null if blank or there is no such field. */
+    public Object value(int i, String field) {
+        Object[] column = column(field);
+        return column == null ? null : column[i];
+    }
+
+    /** All values of {@code field}, decoded on first request; null if there is no such field. */
+    private Object[] column(String field) {
+        int[] f = fields.get(field);
+        if (f == null) {
+            return null;
+        }
+        return columns.computeIfAbsent(field, k -> {
+            Object[] values = new Object[size];
+            byte[] raw = new byte[f[2]];
+            for (int r = 0; r < size; r++) {
+                dbf.get(dbfHeaderBytes + r * dbfRecordBytes + f[1], raw);
+                values[r] = value((char) f[0], new String(raw, charset).trim(), f[3]);
+            }
+            return values;
+        });
+    }
+
+    public Feature feature(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Record " + i + " of " + size);
+        }
+        return new Feature(() -> geometry(i), new Row(i));
+    }
+
+    public FeatureCollection features() {
+        List<Feature> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            out.add(feature(i));
+        }
+        return new FeatureCollection(out);
+    }
+
+    /** One record's attributes as a read-only map that decodes columns only as they are read. */
+    private final class Row extends AbstractMap<String, Object> {
+        private final int record;
+
+        Row(int record) {
+            this.record = record;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return key instanceof String ? value(record, (String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            int f = from;
+                            while (f < fieldNames.size() && value(record, fieldNames.get(f)) == null) {
+                                f++;
+                            }
+                            return f;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < fieldNames.size();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            String name = fieldNames.get(next);
+                            Entry<String, Object> e = new SimpleImmutableEntry<>(name, value(record, name));
+                            next = advance(next + 1);
+                            return e;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int n = 0;
+                    for (String name : fieldNames) {
+                        if (value(record, name) != null) {
+                            n++;
+                        }
+                    }
+                    return n;
+                }
+            };
+        }
+    }
+
+    static Path sibling(Path shp, String extension) {
+        String name = shp.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return shp.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + "." + extension);
+    }
+
+    /** CRS named by a {@code .prj}; WGS84 if there is none. */
+    static Crs readCrs(Path prj) throws IOException {
+        if (!Files.exists(prj)) {
+            return Crs.WGS84;
+        }
+        String wkt = new String(Files.readAllBytes(prj), StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+        if (wkt.startsWith("GEOGCS") && wkt.contains("WGS")) {
+            return Crs.WGS84;
+        }
+        Matcher utm = UTM.matcher(wkt);
+        if (wkt.contains("WGS") && utm.find()) {
+            return Crs.epsg((utm.group(2).equals("N") ? 32600 : 32700) + Integer.parseInt(utm.group(1)));
+        }
+        if (wkt.contains("WEB_MERCATOR") || wkt.contains("PSEUDO_MERCATOR")) {
+            return Crs.WEB_MERCATOR;
+        }
+        throw new IOException("Unsupported projection in " + prj);
+    }
+
+    static Charset charset(Path cpg) throws IOException {
+        if (!Files.exists(cpg)) {
+            return StandardCharsets.ISO_8859_1;
+        }
+        String name = new String(Files.readAllBytes(cpg), StandardCharsets.US_ASCII).trim();
+        return Charset.isSupported(name) ? Charset.forName(name) : StandardCharsets.ISO_8859_1;
+    }
+
+    /** DBF field text to a property value; null for blanks and unparseable numbers. */
+    static Object value(char type, String text, int decimals) {
+        if (text.isEmpty()) {
+            return null;
+        }
+        switch (type) {
+            case 'N':
+            case 'F':
+                try {
+                    return decimals == 0 ? (Object) Long.parseLong(text) : (Object) Double.parseDouble(text);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            case 'L':
+                char c = Character.toUpperCase(text.charAt(0));
+                return c == 'T' || c == 'Y' ? Boolean.TRUE : c == 'F' || c == 'N' ? Boolean.FALSE : null;
+            default:
+                return text;
+        }
+    }
+}
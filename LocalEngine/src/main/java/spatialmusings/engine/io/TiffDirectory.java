@@ -0,0 +1,235 @@
+package spatialmusings.engine.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/** One parsed TIFF image file directory (IFD), classic or BigTIFF. */
+final class TiffDirectory {
+
+    static final int NEW_SUBFILE_TYPE = 254;
+    static final int IMAGE_WIDTH = 256;
+    static final int IMAGE_LENGTH = 257;
+    static final int BITS_PER_SAMPLE = 258;
+    static final int COMPRESSION = 259;
+    static final int PHOTOMETRIC = 262;
+    static final int STRIP_OFFSETS = 273;
+    static final int SAMPLES_PER_PIXEL = 277;
+    static final int ROWS_PER_STRIP = 278;
+    static final int STRIP_BYTE_COUNTS = 279;
+    static final int PLANAR_CONFIGURATION = 284;
+    static final int PREDICTOR = 317;
+    static final int TILE_WIDTH = 322;
+    static final int TILE_LENGTH = 323;
+    static final int TILE_OFFSETS = 324;
+    static final int TILE_BYTE_COUNTS = 325;
+    static final int EXTRA_SAMPLES = 338;
+    static final int SAMPLE_FORMAT = 339;
+    static final int MODEL_PIXEL_SCALE = 33550;
+    static final int MODEL_TIEPOINT = 33922;
+    static final int MODEL_TRANSFORMATION = 34264;
+    static final int GEO_KEY_DIRECTORY = 34735;
+    static final int GDAL_NODATA = 42113;
+
+    static final int COMPRESSION_NONE = 1;
+    static final int COMPRESSION_LZW = 5;
+    static final int COMPRESSION_DEFLATE = 8;
+    static final int COMPRESSION_ADOBE_DEFLATE = 32946;
+
+    static final int TYPE_BYTE = 1;
+    static final int TYPE_ASCII = 2;
+    static final int TYPE_SHORT = 3;
+    static final int TYPE_LONG = 4;
+    static final int TYPE_RATIONAL = 5;
+    static final int TYPE_SBYTE = 6;
+    static final int TYPE_UNDEFINED = 7;
+    static final int TYPE_SSHORT = 8;
+    static final int TYPE_SLONG = 9;
+    static final int TYPE_SRATIONAL = 10;
+    static final int TYPE_FLOAT = 11;
+    static final int TYPE_DOUBLE = 12;
+    static final int TYPE_LONG8 = 16;
+    static final int TYPE_SLONG8 = 17;
+    static final int TYPE_IFD8 = 18;
+
+    private final Map<Integer, Object> values = new HashMap<>();
+    private final long nextOffset;
+
+    private TiffDirectory(long nextOffset) {
+        this.nextOffset = nextOffset;
+    }
+
+    /** Offset of the next IFD in the chain, 0 if this is the last one. */
+    long nextOffset() {
+        return nextOffset;
+    }
+
+    boolean has(int tag) {
+        return values.containsKey(tag);
+    }
+
+    long[] longs(int tag) {
+        Object v = values.get(tag);
+        if (v instanceof long[]) {
+            return (long[]) v;
+        }
+        if (v instanceof double[]) {
+            double[] d = (double[]) v;
+            long[] out = new long[d.length];
+            for (int i = 0; i < d.length; i++) {
+                out[i] = (long) d[i];
+            }
+            return out;
+        }
+        return null;
+    }
+
+    double[] doubles(int tag) {
+        Object v = values.get(tag);
+        if (v instanceof double[]) {
+            return (double[]) v;
+        }
+        if (v instanceof long[]) {
+            long[] l = (long[]) v;
+            double[] out = new double[l.length];
+            for (int i = 0; i < l.length; i++) {
+                out[i] = l[i];
+            }
+            return out;
+        }
+        return null;
+    }
+
+    int intValue(int tag, int defaultValue) {
+        long[] v = longs(tag);
+        return v == null || v.length == 0 ? defaultValue : (int) v[0];
+    }
+
+    String string(int tag) {
+        Object v = values.get(tag);
+        return v instanceof String ? (String) v : null;
+    }
+
+    static TiffDirectory read(FileChannel channel, long offset, ByteOrder order, boolean bigTiff) throws IOException {
+        int countSize = bigTiff ? 8 : 2;
+        int entrySize = bigTiff ? 20 : 12;
+        ByteBuffer head = readFully(channel, offset, countSize, order);
+        long entries = bigTiff ? head.getLong(0) : head.getShort(0) & 0xFFFF;
+        int pointerSize = bigTiff ? 8 : 4;
+        ByteBuffer buf = readFully(channel, offset + countSize, (int) (entries * entrySize + pointerSize), order);
+        long next = bigTiff ? buf.getLong((int) (entries * entrySize)) : buf.getInt((int) (entries * entrySize)) & 0xFFFFFFFFL;
+        TiffDirectory dir = new TiffDirectory(next);
+        for (int i = 0; i < entries; i++) {
+            int p = i * entrySize;
+            int tag = buf.getShort(p) & 0xFFFF;
+            int type = buf.getShort(p + 2) & 0xFFFF;
+            long count = bigTiff ? buf.getLong(p + 4) : buf.getInt(p + 4) & 0xFFFFFFFFL;
+            int valuePos = p + (bigTiff ? 12 : 8);
+            int size = typeSize(type);
+            if (size == 0) {
+                continue;
+            }
+            long bytes = count * size;
+            ByteBuffer data;
+            if (bytes <= pointerSize) {
+                data = buf.duplicate().order(order);
+                data.position(valuePos);
+                data = data.slice().order(order);
+            } else {
+                long at = bigTiff ? buf.getLong(valuePos) : buf.getInt(valuePos) & 0xFFFFFFFFL;
+                data = readFully(channel, at, (int) bytes, order);
+            }
+            dir.values.put(tag, decode(data, type, (int) count));
+        }
+        return dir;
+    }
+
+    private static Object decode(ByteBuffer data, int type, int count) {
+        switch (type) {
+            case TYPE_ASCII: {
+                byte[] b = new byte[count];
+                for (int i = 0; i < count; i++) {
+                    b[i] = data.get(i);
+                }
+                int end = 0;
+                while (end < count && b[end] != 0) {
+                    end++;
+                }
+                return new String(b, 0, end, StandardCharsets.US_ASCII);
+            }
+            case TYPE_RATIONAL:
+            case TYPE_SRATIONAL: {
+                double[] out = new double[count];
+                for (int i = 0; i < count; i++) {
+                    long num = type == TYPE_RATIONAL ? data.getInt(8 * i) & 0xFFFFFFFFL : data.getInt(8 * i);
+                    long den = type == TYPE_RATIONAL ? data.getInt(8 * i + 4) & 0xFFFFFFFFL : data.getInt(8 * i + 4);
+                    out[i] = den == 0 ? Double.NaN : (double) num / den;
+                }
+                return out;
+            }
+            case TYPE_FLOAT: {
+                double[] out = new double[count];
+                for (int i = 0; i < count; i++) {
+                    out[i] = data.getFloat(4 * i);
+                }
+                return out;
+            }
+            case TYPE_DOUBLE: {
+                double[] out = new double[count];
+                for (int i = 0; i < count; i++) {
+                    out[i] = data.getDouble(8 * i);
+                }
+                return out;
+            }
+            default: {
+                long[] out = new long[count];
+                for (int i = 0; i < count; i++) {
+                    switch (type) {
+                        case TYPE_BYTE: case TYPE_UNDEFINED: out[i] = data.get(i) & 0xFF; break;
+                        case TYPE_SBYTE: out[i] = data.get(i); break;
+                        case TYPE_SHORT: out[i] = data.getShort(2 * i) & 0xFFFF; break;
+                        case TYPE_SSHORT: out[i] = data.getShort(2 * i); break;
+                        case TYPE_LONG: out[i] = data.getInt(4 * i) & 0xFFFFFFFFL; break;
+                        case TYPE_SLONG: out[i] = data.getInt(4 * i); break;
+                        default: out[i] = data.getLong(8 * i); break;
+                    }
+                }
+                return out;
+            }
+        }
+    }
+
+    static int typeSize(int type) {
+        switch (type) {
+            case TYPE_BYTE: case TYPE_ASCII: case TYPE_SBYTE: case TYPE_UNDEFINED: return 1;
+            case TYPE_SHORT: case TYPE_SSHORT: return 2;
+            case TYPE_LONG: case TYPE_SLONG: case TYPE_FLOAT: return 4;
+            case TYPE_RATIONAL: case TYPE_SRATIONAL: case TYPE_DOUBLE:
+            case TYPE_LONG8: case TYPE_SLONG8: case TYPE_IFD8: return 8;
+            default: return 0;
+        }
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length, ByteOrder order) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(order);
+        readFully(channel, position, buf);
+        buf.flip();
+        return buf;
+    }
+
+    /** Positional read that fills {@code buf} from {@code position}; safe for concurrent callers. */
+    static void readFully(FileChannel channel, long position, ByteBuffer buf) throws IOException {
+        long at = position;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, at);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file at offset " + at);
+            }
+            at += n;
+        }
+    }
+}
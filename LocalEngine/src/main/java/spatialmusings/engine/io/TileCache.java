@@ -0,0 +1,422 @@
+package spatialmusings.engine.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of decoded GeoTIFF chunks, so the tiles a workflow reads again in a later
+ * step (the before and after composites, then NBR, then the burned-area sum of the same county)
+ * are decoded once per run.
+ *
+ * <p>Entries are one band of one internal tile or strip of one resolution level of one file,
+ * keyed by (dataset, level, chunk, band), where the dataset is the file's path, size and
+ * modification time. Samples are held as floats in direct buffers outside the Java heap, so a
+ * large budget does not lengthen garbage collection; the buffers of evicted entries are reused
+ * for new ones of the same size.
+ *
+ * <p>Admission and eviction follow W-TinyLFU: new entries go to a small LRU window (1% of the
+ * budget); entries leaving it compete with the least recently used entry of the main area,
+ * and the one an approximate frequency count (a count-min sketch of 4-bit counters, halved
+ * periodically) says is used more stays. The main area is a segmented LRU, with entries hit
+ * again moved to a protected segment of 80% of it. A one-off scan over a large region
+ * therefore passes through the window without flushing the tiles that every step uses.
+ *
+ * <p>Lookups and insertions take a short lock; decoding happens outside it, so two threads
+ * missing on the same chunk at once may both decode it.
+ */
+public final class TileCache {
+
+    /** System property overriding the shared cache's budget, in bytes; 0 disables it. */
+    public static final String BUDGET_PROPERTY = "spatialmusings.tileCacheBytes";
+    public static final long DEFAULT_BUDGET_BYTES = 256L << 20;
+
+    private static final TileCache SHARED = new TileCache(Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET_BYTES));
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long budgetBytes;
+    private final long windowBudget;
+    private final long protectedBudget;
+    private final Map<Key, Entry> entries = new HashMap<>();
+    /** Least recently used first, per segment. */
+    private final Entry[] heads = new Entry[3];
+    private final Entry[] tails = new Entry[3];
+    private final long[] segmentBytes = new long[3];
+    private final Map<Integer, ArrayDeque<ByteBuffer>> free = new HashMap<>();
+    private long freeBytes;
+    private final Sketch sketch = new Sketch();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TileCache(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+        this.windowBudget = Math.max(1, budgetBytes / 100);
+        this.protectedBudget = (budgetBytes - windowBudget) * 4 / 5;
+    }
+
+    /** Process-wide cache used by every {@link GeoTiffReader} opened without one. */
+    public static TileCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Copies rows of cached chunk {@code key}, if present, into {@code dst}: {@code rows} rows of
+     * {@code width} samples starting at {@code src} with stride {@code srcStride}, to {@code out}
+     * with stride {@code dstStride}. Returns false on a miss.
+     */
+    boolean copy(Key key, int src, int srcStride, float[] dst, int out, int dstStride, int width, int rows) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(key);
+            sketch.increment(key.hash);
+            if (e == null) {
+                misses.incrementAndGet();
+                return false;
+            }
+            hits.incrementAndGet();
+            touch(e);
+            e.pins++;
+        }
+        try {
+            FloatBuffer data = e.data;
+            for (int r = 0; r < rows; r++) {
+                data.get(src + r * srcStride, dst, out + r * dstStride, width);
+            }
+        } finally {
+            synchronized (this) {
+                if (--e.pins == 0 && e.evicted) {
+                    recycle(e.buffer);
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Caches {@code samples[offset + i * stride]} for {@code i < count} as chunk {@code key}. */
+    void put(Key key, float[] samples, int offset, int stride, int count) {
+        long size = 4L * count;
+        if (size > budgetBytes - windowBudget || size > Integer.MAX_VALUE) {
+            return;
+        }
+        ByteBuffer buffer;
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+            buffer = takeFree((int) size);
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+        }
+        FloatBuffer data = buffer.asFloatBuffer();
+        if (stride == 1) {
+            data.put(0, samples, offset, count);
+        } else {
+            for (int i = 0, s = offset; i < count; i++, s += stride) {
+                data.put(i, samples[s]);
+            }
+        }
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                recycle(buffer);
+                return;
+            }
+            Entry e = new Entry(key, buffer, data);
+            entries.put(key, e);
+            sketch.ensureCapacity(entries.size(), entries.keySet());
+            append(WINDOW, e);
+            evict();
+        }
+    }
+
+    /** A hit moves an entry to the most recent end; a probation hit promotes it to protected. */
+    private void touch(Entry e) {
+        int segment = e.segment;
+        unlink(e);
+        if (segment == PROBATION) {
+            append(PROTECTED, e);
+            while (segmentBytes[PROTECTED] > protectedBudget && heads[PROTECTED] != e) {
+                Entry demoted = heads[PROTECTED];
+                unlink(demoted);
+                append(PROBATION, demoted);
+            }
+        } else {
+            append(segment, e);
+        }
+    }
+
+    /** Moves window overflow to probation, then evicts the loser of each candidate-victim pair. */
+    private void evict() {
+        Entry candidate = null;
+        while (segmentBytes[WINDOW] > windowBudget) {
+            Entry e = heads[WINDOW];
+            unlink(e);
+            append(PROBATION, e);
+            if (candidate == null) {
+                candidate = e;
+            }
+        }
+        while (bytes() > budgetBytes) {
+            Entry victim = heads[PROBATION];
+            if (victim == null) {
+                victim = heads[PROTECTED] != null ? heads[PROTECTED] : heads[WINDOW];
+            } else if (candidate != null && victim != candidate) {
+                if (sketch.frequency(candidate.key.hash) > sketch.frequency(victim.key.hash)) {
+                    remove(victim);
+                } else {
+                    Entry next = candidate.next;
+                    remove(candidate);
+                    candidate = next;
+                }
+                continue;
+            } else if (victim == candidate) {
+                candidate = candidate.next;
+            }
+            remove(victim);
+        }
+        while (freeBytes > 0 && bytes() + freeBytes > budgetBytes) {
+            dropFree();
+        }
+    }
+
+    private void remove(Entry e) {
+        unlink(e);
+        entries.remove(e.key);
+        evictions.incrementAndGet();
+        e.evicted = true;
+        if (e.pins == 0) {
+            recycle(e.buffer);
+        }
+    }
+
+    private void append(int segment, Entry e) {
+        e.segment = segment;
+        e.previous = tails[segment];
+        e.next = null;
+        if (tails[segment] == null) {
+            heads[segment] = e;
+        } else {
+            tails[segment].next = e;
+        }
+        tails[segment] = e;
+        segmentBytes[segment] += e.buffer.capacity();
+    }
+
+    private void unlink(Entry e) {
+        int segment = e.segment;
+        if (e.previous == null) {
+            heads[segment] = e.next;
+        } else {
+            e.previous.next = e.next;
+        }
+        if (e.next == null) {
+            tails[segment] = e.previous;
+        } else {
+            e.next.previous = e.previous;
+        }
+        e.previous = null;
+        e.next = null;
+        segmentBytes[segment] -= e.buffer.capacity();
+    }
+
+    private ByteBuffer takeFree(int size) {
+        ArrayDeque<ByteBuffer> q = free.get(size);
+        ByteBuffer b = q == null ? null : q.poll();
+        if (b != null) {
+            freeBytes -= size;
+        }
+        return b;
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        free.computeIfAbsent(buffer.capacity(), k -> new ArrayDeque<>()).push(buffer);
+        freeBytes += buffer.capacity();
+    }
+
+    /** Lets the garbage collector release one spare buffer, from the largest size class. */
+    private void dropFree() {
+        int largest = -1;
+        for (Map.Entry<Integer, ArrayDeque<ByteBuffer>> q : free.entrySet()) {
+            if (!q.getValue().isEmpty() && q.getKey() > largest) {
+                largest = q.getKey();
+            }
+        }
+        free.get(largest).poll();
+        freeBytes -= largest;
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    /** Bytes of decoded samples held, not counting spare buffers kept for reuse. */
+    public synchronized long bytes() {
+        return segmentBytes[WINDOW] + segmentBytes[PROBATION] + segmentBytes[PROTECTED];
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Entries dropped to stay within the budget, including new entries refused admission. */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public synchronized void clear() {
+        for (Entry e : entries.values()) {
+            e.evicted = true;
+        }
+        entries.clear();
+        for (int s = 0; s < 3; s++) {
+            heads[s] = null;
+            tails[s] = null;
+            segmentBytes[s] = 0;
+        }
+        free.clear();
+        freeBytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "TileCache[" + size() + " chunks, " + bytes() + "/" + budgetBytes + " bytes, " + hits() + " hits, "
+                + misses() + " misses, " + evictions() + " evictions]";
+    }
+
+    /** One band of one chunk of one level of a file. */
+    static final class Key {
+        private final String dataset;
+        private final int level;
+        private final int chunk;
+        private final int band;
+        private final int hash;
+
+        Key(String dataset, int level, int chunk, int band) {
+            this.dataset = dataset;
+            this.level = level;
+            this.chunk = chunk;
+            this.band = band;
+            this.hash = ((dataset.hashCode() * 31 + level) * 31 + chunk) * 31 + band;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && chunk == k.chunk && band == k.band && level == k.level
+                    && dataset.equals(k.dataset);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final ByteBuffer buffer;
+        final FloatBuffer data;
+        int segment;
+        Entry previous;
+        Entry next;
+        int pins;
+        boolean evicted;
+
+        Entry(Key key, ByteBuffer buffer, FloatBuffer data) {
+            this.key = key;
+            this.buffer = buffer;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four rows, all halved once the number of increments
+     * reaches ten times its width so that old popularity fades.
+     */
+    private static final class Sketch {
+        private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+            0xD6E8FEB86659FD93L};
+
+        private long[] table = new long[16];
+        private int additions;
+
+        /**
+         * Widens the sketch to at least the number of cached entries, carrying over the counts of
+         * the {@code resident} keys; those of keys no longer cached are forgotten.
+         */
+        void ensureCapacity(int entries, Iterable<Key> resident) {
+            int width = Math.max(16, Integer.highestOneBit(Math.max(1, entries - 1)) << 1);
+            if (width <= table.length) {
+                return;
+            }
+            List<int[]> counts = new ArrayList<>();
+            for (Key k : resident) {
+                counts.add(new int[] {k.hash, frequency(k.hash)});
+            }
+            table = new long[width];
+            additions = 0;
+            for (int[] c : counts) {
+                for (int i = 0; i < c[1]; i++) {
+                    increment(c[0]);
+                }
+            }
+        }
+
+        int frequency(int hash) {
+            int f = 15;
+            for (int i = 0; i < 4; i++) {
+                int c = counter(hash, i);
+                f = Math.min(f, (int) (table[c >>> 4] >>> ((c & 15) << 2)) & 15);
+            }
+            return f;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int c = counter(hash, i);
+                int shift = (c & 15) << 2;
+                if (((table[c >>> 4] >>> shift) & 15) < 15) {
+                    table[c >>> 4] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= 10 * table.length) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                additions /= 2;
+            }
+        }
+
+        /** Counter index (word * 16 + nibble) of {@code hash} in row {@code row}. */
+        private int counter(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[(row + 1) & 3];
+            return (int) (h >>> 32) & (table.length * 16 - 1);
+        }
+    }
+}
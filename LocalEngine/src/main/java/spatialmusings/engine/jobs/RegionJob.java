@@ -0,0 +1,41 @@
+package spatialmusings.engine.jobs;
+
+import java.io.IOException;
+import java.util.List;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * A workflow run once per region of a boundary layer, the way our scripts are run once per
+ * county by editing their {@code ee.Filter.eq('county', ...)} line. {@link RegionScheduler}
+ * prepares each region, runs its tiles on the pool alongside other regions' tiles, and
+ * checkpoints the rows {@link Region#finish} returns.
+ *
+ * @param <A> per-thread partial result of a region's tiles
+ */
+public interface RegionJob<A> {
+
+    /** CSV header of the rows {@link Region#finish} returns, without the leading region column. */
+    String header();
+
+    /** Sets up the work for one region; called on the scheduling thread, one region at a time. */
+    Region<A> prepare(Feature region) throws IOException;
+
+    /** The work for one region: tiles folded into per-thread partials, then one result. */
+    interface Region<A> {
+
+        /** Tiles to fold, in any grid the region needs; empty if {@link #finish} does all the work. */
+        List<Window> tiles();
+
+        A identity();
+
+        /** Folds {@code tile} into {@code partial}; called concurrently, each thread with its own partial. */
+        void tile(A partial, Window tile);
+
+        A merge(A left, A right);
+
+        /** CSV rows for the region from its merged partials. */
+        List<String> finish(A total) throws IOException;
+    }
+}
@@ -0,0 +1,454 @@
+package spatialmusings.engine.jobs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Runs a {@link RegionJob} over every region of a boundary layer, in one JVM or in several
+ * sharing a work directory, and writes one CSV with a leading {@code region} column.
+ *
+ * <p>Regions are ordered along a Hilbert curve through their envelope centres, so consecutive
+ * regions are neighbours and share scene tiles, decoded chunks and coverage masks in the
+ * caches. The order is cut into fixed batches of neighbours. A worker claims a batch by
+ * creating {@code claims/<batch>} in the work directory, prepares the batch's regions and
+ * runs all their tiles as one set of fork-join tasks, so the pool stays busy across region
+ * boundaries. Each region's rows are checkpointed to {@code done/<region>.csv} the moment its
+ * last tile is folded, and the claim's owner refreshes its timestamp as regions finish.
+ *
+ * <p>Any number of workers (threads, JVMs, or hosts on a shared file system) may run the same
+ * job on the same directory: each takes the next unclaimed batch, so every JVM keeps to its own
+ * neighbourhood. A claim not refreshed for the lease (ten minutes by default) belongs to a
+ * worker that died; the next worker to see it takes the batch over, and the old owner, if it
+ * was only slow, finds the claim no longer names it and leaves it alone. A rerun skips every
+ * region already done. When no batch is left, {@code results.csv} is written in layer order by
+ * whichever worker gets there, with the same content from any of them.
+ */
+public final class RegionScheduler {
+
+    public static final String RESULTS = "results.csv";
+    public static final int DEFAULT_BATCH = 8;
+    public static final long DEFAULT_LEASE_MILLIS = 10 * 60_000L;
+
+    private static final long POLL_MILLIS = 500;
+
+    private final List<Feature> regions;
+    private final List<String> names;
+    /** Region indices in Hilbert order. */
+    private final int[] order;
+    private final Path dir;
+    private final TileExecutor executor;
+    private final int batchSize;
+    private final long leaseMillis;
+    private final String worker;
+    private final AtomicInteger regionsRun = new AtomicInteger();
+    private final AtomicLong tilesRun = new AtomicLong();
+
+    public RegionScheduler(FeatureCollection regions, String nameField, Path dir, TileExecutor executor) {
+        this(regions, nameField, dir, executor, DEFAULT_BATCH, DEFAULT_LEASE_MILLIS);
+    }
+
+    public RegionScheduler(FeatureCollection regions, String nameField, Path dir, TileExecutor executor,
+                           int batchSize, long leaseMillis) {
+        if (batchSize <= 0 || leaseMillis <= 0) {
+            throw new IllegalArgumentException("Batch size and lease must be positive");
+        }
+        this.regions = regions.toList();
+        this.names = new ArrayList<>(this.regions.size());
+        for (Feature f : this.regions) {
+            Object name = f.get(nameField);
+            if (name == null) {
+                throw new IllegalArgumentException("Region without " + nameField + ": " + f);
+            }
+            names.add(name.toString());
+        }
+        this.order = hilbertOrder(this.regions);
+        this.dir = dir;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.leaseMillis = leaseMillis;
+        this.worker = ProcessHandle.current().pid() + "-" + Long.toHexString(System.nanoTime());
+    }
+
+    /** Regions this scheduler ran itself, as opposed to found done or left to other workers. */
+    public int regionsRun() {
+        return regionsRun.get();
+    }
+
+    public long tilesRun() {
+        return tilesRun.get();
+    }
+
+    /** Region names in the order they are run. */
+    public List<String> runOrder() {
+        List<String> out = new ArrayList<>(order.length);
+        for (int i : order) {
+            out.add(names.get(i));
+        }
+        return out;
+    }
+
+    /**
+     * Runs every region not done yet, waiting for other workers' batches, and returns the
+     * results file.
+     */
+    public <A> Path run(RegionJob<A> job) throws IOException {
+        Files.createDirectories(dir.resolve("claims"));
+        Files.createDirectories(dir.resolve("done"));
+        checkJob(job.header());
+        int batches = (order.length + batchSize - 1) / batchSize;
+        while (true) {
+            BitSet done = done();
+            boolean waiting = false;
+            for (int b = 0; b < batches; b++) {
+                if (batchDone(b, done)) {
+                    continue;
+                }
+                if (!claim(b)) {
+                    waiting = true;
+                    continue;
+                }
+                try {
+                    runBatch(b, job);
+                } finally {
+                    release(b);
+                }
+            }
+            if (done().cardinality() == order.length) {
+                break;
+            }
+            if (waiting) {
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for other workers in " + dir, e);
+                }
+            }
+        }
+        return writeResults(job.header());
+    }
+
+    // ---------------------------------------------------------------- running
+
+    private <A> void runBatch(int batch, RegionJob<A> job) throws IOException {
+        List<Pending<A>> taskRegion = new ArrayList<>();
+        List<Window> taskTile = new ArrayList<>();
+        for (int k = batch * batchSize; k < Math.min(order.length, (batch + 1) * batchSize); k++) {
+            int index = order[k];
+            // Another worker may have finished it since the batch was listed.
+            if (Files.exists(donePath(index))) {
+                continue;
+            }
+            Pending<A> p = new Pending<>(index, batch, job.prepare(regions.get(index)));
+            List<Window> tiles = p.region.tiles();
+            p.remaining.set(Math.max(1, tiles.size()));
+            if (tiles.isEmpty()) {
+                taskRegion.add(p);
+                taskTile.add(null);
+            }
+            for (Window w : tiles) {
+                taskRegion.add(p);
+                taskTile.add(w);
+            }
+        }
+        if (taskTile.isEmpty()) {
+            return;
+        }
+        try {
+            executor.pool().invoke(new BatchTask<>(this, taskRegion, taskTile, 0, taskTile.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Folds one tile; the thread folding a region's last tile finishes and checkpoints it. */
+    private <A> void runTile(Pending<A> p, Window tile) {
+        if (tile != null) {
+            p.region.tile(p.partials.computeIfAbsent(Thread.currentThread(), t -> p.region.identity()), tile);
+            tilesRun.incrementAndGet();
+        }
+        if (p.remaining.decrementAndGet() > 0) {
+            return;
+        }
+        A total = p.region.identity();
+        for (A partial : p.partials.values()) {
+            total = p.region.merge(total, partial);
+        }
+        try {
+            StringBuilder rows = new StringBuilder();
+            for (String row : p.region.finish(total)) {
+                rows.append(row).append('\n');
+            }
+            writeAtomically(donePath(p.index), rows.toString());
+            // Only the owner extends a lease; once taken over, the new owner redoes the rest.
+            if (owns(p.batch)) {
+                Files.setLastModifiedTime(claim(p.batch, ""), FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (NoSuchFileException e) {
+            // The claim was taken over by a worker that thought this one dead; it will redo the rest.
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        regionsRun.incrementAndGet();
+    }
+
+    /** One region of a batch in progress. */
+    private static final class Pending<A> {
+        final int index;
+        final int batch;
+        final RegionJob.Region<A> region;
+        final Map<Thread, A> partials = new ConcurrentHashMap<>();
+        final AtomicInteger remaining = new AtomicInteger();
+
+        Pending(int index, int batch, RegionJob.Region<A> region) {
+            this.index = index;
+            this.batch = batch;
+            this.region = region;
+        }
+    }
+
+    /** The batch's (region, tile) tasks, split in halves as {@link TileExecutor} splits tiles. */
+    private static final class BatchTask<A> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient RegionScheduler scheduler;
+        private final transient List<Pending<A>> regions;
+        private final transient List<Window> tiles;
+        private final int from;
+        private final int to;
+
+        BatchTask(RegionScheduler scheduler, List<Pending<A>> regions, List<Window> tiles, int from, int to) {
+            this.scheduler = scheduler;
+            this.regions = regions;
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                scheduler.runTile(regions.get(from), tiles.get(from));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            BatchTask<A> left = new BatchTask<>(scheduler, regions, tiles, from, mid);
+            left.fork();
+            new BatchTask<>(scheduler, regions, tiles, mid, to).compute();
+            left.join();
+        }
+    }
+
+    // ---------------------------------------------------------------- work directory
+
+    /** Records the job in the directory, or checks the directory holds the same job. */
+    private void checkJob(String header) throws IOException {
+        String job = "region," + header + "\n" + names.size() + " regions, batches of " + batchSize + ", names "
+                + Integer.toHexString(names.hashCode()) + "\n";
+        Path file = dir.resolve("job.txt");
+        // Written aside and moved in whole, so a worker starting alongside never reads it half-written.
+        Path tmp = file.resolveSibling(file.getFileName() + "." + worker + ".tmp");
+        Files.write(tmp, job.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(tmp, file);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(tmp);
+            String existing = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            if (!existing.equals(job)) {
+                throw new IOException(dir + " holds a different job:\n" + existing);
+            }
+        }
+    }
+
+    /** Claims {@code batch}, taking it over if its claim has not been refreshed within the lease. */
+    private boolean claim(int batch) throws IOException {
+        Path claim = claim(batch, "");
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                Files.write(claim, worker.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                // Held by another worker; take it over below if the lease has run out.
+            }
+            Path stale = claim(batch, ".stale-" + worker);
+            try {
+                if (!expired(claim)) {
+                    return false;
+                }
+                Files.move(claim, stale, StandardCopyOption.ATOMIC_MOVE);
+                // Another worker may have seen the same stale claim, moved it away and claimed the
+                // batch afresh between the check and the move; then what moved is its live claim.
+                if (!expired(stale)) {
+                    try {
+                        Files.move(stale, claim);
+                    } catch (FileAlreadyExistsException e) {
+                        // A third worker claimed the empty slot meanwhile; the claim is its now.
+                        Files.delete(stale);
+                    }
+                    return false;
+                }
+                Files.delete(stale);
+            } catch (NoSuchFileException e) {
+                // Released or taken over meanwhile; try to create it afresh.
+            }
+        }
+        return false;
+    }
+
+    /** Whether {@code claim} has not been refreshed within the lease. */
+    private boolean expired(Path claim) throws IOException {
+        return System.currentTimeMillis() - Files.getLastModifiedTime(claim).toMillis() >= leaseMillis;
+    }
+
+    /**
+     * Whether {@code batch}'s claim is still this worker's. A worker whose lease ran out may find
+     * the batch taken over, and must then neither refresh nor delete the new owner's claim.
+     */
+    private boolean owns(int batch) throws IOException {
+        try {
+            return worker.equals(new String(Files.readAllBytes(claim(batch, "")), StandardCharsets.UTF_8));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /** Deletes {@code batch}'s claim if this worker still holds it. */
+    private void release(int batch) throws IOException {
+        if (owns(batch)) {
+            Files.deleteIfExists(claim(batch, ""));
+        }
+    }
+
+    private Path claim(int batch, String suffix) {
+        return dir.resolve("claims").resolve("b" + batch + suffix);
+    }
+
+    private Path donePath(int region) {
+        return dir.resolve("done").resolve("r" + region + ".csv");
+    }
+
+    private BitSet done() throws IOException {
+        BitSet done = new BitSet(order.length);
+        try (Stream<Path> files = Files.list(dir.resolve("done"))) {
+            files.forEach(f -> {
+                String name = f.getFileName().toString();
+                if (name.startsWith("r") && name.endsWith(".csv")) {
+                    done.set(Integer.parseInt(name.substring(1, name.length() - 4)));
+                }
+            });
+        }
+        return done;
+    }
+
+    private boolean batchDone(int batch, BitSet done) {
+        for (int k = batch * batchSize; k < Math.min(order.length, (batch + 1) * batchSize); k++) {
+            if (!done.get(order[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path writeResults(String header) throws IOException {
+        StringBuilder out = new StringBuilder("region,").append(header).append('\n');
+        for (int i = 0; i < regions.size(); i++) {
+            String name = quote(names.get(i));
+            for (String row : Files.readAllLines(donePath(i), StandardCharsets.UTF_8)) {
+                out.append(name).append(',').append(row).append('\n');
+            }
+        }
+        Path results = dir.resolve(RESULTS);
+        writeAtomically(results, out.toString());
+        return results;
+    }
+
+    private void writeAtomically(Path file, String content) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + "." + worker + ".tmp");
+        Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    // ---------------------------------------------------------------- ordering
+
+    /** Region indices sorted by the Hilbert index of their envelope centres on a 2^16 grid. */
+    static int[] hilbertOrder(List<Feature> regions) {
+        int n = regions.size();
+        double[] cx = new double[n], cy = new double[n];
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Envelope e = regions.get(i).geometry().envelope();
+            cx[i] = (e.minX() + e.maxX()) / 2;
+            cy[i] = (e.minY() + e.maxY()) / 2;
+            minX = Math.min(minX, cx[i]);
+            minY = Math.min(minY, cy[i]);
+            maxX = Math.max(maxX, cx[i]);
+            maxY = Math.max(maxY, cy[i]);
+        }
+        double span = Math.max(maxX - minX, maxY - minY);
+        double scale = span > 0 ? 65535 / span : 0;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            long d = hilbert((int) ((cx[i] - minX) * scale), (int) ((cy[i] - minY) * scale));
+            // d < 2^32 and i < 2^31, so the key stays positive and sorts by d, then i.
+            keys[i] = d << 31 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        return order;
+    }
+
+    /** Distance along the order-16 Hilbert curve of cell {@code (x, y)}. */
+    private static long hilbert(int x, int y) {
+        long d = 0;
+        for (int s = 1 << 15; s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+}
@@ -0,0 +1,86 @@
+package spatialmusings.engine.ops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Bands of {@code first} followed by bands of {@code second}, on the first image's grid. A
+ * second-image band whose name is already taken gets an {@code _1} suffix, as ee does.
+ */
+public final class AddBandsImage extends Image {
+
+    private final Image first;
+    private final Image second;
+    private final List<String> names;
+    private final int split;
+
+    public AddBandsImage(Image first, Image second) {
+        if (!first.grid().isAlignedWith(second.grid())) {
+            throw new IllegalArgumentException("addBands needs aligned grids: " + first.grid() + " vs " + second.grid());
+        }
+        this.first = first;
+        this.second = second;
+        this.split = first.bandNames().size();
+        List<String> n = new ArrayList<>(first.bandNames());
+        for (String s : second.bandNames()) {
+            n.add(n.contains(s) ? s + "_1" : s);
+        }
+        this.names = Collections.unmodifiableList(n);
+    }
+
+    public Image first() {
+        return first;
+    }
+
+    public Image second() {
+        return second;
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return first.grid();
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return names;
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return first.properties();
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        int nFirst = 0;
+        for (int b : bands) {
+            if (b < split) {
+                nFirst++;
+            }
+        }
+        int[] a = new int[nFirst];
+        int[] s = new int[bands.length - nFirst];
+        for (int i = 0, ia = 0, is = 0; i < bands.length; i++) {
+            if (bands[i] < split) {
+                a[ia++] = bands[i];
+            } else {
+                s[is++] = bands[i] - split;
+            }
+        }
+        Tile ta = a.length > 0 ? first.read(window, a) : null;
+        Tile ts = s.length > 0 ? second.readAligned(grid(), window, s) : null;
+        float[][] out = new float[bands.length][];
+        for (int i = 0, ia = 0, is = 0; i < bands.length; i++) {
+            out[i] = bands[i] < split ? ta.band(ia++) : ts.band(is++);
+        }
+        return new Tile(window, out);
+    }
+}
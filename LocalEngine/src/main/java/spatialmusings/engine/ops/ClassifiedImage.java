@@ -0,0 +1,69 @@
+package spatialmusings.engine.ops;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.classify.RandomForest;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * {@code classify}: one band, {@code classification}, holding the forest's predicted class for
+ * every pixel. A read pulls the forest's input bands from the source once and classifies the
+ * tile block by block; sinks spread tiles over cores as for any other image.
+ */
+public final class ClassifiedImage extends Image {
+
+    private static final List<String> NAMES = Collections.singletonList("classification");
+
+    private final Image source;
+    private final RandomForest forest;
+    private final int[] inputs;
+
+    public ClassifiedImage(Image source, RandomForest forest) {
+        this.source = source;
+        this.forest = forest;
+        this.inputs = new int[forest.inputs().size()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = source.bandIndex(forest.inputs().get(i));
+        }
+    }
+
+    public Image source() {
+        return source;
+    }
+
+    public RandomForest forest() {
+        return forest;
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return source.grid();
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return NAMES;
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return source.properties();
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        Tile in = source.read(window, inputs);
+        float[] classes = new float[window.size()];
+        forest.classify(in.bands(), 0, classes.length, classes);
+        float[][] out = new float[bands.length][];
+        for (int b = 0; b < bands.length; b++) {
+            out[b] = b == 0 ? classes : classes.clone();
+        }
+        return new Tile(window, out);
+    }
+}
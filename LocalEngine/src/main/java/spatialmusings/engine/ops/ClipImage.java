@@ -0,0 +1,68 @@
+package spatialmusings.engine.ops;
+
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.CoverageMask;
+import spatialmusings.engine.raster.MaskCache;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * {@code clip}: masks pixels whose centre lies outside the geometry. Tiles entirely outside
+ * are returned masked without touching the source, tiles entirely inside are passed through.
+ * The per-tile coverage comes from the shared {@link MaskCache}, so clipping every band and
+ * scene of a collection to one region rasterizes the region once per tile.
+ */
+public final class ClipImage extends Image {
+
+    private final Image source;
+    private final Geometry geometry;
+
+    public ClipImage(Image source, Geometry geometry) {
+        this.source = source;
+        this.geometry = geometry.transform(source.grid().crs());
+    }
+
+    public Image source() {
+        return source;
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return source.grid();
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return source.bandNames();
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return source.properties();
+    }
+
+    @Override
+    public Geometry geometry() {
+        return geometry;
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        CoverageMask mask = MaskCache.shared().get(geometry, grid(), window);
+        if (mask.isEmpty()) {
+            return Tile.masked(window, bands.length);
+        }
+        Tile t = source.read(window, bands);
+        if (!mask.isFull()) {
+            for (int b = 0; b < bands.length; b++) {
+                mask.maskOutside(t.band(b));
+            }
+        }
+        return t;
+    }
+}
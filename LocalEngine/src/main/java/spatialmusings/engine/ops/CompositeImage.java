@@ -0,0 +1,74 @@
+package spatialmusings.engine.ops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Base for per-pixel reductions over a stack of images (median, mosaic, ...). The composite
+ * grid is the union of the input grids, which must all be aligned; band names come from the
+ * first image and are looked up by name in the others.
+ */
+public abstract class CompositeImage extends Image {
+
+    private final List<Image> images;
+    private final PixelGrid grid;
+    private final List<String> names;
+
+    protected CompositeImage(List<Image> images) {
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("Cannot composite an empty collection");
+        }
+        this.images = Collections.unmodifiableList(new ArrayList<>(images));
+        PixelGrid g = images.get(0).grid();
+        for (Image image : images) {
+            g = g.union(image.grid());
+        }
+        this.grid = g;
+        this.names = images.get(0).bandNames();
+    }
+
+    public List<Image> images() {
+        return images;
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return grid;
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return names;
+    }
+
+    /** Indices of {@code bands} (in this composite's numbering) within {@code image}. */
+    protected final int[] bandsIn(Image image, int[] bands) {
+        int[] out = new int[bands.length];
+        for (int i = 0; i < bands.length; i++) {
+            out[i] = image.bandIndex(names.get(bands[i]));
+        }
+        return out;
+    }
+
+    /** True if {@code image} has any pixel inside {@code window} of the composite grid. */
+    protected final boolean overlaps(Image image, Window window) {
+        PixelGrid g = image.grid();
+        return window.translate(-grid.offsetX(g), -grid.offsetY(g)).intersects(g.bounds());
+    }
+
+    /** Images with at least one pixel inside {@code window}, in collection order. */
+    protected final List<Image> overlapping(Window window) {
+        List<Image> out = new ArrayList<>();
+        for (Image image : images) {
+            if (overlaps(image, window)) {
+                out.add(image);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,220 @@
+package spatialmusings.engine.ops;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.expr.Expr;
+import spatialmusings.engine.expr.Kernels;
+import spatialmusings.engine.expr.Op;
+import spatialmusings.engine.expr.Program;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Per-pixel band math over one or more aligned input images, held as one {@link Expr} per
+ * output band instead of a chain of wrapper images.
+ *
+ * <p>Combining two expression images merges their trees, so
+ * {@code a.normalizedDifference(...).subtract(b.normalizedDifference(...)).gt(0.1)} is a single
+ * image. A read pulls each input once with only the bands the requested outputs reference,
+ * then runs a compiled {@link Program}: shared subexpressions are evaluated once and every
+ * operator works block by block in cache, rather than materialising a full tile per step.
+ * Masked inputs give masked outputs; a one-band operand is broadcast against every band of the
+ * other, and output band names come from the left operand, as in ee.
+ */
+public final class ExpressionImage extends Image {
+
+    private final List<Image> inputs;
+    private final List<Expr> exprs;
+    private final List<String> names;
+    private final ConcurrentMap<List<Integer>, Program> programs = new ConcurrentHashMap<>();
+
+    private ExpressionImage(List<Image> inputs, List<Expr> exprs, List<String> names) {
+        this.inputs = Collections.unmodifiableList(inputs);
+        this.exprs = Collections.unmodifiableList(exprs);
+        this.names = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * An expression image computing {@code exprs} over {@code inputs}, which must be aligned;
+     * band references in the expressions index into {@code inputs}.
+     */
+    public static ExpressionImage of(List<Image> inputs, List<Expr> exprs, List<String> names) {
+        if (inputs.isEmpty() || exprs.size() != names.size()) {
+            throw new IllegalArgumentException("Need inputs and one name per expression");
+        }
+        return new ExpressionImage(new ArrayList<>(inputs), new ArrayList<>(exprs), new ArrayList<>(names));
+    }
+
+    /** {@code image} as an expression image: itself if it already is one, else its bands as leaves. */
+    public static ExpressionImage lift(Image image) {
+        if (image instanceof ExpressionImage) {
+            return (ExpressionImage) image;
+        }
+        int n = image.bandNames().size();
+        List<Expr> exprs = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) {
+            exprs.add(Expr.band(0, b));
+        }
+        return new ExpressionImage(Collections.singletonList(image), exprs, image.bandNames());
+    }
+
+    /** {@code op(band, c)} for every band of {@code source}. */
+    public static Image constant(Image source, Op op, double c) {
+        ExpressionImage e = lift(source);
+        Expr k = Expr.constant(c);
+        List<Expr> out = new ArrayList<>(e.exprs.size());
+        for (Expr x : e.exprs) {
+            out.add(Expr.apply(op, x, k));
+        }
+        return new ExpressionImage(e.inputs, out, e.names);
+    }
+
+    /** {@code op(left, right)} band by band, broadcasting a one-band operand. */
+    public static Image binary(Image left, Image right, Op op) {
+        String name = op.name().toLowerCase(Locale.ROOT);
+        int nl = left.bandNames().size(), nr = right.bandNames().size();
+        if (nl != nr && nl != 1 && nr != 1) {
+            throw new IllegalArgumentException(name + ": band counts " + nl + " and " + nr + " do not match");
+        }
+        if (!left.grid().isAlignedWith(right.grid())) {
+            throw new IllegalArgumentException(name + ": grids are not aligned");
+        }
+        ExpressionImage l = lift(left), r = lift(right);
+        // Merge the input lists, sharing images both sides reference so their reads and
+        // common subexpressions are not duplicated.
+        List<Image> inputs = new ArrayList<>(l.inputs);
+        int[] mapping = new int[r.inputs.size()];
+        for (int i = 0; i < mapping.length; i++) {
+            int at = indexOf(inputs, r.inputs.get(i));
+            if (at < 0) {
+                at = inputs.size();
+                inputs.add(r.inputs.get(i));
+            }
+            mapping[i] = at;
+        }
+        int n = Math.max(nl, nr);
+        List<Expr> out = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) {
+            Expr a = l.exprs.get(nl == 1 ? 0 : b);
+            Expr c = r.exprs.get(nr == 1 ? 0 : b).remapInputs(mapping);
+            out.add(Expr.apply(op, a, c));
+        }
+        return new ExpressionImage(inputs, out, nl == 1 ? r.names : l.names);
+    }
+
+    /** {@code (first - second) / (first + second)} as a band named {@code nd}. */
+    public static Image normalizedDifference(Image source, int first, int second) {
+        ExpressionImage e = lift(source);
+        Expr nd = Expr.apply(Op.NORMALIZED_DIFFERENCE, e.exprs.get(first), e.exprs.get(second));
+        return new ExpressionImage(e.inputs, Collections.singletonList(nd), Collections.singletonList("nd"));
+    }
+
+    /**
+     * One band per group, the sum of the group's bands of {@code source}, as
+     * {@code select(bands).reduce(ee.Reducer.sum())} for each group and {@code ee.Image.cat}.
+     * Each sum adds its bands in source order, so groups starting with the same bands share
+     * those partial sums, and reading all groups pulls every referenced source band once.
+     * A sum is masked where any of its bands is.
+     */
+    public static Image sums(Image source, List<String> names, List<int[]> groups) {
+        if (names.size() != groups.size() || names.isEmpty()) {
+            throw new IllegalArgumentException("Need one name per band group");
+        }
+        ExpressionImage e = lift(source);
+        List<Expr> out = new ArrayList<>(groups.size());
+        for (int g = 0; g < groups.size(); g++) {
+            int[] bands = groups.get(g).clone();
+            if (bands.length == 0) {
+                throw new IllegalArgumentException("Band group '" + names.get(g) + "' is empty");
+            }
+            Arrays.sort(bands);
+            Expr sum = e.exprs.get(bands[0]);
+            for (int i = 1; i < bands.length; i++) {
+                sum = Expr.apply(Op.ADD, sum, e.exprs.get(bands[i]));
+            }
+            out.add(sum);
+        }
+        return new ExpressionImage(e.inputs, out, new ArrayList<>(names));
+    }
+
+    private static int indexOf(List<Image> images, Image image) {
+        for (int i = 0; i < images.size(); i++) {
+            if (images.get(i) == image) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Expression computing output band {@code band}. */
+    public Expr expression(int band) {
+        return exprs.get(band);
+    }
+
+    public List<Image> inputs() {
+        return inputs;
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return inputs.get(0).grid();
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return names;
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        Program program = programs.computeIfAbsent(key(bands), k -> {
+            List<Expr> roots = new ArrayList<>(k.size());
+            for (int b : k) {
+                roots.add(exprs.get(b));
+            }
+            return new Program(roots);
+        });
+        List<int[]> leaves = program.leaves();
+        float[][] leafData = new float[leaves.size()][];
+        PixelGrid grid = grid();
+        for (int in = 0; in < inputs.size(); in++) {
+            int[] needed = new int[leaves.size()];
+            int count = 0;
+            for (int[] leaf : leaves) {
+                if (leaf[0] == in) {
+                    needed[count++] = leaf[1];
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            Tile t = inputs.get(in).readAligned(grid, window, Arrays.copyOf(needed, count));
+            int k = 0;
+            for (int s = 0; s < leaves.size(); s++) {
+                if (leaves.get(s)[0] == in) {
+                    leafData[s] = t.band(k++);
+                }
+            }
+        }
+        int n = window.size();
+        float[][] out = new float[bands.length][n];
+        program.run(Kernels.best(), leafData, out, n);
+        return new Tile(window, out);
+    }
+
+    private static List<Integer> key(int[] bands) {
+        List<Integer> k = new ArrayList<>(bands.length);
+        for (int b : bands) {
+            k.add(b);
+        }
+        return k;
+    }
+}
@@ -0,0 +1,93 @@
+package spatialmusings.engine.ops;
+
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * {@code updateMask}: masks source pixels where the mask is zero or itself masked. Tiles the
+ * mask hides completely are returned masked without reading the source, and tiles it leaves
+ * completely clear are passed through untouched.
+ */
+public final class MaskImage extends Image {
+
+    private final Image source;
+    private final Image mask;
+
+    public MaskImage(Image source, Image mask) {
+        int nm = mask.bandNames().size();
+        if (nm != 1 && nm != source.bandNames().size()) {
+            throw new IllegalArgumentException("Mask must have 1 or " + source.bandNames().size() + " bands, has " + nm);
+        }
+        this.source = source;
+        this.mask = mask;
+    }
+
+    public Image source() {
+        return source;
+    }
+
+    public Image mask() {
+        return mask;
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return source.grid();
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return source.bandNames();
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return source.properties();
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        boolean single = mask.bandNames().size() == 1;
+        Tile m = mask.readAligned(grid(), window, single ? new int[] {0} : bands);
+        // The mask is read first so that a tile it hides entirely (a cloud-covered tile under
+        // a Cloud Score+ mask) never reads the source bands at all.
+        int clear = 0;
+        for (float[] mb : m.bands()) {
+            clear += cleared(mb);
+        }
+        if (clear == 0) {
+            return Tile.masked(window, bands.length);
+        }
+        Tile t = source.read(window, bands);
+        if (clear == window.size() * m.bandCount()) {
+            return t;
+        }
+        for (int b = 0; b < bands.length; b++) {
+            float[] mb = m.band(single ? 0 : b);
+            float[] tb = t.band(b);
+            for (int i = 0; i < tb.length; i++) {
+                float v = mb[i];
+                if (v == 0 || Float.isNaN(v)) {
+                    tb[i] = Float.NaN;
+                }
+            }
+        }
+        return t;
+    }
+
+    /** Number of pixels the mask band lets through. */
+    private static int cleared(float[] mask) {
+        int n = 0;
+        for (float v : mask) {
+            if (v != 0 && !Float.isNaN(v)) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
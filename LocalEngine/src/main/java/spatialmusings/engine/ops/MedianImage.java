@@ -0,0 +1,66 @@
+package spatialmusings.engine.ops;
+
+import java.util.List;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * {@code ImageCollection.median()}: per-pixel, per-band median of the unmasked values.
+ *
+ * <p>Scenes are streamed: for each tile, one scene's window is read, folded into primitive
+ * per-pixel state ({@link PixelMedian}) and dropped before the next is read. While at most
+ * {@code exactLimit} scenes overlap the tile the median is exact (two middle values averaged
+ * for even counts); beyond that a P-square sketch keeps state at 36 bytes per pixel and band,
+ * so a tile's memory no longer grows with the number of scenes. Tiles themselves run in
+ * parallel on whichever executor the sink uses.
+ */
+public final class MedianImage extends CompositeImage {
+
+    /** Exact while the value stack is no larger than the sketch would be (16 x 2 B vs 36 B). */
+    public static final int DEFAULT_EXACT_LIMIT = 16;
+
+    private final int exactLimit;
+
+    public MedianImage(List<Image> images) {
+        this(images, DEFAULT_EXACT_LIMIT);
+    }
+
+    public MedianImage(List<Image> images, int exactLimit) {
+        super(images);
+        this.exactLimit = exactLimit;
+    }
+
+    public int exactLimit() {
+        return exactLimit;
+    }
+
+    /** Per-pixel state one band of one tile needs with {@code scenes} overlapping scenes. */
+    public static long stateBytes(int pixels, int scenes, int exactLimit) {
+        return PixelMedian.stateBytes(pixels, scenes, exactLimit);
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        List<Image> stack = overlapping(window);
+        Tile out = Tile.masked(window, bands.length);
+        if (stack.isEmpty()) {
+            return out;
+        }
+        PixelMedian[] state = new PixelMedian[bands.length];
+        for (int b = 0; b < bands.length; b++) {
+            state[b] = PixelMedian.create(window.size(), stack.size(), exactLimit);
+        }
+        for (Image image : stack) {
+            Tile t = image.readAligned(grid(), window, bandsIn(image, bands));
+            for (int b = 0; b < bands.length; b++) {
+                state[b].add(t.band(b));
+            }
+        }
+        for (int b = 0; b < bands.length; b++) {
+            state[b].finish(out.band(b));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,43 @@
+package spatialmusings.engine.ops;
+
+import java.util.List;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * {@code ImageCollection.mosaic()}: the last image in collection order wins wherever it is
+ * unmasked. Images are visited newest-first and reading stops once every pixel is filled.
+ */
+public final class MosaicImage extends CompositeImage {
+
+    public MosaicImage(List<Image> images) {
+        super(images);
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        Tile out = Tile.masked(window, bands.length);
+        long remaining = (long) window.size() * bands.length;
+        List<Image> images = images();
+        for (int k = images.size() - 1; k >= 0 && remaining > 0; k--) {
+            Image image = images.get(k);
+            if (!overlaps(image, window)) {
+                continue;
+            }
+            Tile t = image.readAligned(grid(), window, bandsIn(image, bands));
+            for (int b = 0; b < bands.length; b++) {
+                float[] src = t.band(b);
+                float[] dst = out.band(b);
+                for (int i = 0; i < dst.length; i++) {
+                    if (Float.isNaN(dst[i]) && !Float.isNaN(src[i])) {
+                        dst[i] = src[i];
+                        remaining--;
+                    }
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,197 @@
+package spatialmusings.engine.ops;
+
+import java.util.Arrays;
+
+/**
+ * Running per-pixel median for one band of one tile, fed one scene at a time. Masked (NaN)
+ * values are skipped. Two strategies share the interface:
+ *
+ * <ul>
+ *   <li>{@link Exact} keeps every value in a pixel-major stack, as unsigned 16-bit
+ *   {@code short}s while the data is integral (Sentinel-2 DNs) and as {@code float}s once it
+ *   is not. Cost: {@code pixels * capacity * 2} (or 4) bytes.</li>
+ *   <li>{@link Sketch} is the P-square estimator of Jain and Chlamtac (1985): five marker
+ *   heights and three marker positions per pixel, a constant 36 bytes per pixel whatever the
+ *   number of scenes. Exact up to five values, then an estimate that converges on the true
+ *   median for smooth distributions.</li>
+ * </ul>
+ */
+abstract class PixelMedian {
+
+    /** Folds one scene's band into the state. */
+    abstract void add(float[] values);
+
+    /** Writes the median of every pixel ({@code NaN} where nothing was added). */
+    abstract void finish(float[] out);
+
+    static PixelMedian create(int pixels, int scenes, int exactLimit) {
+        return scenes <= exactLimit ? new Exact(pixels, scenes) : new Sketch(pixels);
+    }
+
+    /** Primitive state {@link #create} allocates for integral data, in bytes. */
+    static long stateBytes(int pixels, int scenes, int exactLimit) {
+        return scenes <= exactLimit ? 2L * pixels * (scenes + 1) : 36L * pixels;
+    }
+
+    static float median(float[] v, int n) {
+        if (n == 0) {
+            return Float.NaN;
+        }
+        Arrays.sort(v, 0, n);
+        return (n & 1) == 1 ? v[n / 2] : (v[n / 2 - 1] + v[n / 2]) / 2;
+    }
+
+    static final class Exact extends PixelMedian {
+        private final int pixels;
+        private final int capacity;
+        private final short[] counts;
+        private short[] packed;
+        private float[] floats;
+
+        Exact(int pixels, int capacity) {
+            this.pixels = pixels;
+            this.capacity = capacity;
+            this.counts = new short[pixels];
+            this.packed = new short[pixels * capacity];
+        }
+
+        @Override
+        void add(float[] values) {
+            for (int i = 0; i < pixels; i++) {
+                float v = values[i];
+                if (Float.isNaN(v)) {
+                    continue;
+                }
+                int at = i * capacity + counts[i]++;
+                if (floats != null) {
+                    floats[at] = v;
+                } else if (v >= 0 && v <= 0xFFFF && v == (int) v) {
+                    packed[at] = (short) (int) v;
+                } else {
+                    widen();
+                    floats[at] = v;
+                }
+            }
+        }
+
+        private void widen() {
+            floats = new float[packed.length];
+            for (int i = 0; i < packed.length; i++) {
+                floats[i] = packed[i] & 0xFFFF;
+            }
+            packed = null;
+        }
+
+        @Override
+        void finish(float[] out) {
+            float[] scratch = new float[capacity];
+            for (int i = 0; i < pixels; i++) {
+                int n = counts[i];
+                int base = i * capacity;
+                for (int k = 0; k < n; k++) {
+                    scratch[k] = floats != null ? floats[base + k] : packed[base + k] & 0xFFFF;
+                }
+                out[i] = median(scratch, n);
+            }
+        }
+    }
+
+    static final class Sketch extends PixelMedian {
+        private static final double[] DESIRED = {0, 0.25, 0.5, 0.75, 1};
+
+        private final int pixels;
+        private final int[] counts;
+        /** Marker heights q0..q4, five per pixel. */
+        private final float[] heights;
+        /** Positions of markers 1..3 (1-based); marker 0 sits at 1 and marker 4 at count. */
+        private final int[] positions;
+
+        Sketch(int pixels) {
+            this.pixels = pixels;
+            this.counts = new int[pixels];
+            this.heights = new float[pixels * 5];
+            this.positions = new int[pixels * 3];
+        }
+
+        @Override
+        void add(float[] values) {
+            for (int i = 0; i < pixels; i++) {
+                float v = values[i];
+                if (!Float.isNaN(v)) {
+                    add(i, v);
+                }
+            }
+        }
+
+        private void add(int pixel, float x) {
+            int q = pixel * 5;
+            int p = pixel * 3;
+            int count = counts[pixel];
+            if (count < 5) {
+                heights[q + count] = x;
+                counts[pixel] = ++count;
+                if (count == 5) {
+                    Arrays.sort(heights, q, q + 5);
+                    positions[p] = 2;
+                    positions[p + 1] = 3;
+                    positions[p + 2] = 4;
+                }
+                return;
+            }
+            count++;
+            counts[pixel] = count;
+            int k;
+            if (x < heights[q]) {
+                heights[q] = x;
+                k = 0;
+            } else if (x >= heights[q + 4]) {
+                heights[q + 4] = x;
+                k = 3;
+            } else {
+                k = 0;
+                while (k < 3 && x >= heights[q + k + 1]) {
+                    k++;
+                }
+            }
+            for (int m = k + 1; m <= 3; m++) {
+                positions[p + m - 1]++;
+            }
+            for (int m = 1; m <= 3; m++) {
+                double n = positions[p + m - 1];
+                double nPrev = m == 1 ? 1 : positions[p + m - 2];
+                double nNext = m == 3 ? count : positions[p + m];
+                double d = 1 + (count - 1) * DESIRED[m] - n;
+                if ((d >= 1 && nNext - n > 1) || (d <= -1 && nPrev - n < -1)) {
+                    int s = d > 0 ? 1 : -1;
+                    double h = heights[q + m];
+                    double hPrev = heights[q + m - 1];
+                    double hNext = heights[q + m + 1];
+                    double candidate = h + s / (nNext - nPrev)
+                            * ((n - nPrev + s) * (hNext - h) / (nNext - n)
+                            + (nNext - n - s) * (h - hPrev) / (n - nPrev));
+                    if (!(hPrev < candidate && candidate < hNext)) {
+                        double hs = s > 0 ? hNext : hPrev;
+                        double ns = s > 0 ? nNext : nPrev;
+                        candidate = h + s * (hs - h) / (ns - n);
+                    }
+                    heights[q + m] = (float) candidate;
+                    positions[p + m - 1] += s;
+                }
+            }
+        }
+
+        @Override
+        void finish(float[] out) {
+            float[] scratch = new float[5];
+            for (int i = 0; i < pixels; i++) {
+                int n = counts[i];
+                if (n < 5) {
+                    System.arraycopy(heights, i * 5, scratch, 0, n);
+                    out[i] = median(scratch, n);
+                } else {
+                    out[i] = heights[i * 5 + 2];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package spatialmusings.engine.ops;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/** Pixels of the source with a different property map. */
+public final class PropertiesImage extends Image {
+
+    private final Image source;
+    private final Map<String, Object> properties;
+
+    public PropertiesImage(Image source, Map<String, Object> properties) {
+        this.source = source;
+        this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(properties));
+    }
+
+    public Image source() {
+        return source;
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return source.grid();
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return source.bandNames();
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return properties;
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        return source.read(window, bands);
+    }
+}
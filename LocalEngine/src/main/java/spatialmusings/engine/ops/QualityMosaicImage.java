@@ -0,0 +1,96 @@
+package spatialmusings.engine.ops;
+
+import java.util.Arrays;
+import java.util.List;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * {@code ImageCollection.qualityMosaic(scoreBand)}: every band of each pixel comes from the
+ * image with the best score there, such as a Cloud Score+ {@code cs} band or an NDVI band
+ * mapped onto each scene. With a threshold {@code good}, the first image in collection order
+ * scoring at least {@code good} wins instead, and a pixel stops looking once it has one.
+ *
+ * <p>A tile is read in two passes. The first reads only the score band, image by image in
+ * collection order, keeping the best score and its image per pixel, and stops as soon as every
+ * pixel has reached {@code good}; in a collection sorted best first most tiles stop after an
+ * image or two. The second reads the requested bands from just the images that won a pixel,
+ * once each. Where an image's score is masked it cannot win; ties go to the earlier image.
+ */
+public final class QualityMosaicImage extends CompositeImage {
+
+    private final String scoreBand;
+    private final double good;
+
+    public QualityMosaicImage(List<Image> images, String scoreBand, double good) {
+        super(images);
+        if (!bandNames().contains(scoreBand)) {
+            throw new IllegalArgumentException("No score band '" + scoreBand + "' in " + bandNames());
+        }
+        this.scoreBand = scoreBand;
+        this.good = good;
+    }
+
+    public String scoreBand() {
+        return scoreBand;
+    }
+
+    /** Score at which a pixel takes the image and stops looking; infinite for a plain best-score mosaic. */
+    public double good() {
+        return good;
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        int n = window.size();
+        List<Image> images = images();
+        float[] best = new float[n];
+        int[] winner = new int[n];
+        Arrays.fill(best, Float.NEGATIVE_INFINITY);
+        Arrays.fill(winner, -1);
+        int[] won = new int[images.size()];
+        int open = n;
+        for (int k = 0; k < images.size() && open > 0; k++) {
+            Image image = images.get(k);
+            if (!overlaps(image, window)) {
+                continue;
+            }
+            float[] score = image.readAligned(grid(), window, new int[] {image.bandIndex(scoreBand)}).band(0);
+            for (int i = 0; i < n; i++) {
+                float s = score[i];
+                if (Float.isNaN(s) || (winner[i] >= 0 && (best[i] >= good || s <= best[i]))) {
+                    continue;
+                }
+                if (winner[i] >= 0) {
+                    won[winner[i]]--;
+                }
+                best[i] = s;
+                winner[i] = k;
+                won[k]++;
+                if (s >= good) {
+                    open--;
+                }
+            }
+        }
+        Tile out = Tile.masked(window, bands.length);
+        for (int k = 0; k < won.length; k++) {
+            if (won[k] == 0) {
+                continue;
+            }
+            Image image = images.get(k);
+            Tile t = image.readAligned(grid(), window, bandsIn(image, bands));
+            for (int b = 0; b < bands.length; b++) {
+                float[] src = t.band(b);
+                float[] dst = out.band(b);
+                for (int i = 0; i < n; i++) {
+                    if (winner[i] == k) {
+                        dst[i] = src[i];
+                    }
+                }
+            }
+        }
+        return out;
+    }
+}
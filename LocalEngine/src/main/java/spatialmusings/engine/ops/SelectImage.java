@@ -0,0 +1,62 @@
+package spatialmusings.engine.ops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/** Band subset and/or rename; reads only the selected bands from its source. */
+public final class SelectImage extends Image {
+
+    private final Image source;
+    private final int[] indices;
+    private final List<String> names;
+
+    public SelectImage(Image source, int[] indices, List<String> names) {
+        this.source = source;
+        this.indices = indices.clone();
+        List<String> n = new ArrayList<>(indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            n.add(names != null ? names.get(i) : source.bandNames().get(indices[i]));
+        }
+        this.names = Collections.unmodifiableList(n);
+    }
+
+    public Image source() {
+        return source;
+    }
+
+    /** Source band of each output band. */
+    public int[] indices() {
+        return indices.clone();
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return source.grid();
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return names;
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return source.properties();
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        int[] mapped = new int[bands.length];
+        for (int i = 0; i < bands.length; i++) {
+            mapped[i] = indices[bands[i]];
+        }
+        return source.read(window, mapped);
+    }
+}
@@ -0,0 +1,218 @@
+package spatialmusings.engine.ops;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.raster.PixelStats;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Per-pixel reductions of a time-ordered stack into periods (months, years, calendar months,
+ * rolling windows), one output band per period and input band, named {@code band_label}; see
+ * {@link spatialmusings.engine.series.Temporal}, which builds them.
+ *
+ * <p>Image {@code k} feeds the periods listed in {@code feeds[k]}. A read streams the images
+ * feeding the requested periods in order: each is read once per tile, folded into a running
+ * {@link PixelStats} for every period it feeds and dropped, and a period is reduced, and its
+ * state recycled, as soon as its last image has been folded. Only periods still open hold
+ * state, so a 60-year monthly stack summarised by month or by year keeps one period's state
+ * per band, and a climatology twelve; count, sum and mean keep only a count and a sum per
+ * pixel. Values are read raw and {@code value * scale + offset} is applied to each period's
+ * moments when it is reduced, not to every image on the way in.
+ */
+public final class TemporalImage extends CompositeImage {
+
+    private static final Set<String> SUMS = Set.of("count", "sum", "mean");
+
+    private final int[][] feeds;
+    private final List<String> labels;
+    private final long[] times;
+    private final Reducer reducer;
+    /** Whether the reducer needs more than a count and a sum. */
+    private final boolean moments;
+    private final boolean mean;
+    private final double scale;
+    private final double offset;
+    private final List<String> inputNames;
+    private final List<String> names;
+    /** Index of the last image feeding each period, or -1 if none does. */
+    private final int[] last;
+    /** Number of images feeding each period. */
+    private final int[] fed;
+
+    /**
+     * Reduces {@code images}, which must be in time order, into the periods {@code labels}
+     * starting at {@code times}; {@code feeds[k]} lists the periods image {@code k} counts
+     * towards, ascending.
+     */
+    public TemporalImage(List<Image> images, int[][] feeds, List<String> labels, long[] times, Reducer reducer,
+                         double scale, double offset) {
+        super(images);
+        if (feeds.length != images.size() || times.length != labels.size()) {
+            throw new IllegalArgumentException("Need one feed list per image and one time per period");
+        }
+        this.feeds = feeds.clone();
+        this.labels = Collections.unmodifiableList(new ArrayList<>(labels));
+        this.times = times.clone();
+        this.reducer = reducer;
+        this.moments = !SUMS.contains(reducer.name());
+        this.mean = reducer.name().equals("mean");
+        this.scale = scale;
+        this.offset = offset;
+        this.inputNames = images.get(0).bandNames();
+        List<String> out = new ArrayList<>(labels.size() * inputNames.size());
+        for (String label : labels) {
+            for (String name : inputNames) {
+                out.add(name + "_" + label);
+            }
+        }
+        this.names = Collections.unmodifiableList(out);
+        this.last = new int[labels.size()];
+        this.fed = new int[labels.size()];
+        Arrays.fill(last, -1);
+        for (int k = 0; k < feeds.length; k++) {
+            for (int p : feeds[k]) {
+                if (p < 0 || p >= last.length) {
+                    throw new IllegalArgumentException("Image " + k + " feeds period " + p + " of " + last.length);
+                }
+                last[p] = k;
+                fed[p]++;
+            }
+        }
+    }
+
+    /** Periods image {@code k} counts towards. */
+    public int[] feeds(int k) {
+        return feeds[k].clone();
+    }
+
+    /** Period labels, in band order. */
+    public List<String> labels() {
+        return labels;
+    }
+
+    /** Start of each period, epoch milliseconds. */
+    public long[] times() {
+        return times.clone();
+    }
+
+    public Reducer reducer() {
+        return reducer;
+    }
+
+    public double scale() {
+        return scale;
+    }
+
+    public double offset() {
+        return offset;
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return names;
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        int ni = inputNames.size();
+        // Output position of each requested (period, input band), and the input bands needed.
+        int[][] wanted = new int[last.length][];
+        int[] position = new int[ni];
+        int[] inputs = new int[ni];
+        int needed = 0;
+        Arrays.fill(position, -1);
+        for (int o = 0; o < bands.length; o++) {
+            int p = bands[o] / ni, b = bands[o] % ni;
+            if (wanted[p] == null) {
+                wanted[p] = new int[ni];
+                Arrays.fill(wanted[p], -1);
+            }
+            wanted[p][b] = o;
+            if (position[b] < 0) {
+                position[b] = needed;
+                inputs[needed++] = b;
+            }
+        }
+        int[] read = Arrays.copyOf(inputs, needed);
+        Tile out = Tile.masked(window, bands.length);
+        PixelStats[][] open = new PixelStats[last.length][];
+        // Closed periods hand their state on, so a tile allocates only as many as are ever open.
+        ArrayDeque<PixelStats> free = new ArrayDeque<>();
+        List<Image> images = images();
+        for (int k = 0; k < images.size(); k++) {
+            Image image = images.get(k);
+            Tile t = null;
+            for (int p : feeds[k]) {
+                int[] at = wanted[p];
+                if (at == null) {
+                    continue;
+                }
+                if (t == null) {
+                    if (!overlaps(image, window)) {
+                        break;
+                    }
+                    t = image.readAligned(grid(), window, bandsIn(image, read));
+                }
+                if (mean && fed[p] == 1) {
+                    // The mean of one image is the image, scaled: no state to fold into.
+                    for (int b = 0; b < ni; b++) {
+                        if (at[b] >= 0) {
+                            scaled(t.band(position[b]), out.band(at[b]));
+                        }
+                    }
+                    continue;
+                }
+                if (open[p] == null) {
+                    open[p] = new PixelStats[ni];
+                }
+                PixelStats[] state = open[p];
+                for (int b = 0; b < ni; b++) {
+                    if (at[b] >= 0) {
+                        if (state[b] == null) {
+                            state[b] = free.isEmpty() ? new PixelStats(window.size(), moments) : free.pop();
+                        }
+                        state[b].add(t.band(position[b]));
+                    }
+                }
+            }
+            for (int p : feeds[k]) {
+                if (last[p] == k && wanted[p] != null) {
+                    finish(open[p], wanted[p], out, free);
+                    open[p] = null;
+                }
+            }
+        }
+        return out;
+    }
+
+    private void finish(PixelStats[] state, int[] at, Tile out, ArrayDeque<PixelStats> free) {
+        if (state == null) {
+            return;
+        }
+        for (int b = 0; b < state.length; b++) {
+            if (state[b] != null) {
+                if (mean) {
+                    state[b].mean(scale, offset, out.band(at[b]));
+                } else {
+                    state[b].finish(reducer::result, scale, offset, out.band(at[b]));
+                }
+                state[b].clear();
+                free.push(state[b]);
+            }
+        }
+    }
+
+    private void scaled(float[] in, float[] out) {
+        for (int i = 0; i < in.length; i++) {
+            out[i] = (float) (in[i] * scale + offset);
+        }
+    }
+}
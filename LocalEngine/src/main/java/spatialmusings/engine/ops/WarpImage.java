@@ -0,0 +1,165 @@
+package spatialmusings.engine.ops;
+
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Resampling;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.WarpGrid;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * An image reprojected onto another grid: {@code image.reproject(target, resampling)}, the
+ * local counterpart of rioxarray's {@code reproject_match}.
+ *
+ * <p>A read maps the window's pixel corners into the source through the pair's cached
+ * {@link WarpGrid}, reads the source window they span once, and resamples every band from it.
+ * {@link Resampling#SUM} treats each target pixel's footprint as the source-space box around
+ * its mapped corners and adds the source pixels under it, weighted by the fraction of each
+ * that lies inside; NaN source pixels are skipped, and a pixel with none is NaN.
+ * {@link Resampling#BILINEAR} drops NaN neighbours and renormalizes the rest.
+ */
+public final class WarpImage extends Image {
+
+    private final Image source;
+    private final PixelGrid target;
+    private final Resampling resampling;
+
+    public WarpImage(Image source, PixelGrid target, Resampling resampling) {
+        this.source = source;
+        this.target = target;
+        this.resampling = resampling;
+    }
+
+    public Image source() {
+        return source;
+    }
+
+    public Resampling resampling() {
+        return resampling;
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return target;
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return source.bandNames();
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return source.properties();
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        PixelGrid own = source.grid();
+        WarpGrid warp = WarpGrid.of(own, target);
+        int w = window.width(), h = window.height(), cw = w + 1;
+        double[] cols = new double[cw * (h + 1)], rows = new double[cols.length];
+        warp.corners(window, cols, rows);
+        double minC = Double.POSITIVE_INFINITY, minR = Double.POSITIVE_INFINITY;
+        double maxC = Double.NEGATIVE_INFINITY, maxR = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < cols.length; i++) {
+            if (!Double.isNaN(cols[i]) && !Double.isNaN(rows[i])) {
+                minC = Math.min(minC, cols[i]);
+                maxC = Math.max(maxC, cols[i]);
+                minR = Math.min(minR, rows[i]);
+                maxR = Math.max(maxR, rows[i]);
+            }
+        }
+        if (!(minC <= maxC && minR <= maxR)) {
+            return Tile.masked(window, bands.length);
+        }
+        int x0 = (int) Math.max(Math.floor(minC) - 1, 0), y0 = (int) Math.max(Math.floor(minR) - 1, 0);
+        int x1 = (int) Math.min(Math.ceil(maxC) + 1, own.width());
+        int y1 = (int) Math.min(Math.ceil(maxR) + 1, own.height());
+        Window span = new Window(x0, y0, x1 - x0, y1 - y0);
+        if (span.isEmpty()) {
+            return Tile.masked(window, bands.length);
+        }
+        Tile in = source.read(span, bands);
+        float[][] out = new float[bands.length][w * h];
+        for (int b = 0; b < bands.length; b++) {
+            float[] src = in.band(b), dst = out[b];
+            for (int r = 0; r < h; r++) {
+                for (int c = 0; c < w; c++) {
+                    int k = r * cw + c;
+                    double c00 = cols[k], c01 = cols[k + 1], c10 = cols[k + cw], c11 = cols[k + cw + 1];
+                    double r00 = rows[k], r01 = rows[k + 1], r10 = rows[k + cw], r11 = rows[k + cw + 1];
+                    float v;
+                    if (resampling == Resampling.SUM) {
+                        v = sum(src, span, Math.min(Math.min(c00, c01), Math.min(c10, c11)),
+                                Math.max(Math.max(c00, c01), Math.max(c10, c11)),
+                                Math.min(Math.min(r00, r01), Math.min(r10, r11)),
+                                Math.max(Math.max(r00, r01), Math.max(r10, r11)));
+                    } else {
+                        double cc = (c00 + c01 + c10 + c11) * 0.25, rc = (r00 + r01 + r10 + r11) * 0.25;
+                        v = resampling == Resampling.NEAREST ? nearest(src, span, cc, rc) : bilinear(src, span, cc, rc);
+                    }
+                    dst[r * w + c] = v;
+                }
+            }
+        }
+        return new Tile(window, out);
+    }
+
+    private static float nearest(float[] src, Window span, double col, double row) {
+        double fc = Math.floor(col), fr = Math.floor(row);
+        if (!(fc >= span.x() && fc < span.maxX() && fr >= span.y() && fr < span.maxY())) {
+            return Float.NaN;
+        }
+        return src[((int) fr - span.y()) * span.width() + (int) fc - span.x()];
+    }
+
+    private static float bilinear(float[] src, Window span, double col, double row) {
+        double x = col - 0.5, y = row - 0.5;
+        if (!(x >= span.x() - 0.5 && x <= span.maxX() - 0.5 && y >= span.y() - 0.5 && y <= span.maxY() - 0.5)) {
+            return Float.NaN;
+        }
+        int cx = (int) Math.floor(x), cy = (int) Math.floor(y);
+        double fx = x - cx, fy = y - cy;
+        double sum = 0, weight = 0;
+        for (int dy = 0; dy <= 1; dy++) {
+            int py = Math.min(Math.max(cy + dy, span.y()), span.maxY() - 1);
+            double wy = dy == 0 ? 1 - fy : fy;
+            for (int dx = 0; dx <= 1; dx++) {
+                int px = Math.min(Math.max(cx + dx, span.x()), span.maxX() - 1);
+                double wxy = (dx == 0 ? 1 - fx : fx) * wy;
+                float v = src[(py - span.y()) * span.width() + px - span.x()];
+                if (wxy > 0 && !Float.isNaN(v)) {
+                    sum += v * wxy;
+                    weight += wxy;
+                }
+            }
+        }
+        return weight > 0 ? (float) (sum / weight) : Float.NaN;
+    }
+
+    /** Source pixels of {@code [c0, c1] x [r0, r1]}, each weighted by its covered fraction. */
+    private static float sum(float[] src, Window span, double c0, double c1, double r0, double r1) {
+        if (!(c0 < c1 && r0 < r1)) {
+            return Float.NaN;
+        }
+        int x0 = (int) Math.max(Math.floor(c0), span.x()), x1 = (int) Math.min(Math.ceil(c1), span.maxX());
+        int y0 = (int) Math.max(Math.floor(r0), span.y()), y1 = (int) Math.min(Math.ceil(r1), span.maxY());
+        double total = 0;
+        boolean any = false;
+        for (int py = y0; py < y1; py++) {
+            double wy = Math.min(r1, py + 1) - Math.max(r0, py);
+            for (int px = x0; px < x1; px++) {
+                float v = src[(py - span.y()) * span.width() + px - span.x()];
+                if (!Float.isNaN(v)) {
+                    total += v * wy * (Math.min(c1, px + 1) - Math.max(c0, px));
+                    any = true;
+                }
+            }
+        }
+        return any ? (float) total : Float.NaN;
+    }
+}
@@ -0,0 +1,195 @@
+package spatialmusings.engine.plan;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.CoverageMask;
+import spatialmusings.engine.raster.MaskCache;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Stats;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Several region reductions of one script, evaluated together in one pass over the tiles.
+ *
+ * <pre>
+ * Plan plan = new Plan()
+ *         .reduceRegion("preNBR", preNbr, Reducer.mean(), county)
+ *         .reduceRegion("dNBR", preNbr.subtract(postNbr), Reducer.mean(), county)
+ *         .reduceRegion("burned", burned, Reducer.sum(), county);
+ * Map&lt;String, Map&lt;String, Double&gt;&gt; results = plan.evaluate();
+ * </pre>
+ *
+ * Adding an output only records it. {@link #evaluate} runs the outputs' graphs through a
+ * {@link Planner}, so equal subgraphs are computed once per tile however often the script
+ * built them, then visits each tile that at least one output's region and
+ * {@linkplain Planner#footprint footprint} touch, reading every output that needs it while the
+ * shared nodes still hold the tile. Outputs must be on aligned grids (one CRS and pixel size).
+ * Results match calling {@code reduceRegion} per output up to floating-point summation order.
+ */
+public final class Plan {
+
+    private final List<Output> outputs = new ArrayList<>();
+    private Planner last;
+
+    /** Records {@code image.reduceRegion(reducer, geometry)}, for a polygonal region, under {@code name}. */
+    public Plan reduceRegion(String name, Image image, Reducer reducer, Geometry geometry) {
+        if (geometry.type() == Geometry.Type.POINT) {
+            throw new IllegalArgumentException("Plan outputs reduce regions, not points: " + name);
+        }
+        for (Output o : outputs) {
+            if (o.name.equals(name)) {
+                throw new IllegalArgumentException("Duplicate output name: " + name);
+            }
+        }
+        if (!outputs.isEmpty() && !outputs.get(0).image.grid().isAlignedWith(image.grid())) {
+            throw new IllegalArgumentException("Output '" + name + "' is not on a grid aligned with '"
+                    + outputs.get(0).name + "'");
+        }
+        outputs.add(new Output(name, image, reducer, geometry));
+        return this;
+    }
+
+    public Map<String, Map<String, Double>> evaluate() {
+        return evaluate(TileExecutor.common());
+    }
+
+    /** Every output's {@code band -> value} map, by output name, in the order added. */
+    public Map<String, Map<String, Double>> evaluate(TileExecutor executor) {
+        Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+        if (outputs.isEmpty()) {
+            return results;
+        }
+        Planner planner = new Planner();
+        List<Image> roots = new ArrayList<>(outputs.size());
+        for (Output o : outputs) {
+            roots.add(o.image);
+        }
+        roots = planner.optimize(roots);
+        last = planner;
+
+        PixelGrid grid = roots.get(0).grid();
+        for (Image root : roots) {
+            grid = grid.union(root.grid());
+        }
+        int n = roots.size();
+        Geometry[] regions = new Geometry[n];
+        Window[] touched = new Window[n];
+        Window all = null;
+        for (int i = 0; i < n; i++) {
+            Image root = roots.get(i);
+            regions[i] = outputs.get(i).geometry.transform(grid.crs());
+            Envelope env = regions[i].envelope().intersection(Planner.footprint(root));
+            touched[i] = env.isEmpty() ? new Window(0, 0, 0, 0) : grid.windowOf(env).intersection(grid.bounds());
+            if (!touched[i].isEmpty()) {
+                all = all == null ? touched[i] : union(all, touched[i]);
+            }
+        }
+        Stats[][] total = new Stats[n][];
+        for (int i = 0; i < n; i++) {
+            total[i] = Stats.newArray(roots.get(i).bandNames().size());
+        }
+        if (all != null) {
+            List<Window> tiles = new ArrayList<>();
+            for (Window w : executor.tiles(grid, all)) {
+                for (Window t : touched) {
+                    if (t.intersects(w)) {
+                        tiles.add(w);
+                        break;
+                    }
+                }
+            }
+            PixelGrid g = grid;
+            List<Image> r = roots;
+            try {
+                total = executor.reduce(tiles, () -> emptyStats(r), w -> reduceTile(g, r, regions, touched, w),
+                        Plan::merge);
+            } finally {
+                planner.release();
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            Map<String, Double> out = new LinkedHashMap<>();
+            List<String> names = roots.get(i).bandNames();
+            for (int b = 0; b < names.size(); b++) {
+                out.put(names.get(b), outputs.get(i).reducer.result(total[i][b]));
+            }
+            results.put(outputs.get(i).name, out);
+        }
+        return results;
+    }
+
+    /** The planner of the last {@link #evaluate}, for its node counts; null before the first. */
+    public Planner planner() {
+        return last;
+    }
+
+    private static Stats[][] reduceTile(PixelGrid grid, List<Image> roots, Geometry[] regions, Window[] touched,
+                                        Window w) {
+        Stats[][] stats = emptyStats(roots);
+        for (int i = 0; i < roots.size(); i++) {
+            if (!touched[i].intersects(w)) {
+                continue;
+            }
+            CoverageMask mask = MaskCache.shared().get(regions[i], grid, w);
+            if (mask.isEmpty()) {
+                continue;
+            }
+            Image root = roots.get(i);
+            Tile t = root.readAligned(grid, w, root.allBands());
+            Stats[] s = stats[i];
+            mask.forEachRun((row, from, to) -> {
+                int base = row * w.width();
+                for (int b = 0; b < s.length; b++) {
+                    float[] v = t.band(b);
+                    for (int p = base + from; p < base + to; p++) {
+                        s[b].add(v[p]);
+                    }
+                }
+            });
+        }
+        return stats;
+    }
+
+    private static Stats[][] emptyStats(List<Image> roots) {
+        Stats[][] stats = new Stats[roots.size()][];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = Stats.newArray(roots.get(i).bandNames().size());
+        }
+        return stats;
+    }
+
+    private static Stats[][] merge(Stats[][] a, Stats[][] b) {
+        for (int i = 0; i < a.length; i++) {
+            Stats.merge(a[i], b[i]);
+        }
+        return a;
+    }
+
+    private static Window union(Window a, Window b) {
+        int x0 = Math.min(a.x(), b.x()), y0 = Math.min(a.y(), b.y());
+        return new Window(x0, y0, Math.max(a.maxX(), b.maxX()) - x0, Math.max(a.maxY(), b.maxY()) - y0);
+    }
+
+    private static final class Output {
+        final String name;
+        final Image image;
+        final Reducer reducer;
+        final Geometry geometry;
+
+        Output(String name, Image image, Reducer reducer, Geometry geometry) {
+            this.name = name;
+            this.image = image;
+            this.reducer = reducer;
+            this.geometry = geometry;
+        }
+    }
+}
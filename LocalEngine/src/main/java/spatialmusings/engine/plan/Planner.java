@@ -0,0 +1,588 @@
+package spatialmusings.engine.plan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.expr.Expr;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+import spatialmusings.engine.io.SceneImage;
+import spatialmusings.engine.ops.AddBandsImage;
+import spatialmusings.engine.ops.ClassifiedImage;
+import spatialmusings.engine.ops.ClipImage;
+import spatialmusings.engine.ops.CompositeImage;
+import spatialmusings.engine.ops.ExpressionImage;
+import spatialmusings.engine.ops.MaskImage;
+import spatialmusings.engine.ops.MedianImage;
+import spatialmusings.engine.ops.MosaicImage;
+import spatialmusings.engine.ops.QualityMosaicImage;
+import spatialmusings.engine.ops.PropertiesImage;
+import spatialmusings.engine.ops.SelectImage;
+import spatialmusings.engine.ops.TemporalImage;
+import spatialmusings.engine.ops.WarpImage;
+import spatialmusings.engine.raster.PixelGrid;
+
+/**
+ * Rewrites the operator graphs behind a set of images before they are evaluated together.
+ *
+ * <p>Building images only records a graph, but a script that builds the same chain twice
+ * ({@code addNBR(before)} in two places, or one composite sampled twice) records it twice, and
+ * a node several branches read is pulled once per branch. The planner
+ * <ul>
+ *   <li>hash-conses the graphs: nodes with the same operator, parameters and (already
+ *       canonical) inputs become one node, so equal subgraphs are shared however they were
+ *       built, and two scene objects opened on the same files are one leaf;</li>
+ *   <li>pushes {@code select} down through clips, masks, expressions, {@code addBands} and
+ *       composites to the scene readers, prunes expression outputs and inputs nothing uses,
+ *       and folds select chains and repeated clips;</li>
+ *   <li>memoizes every non-trivial node read by more than one parent ({@link SharedImage}),
+ *       so within one tile it is computed once for all of them;</li>
+ *   <li>works out each image's {@linkplain #footprint footprint} from its clips and scene
+ *       extents, so {@link Plan} visits only the tiles an output can have pixels in.</li>
+ * </ul>
+ * Rewritten images produce the same pixels as the originals. A planner's shared nodes keep the
+ * last tile each worker thread read until {@link #release}.
+ */
+public final class Planner {
+
+    /** Canonical node of every image visited, by identity. */
+    private final Map<Image, Image> canonical = new IdentityHashMap<>();
+    /** Canonical node of every structural key. */
+    private final Map<List<Object>, Image> interned = new HashMap<>();
+    private final List<SharedImage> shared = new ArrayList<>();
+    private int visited;
+    private int reachable;
+
+    /** Canonical, shared versions of {@code roots}, in the same order. */
+    public List<Image> optimize(List<Image> roots) {
+        List<Image> canon = new ArrayList<>(roots.size());
+        for (Image root : roots) {
+            canon.add(canonical(root));
+        }
+        Map<Image, Integer> parents = new IdentityHashMap<>();
+        Map<Image, Boolean> seen = new IdentityHashMap<>();
+        for (Image root : canon) {
+            // Each output counts as a reader too, so a root another output also reads is shared.
+            parents.merge(root, 1, Integer::sum);
+            countParents(root, parents, seen);
+        }
+        reachable = seen.size();
+        Map<Image, Image> wrapped = new IdentityHashMap<>();
+        List<Image> out = new ArrayList<>(canon.size());
+        for (Image root : canon) {
+            out.add(share(root, parents, wrapped));
+        }
+        return out;
+    }
+
+    /** Operator nodes reachable from the original roots, counting each object once. */
+    public int visitedNodes() {
+        return visited;
+    }
+
+    /** Distinct nodes the optimized roots are computed from, after hash-consing and rewriting. */
+    public int canonicalNodes() {
+        return reachable;
+    }
+
+    /** Nodes read by more than one parent and memoized per tile. */
+    public int sharedNodes() {
+        return shared.size();
+    }
+
+    /** Drops the tiles the shared nodes hold. */
+    public void release() {
+        for (SharedImage s : shared) {
+            s.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Planner[" + visited + " nodes -> " + reachable + " canonical, " + shared.size() + " shared]";
+    }
+
+    // ---------------------------------------------------------------- hash-consing
+
+    private Image canonical(Image image) {
+        Image c = canonical.get(image);
+        if (c == null) {
+            visited++;
+            c = rewrite(image);
+            canonical.put(image, c);
+        }
+        return c;
+    }
+
+    private Image rewrite(Image image) {
+        if (image instanceof ClipImage) {
+            ClipImage clip = (ClipImage) image;
+            return clip(canonical(clip.source()), clip);
+        }
+        if (image instanceof SelectImage) {
+            SelectImage select = (SelectImage) image;
+            return select(canonical(select.source()), select.indices(), select.bandNames());
+        }
+        if (image instanceof PropertiesImage) {
+            PropertiesImage p = (PropertiesImage) image;
+            Image source = canonical(p.source());
+            return intern(key("properties", source, p.properties()), () -> new PropertiesImage(source, p.properties()));
+        }
+        if (image instanceof MaskImage) {
+            MaskImage m = (MaskImage) image;
+            Image source = canonical(m.source()), mask = canonical(m.mask());
+            return intern(key("mask", source, mask), () -> new MaskImage(source, mask));
+        }
+        if (image instanceof AddBandsImage) {
+            AddBandsImage a = (AddBandsImage) image;
+            Image first = canonical(a.first()), second = canonical(a.second());
+            return intern(key("addBands", first, second), () -> new AddBandsImage(first, second));
+        }
+        if (image instanceof ClassifiedImage) {
+            ClassifiedImage c = (ClassifiedImage) image;
+            Image source = canonical(c.source());
+            return intern(key("classify", source, c.forest()), () -> new ClassifiedImage(source, c.forest()));
+        }
+        if (image instanceof ExpressionImage) {
+            ExpressionImage e = (ExpressionImage) image;
+            List<Image> inputs = new ArrayList<>();
+            for (Image in : e.inputs()) {
+                inputs.add(canonical(in));
+            }
+            List<Expr> exprs = new ArrayList<>();
+            for (int b = 0; b < e.bandNames().size(); b++) {
+                exprs.add(e.expression(b));
+            }
+            return expression(inputs, exprs, e.bandNames());
+        }
+        if (image instanceof MedianImage || image instanceof MosaicImage || image instanceof QualityMosaicImage) {
+            List<Image> images = new ArrayList<>();
+            for (Image member : ((CompositeImage) image).images()) {
+                images.add(canonical(member));
+            }
+            return composite(image, images);
+        }
+        if (image instanceof TemporalImage) {
+            TemporalImage t = (TemporalImage) image;
+            List<Image> images = new ArrayList<>();
+            List<Object> feeds = new ArrayList<>();
+            for (int k = 0; k < t.images().size(); k++) {
+                images.add(canonical(t.images().get(k)));
+                feeds.add(Arrays.stream(t.feeds(k)).boxed().toList());
+            }
+            return intern(key("temporal", images, feeds, t.labels(), Arrays.stream(t.times()).boxed().toList(),
+                    t.reducer().name(), t.scale(), t.offset()), () -> temporal(t, images));
+        }
+        if (image instanceof WarpImage) {
+            WarpImage w = (WarpImage) image;
+            return warp(canonical(w.source()), w);
+        }
+        if (image instanceof SceneImage) {
+            SceneImage scene = (SceneImage) image;
+            List<Object> files = new ArrayList<>();
+            for (int b = 0; b < scene.bandNames().size(); b++) {
+                files.add(scene.file(b).toAbsolutePath().normalize());
+            }
+            return intern(key("scene", scene.bandNames(), files, scene.properties()), () -> scene);
+        }
+        // Anything else is a leaf known only by identity.
+        return intern(key("leaf", image), () -> image);
+    }
+
+    private Image clip(Image source, ClipImage original) {
+        if (source instanceof ClipImage && source.geometry().equals(original.geometry())) {
+            return source;
+        }
+        return intern(key("clip", source, original.geometry()), () -> new ClipImage(source, original.geometry()));
+    }
+
+    private static TemporalImage temporal(TemporalImage original, List<Image> images) {
+        int[][] feeds = new int[images.size()][];
+        for (int k = 0; k < feeds.length; k++) {
+            feeds[k] = original.feeds(k);
+        }
+        return new TemporalImage(images, feeds, original.labels(), original.times(), original.reducer(),
+                original.scale(), original.offset());
+    }
+
+    private Image warp(Image source, WarpImage original) {
+        return intern(key("warp", source, original.grid(), original.resampling()),
+                () -> new WarpImage(source, original.grid(), original.resampling()));
+    }
+
+    /** {@code source.select(indices)} named {@code names}, pushed as far down as it goes. */
+    private Image select(Image source, int[] indices, List<String> names) {
+        List<String> sourceNames = source.bandNames();
+        boolean identity = indices.length == sourceNames.size();
+        for (int i = 0; i < indices.length && identity; i++) {
+            identity = indices[i] == i && names.get(i).equals(sourceNames.get(i));
+        }
+        if (identity) {
+            return source;
+        }
+        if (source instanceof SelectImage) {
+            SelectImage inner = (SelectImage) source;
+            int[] through = inner.indices();
+            int[] composed = new int[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                composed[i] = through[indices[i]];
+            }
+            return select(inner.source(), composed, names);
+        }
+        if (source instanceof ClipImage) {
+            Image below = select(((ClipImage) source).source(), indices, names);
+            return clip(below, (ClipImage) source);
+        }
+        if (source instanceof PropertiesImage) {
+            PropertiesImage p = (PropertiesImage) source;
+            Image below = select(p.source(), indices, names);
+            return intern(key("properties", below, p.properties()), () -> new PropertiesImage(below, p.properties()));
+        }
+        if (source instanceof WarpImage) {
+            // Bands are resampled independently, so only the selected ones need warping.
+            return warp(select(((WarpImage) source).source(), indices, names), (WarpImage) source);
+        }
+        if (source instanceof MaskImage && ((MaskImage) source).mask().bandNames().size() == 1) {
+            MaskImage m = (MaskImage) source;
+            Image below = select(m.source(), indices, names);
+            return intern(key("mask", below, m.mask()), () -> new MaskImage(below, m.mask()));
+        }
+        if (source instanceof ExpressionImage) {
+            ExpressionImage e = (ExpressionImage) source;
+            List<Expr> exprs = new ArrayList<>();
+            for (int i : indices) {
+                exprs.add(e.expression(i));
+            }
+            return expression(e.inputs(), exprs, names);
+        }
+        if (source instanceof AddBandsImage) {
+            AddBandsImage a = (AddBandsImage) source;
+            int split = a.first().bandNames().size();
+            boolean allFirst = true, allSecond = true;
+            for (int i : indices) {
+                allFirst &= i < split;
+                allSecond &= i >= split;
+            }
+            if (allFirst) {
+                return select(a.first(), indices, names);
+            }
+            if (allSecond) {
+                int[] shifted = new int[indices.length];
+                for (int i = 0; i < indices.length; i++) {
+                    shifted[i] = indices[i] - split;
+                }
+                return select(a.second(), shifted, names);
+            }
+        }
+        if (source instanceof MedianImage || source instanceof MosaicImage) {
+            // Composites are per band: select the bands, by name, from every member instead.
+            List<String> picked = new ArrayList<>(indices.length);
+            for (int i : indices) {
+                picked.add(sourceNames.get(i));
+            }
+            if (new HashSet<>(picked).size() == picked.size()) {
+                List<Image> members = new ArrayList<>();
+                for (Image member : ((CompositeImage) source).images()) {
+                    int[] at = new int[picked.size()];
+                    for (int i = 0; i < at.length; i++) {
+                        at[i] = member.bandIndex(picked.get(i));
+                    }
+                    members.add(select(member, at, picked));
+                }
+                Image composite = composite(source, members);
+                // Only a rename is left, which must not be pushed back into the members.
+                return picked.equals(names) ? composite : selectNode(composite, identityIndices(picked.size()), names);
+            }
+        }
+        return selectNode(source, indices, names);
+    }
+
+    private Image selectNode(Image source, int[] indices, List<String> names) {
+        int[] idx = indices.clone();
+        return intern(key("select", source, Arrays.stream(idx).boxed().toList(), names),
+                () -> new SelectImage(source, idx, names));
+    }
+
+    /**
+     * Expression over canonical {@code inputs}: inputs that hash-consed to the same node are
+     * merged (so their subexpressions become equal and are computed once) and inputs no output
+     * references are dropped, except the first, whose grid the expression lives on.
+     */
+    private Image expression(List<Image> inputs, List<Expr> exprs, List<String> names) {
+        boolean[] used = new boolean[inputs.size()];
+        used[0] = true;
+        for (Expr e : exprs) {
+            markInputs(e, used);
+        }
+        List<Image> kept = new ArrayList<>();
+        int[] mapping = new int[inputs.size()];
+        for (int i = 0; i < inputs.size(); i++) {
+            if (!used[i]) {
+                continue;
+            }
+            int at = -1;
+            for (int k = 0; k < kept.size(); k++) {
+                if (kept.get(k) == inputs.get(i)) {
+                    at = k;
+                }
+            }
+            if (at < 0) {
+                at = kept.size();
+                kept.add(inputs.get(i));
+            }
+            mapping[i] = at;
+        }
+        List<Expr> remapped = new ArrayList<>(exprs.size());
+        for (Expr e : exprs) {
+            remapped.add(e.remapInputs(mapping));
+        }
+        if (kept.size() == 1) {
+            // A plain band selection of one input is a select, which can be pushed further.
+            boolean bands = true;
+            for (Expr e : remapped) {
+                bands &= e.isBand();
+            }
+            if (bands) {
+                int[] idx = new int[remapped.size()];
+                for (int i = 0; i < idx.length; i++) {
+                    idx[i] = remapped.get(i).band();
+                }
+                return select(kept.get(0), idx, names);
+            }
+        }
+        return intern(key("expression", kept, remapped, names), () -> ExpressionImage.of(kept, remapped, names));
+    }
+
+    private static void markInputs(Expr e, boolean[] used) {
+        if (e.isBand()) {
+            used[e.input()] = true;
+        } else if (e.isOp()) {
+            markInputs(e.left(), used);
+            markInputs(e.right(), used);
+        }
+    }
+
+    private Image composite(Image original, List<Image> members) {
+        if (original instanceof MedianImage) {
+            int limit = ((MedianImage) original).exactLimit();
+            return intern(key("median", limit, members), () -> new MedianImage(members, limit));
+        }
+        if (original instanceof QualityMosaicImage) {
+            QualityMosaicImage q = (QualityMosaicImage) original;
+            return intern(key("qualityMosaic", q.scoreBand(), q.good(), members),
+                    () -> new QualityMosaicImage(members, q.scoreBand(), q.good()));
+        }
+        return intern(key("mosaic", members), () -> new MosaicImage(members));
+    }
+
+    private static int[] identityIndices(int n) {
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) {
+            idx[i] = i;
+        }
+        return idx;
+    }
+
+    /** Structural key; the images in it are canonical, and images compare by identity. */
+    private static List<Object> key(Object... parts) {
+        return Arrays.asList(parts);
+    }
+
+    private Image intern(List<Object> key, Supplier<Image> build) {
+        Image found = interned.get(key);
+        if (found == null) {
+            found = build.get();
+            interned.put(key, found);
+            canonical.putIfAbsent(found, found);
+        }
+        return found;
+    }
+
+    // ---------------------------------------------------------------- sharing
+
+    private static List<Image> children(Image image) {
+        if (image instanceof ClipImage) {
+            return List.of(((ClipImage) image).source());
+        }
+        if (image instanceof SelectImage) {
+            return List.of(((SelectImage) image).source());
+        }
+        if (image instanceof PropertiesImage) {
+            return List.of(((PropertiesImage) image).source());
+        }
+        if (image instanceof ClassifiedImage) {
+            return List.of(((ClassifiedImage) image).source());
+        }
+        if (image instanceof WarpImage) {
+            return List.of(((WarpImage) image).source());
+        }
+        if (image instanceof MaskImage) {
+            return List.of(((MaskImage) image).source(), ((MaskImage) image).mask());
+        }
+        if (image instanceof AddBandsImage) {
+            return List.of(((AddBandsImage) image).first(), ((AddBandsImage) image).second());
+        }
+        if (image instanceof ExpressionImage) {
+            return ((ExpressionImage) image).inputs();
+        }
+        if (image instanceof CompositeImage) {
+            return ((CompositeImage) image).images();
+        }
+        return List.of();
+    }
+
+    private static void countParents(Image node, Map<Image, Integer> parents, Map<Image, Boolean> seen) {
+        if (seen.put(node, Boolean.TRUE) != null) {
+            return;
+        }
+        for (Image child : children(node)) {
+            parents.merge(child, 1, Integer::sum);
+            countParents(child, parents, seen);
+        }
+    }
+
+    /** {@code node} rebuilt over shared children, itself memoized if several parents read it. */
+    private Image share(Image node, Map<Image, Integer> parents, Map<Image, Image> wrapped) {
+        Image done = wrapped.get(node);
+        if (done != null) {
+            return done;
+        }
+        List<Image> kids = children(node);
+        List<Image> sharedKids = new ArrayList<>(kids.size());
+        boolean changed = false;
+        for (Image kid : kids) {
+            Image s = share(kid, parents, wrapped);
+            sharedKids.add(s);
+            changed |= s != kid;
+        }
+        Image rebuilt = changed ? withChildren(node, sharedKids) : node;
+        if (parents.getOrDefault(node, 0) > 1 && !(node instanceof SelectImage)
+                && !(node instanceof PropertiesImage)) {
+            SharedImage s = new SharedImage(rebuilt);
+            this.shared.add(s);
+            rebuilt = s;
+        }
+        wrapped.put(node, rebuilt);
+        return rebuilt;
+    }
+
+    private static Image withChildren(Image node, List<Image> kids) {
+        if (node instanceof ClipImage) {
+            return new ClipImage(kids.get(0), node.geometry());
+        }
+        if (node instanceof SelectImage) {
+            return new SelectImage(kids.get(0), ((SelectImage) node).indices(), node.bandNames());
+        }
+        if (node instanceof PropertiesImage) {
+            return new PropertiesImage(kids.get(0), node.properties());
+        }
+        if (node instanceof ClassifiedImage) {
+            return new ClassifiedImage(kids.get(0), ((ClassifiedImage) node).forest());
+        }
+        if (node instanceof WarpImage) {
+            return new WarpImage(kids.get(0), node.grid(), ((WarpImage) node).resampling());
+        }
+        if (node instanceof MaskImage) {
+            return new MaskImage(kids.get(0), kids.get(1));
+        }
+        if (node instanceof AddBandsImage) {
+            return new AddBandsImage(kids.get(0), kids.get(1));
+        }
+        if (node instanceof ExpressionImage) {
+            ExpressionImage e = (ExpressionImage) node;
+            List<Expr> exprs = new ArrayList<>();
+            for (int b = 0; b < e.bandNames().size(); b++) {
+                exprs.add(e.expression(b));
+            }
+            return ExpressionImage.of(kids, exprs, e.bandNames());
+        }
+        if (node instanceof MedianImage) {
+            return new MedianImage(kids, ((MedianImage) node).exactLimit());
+        }
+        if (node instanceof MosaicImage) {
+            return new MosaicImage(kids);
+        }
+        if (node instanceof QualityMosaicImage) {
+            QualityMosaicImage q = (QualityMosaicImage) node;
+            return new QualityMosaicImage(kids, q.scoreBand(), q.good());
+        }
+        if (node instanceof TemporalImage) {
+            return temporal((TemporalImage) node, kids);
+        }
+        return node;
+    }
+
+    // ---------------------------------------------------------------- footprints
+
+    /**
+     * Envelope, in the image's CRS, outside which every pixel of {@code image} is masked: its
+     * grid, narrowed by clips and by the extents of the scenes it is computed from.
+     */
+    public static Envelope footprint(Image image) {
+        Envelope grid = image.grid().envelope();
+        if (image instanceof SharedImage) {
+            return footprint(((SharedImage) image).source());
+        }
+        if (image instanceof ClipImage) {
+            return grid.intersection(image.geometry().envelope())
+                    .intersection(footprint(((ClipImage) image).source()));
+        }
+        if (image instanceof MaskImage) {
+            MaskImage m = (MaskImage) image;
+            return footprint(m.source()).intersection(footprint(m.mask()));
+        }
+        if (image instanceof ExpressionImage) {
+            // Any masked operand masks the result.
+            Envelope e = grid;
+            for (Image in : ((ExpressionImage) image).inputs()) {
+                e = e.intersection(footprint(in));
+            }
+            return e;
+        }
+        if (image instanceof CompositeImage) {
+            Envelope e = Envelope.EMPTY;
+            for (Image member : ((CompositeImage) image).images()) {
+                e = e.union(footprint(member));
+            }
+            return e.intersection(grid);
+        }
+        if (image instanceof AddBandsImage) {
+            AddBandsImage a = (AddBandsImage) image;
+            return footprint(a.first()).union(footprint(a.second())).intersection(grid);
+        }
+        if (image instanceof WarpImage) {
+            Image source = ((WarpImage) image).source();
+            Envelope below = footprint(source);
+            if (below.isEmpty()) {
+                return below;
+            }
+            // Edges sampled densely, as they curve under reprojection, plus a pixel for resampling.
+            int n = 16;
+            double[] ring = new double[8 * n];
+            for (int i = 0; i < n; i++) {
+                double f = i / (double) n;
+                double x = below.minX() + f * below.width(), y = below.minY() + f * below.height();
+                ring[2 * i] = x;
+                ring[2 * i + 1] = below.minY();
+                ring[2 * (n + i)] = below.maxX();
+                ring[2 * (n + i) + 1] = y;
+                ring[2 * (2 * n + i)] = below.maxX() - f * below.width();
+                ring[2 * (2 * n + i) + 1] = below.maxY();
+                ring[2 * (3 * n + i)] = below.minX();
+                ring[2 * (3 * n + i) + 1] = below.maxY() - f * below.height();
+            }
+            PixelGrid g = image.grid();
+            return Envelope.of(Crs.transform(source.grid().crs(), g.crs(), ring))
+                    .expand(Math.max(g.pixelWidth(), g.pixelHeight())).intersection(grid);
+        }
+        List<Image> kids = children(image);
+        return kids.size() == 1 ? footprint(kids.get(0)).intersection(grid) : grid;
+    }
+}
@@ -0,0 +1,113 @@
+package spatialmusings.engine.plan;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * A node several parents read, memoized per worker thread: the bands computed for the window
+ * the thread last asked for are kept, so the next parent pulling the same window (the sinks of
+ * a {@link Plan} and the branches of one expression all do, tile by tile) gets copies instead
+ * of a recomputation. Only bands not yet held are read from the source. A different window
+ * starts over, so the memo never holds more than one tile per thread.
+ */
+final class SharedImage extends Image {
+
+    private final Image source;
+    private final Map<Thread, Memo> memos = new ConcurrentHashMap<>();
+
+    SharedImage(Image source) {
+        this.source = source;
+    }
+
+    Image source() {
+        return source;
+    }
+
+    @Override
+    public PixelGrid grid() {
+        return source.grid();
+    }
+
+    @Override
+    public List<String> bandNames() {
+        return source.bandNames();
+    }
+
+    @Override
+    public Map<String, Object> properties() {
+        return source.properties();
+    }
+
+    @Override
+    public Geometry geometry() {
+        return source.geometry();
+    }
+
+    @Override
+    public Tile read(Window window, int[] bands) {
+        Memo memo = memos.computeIfAbsent(Thread.currentThread(), t -> new Memo());
+        float[][] out = new float[bands.length][];
+        int[] need = new int[bands.length];
+        int missing = 0;
+        for (int i = 0; i < bands.length; i++) {
+            float[] held = window.equals(memo.window) ? memo.bands.get(bands[i]) : null;
+            if (held != null) {
+                // Callers own what they get back and may write into it.
+                out[i] = held.clone();
+            } else if (!contains(need, missing, bands[i])) {
+                need[missing++] = bands[i];
+            }
+        }
+        if (missing == 0) {
+            return new Tile(window, out);
+        }
+        int[] read = Arrays.copyOf(need, missing);
+        // The read may run other tiles on this thread (work stealing), which move the memo on.
+        Tile t = source.read(window, read);
+        if (!window.equals(memo.window)) {
+            memo.window = window;
+            memo.bands.clear();
+        }
+        for (int i = 0; i < read.length; i++) {
+            memo.bands.put(read[i], t.band(i));
+        }
+        for (int i = 0; i < bands.length; i++) {
+            if (out[i] == null) {
+                out[i] = memo.bands.get(bands[i]).clone();
+            }
+        }
+        return new Tile(window, out);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        memos.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "Shared[" + source + "]";
+    }
+
+    private static final class Memo {
+        Window window;
+        final Map<Integer, float[]> bands = new HashMap<>();
+    }
+}
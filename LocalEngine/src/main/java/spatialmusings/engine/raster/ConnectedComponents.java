@@ -0,0 +1,575 @@
+package spatialmusings.engine.raster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import spatialmusings.engine.geom.Geometry;
+
+/**
+ * Connected components ("patches") of a class raster, labelled tile by tile and stitched
+ * across tile borders, for {@link spatialmusings.engine.Image#reduceToVectors}. Pixels belong
+ * together when they are 4- or 8-neighbours with the same integer class; NaN is background.
+ *
+ * <p>Each tile is labelled on its own by two passes over a local union-find, and keeps only what
+ * the stitch needs: the labels along its four edges, the pixel count, area, value statistics and
+ * class of each local component, and the outline of each, traced along pixel edges. The tile is
+ * read with a one-pixel halo, so the tracer knows where an outline leaves the tile and which
+ * edge it continues with on the other side; outlines closing inside the tile are finished
+ * there, the rest are kept as open fragments keyed by their first edge. {@link #patches} then
+ * unions the labels facing each other across every tile border, merges the statistics of each
+ * union and chains fragments into rings through those keys. No step holds more than a tile of
+ * pixels, so the mask of a country need never be in memory at once; what is kept grows with the
+ * number of patches and the length of their outlines.
+ *
+ * <p>Outlines run with the patch on their right in pixel space, so shells come out clockwise
+ * and holes counter-clockwise in map coordinates. Where two pixels of a patch touch only at a
+ * corner, the outline passes through the corner when 8-connected and turns away from it when
+ * 4-connected. Vertices are kept only where an outline turns. {@link #label} is thread-safe.
+ */
+public final class ConnectedComponents {
+
+    private static final int BACKGROUND = Integer.MIN_VALUE;
+    /** Column and row step of each direction, and of its left-hand neighbour: east, south, west, north. */
+    private static final int[] FWD_C = {1, 0, -1, 0};
+    private static final int[] FWD_R = {0, 1, 0, -1};
+    private static final int[] LEFT_C = {0, 1, 0, -1};
+    private static final int[] LEFT_R = {-1, 0, 1, 0};
+    /** Corner of a pixel where the edge along side {@code s} (top, right, bottom, left) starts. */
+    private static final int[] START_C = {0, 1, 1, 0};
+    private static final int[] START_R = {0, 0, 1, 1};
+
+    private final PixelGrid grid;
+    private final int tileSize;
+    private final boolean eightConnected;
+    private final Map<Long, Part> parts = new ConcurrentHashMap<>();
+
+    /** Components of {@code grid} labelled in tiles of {@code tileSize}, aligned to the grid origin. */
+    public ConnectedComponents(PixelGrid grid, int tileSize, boolean eightConnected) {
+        this.grid = grid;
+        this.tileSize = tileSize;
+        this.eightConnected = eightConnected;
+    }
+
+    /**
+     * Labels {@code tile}. {@code classes} and {@code values} (null if none) cover {@code halo},
+     * the tile grown by a pixel on each side and clipped to the grid; classes are NaN outside
+     * the region being vectorized. Values are reduced over the tile's pixels only.
+     */
+    public void label(Window tile, Window halo, float[] classes, float[] values) {
+        Part part = new Part(tile, halo, classes, values).label();
+        if (part.components > 0) {
+            parts.put(key(tile.x() / tileSize, tile.y() / tileSize), part);
+        }
+    }
+
+    private static long key(int tx, int ty) {
+        return ((long) ty << 32) | (tx & 0xFFFFFFFFL);
+    }
+
+    /** Stitches the labelled tiles into patches, in order of their first pixel's tile. */
+    public List<Patch> patches() {
+        List<Part> list = new ArrayList<>(new TreeMap<>(parts).values());
+        int total = 0;
+        for (Part p : list) {
+            p.base = total;
+            total += p.components;
+        }
+        int[] parent = new int[total];
+        for (int i = 0; i < total; i++) {
+            parent[i] = i;
+        }
+        for (Part p : list) {
+            int tx = p.tile.x() / tileSize, ty = p.tile.y() / tileSize;
+            Part right = parts.get(key(tx + 1, ty));
+            if (right != null) {
+                join(parent, p, p.right, right, right.left);
+            }
+            Part below = parts.get(key(tx, ty + 1));
+            if (below != null) {
+                join(parent, p, p.bottom, below, below.top);
+            }
+            if (eightConnected) {
+                Part diagonal = parts.get(key(tx + 1, ty + 1));
+                if (diagonal != null) {
+                    union(parent, p, p.bottom[p.bottom.length - 1], diagonal, diagonal.top[0]);
+                }
+                diagonal = parts.get(key(tx - 1, ty + 1));
+                if (diagonal != null) {
+                    union(parent, p, p.bottom[0], diagonal, diagonal.top[diagonal.top.length - 1]);
+                }
+            }
+        }
+
+        int[] patchOf = new int[total];
+        Arrays.fill(patchOf, -1);
+        List<Patch> patches = new ArrayList<>();
+        List<Fragment> fragments = new ArrayList<>();
+        Map<Long, Fragment> open = new HashMap<>();
+        for (Part p : list) {
+            for (int l = 0; l < p.components; l++) {
+                int root = find(parent, p.base + l);
+                if (patchOf[root] < 0) {
+                    patchOf[root] = patches.size();
+                    patches.add(new Patch(grid, p.classes[l], p.values != null));
+                }
+                patches.get(patchOf[root]).add(p, l);
+            }
+            for (int[] ring : p.rings) {
+                patches.get(patchOf[find(parent, p.base + ring[0])]).rings.add(simplify(ring, 1, ring.length));
+            }
+            for (Fragment f : p.fragments) {
+                f.component += p.base;
+                fragments.add(f);
+                open.put(f.first, f);
+            }
+        }
+        // Chain fragments into rings; every fragment's successor is the fragment starting at its next edge.
+        for (Fragment first : fragments) {
+            if (!open.containsKey(first.first)) {
+                continue;
+            }
+            int[] ring = new int[0];
+            int n = 0;
+            for (Fragment f = first; ; ) {
+                open.remove(f.first);
+                int skip = n == 0 ? 0 : 2;
+                if (n + f.corners.length - skip > ring.length) {
+                    ring = Arrays.copyOf(ring, Math.max(2 * ring.length, n + f.corners.length - skip));
+                }
+                System.arraycopy(f.corners, skip, ring, n, f.corners.length - skip);
+                n += f.corners.length - skip;
+                if (f.next == first.first) {
+                    break;
+                }
+                f = open.get(f.next);
+                if (f == null) {
+                    throw new IllegalStateException("Outline of a patch does not close across tiles");
+                }
+            }
+            // The last corner repeats the first.
+            patches.get(patchOf[find(parent, first.component)]).rings.add(simplify(ring, 0, n - 2));
+        }
+        parts.clear();
+        return patches;
+    }
+
+    private void join(int[] parent, Part a, int[] edgeA, Part b, int[] edgeB) {
+        for (int i = 0; i < edgeA.length; i++) {
+            if (edgeA[i] < 0) {
+                continue;
+            }
+            union(parent, a, edgeA[i], b, edgeB[i]);
+            if (eightConnected) {
+                if (i > 0) {
+                    union(parent, a, edgeA[i], b, edgeB[i - 1]);
+                }
+                if (i + 1 < edgeB.length) {
+                    union(parent, a, edgeA[i], b, edgeB[i + 1]);
+                }
+            }
+        }
+    }
+
+    private static void union(int[] parent, Part a, int la, Part b, int lb) {
+        if (la < 0 || lb < 0 || a.classes[la] != b.classes[lb]) {
+            return;
+        }
+        int ra = find(parent, a.base + la), rb = find(parent, b.base + lb);
+        if (ra != rb) {
+            parent[Math.max(ra, rb)] = Math.min(ra, rb);
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Corners {@code from} (inclusive) to {@code to} (exclusive) of an interleaved ring, without
+     * those where the outline runs straight on, as a closed ring.
+     */
+    private static int[] simplify(int[] corners, int from, int to) {
+        int n = (to - from) / 2;
+        int[] out = new int[2 * n + 2];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int p = from + 2 * ((i + n - 1) % n), c = from + 2 * i, q = from + 2 * ((i + 1) % n);
+            boolean straight = corners[p] == corners[c] && corners[c] == corners[q]
+                    || corners[p + 1] == corners[c + 1] && corners[c + 1] == corners[q + 1];
+            if (!straight) {
+                out[m++] = corners[c];
+                out[m++] = corners[c + 1];
+            }
+        }
+        out[m++] = out[0];
+        out[m++] = out[1];
+        return Arrays.copyOf(out, m);
+    }
+
+    /** An outline piece that leaves its tile, from edge {@code first} up to (not including) edge {@code next}. */
+    private static final class Fragment {
+        final long first;
+        final long next;
+        final int[] corners;
+        int component;
+
+        Fragment(long first, long next, int[] corners, int component) {
+            this.first = first;
+            this.next = next;
+            this.corners = corners;
+            this.component = component;
+        }
+    }
+
+    /** What one tile keeps for the stitch. */
+    private final class Part {
+        final Window tile;
+        final Window halo;
+        final float[] values;
+        /** Classes of the tile and a one-pixel border around it, background off the grid. */
+        final int[] cls;
+        /** Row length of {@link #cls}. */
+        final int stride;
+        int components;
+        int base;
+        int[] classes;
+        int[] pixels;
+        double[] area;
+        Stats[] stats;
+        int[] bounds;
+        int[] top;
+        int[] bottom;
+        int[] left;
+        int[] right;
+        /** Closed rings, each as {@code component, c0, r0, c1, r1, ...} in grid corners. */
+        final List<int[]> rings = new ArrayList<>();
+        final List<Fragment> fragments = new ArrayList<>();
+
+        Part(Window tile, Window halo, float[] classes, float[] values) {
+            this.tile = tile;
+            this.halo = halo;
+            this.values = values;
+            this.stride = tile.width() + 2;
+            this.cls = new int[stride * (tile.height() + 2)];
+            Arrays.fill(cls, BACKGROUND);
+            int dc = halo.x() - tile.x() + 1, dr = halo.y() - tile.y() + 1;
+            for (int hr = 0; hr < halo.height(); hr++) {
+                for (int hc = 0, i = hr * halo.width(); hc < halo.width(); hc++, i++) {
+                    float v = classes[i];
+                    cls[(hr + dr) * stride + hc + dc] = Float.isNaN(v) ? BACKGROUND : (int) v;
+                }
+            }
+        }
+
+        /** Class at tile-relative pixel {@code (c, r)}, which may lie one pixel outside the tile. */
+        int at(int c, int r) {
+            return cls[(r + 1) * stride + c + 1];
+        }
+
+        Part label() {
+            int w = tile.width(), h = tile.height();
+            int[] lab = new int[w * h];
+            int[] parent = new int[64];
+            int n = 0;
+            for (int r = 0; r < h; r++) {
+                for (int c = 0; c < w; c++) {
+                    int i = r * w + c;
+                    int k = at(c, r);
+                    if (k == BACKGROUND) {
+                        lab[i] = -1;
+                        continue;
+                    }
+                    int l = -1;
+                    if (c > 0 && at(c - 1, r) == k) {
+                        l = lab[i - 1];
+                    }
+                    if (r > 0) {
+                        if (at(c, r - 1) == k) {
+                            l = merge(parent, l, lab[i - w]);
+                        }
+                        if (eightConnected && c > 0 && at(c - 1, r - 1) == k) {
+                            l = merge(parent, l, lab[i - w - 1]);
+                        }
+                        if (eightConnected && c + 1 < w && at(c + 1, r - 1) == k) {
+                            l = merge(parent, l, lab[i - w + 1]);
+                        }
+                    }
+                    if (l < 0) {
+                        if (n == parent.length) {
+                            parent = Arrays.copyOf(parent, 2 * n);
+                        }
+                        parent[n] = n;
+                        l = n++;
+                    }
+                    lab[i] = l;
+                }
+            }
+            int[] id = new int[n];
+            Arrays.fill(id, -1);
+            for (int l = 0; l < n; l++) {
+                int root = find(parent, l);
+                if (id[root] < 0) {
+                    id[root] = components++;
+                }
+                id[l] = id[root];
+            }
+            if (components == 0) {
+                return this;
+            }
+            classes = new int[components];
+            pixels = new int[components];
+            area = new double[components];
+            bounds = new int[4 * components];
+            if (values != null) {
+                stats = Stats.newArray(components);
+            }
+            for (int r = 0; r < h; r++) {
+                double pixelArea = grid.pixelArea(tile.y() + r);
+                for (int c = 0; c < w; c++) {
+                    int i = r * w + c;
+                    if (lab[i] < 0) {
+                        continue;
+                    }
+                    int l = id[lab[i]];
+                    lab[i] = l;
+                    if (pixels[l]++ == 0) {
+                        classes[l] = at(c, r);
+                        bounds[4 * l] = bounds[4 * l + 2] = tile.x() + c;
+                        bounds[4 * l + 1] = bounds[4 * l + 3] = tile.y() + r;
+                    } else {
+                        bounds[4 * l] = Math.min(bounds[4 * l], tile.x() + c);
+                        bounds[4 * l + 2] = Math.max(bounds[4 * l + 2], tile.x() + c);
+                        bounds[4 * l + 3] = tile.y() + r;
+                    }
+                    area[l] += pixelArea;
+                    if (values != null) {
+                        stats[l].add(values[(r + tile.y() - halo.y()) * halo.width() + c + tile.x() - halo.x()]);
+                    }
+                }
+            }
+            top = Arrays.copyOfRange(lab, 0, w);
+            bottom = Arrays.copyOfRange(lab, (h - 1) * w, h * w);
+            left = new int[h];
+            right = new int[h];
+            for (int r = 0; r < h; r++) {
+                left[r] = lab[r * w];
+                right[r] = lab[r * w + w - 1];
+            }
+            trace(lab);
+            return this;
+        }
+
+        private int merge(int[] parent, int l, int other) {
+            if (l < 0) {
+                return other;
+            }
+            int a = find(parent, l), b = find(parent, other);
+            if (a != b) {
+                parent[Math.max(a, b)] = Math.min(a, b);
+            }
+            return Math.min(a, b);
+        }
+
+        /** Traces every boundary edge of the tile's pixels once, into rings and fragments. */
+        private void trace(int[] lab) {
+            int w = tile.width(), h = tile.height();
+            byte[] done = new byte[w * h];
+            int[] corners = new int[64];
+            for (int start = 0; start < lab.length; start++) {
+                if (lab[start] < 0) {
+                    continue;
+                }
+                int c0 = start % w, r0 = start / w;
+                int p = (r0 + 1) * stride + c0 + 1, k = cls[p];
+                int sides = (cls[p - stride] != k ? 1 : 0) | (cls[p + 1] != k ? 2 : 0)
+                        | (cls[p + stride] != k ? 4 : 0) | (cls[p - 1] != k ? 8 : 0);
+                for (int side = 0; side < 4; side++) {
+                    if ((sides & ~done[start] & (1 << side)) == 0) {
+                        continue;
+                    }
+                    int c = c0, r = r0;
+                    int n = 0;
+                    corners[n++] = tile.x() + c + START_C[side];
+                    corners[n++] = tile.y() + r + START_R[side];
+                    int d = side;
+                    long next;
+                    boolean closed = false;
+                    while (true) {
+                        done[r * w + c] |= (byte) (1 << d);
+                        // The pixels ahead of the edge's end, on its left and straight on.
+                        int ac = c + FWD_C[d], ar = r + FWD_R[d];
+                        boolean leftSame = at(ac + LEFT_C[d], ar + LEFT_R[d]) == k;
+                        boolean aheadSame = at(ac, ar) == k;
+                        int nc = c, nr = r, nd = d;
+                        if (leftSame && (aheadSame || eightConnected)) {
+                            nc = ac + LEFT_C[d];
+                            nr = ar + LEFT_R[d];
+                            nd = (d + 3) % 4;
+                        } else if (aheadSame) {
+                            nc = ac;
+                            nr = ar;
+                        } else {
+                            nd = (d + 1) % 4;
+                        }
+                        boolean inside = nc >= 0 && nr >= 0 && nc < w && nr < h;
+                        if (inside && nr * w + nc == start && nd == side) {
+                            closed = true;
+                            next = 0;
+                            break;
+                        }
+                        // A fragment ends where the outline leaves the tile or meets one traced earlier.
+                        boolean ends = !inside || (done[nr * w + nc] & (1 << nd)) != 0;
+                        if (nd != d || ends) {
+                            if (n + 2 > corners.length) {
+                                corners = Arrays.copyOf(corners, 2 * corners.length);
+                            }
+                            corners[n++] = tile.x() + nc + START_C[nd];
+                            corners[n++] = tile.y() + nr + START_R[nd];
+                        }
+                        if (ends) {
+                            next = edge(tile.x() + nc, tile.y() + nr, nd);
+                            break;
+                        }
+                        c = nc;
+                        r = nr;
+                        d = nd;
+                    }
+                    int component = lab[start];
+                    if (closed) {
+                        int[] ring = new int[n + 1];
+                        ring[0] = component;
+                        System.arraycopy(corners, 0, ring, 1, n);
+                        rings.add(ring);
+                    } else {
+                        fragments.add(new Fragment(edge(tile.x() + c0, tile.y() + r0, side), next,
+                                Arrays.copyOf(corners, n), component));
+                    }
+                }
+            }
+        }
+
+        private long edge(int col, int row, int side) {
+            return ((long) row * grid.width() + col) * 4 + side;
+        }
+    }
+
+    /** One connected component: its class, size, statistics and outline. */
+    public static final class Patch {
+        private final PixelGrid grid;
+        private final int label;
+        private long pixels;
+        private double area;
+        private final Stats stats;
+        private int minCol = Integer.MAX_VALUE;
+        private int minRow = Integer.MAX_VALUE;
+        private int maxCol = Integer.MIN_VALUE;
+        private int maxRow = Integer.MIN_VALUE;
+        /** Closed rings of grid corners, interleaved column and row. */
+        final List<int[]> rings = new ArrayList<>();
+
+        Patch(PixelGrid grid, int label, boolean values) {
+            this.grid = grid;
+            this.label = label;
+            this.stats = values ? new Stats() : null;
+        }
+
+        void add(Part part, int l) {
+            pixels += part.pixels[l];
+            area += part.area[l];
+            if (stats != null) {
+                stats.merge(part.stats[l]);
+            }
+            minCol = Math.min(minCol, part.bounds[4 * l]);
+            minRow = Math.min(minRow, part.bounds[4 * l + 1]);
+            maxCol = Math.max(maxCol, part.bounds[4 * l + 2]);
+            maxRow = Math.max(maxRow, part.bounds[4 * l + 3]);
+        }
+
+        /** Integer class shared by the patch's pixels. */
+        public int label() {
+            return label;
+        }
+
+        public long pixels() {
+            return pixels;
+        }
+
+        /** Summed pixel area, in square metres. */
+        public double area() {
+            return area;
+        }
+
+        /** Statistics of the value band over the patch's pixels, or null if there was none. */
+        public Stats stats() {
+            return stats;
+        }
+
+        /** Pixels of the grid the patch spans. */
+        public Window window() {
+            return new Window(minCol, minRow, maxCol - minCol + 1, maxRow - minRow + 1);
+        }
+
+        /** Number of rings, the shell included. */
+        public int ringCount() {
+            return rings.size();
+        }
+
+        /** Outline in the grid's CRS: one clockwise shell, and a counter-clockwise ring per hole. */
+        public Geometry geometry() {
+            List<double[]> world = new ArrayList<>(rings.size());
+            double[] shell = null;
+            int shells = 0;
+            for (int[] ring : rings) {
+                double[] xy = new double[ring.length];
+                double twiceArea = 0;
+                for (int i = 0; i < ring.length; i += 2) {
+                    xy[i] = grid.originX() + ring[i] * grid.pixelWidth();
+                    xy[i + 1] = grid.originY() - ring[i + 1] * grid.pixelHeight();
+                    if (i > 0) {
+                        twiceArea += xy[i - 2] * xy[i + 1] - xy[i] * xy[i - 1];
+                    }
+                }
+                if (twiceArea < 0) {
+                    shell = xy;
+                    shells++;
+                } else {
+                    world.add(xy);
+                }
+            }
+            if (shells != 1) {
+                // Not expected of a connected patch; let the orientation sort the rings out.
+                world.clear();
+                for (int[] ring : rings) {
+                    double[] xy = new double[ring.length];
+                    for (int i = 0; i < ring.length; i += 2) {
+                        xy[i] = grid.originX() + ring[i] * grid.pixelWidth();
+                        xy[i + 1] = grid.originY() - ring[i + 1] * grid.pixelHeight();
+                    }
+                    world.add(xy);
+                }
+                return Geometry.fromOrientedRings(grid.crs(), world);
+            }
+            world.add(0, shell);
+            return Geometry.polygon(grid.crs(), world.toArray(new double[0][]));
+        }
+
+        @Override
+        public String toString() {
+            return "Patch[" + label + ", " + pixels + " px, " + ringCount() + " rings, " + window() + "]";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectedComponents[" + parts.size() + " tiles, " + (eightConnected ? 8 : 4) + "-connected]";
+    }
+}
@@ -0,0 +1,134 @@
+package spatialmusings.engine.raster;
+
+import java.util.Arrays;
+
+/**
+ * Which pixels of a {@link Window} a geometry covers, run-length encoded per row.
+ *
+ * <p>The runs hold the pixels whose centre lies inside the geometry, the rule {@code clip} and
+ * {@code reduceRegion} use. A mask rasterized with fractional coverage also lists, for every
+ * pixel the boundary passes through, the fraction of its area inside; {@link #coverage} then
+ * returns that fraction instead of 0 or 1. Columns and rows are relative to the window.
+ * Instances are immutable.
+ */
+public final class CoverageMask {
+
+    /** Receives one run: row, first column, column past the end. */
+    @FunctionalInterface
+    public interface RunConsumer {
+        void accept(int row, int from, int to);
+    }
+
+    private final Window window;
+    /** Runs of row {@code r} are {@code runs[2k], runs[2k + 1]} for k in [rowStart[r], rowStart[r + 1]). */
+    private final int[] rowStart;
+    private final int[] runs;
+    /** Window-relative pixel indices ({@code row * width + col}) on the boundary, ascending. */
+    private final int[] edgePixels;
+    private final float[] edgeCoverage;
+    private final int count;
+
+    CoverageMask(Window window, int[] rowStart, int[] runs, int[] edgePixels, float[] edgeCoverage) {
+        this.window = window;
+        this.rowStart = rowStart;
+        this.runs = runs;
+        this.edgePixels = edgePixels;
+        this.edgeCoverage = edgeCoverage;
+        int n = 0;
+        for (int k = 0; k < rowStart[window.height()]; k++) {
+            n += runs[2 * k + 1] - runs[2 * k];
+        }
+        this.count = n;
+    }
+
+    /** Mask covering every pixel of {@code window}. */
+    public static CoverageMask full(Window window) {
+        int h = window.height();
+        int[] rowStart = new int[h + 1];
+        int[] runs = new int[2 * h];
+        for (int r = 0; r < h; r++) {
+            rowStart[r + 1] = r + 1;
+            runs[2 * r + 1] = window.width();
+        }
+        return new CoverageMask(window, rowStart, runs, new int[0], new float[0]);
+    }
+
+    public static CoverageMask empty(Window window) {
+        return new CoverageMask(window, new int[window.height() + 1], new int[0], new int[0], new float[0]);
+    }
+
+    public Window window() {
+        return window;
+    }
+
+    /** Number of pixels whose centre is covered. */
+    public int count() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0 && edgePixels.length == 0;
+    }
+
+    /** True if every pixel centre is covered and no pixel is only partly covered. */
+    public boolean isFull() {
+        return count == window.size() && edgePixels.length == 0;
+    }
+
+    public boolean hasFractionalCoverage() {
+        return edgeCoverage.length > 0;
+    }
+
+    /** True if the centre of pixel ({@code col}, {@code row}) is covered. */
+    public boolean contains(int col, int row) {
+        for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+            if (col < runs[2 * k]) {
+                return false;
+            }
+            if (col < runs[2 * k + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fraction of the pixel's area inside the geometry when the mask was rasterized with
+     * fractional coverage; 1 or 0 by centre otherwise.
+     */
+    public float coverage(int col, int row) {
+        int at = Arrays.binarySearch(edgePixels, row * window.width() + col);
+        if (at >= 0) {
+            return edgeCoverage[at];
+        }
+        return contains(col, row) ? 1f : 0f;
+    }
+
+    /** Calls {@code consumer} with every run of covered pixel centres, row by row. */
+    public void forEachRun(RunConsumer consumer) {
+        for (int r = 0; r < window.height(); r++) {
+            for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+                consumer.accept(r, runs[2 * k], runs[2 * k + 1]);
+            }
+        }
+    }
+
+    /** Sets every pixel whose centre is not covered to NaN in a window-sized plane. */
+    public void maskOutside(float[] band) {
+        int w = window.width();
+        for (int r = 0; r < window.height(); r++) {
+            int col = 0;
+            int base = r * w;
+            for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+                Arrays.fill(band, base + col, base + runs[2 * k], Float.NaN);
+                col = runs[2 * k + 1];
+            }
+            Arrays.fill(band, base + col, base + w, Float.NaN);
+        }
+    }
+
+    /** Approximate heap footprint, for cache budgets. */
+    public long bytes() {
+        return 64 + 4L * rowStart.length + 4L * runs.length + 8L * edgePixels.length;
+    }
+}
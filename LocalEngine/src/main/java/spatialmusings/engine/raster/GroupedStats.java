@@ -0,0 +1,135 @@
+package spatialmusings.engine.raster;
+
+import java.util.Arrays;
+
+/**
+ * {@link Stats} for many groups at once (land-cover classes, zone ids), kept as one primitive
+ * array per moment indexed by group value rather than as an object per group, plus the summed
+ * pixel area of each group.
+ *
+ * <p>The arrays cover the span of group values seen so far and grow on demand, so a classified
+ * image with classes 0..9 costs ten slots per moment. Not thread-safe: each worker keeps its own
+ * and partials are {@link #merge merged}, moment by moment with the same formulas as
+ * {@link Stats#merge}.
+ */
+public final class GroupedStats {
+
+    /** Largest span of group values accepted, to catch a continuous band passed as the group. */
+    public static final int MAX_GROUPS = 1 << 20;
+
+    private int base;
+    private double[] count = new double[0];
+    private double[] sum = new double[0];
+    private double[] mean = new double[0];
+    private double[] m2 = new double[0];
+    private double[] min = new double[0];
+    private double[] max = new double[0];
+    private double[] area = new double[0];
+
+    /** Adds one pixel of {@code group} with {@code value}, covering {@code pixelArea}. */
+    public void add(int group, double value, double pixelArea) {
+        int i = group - base;
+        if (i < 0 || i >= count.length) {
+            i = ensure(group);
+        }
+        double n = count[i] + 1;
+        count[i] = n;
+        sum[i] += value;
+        double delta = value - mean[i];
+        mean[i] += delta / n;
+        m2[i] += delta * (value - mean[i]);
+        if (value < min[i]) {
+            min[i] = value;
+        }
+        if (value > max[i]) {
+            max[i] = value;
+        }
+        area[i] += pixelArea;
+    }
+
+    /** Grows the arrays to cover {@code group}, returning its slot. */
+    private int ensure(int group) {
+        int from = count.length == 0 ? group : Math.min(base, group);
+        int to = count.length == 0 ? group : Math.max(base + count.length - 1, group);
+        if ((long) to - from + 1 > MAX_GROUPS) {
+            throw new IllegalArgumentException("Group values span more than " + MAX_GROUPS
+                    + " (" + from + " to " + to + "); is the group band a class band?");
+        }
+        int size = to - from + 1;
+        int shift = base - from;
+        count = grow(count, size, shift, 0);
+        sum = grow(sum, size, shift, 0);
+        mean = grow(mean, size, shift, 0);
+        m2 = grow(m2, size, shift, 0);
+        min = grow(min, size, shift, Double.POSITIVE_INFINITY);
+        max = grow(max, size, shift, Double.NEGATIVE_INFINITY);
+        area = grow(area, size, shift, 0);
+        base = from;
+        return group - base;
+    }
+
+    private static double[] grow(double[] a, int size, int shift, double fill) {
+        double[] out = new double[size];
+        Arrays.fill(out, fill);
+        System.arraycopy(a, 0, out, a.length == 0 ? 0 : shift, a.length);
+        return out;
+    }
+
+    public GroupedStats merge(GroupedStats other) {
+        for (int j = 0; j < other.count.length; j++) {
+            double m = other.count[j];
+            if (m == 0) {
+                continue;
+            }
+            int g = other.base + j;
+            int i = g - base;
+            if (i < 0 || i >= count.length) {
+                i = ensure(g);
+            }
+            double n = count[i];
+            double total = n + m;
+            double delta = other.mean[j] - mean[i];
+            mean[i] += delta * m / total;
+            m2[i] += other.m2[j] + delta * delta * n * m / total;
+            count[i] = total;
+            sum[i] += other.sum[j];
+            min[i] = Math.min(min[i], other.min[j]);
+            max[i] = Math.max(max[i], other.max[j]);
+            area[i] += other.area[j];
+        }
+        return this;
+    }
+
+    /** Group values with at least one pixel, ascending. */
+    public int[] groups() {
+        int n = 0;
+        for (double c : count) {
+            if (c > 0) {
+                n++;
+            }
+        }
+        int[] out = new int[n];
+        n = 0;
+        for (int i = 0; i < count.length; i++) {
+            if (count[i] > 0) {
+                out[n++] = base + i;
+            }
+        }
+        return out;
+    }
+
+    /** Statistics of the values of {@code group}; empty if it has no pixels. */
+    public Stats stats(int group) {
+        int i = group - base;
+        if (i < 0 || i >= count.length || count[i] == 0) {
+            return new Stats();
+        }
+        return new Stats(count[i], sum[i], mean[i], m2[i], min[i], max[i]);
+    }
+
+    /** Summed pixel area of {@code group}, in square metres. */
+    public double area(int group) {
+        int i = group - base;
+        return i < 0 || i >= area.length ? 0 : area[i];
+    }
+}
@@ -0,0 +1,143 @@
+package spatialmusings.engine.raster;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import spatialmusings.engine.geom.Geometry;
+
+/**
+ * Least-recently-used cache of rasterized {@link CoverageMask}s with a byte budget.
+ *
+ * <p>A mask is keyed by the geometry (structurally, so an equal geometry rebuilt from the same
+ * WKT hits too), the grid (CRS, scale and origin), the tile window and whether fractional coverage
+ * was asked for. Clipping every band and date of a collection to the same county therefore
+ * rasterizes each tile once. When the masks held exceed the budget the least recently used
+ * ones are dropped.
+ *
+ * <p>Lookups take a short lock; rasterizing happens outside it, so two threads missing on the
+ * same key at once may both rasterize it.
+ */
+public final class MaskCache {
+
+    /** System property overriding the shared cache's budget, in bytes. */
+    public static final String BUDGET_PROPERTY = "spatialmusings.maskCacheBytes";
+    public static final long DEFAULT_BUDGET_BYTES = 64L << 20;
+
+    private static final MaskCache SHARED = new MaskCache(Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET_BYTES));
+
+    private final long budgetBytes;
+    private final LinkedHashMap<Key, CoverageMask> masks = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public MaskCache(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    /** Process-wide cache used by {@code clip} and {@code reduceRegion}. */
+    public static MaskCache shared() {
+        return SHARED;
+    }
+
+    public CoverageMask get(Geometry geometry, PixelGrid grid, Window window) {
+        return get(geometry, grid, window, false);
+    }
+
+    /** The mask of {@code geometry} over {@code window} of {@code grid}, rasterized on a miss. */
+    public CoverageMask get(Geometry geometry, PixelGrid grid, Window window, boolean fractional) {
+        Key key = new Key(geometry, grid, window, fractional);
+        synchronized (this) {
+            CoverageMask m = masks.get(key);
+            if (m != null) {
+                hits.incrementAndGet();
+                return m;
+            }
+        }
+        misses.incrementAndGet();
+        CoverageMask mask = Rasterizer.rasterize(geometry, grid, window, fractional);
+        put(key, mask);
+        return mask;
+    }
+
+    private synchronized void put(Key key, CoverageMask mask) {
+        long size = mask.bytes();
+        if (size > budgetBytes) {
+            return;
+        }
+        CoverageMask old = masks.put(key, mask);
+        bytes += size - (old == null ? 0 : old.bytes());
+        Iterator<CoverageMask> lru = masks.values().iterator();
+        while (bytes > budgetBytes && lru.hasNext()) {
+            bytes -= lru.next().bytes();
+            lru.remove();
+        }
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return masks.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public synchronized void clear() {
+        masks.clear();
+        bytes = 0;
+    }
+
+    private static final class Key {
+        private final Geometry geometry;
+        private final PixelGrid grid;
+        private final Window window;
+        private final boolean fractional;
+        private final int hash;
+
+        Key(Geometry geometry, PixelGrid grid, Window window, boolean fractional) {
+            this.geometry = geometry;
+            this.grid = grid;
+            this.window = window;
+            this.fractional = fractional;
+            this.hash = Objects.hash(geometry, grid, window, fractional);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && fractional == k.fractional && window.equals(k.window)
+                    && grid.equals(k.grid) && geometry.equals(k.geometry);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MaskCache[" + size() + " masks, " + bytes() + "/" + budgetBytes + " bytes, "
+                + hits() + " hits, " + misses() + " misses]";
+    }
+}
@@ -0,0 +1,198 @@
+package spatialmusings.engine.raster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Envelope;
+
+/**
+ * North-up pixel grid: CRS, upper-left corner, pixel size and extent in pixels.
+ * Rotated geotransforms are not supported; every GeoTIFF we consume is north-up.
+ */
+public final class PixelGrid {
+
+    private final Crs crs;
+    private final double originX;
+    private final double originY;
+    private final double pixelWidth;
+    private final double pixelHeight;
+    private final int width;
+    private final int height;
+
+    public PixelGrid(Crs crs, double originX, double originY,
+                     double pixelWidth, double pixelHeight, int width, int height) {
+        if (pixelWidth <= 0 || pixelHeight <= 0) {
+            throw new IllegalArgumentException("Pixel size must be positive");
+        }
+        this.crs = crs;
+        this.originX = originX;
+        this.originY = originY;
+        this.pixelWidth = pixelWidth;
+        this.pixelHeight = pixelHeight;
+        this.width = width;
+        this.height = height;
+    }
+
+    /** Grid at {@code scale} units per pixel whose pixel edges are snapped to multiples of the scale. */
+    public static PixelGrid covering(Crs crs, Envelope env, double scale) {
+        double x0 = Math.floor(env.minX() / scale) * scale;
+        double y1 = Math.ceil(env.maxY() / scale) * scale;
+        int w = (int) Math.ceil((env.maxX() - x0) / scale);
+        int h = (int) Math.ceil((y1 - env.minY()) / scale);
+        return new PixelGrid(crs, x0, y1, scale, scale, Math.max(w, 1), Math.max(h, 1));
+    }
+
+    public Crs crs() { return crs; }
+    public double originX() { return originX; }
+    public double originY() { return originY; }
+    public double pixelWidth() { return pixelWidth; }
+    public double pixelHeight() { return pixelHeight; }
+    public int width() { return width; }
+    public int height() { return height; }
+
+    public Window bounds() {
+        return new Window(0, 0, width, height);
+    }
+
+    public Envelope envelope() {
+        return envelope(bounds());
+    }
+
+    public Envelope envelope(Window w) {
+        return new Envelope(originX + w.x() * pixelWidth, originY - w.maxY() * pixelHeight,
+                originX + w.maxX() * pixelWidth, originY - w.y() * pixelHeight);
+    }
+
+    public double centerX(int col) {
+        return originX + (col + 0.5) * pixelWidth;
+    }
+
+    public double centerY(int row) {
+        return originY - (row + 0.5) * pixelHeight;
+    }
+
+    /**
+     * Ground area in square metres of a pixel in {@code row}, computed rather than read from a
+     * pixel-area band; see {@link Crs#cellArea} for how each CRS is measured.
+     */
+    public double pixelArea(int row) {
+        double top = originY - row * pixelHeight;
+        return crs.cellArea(originX, top - pixelHeight, originX + pixelWidth, top);
+    }
+
+    /** Fractional column of a map x coordinate. */
+    public double col(double x) {
+        return (x - originX) / pixelWidth;
+    }
+
+    /** Fractional row of a map y coordinate. */
+    public double row(double y) {
+        return (originY - y) / pixelHeight;
+    }
+
+    /** Smallest window covering the envelope, not clamped to the grid. */
+    public Window windowOf(Envelope env) {
+        if (env.isEmpty()) {
+            return new Window(0, 0, 0, 0);
+        }
+        int x0 = (int) Math.floor(col(env.minX()));
+        int x1 = (int) Math.ceil(col(env.maxX()));
+        int y0 = (int) Math.floor(row(env.maxY()));
+        int y1 = (int) Math.ceil(row(env.minY()));
+        return new Window(x0, y0, Math.max(x1 - x0, 1), Math.max(y1 - y0, 1));
+    }
+
+    /** The grid restricted to a window, with its origin moved to the window corner. */
+    public PixelGrid subGrid(Window w) {
+        return new PixelGrid(crs, originX + w.x() * pixelWidth, originY - w.y() * pixelHeight,
+                pixelWidth, pixelHeight, w.width(), w.height());
+    }
+
+    /** Tiles of {@code tileSize} pixels, aligned to the grid origin, covering {@code region}. */
+    public List<Window> tiles(Window region, int tileSize) {
+        Window r = region.intersection(bounds());
+        List<Window> tiles = new ArrayList<>();
+        if (r.isEmpty()) {
+            return tiles;
+        }
+        int tx0 = r.x() / tileSize, tx1 = (r.maxX() - 1) / tileSize;
+        int ty0 = r.y() / tileSize, ty1 = (r.maxY() - 1) / tileSize;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Window t = new Window(tx * tileSize, ty * tileSize, tileSize, tileSize).intersection(r);
+                if (!t.isEmpty()) {
+                    tiles.add(t);
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * True if both grids share CRS and pixel size and their pixel edges line up, so a window in
+     * one maps onto the other by an integer offset.
+     */
+    public boolean isAlignedWith(PixelGrid other) {
+        if (!crs.equals(other.crs) || !same(pixelWidth, other.pixelWidth) || !same(pixelHeight, other.pixelHeight)) {
+            return false;
+        }
+        double dx = (other.originX - originX) / pixelWidth;
+        double dy = (originY - other.originY) / pixelHeight;
+        return Math.abs(dx - Math.rint(dx)) < 1e-6 && Math.abs(dy - Math.rint(dy)) < 1e-6;
+    }
+
+    /** Column of {@code other}'s origin in this grid; only meaningful for aligned grids. */
+    public int offsetX(PixelGrid other) {
+        return (int) Math.rint((other.originX - originX) / pixelWidth);
+    }
+
+    /** Row of {@code other}'s origin in this grid; only meaningful for aligned grids. */
+    public int offsetY(PixelGrid other) {
+        return (int) Math.rint((originY - other.originY) / pixelHeight);
+    }
+
+    /** Smallest grid aligned with this one that covers both grids. */
+    public PixelGrid union(PixelGrid other) {
+        if (!isAlignedWith(other)) {
+            throw new IllegalArgumentException("Grids are not aligned: " + this + " and " + other);
+        }
+        int ox = offsetX(other), oy = offsetY(other);
+        int x0 = Math.min(0, ox), y0 = Math.min(0, oy);
+        int x1 = Math.max(width, ox + other.width), y1 = Math.max(height, oy + other.height);
+        return subGrid(new Window(x0, y0, x1 - x0, y1 - y0));
+    }
+
+    private static boolean same(double a, double b) {
+        return Math.abs(a - b) <= 1e-9 * Math.max(Math.abs(a), Math.abs(b));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PixelGrid)) {
+            return false;
+        }
+        PixelGrid g = (PixelGrid) o;
+        return crs.equals(g.crs) && originX == g.originX && originY == g.originY
+                && pixelWidth == g.pixelWidth && pixelHeight == g.pixelHeight
+                && width == g.width && height == g.height;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = crs.hashCode();
+        h = 31 * h + Double.doubleToLongBits(originX);
+        h = 31 * h + Double.doubleToLongBits(originY);
+        h = 31 * h + Double.doubleToLongBits(pixelWidth);
+        h = 31 * h + Double.doubleToLongBits(pixelHeight);
+        h = 31 * h + width;
+        h = 31 * h + height;
+        return Long.hashCode(h);
+    }
+
+    @Override
+    public String toString() {
+        return "PixelGrid[" + crs + ", origin=(" + originX + ", " + originY + "), pixel="
+                + pixelWidth + "x" + pixelHeight + ", " + width + "x" + height + "]";
+    }
+}
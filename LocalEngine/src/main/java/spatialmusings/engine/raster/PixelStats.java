@@ -0,0 +1,118 @@
+package spatialmusings.engine.raster;
+
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Running {@link Stats} of every pixel of one band of one tile, fed one image at a time: the
+ * per-pixel counterpart of {@code Stats}, held as primitive columns rather than an object per
+ * pixel. Masked (NaN) values are skipped. Not thread-safe.
+ *
+ * <p>Without {@code moments} only the count and sum are kept (12 bytes a pixel), which is all
+ * a count, sum or mean needs; with them, Welford's mean and squared deviations and the min and
+ * max too (28 bytes), for every statistic {@code Stats} reports.
+ */
+public final class PixelStats {
+
+    private final boolean moments;
+    private final int[] count;
+    private final double[] sum;
+    private final double[] m2;
+    private final float[] min;
+    private final float[] max;
+
+    public PixelStats(int pixels, boolean moments) {
+        this.moments = moments;
+        this.count = new int[pixels];
+        this.sum = new double[pixels];
+        this.m2 = moments ? new double[pixels] : null;
+        this.min = moments ? new float[pixels] : null;
+        this.max = moments ? new float[pixels] : null;
+    }
+
+    /** State per pixel, in bytes. */
+    public static int bytesPerPixel(boolean moments) {
+        return moments ? 4 + 8 + 8 + 4 + 4 : 4 + 8;
+    }
+
+    public int pixels() {
+        return count.length;
+    }
+
+    public boolean moments() {
+        return moments;
+    }
+
+    /** Forgets everything added, so the state can be reused for another period. */
+    public void clear() {
+        Arrays.fill(count, 0);
+        Arrays.fill(sum, 0);
+    }
+
+    /** Folds one image's band into the state. */
+    public void add(float[] values) {
+        if (!moments) {
+            for (int i = 0; i < count.length; i++) {
+                float v = values[i];
+                if (!Float.isNaN(v)) {
+                    count[i]++;
+                    sum[i] += v;
+                }
+            }
+            return;
+        }
+        // With moments, sum holds Welford's running mean.
+        for (int i = 0; i < count.length; i++) {
+            float v = values[i];
+            if (Float.isNaN(v)) {
+                continue;
+            }
+            int n = ++count[i];
+            if (n == 1) {
+                sum[i] = v;
+                m2[i] = 0;
+                min[i] = v;
+                max[i] = v;
+                continue;
+            }
+            double delta = v - sum[i];
+            sum[i] += delta / n;
+            m2[i] += delta * (v - sum[i]);
+            min[i] = Math.min(min[i], v);
+            max[i] = Math.max(max[i], v);
+        }
+    }
+
+    /** {@link #finish} for the mean, without going through a {@code Stats} per pixel. */
+    public void mean(double scale, double offset, float[] out) {
+        for (int i = 0; i < count.length; i++) {
+            int n = count[i];
+            double m = moments ? sum[i] : sum[i] / n;
+            out[i] = n == 0 ? Float.NaN : (float) (m * scale + offset);
+        }
+    }
+
+    /**
+     * Writes {@code statistic} of every pixel into {@code out}, as if every value added had
+     * been {@code value * scale + offset}; NaN where nothing was added. The scale is applied to
+     * the moments once per pixel here instead of to every value on the way in.
+     */
+    public void finish(ToDoubleFunction<Stats> statistic, double scale, double offset, float[] out) {
+        Stats s = new Stats();
+        for (int i = 0; i < count.length; i++) {
+            int n = count[i];
+            if (n == 0) {
+                out[i] = Float.NaN;
+                continue;
+            }
+            double m = (moments ? sum[i] : sum[i] / n) * scale + offset;
+            if (moments) {
+                double lo = min[i] * scale + offset, hi = max[i] * scale + offset;
+                s.set(n, m * n, m, m2[i] * scale * scale, Math.min(lo, hi), Math.max(lo, hi));
+            } else {
+                s.set(n, m * n, m, 0, m, m);
+            }
+            out[i] = (float) statistic.applyAsDouble(s);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package spatialmusings.engine.raster;
+
+/** How {@code reproject} turns source pixels into pixels of another grid. */
+public enum Resampling {
+
+    /** The source pixel under the target pixel's centre, as rasterio's {@code Resampling.nearest}. */
+    NEAREST,
+
+    /** Distance-weighted mean of the four source pixel centres around the target centre. */
+    BILINEAR,
+
+    /**
+     * Sum of the source pixels under the target pixel, each weighted by the fraction of it
+     * covered, as rasterio's {@code Resampling.sum}: totals such as population counts are kept.
+     */
+    SUM
+}
@@ -0,0 +1,116 @@
+package spatialmusings.engine.raster;
+
+/**
+ * Running count/sum/mean/variance/min/max accumulator (Welford, merged with Chan et al.).
+ * Not thread-safe: each worker keeps its own and partials are {@link #merge merged}.
+ */
+public final class Stats {
+
+    private double count;
+    private double sum;
+    private double mean;
+    private double m2;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public Stats() {
+    }
+
+    /** Accumulator already holding the given moments, as kept by {@link GroupedStats}. */
+    Stats(double count, double sum, double mean, double m2, double min, double max) {
+        this.count = count;
+        this.sum = sum;
+        this.mean = mean;
+        this.m2 = m2;
+        this.min = min;
+        this.max = max;
+    }
+
+    /** Replaces the moments, so {@link PixelStats} can report pixel after pixel through one instance. */
+    Stats set(double count, double sum, double mean, double m2, double min, double max) {
+        this.count = count;
+        this.sum = sum;
+        this.mean = mean;
+        this.m2 = m2;
+        this.min = min;
+        this.max = max;
+        return this;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /** Adds a value with a weight, e.g. a pixel area or a fractional coverage. */
+    public void add(double value, double weight) {
+        if (weight <= 0 || Double.isNaN(value)) {
+            return;
+        }
+        count += weight;
+        sum += value * weight;
+        double delta = value - mean;
+        mean += delta * weight / count;
+        m2 += weight * delta * (value - mean);
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public Stats merge(Stats other) {
+        if (other.count == 0) {
+            return this;
+        }
+        if (count == 0) {
+            count = other.count;
+            sum = other.sum;
+            mean = other.mean;
+            m2 = other.m2;
+            min = other.min;
+            max = other.max;
+            return this;
+        }
+        double n = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / n;
+        m2 += other.m2 + delta * delta * count * other.count / n;
+        count = n;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    public double count() { return count; }
+    public double sum() { return sum; }
+    public double mean() { return count == 0 ? Double.NaN : mean; }
+    public double min() { return count == 0 ? Double.NaN : min; }
+    public double max() { return count == 0 ? Double.NaN : max; }
+
+    /** Population variance, matching numpy/rasterstats {@code std}. */
+    public double variance() {
+        return count == 0 ? Double.NaN : m2 / count;
+    }
+
+    public double stdDev() {
+        return Math.sqrt(variance());
+    }
+
+    /** Element-wise merge of per-band partials. */
+    public static Stats[] merge(Stats[] a, Stats[] b) {
+        for (int i = 0; i < a.length; i++) {
+            a[i].merge(b[i]);
+        }
+        return a;
+    }
+
+    public static Stats[] newArray(int n) {
+        Stats[] s = new Stats[n];
+        for (int i = 0; i < n; i++) {
+            s[i] = new Stats();
+        }
+        return s;
+    }
+}
@@ -0,0 +1,40 @@
+package spatialmusings.engine.raster;
+
+import java.util.Arrays;
+
+/**
+ * Pixels of one {@link Window} for a set of bands, row-major, one {@code float[]} per band.
+ * Masked pixels (outside the footprint, nodata, cloud, outside a clip) are {@code NaN}.
+ */
+public final class Tile {
+
+    private final Window window;
+    private final float[][] bands;
+
+    public Tile(Window window, float[][] bands) {
+        this.window = window;
+        this.bands = bands;
+    }
+
+    /** New tile with every pixel of every band masked. */
+    public static Tile masked(Window window, int bandCount) {
+        float[][] bands = new float[bandCount][window.size()];
+        for (float[] band : bands) {
+            Arrays.fill(band, Float.NaN);
+        }
+        return new Tile(window, bands);
+    }
+
+    public Window window() { return window; }
+    public int width() { return window.width(); }
+    public int height() { return window.height(); }
+    public int bandCount() { return bands.length; }
+
+    public float[] band(int index) {
+        return bands[index];
+    }
+
+    public float[][] bands() {
+        return bands;
+    }
+}
@@ -0,0 +1,117 @@
+package spatialmusings.engine.raster;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs per-tile work on a fork-join pool. Sinks (reductions, exports) hand it the list of tile
+ * windows they need and each worker pulls one tile at a time through the operator graph, so
+ * resident pixel memory is roughly {@code parallelism * tileSize^2 * bands}, independent of
+ * scene size.
+ */
+public final class TileExecutor {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private static final TileExecutor COMMON = new TileExecutor(ForkJoinPool.commonPool(), DEFAULT_TILE_SIZE);
+
+    private final ForkJoinPool pool;
+    private final int tileSize;
+
+    public TileExecutor(ForkJoinPool pool, int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("tileSize must be positive");
+        }
+        this.pool = pool;
+        this.tileSize = tileSize;
+    }
+
+    /** Shared executor over the common pool, using every core. */
+    public static TileExecutor common() {
+        return COMMON;
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    public int tileSize() {
+        return tileSize;
+    }
+
+    /** Tiles of this executor's size covering {@code region} of {@code grid}. */
+    public List<Window> tiles(PixelGrid grid, Window region) {
+        return grid.tiles(region, tileSize);
+    }
+
+    /** Maps every tile to a partial result and merges the partials pairwise. */
+    public <A> A reduce(List<Window> tiles, Supplier<A> identity,
+                        Function<Window, A> map, BinaryOperator<A> merge) {
+        if (tiles.isEmpty()) {
+            return identity.get();
+        }
+        return pool.invoke(new ReduceTask<>(tiles, 0, tiles.size(), map, merge));
+    }
+
+    /**
+     * Folds every tile into one accumulator per worker thread and merges the accumulators at
+     * the end. Unlike {@link #reduce}, which creates and merges a partial per tile, this suits
+     * accumulators that are large or costly to merge, such as per-class arrays.
+     */
+    public <A> A accumulate(List<Window> tiles, Supplier<A> identity,
+                            BiConsumer<A, Window> accumulator, BinaryOperator<A> merge) {
+        Map<Thread, A> perThread = new ConcurrentHashMap<>();
+        forEach(tiles, w -> accumulator.accept(
+                perThread.computeIfAbsent(Thread.currentThread(), t -> identity.get()), w));
+        A total = identity.get();
+        for (A partial : perThread.values()) {
+            total = merge.apply(total, partial);
+        }
+        return total;
+    }
+
+    public void forEach(List<Window> tiles, Consumer<Window> action) {
+        reduce(tiles, () -> null, w -> {
+            action.accept(w);
+            return null;
+        }, (a, b) -> null);
+    }
+
+    private static final class ReduceTask<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Window> tiles;
+        private final int from;
+        private final int to;
+        private final Function<Window, A> map;
+        private final BinaryOperator<A> merge;
+
+        ReduceTask(List<Window> tiles, int from, int to, Function<Window, A> map, BinaryOperator<A> merge) {
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+            this.map = map;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from == 1) {
+                return map.apply(tiles.get(from));
+            }
+            int mid = (from + to) >>> 1;
+            ReduceTask<A> left = new ReduceTask<>(tiles, from, mid, map, merge);
+            left.fork();
+            A right = new ReduceTask<>(tiles, mid, to, map, merge).compute();
+            return merge.apply(left.join(), right);
+        }
+    }
+}
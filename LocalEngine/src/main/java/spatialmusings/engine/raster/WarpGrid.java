@@ -0,0 +1,216 @@
+package spatialmusings.engine.raster;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import spatialmusings.engine.geom.Crs;
+
+/**
+ * Where the pixel corners of a target grid fall in a source grid, in fractional source columns
+ * and rows: the coordinate half of a reprojection.
+ *
+ * <p>Transforming every pixel corner through the projection formulas costs dozens of
+ * transcendental calls per pixel. This transforms only a control lattice of corners every
+ * {@link #step()} target pixels and interpolates bilinearly in between, as GDAL's approximate
+ * transformer does. The step starts at {@value #MAX_STEP} and is halved until the
+ * interpolated position at every control cell's centre is within {@value #TOLERANCE} source
+ * pixels of the exact one. Between aligned grids, or grids in one CRS, the mapping is affine
+ * and a single cell is exact.
+ *
+ * <p>Grids are cached per (source, target) pair, so reprojecting every raster of a batch onto
+ * one base grid builds the lattice once. Instances are immutable and thread-safe.
+ */
+public final class WarpGrid {
+
+    /** Largest control spacing, in target pixels. */
+    public static final int MAX_STEP = 64;
+    /** Largest allowed interpolation error, in source pixels. */
+    public static final double TOLERANCE = 0.125;
+
+    private static final int CACHED = 16;
+    private static final Map<Key, WarpGrid> CACHE = new LinkedHashMap<Key, WarpGrid>(32, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, WarpGrid> eldest) {
+            return size() > CACHED;
+        }
+    };
+    private static final AtomicLong BUILDS = new AtomicLong();
+
+    private final PixelGrid source;
+    private final PixelGrid target;
+    private final int step;
+    /** Control columns and rows across: {@code ceil(width / step) + 1}. */
+    private final int nx;
+    private final int ny;
+    /** Source column and row of each control corner, row-major. */
+    private final double[] cols;
+    private final double[] rows;
+
+    private WarpGrid(PixelGrid source, PixelGrid target) {
+        this.source = source;
+        this.target = target;
+        boolean affine = source.crs().equals(target.crs());
+        int s = affine ? Math.max(1, Math.max(target.width(), target.height())) : MAX_STEP;
+        double[][] lattice;
+        while (true) {
+            lattice = lattice(s);
+            if (affine || s == 1 || withinTolerance(s, lattice)) {
+                break;
+            }
+            s /= 2;
+        }
+        this.step = s;
+        this.nx = (target.width() + s - 1) / s + 1;
+        this.ny = (target.height() + s - 1) / s + 1;
+        this.cols = lattice[0];
+        this.rows = lattice[1];
+        BUILDS.incrementAndGet();
+    }
+
+    /** The warp grid of {@code target} in {@code source}, from the cache or built now. */
+    public static WarpGrid of(PixelGrid source, PixelGrid target) {
+        Key key = new Key(source, target);
+        synchronized (CACHE) {
+            WarpGrid g = CACHE.get(key);
+            if (g != null) {
+                return g;
+            }
+        }
+        // Built outside the lock; two threads missing at once both build, and one copy is kept.
+        WarpGrid g = new WarpGrid(source, target);
+        synchronized (CACHE) {
+            WarpGrid raced = CACHE.putIfAbsent(key, g);
+            return raced != null ? raced : g;
+        }
+    }
+
+    /** Number of warp grids built since start-up, cache misses included. */
+    public static long builds() {
+        return BUILDS.get();
+    }
+
+    public PixelGrid source() {
+        return source;
+    }
+
+    public PixelGrid target() {
+        return target;
+    }
+
+    /** Control spacing in target pixels. */
+    public int step() {
+        return step;
+    }
+
+    /**
+     * Source columns and rows of the {@code (w + 1) x (h + 1)} pixel corners of {@code window},
+     * row-major, into {@code outCols} and {@code outRows}. Corners the projection cannot map are
+     * NaN.
+     */
+    public void corners(Window window, double[] outCols, double[] outRows) {
+        int w = window.width() + 1, h = window.height() + 1;
+        double inv = 1.0 / step;
+        for (int j = 0; j < h; j++) {
+            int ty = window.y() + j;
+            int cy = Math.min(Math.max(Math.floorDiv(ty, step), 0), ny - 2);
+            double fy = ty * inv - cy;
+            for (int i = 0; i < w; i++) {
+                int tx = window.x() + i;
+                int cx = Math.min(Math.max(Math.floorDiv(tx, step), 0), nx - 2);
+                double fx = tx * inv - cx;
+                int k = cy * nx + cx;
+                outCols[j * w + i] = bilinear(cols, k, nx, fx, fy);
+                outRows[j * w + i] = bilinear(rows, k, nx, fx, fy);
+            }
+        }
+    }
+
+    private static double bilinear(double[] v, int k, int nx, double fx, double fy) {
+        double top = v[k] + (v[k + 1] - v[k]) * fx;
+        double bottom = v[k + nx] + (v[k + nx + 1] - v[k + nx]) * fx;
+        return top + (bottom - top) * fy;
+    }
+
+    /** Exact source positions of the control corners at spacing {@code s}. */
+    private double[][] lattice(int s) {
+        int lx = (target.width() + s - 1) / s + 1, ly = (target.height() + s - 1) / s + 1;
+        double[] xy = new double[2 * lx * ly];
+        for (int j = 0; j < ly; j++) {
+            for (int i = 0; i < lx; i++) {
+                xy[2 * (j * lx + i)] = target.originX() + (double) i * s * target.pixelWidth();
+                xy[2 * (j * lx + i) + 1] = target.originY() - (double) j * s * target.pixelHeight();
+            }
+        }
+        return toSource(xy);
+    }
+
+    /** True if interpolating the lattice at each cell centre lands within tolerance. */
+    private boolean withinTolerance(int s, double[][] lattice) {
+        int lx = (target.width() + s - 1) / s + 1, ly = (target.height() + s - 1) / s + 1;
+        double[] xy = new double[2 * (lx - 1) * (ly - 1)];
+        for (int j = 0; j < ly - 1; j++) {
+            for (int i = 0; i < lx - 1; i++) {
+                xy[2 * (j * (lx - 1) + i)] = target.originX() + (i + 0.5) * s * target.pixelWidth();
+                xy[2 * (j * (lx - 1) + i) + 1] = target.originY() - (j + 0.5) * s * target.pixelHeight();
+            }
+        }
+        double[][] exact = toSource(xy);
+        for (int j = 0; j < ly - 1; j++) {
+            for (int i = 0; i < lx - 1; i++) {
+                int k = j * lx + i, m = j * (lx - 1) + i;
+                double c = bilinear(lattice[0], k, lx, 0.5, 0.5), r = bilinear(lattice[1], k, lx, 0.5, 0.5);
+                // NaN on either side (outside the projection's domain) cannot be interpolated.
+                if (!(Math.abs(c - exact[0][m]) <= TOLERANCE && Math.abs(r - exact[1][m]) <= TOLERANCE)
+                        && !(Double.isNaN(exact[0][m]) && Double.isNaN(c))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Target-CRS coordinates, interleaved, to source columns and rows. */
+    private double[][] toSource(double[] xy) {
+        double[] t = Crs.transform(target.crs(), source.crs(), xy);
+        int n = t.length / 2;
+        double[] c = new double[n], r = new double[n];
+        for (int i = 0; i < n; i++) {
+            c[i] = (t[2 * i] - source.originX()) / source.pixelWidth();
+            r[i] = (source.originY() - t[2 * i + 1]) / source.pixelHeight();
+        }
+        return new double[][] {c, r};
+    }
+
+    @Override
+    public String toString() {
+        return "WarpGrid[" + target + " -> " + source + ", step " + step + "]";
+    }
+
+    private static final class Key {
+        private final PixelGrid source;
+        private final PixelGrid target;
+
+        Key(PixelGrid source, PixelGrid target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return source.equals(k.source) && target.equals(k.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, target);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package spatialmusings.engine.raster;
+
+/**
+ * Rectangle of pixels in the coordinates of some {@link PixelGrid}. Windows may extend past
+ * the grid; pixels outside the grid read as masked.
+ */
+public final class Window {
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    public Window(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = Math.max(0, width);
+        this.height = Math.max(0, height);
+    }
+
+    public int x() { return x; }
+    public int y() { return y; }
+    public int width() { return width; }
+    public int height() { return height; }
+    public int maxX() { return x + width; }
+    public int maxY() { return y + height; }
+
+    public int size() {
+        return width * height;
+    }
+
+    public boolean isEmpty() {
+        return width == 0 || height == 0;
+    }
+
+    public boolean contains(int px, int py) {
+        return px >= x && px < x + width && py >= y && py < y + height;
+    }
+
+    public boolean contains(Window other) {
+        return other.x >= x && other.y >= y && other.maxX() <= maxX() && other.maxY() <= maxY();
+    }
+
+    public boolean intersects(Window other) {
+        return !isEmpty() && !other.isEmpty()
+                && other.x < maxX() && other.maxX() > x && other.y < maxY() && other.maxY() > y;
+    }
+
+    public Window intersection(Window other) {
+        int x0 = Math.max(x, other.x);
+        int y0 = Math.max(y, other.y);
+        int x1 = Math.min(maxX(), other.maxX());
+        int y1 = Math.min(maxY(), other.maxY());
+        return new Window(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    public Window translate(int dx, int dy) {
+        return new Window(x + dx, y + dy, width, height);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Window)) {
+            return false;
+        }
+        Window w = (Window) o;
+        return x == w.x && y == w.y && width == w.width && height == w.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((x * 31 + y) * 31 + width) * 31 + height;
+    }
+
+    @Override
+    public String toString() {
+        return "Window[" + x + ", " + y + ", " + width + "x" + height + "]";
+    }
+}
@@ -0,0 +1,435 @@
+package spatialmusings.engine.series;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.TileExecutor;
+
+/**
+ * Cache of region reductions over time, {@code ui.Chart.image.series} results kept on disk:
+ * one value per (region, date, band, reducer), so a series only ever computes dates it has not
+ * seen before.
+ *
+ * <p>The file is a header followed by append-only segments. A segment lists the
+ * (region, band, reducer) keys it uses, then its rows as three columns: key index, date and
+ * value (20 bytes a row), and ends with a CRC32. New results are appended as a new segment and
+ * nothing already written is rewritten; a segment cut short by a crash fails its check and is
+ * dropped, along with anything after it, on the next open. {@link #compact} folds all segments
+ * into one.
+ *
+ * <p>Opening reads the file once and loads every key into memory as sorted primitive
+ * date/value columns, so lookups for any set of regions and dates are binary searches. The file
+ * is read into the heap rather than mapped: a live mapping is only released by GC, and on
+ * Windows it would block truncating a torn tail and replacing the file in {@link #compact}.
+ * Methods are synchronized; updates compute the new reductions on the executor's pool.
+ */
+public final class SeriesStore implements Closeable {
+
+    private static final int MAGIC = 0x534D5453; // "SMTS"
+    private static final int VERSION = 1;
+    private static final int SEGMENT = 0x5345474D; // "SEGM"
+    private static final int HEADER_BYTES = 8;
+
+    private final Path file;
+    private final Map<Key, Column> columns = new HashMap<>();
+    private final Map<Key, Column> pending = new LinkedHashMap<>();
+    private int segments;
+    private long rows;
+    private boolean closed;
+
+    private SeriesStore(Path file) {
+        this.file = file;
+    }
+
+    /** Opens {@code file}, creating an empty store if it does not exist. */
+    public static SeriesStore open(Path file) throws IOException {
+        SeriesStore store = new SeriesStore(file);
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            Files.write(file, header.array());
+            return store;
+        }
+        long good;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GB; compact it or split it by region");
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, buf.position()) < 0) {
+                    throw new IOException(file + " shrank while being opened");
+                }
+            }
+            buf.flip();
+            if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC) {
+                throw new IOException(file + " is not a series store");
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has unsupported version " + version);
+            }
+            good = store.load(buf);
+        }
+        if (good < Files.size(file)) {
+            // Drop a torn tail so the next append lands right after the last complete segment.
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(good);
+            }
+        }
+        return store;
+    }
+
+    /** Reads complete segments and returns the offset just past the last one. */
+    private long load(ByteBuffer buf) {
+        while (buf.remaining() >= 8) {
+            int start = buf.position();
+            if (buf.getInt() != SEGMENT) {
+                return start;
+            }
+            int length = buf.getInt();
+            if (length < 0 || buf.remaining() < (long) length + 8) {
+                return start;
+            }
+            ByteBuffer body = buf.slice(buf.position(), length).order(ByteOrder.BIG_ENDIAN);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            buf.position(buf.position() + length);
+            if (buf.getLong() != crc.getValue()) {
+                return start;
+            }
+            readSegment(body);
+            segments++;
+        }
+        return buf.position();
+    }
+
+    private void readSegment(ByteBuffer body) {
+        String[] strings = new String[body.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] utf = new byte[body.getShort() & 0xFFFF];
+            body.get(utf);
+            strings[i] = new String(utf, StandardCharsets.UTF_8);
+        }
+        Column[] keys = new Column[body.getInt()];
+        for (int k = 0; k < keys.length; k++) {
+            Key key = new Key(strings[body.getInt()], strings[body.getInt()], strings[body.getInt()]);
+            keys[k] = columns.computeIfAbsent(key, x -> new Column());
+        }
+        int n = body.getInt();
+        int keyAt = body.position();
+        int timeAt = keyAt + 4 * n;
+        int valueAt = timeAt + 8 * n;
+        for (int i = 0; i < n; i++) {
+            keys[body.getInt(keyAt + 4 * i)].put(body.getLong(timeAt + 8 * i), body.getDouble(valueAt + 8 * i));
+        }
+        rows += n;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /** Number of segments on disk, i.e. appends since the last {@link #compact}. */
+    public synchronized int segments() {
+        return segments;
+    }
+
+    /** Number of rows on disk, counting values later overwritten. */
+    public synchronized long rows() {
+        return rows;
+    }
+
+    public synchronized boolean contains(String region, long time, String band, String reducer) {
+        Column c = columns.get(new Key(region, band, reducer));
+        return c != null && c.indexOf(time) >= 0;
+    }
+
+    /** Values for dates in {@code [start, end)} (epoch milliseconds); empty if none are stored. */
+    public synchronized TimeSeries series(String region, String band, String reducer, long start, long end) {
+        Column c = columns.get(new Key(region, band, reducer));
+        return c == null ? new TimeSeries(new long[0], new double[0]) : c.range(start, end);
+    }
+
+    /** Convenience for {@link #series(String, String, String, long, long)} over ISO dates. */
+    public TimeSeries series(String region, String band, String reducer, String start, String end) {
+        return series(region, band, reducer, Filter.parseTime(start), Filter.parseTime(end));
+    }
+
+    /** {@link #series(String, String, String, long, long)} for several regions, in the order given. */
+    public synchronized Map<String, TimeSeries> series(Collection<String> regions, String band, String reducer,
+                                                       long start, long end) {
+        Map<String, TimeSeries> out = new LinkedHashMap<>();
+        for (String region : regions) {
+            out.put(region, series(region, band, reducer, start, end));
+        }
+        return out;
+    }
+
+    /** Records one value; it is visible at once and written by the next {@link #flush}. */
+    public synchronized void put(String region, long time, String band, String reducer, double value) {
+        checkOpen();
+        Key key = new Key(region, band, reducer);
+        columns.computeIfAbsent(key, k -> new Column()).put(time, value);
+        pending.computeIfAbsent(key, k -> new Column()).put(time, value);
+    }
+
+    /**
+     * Reduces every band of each image of {@code collection} over each region for the dates
+     * not yet stored with {@code reducer}, and appends the results as one segment. Images
+     * sharing a {@code system:time_start} are mosaicked into one date. Images without a time
+     * are skipped. Returns the number of (region, date) reductions computed.
+     */
+    public int update(ImageCollection collection, Map<String, Geometry> regions, Reducer reducer,
+                      TileExecutor executor) throws IOException {
+        TreeMap<Long, List<Image>> byDate = new TreeMap<>();
+        for (Image image : collection) {
+            Object t = image.get(Filter.TIME_START);
+            if (t instanceof Number) {
+                byDate.computeIfAbsent(((Number) t).longValue(), k -> new ArrayList<>()).add(image);
+            }
+        }
+        int computed = 0;
+        for (Map.Entry<Long, List<Image>> date : byDate.entrySet()) {
+            long time = date.getKey();
+            List<Image> images = date.getValue();
+            List<String> bands = images.get(0).bandNames();
+            Image image = null;
+            for (Map.Entry<String, Geometry> region : regions.entrySet()) {
+                if (stored(region.getKey(), time, bands, reducer.name())) {
+                    continue;
+                }
+                if (image == null) {
+                    image = images.size() == 1 ? images.get(0) : new ImageCollection(images).mosaic();
+                }
+                Map<String, Double> values = image.reduceRegion(reducer, region.getValue(), executor);
+                for (Map.Entry<String, Double> v : values.entrySet()) {
+                    put(region.getKey(), time, v.getKey(), reducer.name(), v.getValue());
+                }
+                computed++;
+            }
+        }
+        flush();
+        return computed;
+    }
+
+    private synchronized boolean stored(String region, long time, List<String> bands, String reducer) {
+        for (String band : bands) {
+            if (!contains(region, time, band, reducer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Appends the values recorded since the last flush as one segment. */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (pending.isEmpty()) {
+            return;
+        }
+        byte[] segment = encode(pending);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buf = ByteBuffer.wrap(segment);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(false);
+        }
+        for (Column c : pending.values()) {
+            rows += c.size;
+        }
+        segments++;
+        pending.clear();
+    }
+
+    /** Rewrites the store as a single segment holding the latest value of every key and date. */
+    public synchronized void compact() throws IOException {
+        flush();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            ch.write(header);
+            if (!columns.isEmpty()) {
+                ch.write(ByteBuffer.wrap(encode(columns)));
+            }
+            ch.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        rows = 0;
+        for (Column c : columns.values()) {
+            rows += c.size;
+        }
+        segments = columns.isEmpty() ? 0 : 1;
+    }
+
+    private static byte[] encode(Map<Key, Column> keys) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        int n = 0;
+        for (Map.Entry<Key, Column> e : keys.entrySet()) {
+            Key k = e.getKey();
+            for (String s : new String[] {k.region, k.band, k.reducer}) {
+                strings.putIfAbsent(s, strings.size());
+            }
+            n += e.getValue().size;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 20 * n);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(strings.size());
+        for (String s : strings.keySet()) {
+            byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+            if (utf.length > 0xFFFF) {
+                throw new IllegalArgumentException("Name too long for a series store: " + s.substring(0, 64) + "...");
+            }
+            body.writeShort(utf.length);
+            body.write(utf);
+        }
+        body.writeInt(keys.size());
+        for (Key k : keys.keySet()) {
+            body.writeInt(strings.get(k.region));
+            body.writeInt(strings.get(k.band));
+            body.writeInt(strings.get(k.reducer));
+        }
+        body.writeInt(n);
+        int key = 0;
+        for (Column c : keys.values()) {
+            for (int i = 0; i < c.size; i++) {
+                body.writeInt(key);
+            }
+            key++;
+        }
+        for (Column c : keys.values()) {
+            for (int i = 0; i < c.size; i++) {
+                body.writeLong(c.times[i]);
+            }
+        }
+        for (Column c : keys.values()) {
+            for (int i = 0; i < c.size; i++) {
+                body.writeDouble(c.values[i]);
+            }
+        }
+        body.flush();
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer out = ByteBuffer.allocate(payload.length + 16);
+        out.putInt(SEGMENT).putInt(payload.length).put(payload).putLong(crc.getValue());
+        return out.array();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Series store " + file + " is closed");
+        }
+    }
+
+    /** Flushes pending values. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            flush();
+            closed = true;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SeriesStore[" + file + ", " + columns.size() + " series, " + rows + " rows in " + segments
+                + " segments]";
+    }
+
+    /** Dates and values of one key, dates ascending and unique. */
+    private static final class Column {
+        long[] times = new long[16];
+        double[] values = new double[16];
+        int size;
+
+        int indexOf(long time) {
+            return Arrays.binarySearch(times, 0, size, time);
+        }
+
+        /** Inserts or replaces; appends in date order, the common case, without shifting. */
+        void put(long time, double value) {
+            int i = size > 0 && times[size - 1] < time ? -size - 1 : indexOf(time);
+            if (i >= 0) {
+                values[i] = value;
+                return;
+            }
+            i = -i - 1;
+            if (size == times.length) {
+                times = Arrays.copyOf(times, 2 * size);
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            System.arraycopy(times, i, times, i + 1, size - i);
+            System.arraycopy(values, i, values, i + 1, size - i);
+            times[i] = time;
+            values[i] = value;
+            size++;
+        }
+
+        TimeSeries range(long start, long end) {
+            int from = lowerBound(start);
+            int to = Math.max(from, lowerBound(end));
+            return new TimeSeries(Arrays.copyOfRange(times, from, to), Arrays.copyOfRange(values, from, to));
+        }
+
+        private int lowerBound(long time) {
+            int i = indexOf(time);
+            return i >= 0 ? i : -i - 1;
+        }
+    }
+
+    private static final class Key {
+        final String region;
+        final String band;
+        final String reducer;
+        private final int hash;
+
+        Key(String region, String band, String reducer) {
+            this.region = region;
+            this.band = band;
+            this.reducer = reducer;
+            this.hash = Objects.hash(region, band, reducer);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && region.equals(k.region) && band.equals(k.band) && reducer.equals(k.reducer);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package spatialmusings.engine.series;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.expr.Expr;
+import spatialmusings.engine.expr.Op;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.ops.ExpressionImage;
+import spatialmusings.engine.ops.TemporalImage;
+import spatialmusings.engine.raster.TileExecutor;
+
+/**
+ * Temporal reducers over a collection of dated images, such as monthly TerraClimate: means by
+ * month or year, a monthly climatology, anomalies against it, and rolling windows.
+ *
+ * <pre>
+ * Temporal tmmx = Temporal.of(terraclimate.select("tmmx")).scale(0.1);
+ * Image annual = tmmx.annual(Reducer.mean());          // tmmx_1958 .. tmmx_2020
+ * Image anomalies = tmmx.anomalies(1961, 1990);        // tmmx_1958_01 .. tmmx_2020_12
+ * </pre>
+ *
+ * Each result is one lazy {@link TemporalImage} with a band per period, so reading a tile of
+ * it streams the stack once with running per-pixel accumulators (see there) and never builds
+ * the scaled collection {@code map(image.multiply(0.1))} would. {@link #scale} replaces that
+ * map: the factor is applied to each period's statistics as it is reduced. Dates are
+ * {@code system:time_start} in UTC; images without one are ignored. Instances are immutable.
+ */
+public final class Temporal {
+
+    private static final Pattern DATED = Pattern.compile("(.+)_(\\d{4})(?:_(\\d{2}))?");
+
+    private final List<Image> images;
+    private final long[] times;
+    private final double scale;
+    private final double offset;
+
+    private Temporal(List<Image> images, long[] times, double scale, double offset) {
+        this.images = images;
+        this.times = times;
+        this.scale = scale;
+        this.offset = offset;
+    }
+
+    /** The dated images of {@code collection}, in time order. */
+    public static Temporal of(ImageCollection collection) {
+        List<Image> dated = new ArrayList<>();
+        for (Image image : collection.sort(Filter.TIME_START)) {
+            if (image.get(Filter.TIME_START) instanceof Number) {
+                dated.add(image);
+            }
+        }
+        if (dated.isEmpty()) {
+            throw new IllegalArgumentException("No image in the collection has a " + Filter.TIME_START);
+        }
+        long[] times = new long[dated.size()];
+        for (int k = 0; k < times.length; k++) {
+            times[k] = ((Number) dated.get(k).get(Filter.TIME_START)).longValue();
+        }
+        return new Temporal(dated, times, 1, 0);
+    }
+
+    /** Same images read as {@code value * scale}, e.g. 0.1 for TerraClimate temperatures. */
+    public Temporal scale(double scale) {
+        return scale(scale, 0);
+    }
+
+    /** Same images read as {@code value * scale + offset}, replacing any earlier scale. */
+    public Temporal scale(double scale, double offset) {
+        return new Temporal(images, times, scale, offset);
+    }
+
+    public int size() {
+        return images.size();
+    }
+
+    /** {@code reducer} over the whole stack, as {@code collection.reduce(reducer)}: bands {@code band_mean}, ... */
+    public TemporalImage reduce(Reducer reducer) {
+        int[][] feeds = new int[images.size()][];
+        Arrays.fill(feeds, new int[] {0});
+        return image(feeds, List.of(reducer.name()), new long[] {times[0]}, reducer);
+    }
+
+    /** {@code reducer} of each calendar month present: bands {@code band_yyyy_MM}. */
+    public TemporalImage monthly(Reducer reducer) {
+        return rolling(1, reducer);
+    }
+
+    /** {@code reducer} of each year present: bands {@code band_yyyy}. */
+    public TemporalImage annual(Reducer reducer) {
+        TreeMap<Integer, Integer> years = new TreeMap<>();
+        for (long t : times) {
+            years.putIfAbsent(date(t).getYear(), years.size());
+        }
+        int[][] feeds = new int[images.size()][];
+        for (int k = 0; k < feeds.length; k++) {
+            feeds[k] = new int[] {years.get(date(times[k]).getYear())};
+        }
+        List<String> labels = new ArrayList<>();
+        long[] starts = new long[years.size()];
+        for (int year : years.keySet()) {
+            starts[labels.size()] = millis(LocalDate.of(year, 1, 1));
+            labels.add(String.valueOf(year));
+        }
+        return image(feeds, labels, starts, reducer);
+    }
+
+    /**
+     * {@code reducer} of each month of the year over the years {@code fromYear} to
+     * {@code toYear} inclusive: bands {@code band_01} to {@code band_12}, dated to that month
+     * of {@code fromYear}. Months without data in the baseline are masked.
+     */
+    public TemporalImage climatology(Reducer reducer, int fromYear, int toYear) {
+        if (fromYear > toYear) {
+            throw new IllegalArgumentException("Baseline " + fromYear + "-" + toYear + " is empty");
+        }
+        int[][] feeds = new int[images.size()][];
+        boolean any = false;
+        for (int k = 0; k < feeds.length; k++) {
+            LocalDate d = date(times[k]);
+            boolean in = d.getYear() >= fromYear && d.getYear() <= toYear;
+            feeds[k] = in ? new int[] {d.getMonthValue() - 1} : new int[0];
+            any |= in;
+        }
+        if (!any) {
+            throw new IllegalArgumentException("No image falls in the baseline " + fromYear + "-" + toYear);
+        }
+        List<String> labels = new ArrayList<>(12);
+        long[] starts = new long[12];
+        for (int m = 1; m <= 12; m++) {
+            starts[m - 1] = millis(LocalDate.of(fromYear, m, 1));
+            labels.add(String.format("%02d", m));
+        }
+        return image(feeds, labels, starts, reducer);
+    }
+
+    /**
+     * Each month's mean minus the mean of that month of the year over {@code fromYear} to
+     * {@code toYear}: bands {@code band_yyyy_MM}. One expression over {@link #monthly} and
+     * {@link #climatology}, so a tile read folds the stack once and the baseline once more.
+     */
+    public Image anomalies(int fromYear, int toYear) {
+        TemporalImage months = monthly(Reducer.mean());
+        TemporalImage normals = climatology(Reducer.mean(), fromYear, toYear);
+        int nb = images.get(0).bandNames().size();
+        long[] starts = months.times();
+        List<Expr> exprs = new ArrayList<>(months.bandNames().size());
+        for (int p = 0; p < starts.length; p++) {
+            int month = date(starts[p]).getMonthValue() - 1;
+            for (int b = 0; b < nb; b++) {
+                exprs.add(Expr.apply(Op.SUBTRACT, Expr.band(0, p * nb + b), Expr.band(1, month * nb + b)));
+            }
+        }
+        return ExpressionImage.of(List.of(months, normals), exprs, months.bandNames());
+    }
+
+    /**
+     * {@code reducer} over the {@code months} calendar months ending with each month present,
+     * e.g. a 12-month rolling mean: bands {@code band_yyyy_MM}, from the first month with a
+     * full window. Each image is read once and counts towards every window it falls in.
+     */
+    public TemporalImage rolling(int months, Reducer reducer) {
+        if (months < 1) {
+            throw new IllegalArgumentException("A rolling window needs at least one month: " + months);
+        }
+        int first = monthIndex(times[0]);
+        TreeMap<Integer, Integer> ends = new TreeMap<>();
+        for (long t : times) {
+            int m = monthIndex(t);
+            if (m - months + 1 >= first) {
+                ends.putIfAbsent(m, 0);
+            }
+        }
+        int p = 0;
+        for (Map.Entry<Integer, Integer> e : ends.entrySet()) {
+            e.setValue(p++);
+        }
+        int[][] feeds = new int[images.size()][];
+        for (int k = 0; k < feeds.length; k++) {
+            int m = monthIndex(times[k]);
+            feeds[k] = ends.subMap(m, true, m + months - 1, true).values().stream().mapToInt(Integer::intValue)
+                    .toArray();
+        }
+        List<String> labels = new ArrayList<>(ends.size());
+        long[] starts = new long[ends.size()];
+        for (int m : ends.keySet()) {
+            LocalDate d = LocalDate.of(Math.floorDiv(m, 12), Math.floorMod(m, 12) + 1, 1);
+            starts[labels.size()] = millis(d);
+            labels.add(String.format("%04d_%02d", d.getYear(), d.getMonthValue()));
+        }
+        return image(feeds, labels, starts, reducer);
+    }
+
+    /**
+     * {@code reducer} of every band of a dated image over {@code region}, as one series per
+     * input band: the {@code ui.Chart.image.series} of {@link #monthly}, {@link #annual},
+     * {@link #rolling} or {@link #anomalies}. All dates come from one pass over the region's
+     * tiles, which hold every band at once, so large regions want a smaller tile size.
+     */
+    public static Map<String, TimeSeries> series(Image image, Reducer reducer, Geometry region,
+                                                 TileExecutor executor) {
+        Map<String, Double> values = image.reduceRegion(reducer, region, executor);
+        Map<String, TreeMap<Long, Double>> byBand = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> v : values.entrySet()) {
+            Matcher m = DATED.matcher(v.getKey());
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Band '" + v.getKey() + "' is not dated _yyyy or _yyyy_MM");
+            }
+            int month = m.group(3) == null ? 1 : Integer.parseInt(m.group(3));
+            long time = millis(LocalDate.of(Integer.parseInt(m.group(2)), month, 1));
+            byBand.computeIfAbsent(m.group(1), k -> new TreeMap<>()).put(time, v.getValue());
+        }
+        Map<String, TimeSeries> out = new LinkedHashMap<>();
+        byBand.forEach((band, points) -> out.put(band, new TimeSeries(
+                points.keySet().stream().mapToLong(Long::longValue).toArray(),
+                points.values().stream().mapToDouble(Double::doubleValue).toArray())));
+        return out;
+    }
+
+    private TemporalImage image(int[][] feeds, List<String> labels, long[] starts, Reducer reducer) {
+        return new TemporalImage(images, feeds, labels, starts, reducer, scale, offset);
+    }
+
+    private static LocalDate date(long millis) {
+        return Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    private static int monthIndex(long millis) {
+        LocalDate d = date(millis);
+        return d.getYear() * 12 + d.getMonthValue() - 1;
+    }
+
+    private static long millis(LocalDate date) {
+        return date.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public String toString() {
+        return "Temporal[" + images.size() + " images, " + date(times[0]) + " .. " + date(times[times.length - 1])
+                + (scale == 1 && offset == 0 ? "" : ", x" + scale + " + " + offset) + "]";
+    }
+}
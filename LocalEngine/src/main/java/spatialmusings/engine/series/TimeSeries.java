@@ -0,0 +1,46 @@
+package spatialmusings.engine.series;
+
+import java.time.Instant;
+
+/**
+ * One reduced value per date for a (region, band, reducer), dates ascending as epoch
+ * milliseconds ({@code system:time_start}). NaN marks a date whose region was fully masked.
+ * Instances are immutable.
+ */
+public final class TimeSeries {
+
+    private final long[] times;
+    private final double[] values;
+
+    TimeSeries(long[] times, double[] values) {
+        this.times = times;
+        this.values = values;
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    public long time(int i) {
+        return times[i];
+    }
+
+    public double value(int i) {
+        return values[i];
+    }
+
+    public long[] times() {
+        return times.clone();
+    }
+
+    public double[] values() {
+        return values.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "TimeSeries[" + times.length + " dates"
+                + (times.length == 0 ? "" : ", " + Instant.ofEpochMilli(times[0]) + " .. "
+                        + Instant.ofEpochMilli(times[times.length - 1])) + "]";
+    }
+}
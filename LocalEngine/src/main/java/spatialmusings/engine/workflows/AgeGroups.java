@@ -0,0 +1,164 @@
+package spatialmusings.engine.workflows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.io.SceneImage;
+import spatialmusings.engine.io.ShapefileReader;
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Resampling;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.zonal.ZonalStatistics;
+import spatialmusings.engine.zonal.ZonalTable;
+
+/**
+ * Local port of Engineering/process_worldpop_popdensity_GEE.py feeding
+ * extracting_zonalstatistics_GEE.py: WorldPop age/sex bands summed into age categories, and the
+ * mean, sum, min, max, std and count of each category per admin unit, written as one CSV with
+ * {@code <category>.<stat>} columns.
+ *
+ * <pre>
+ * java spatialmusings.engine.workflows.AgeGroups &lt;boundaries.shp&gt; &lt;name-field&gt; &lt;out.csv&gt;
+ *      [-base base.tif] [-groups groups.txt] &lt;worldpop-band.tif&gt;...
+ * </pre>
+ *
+ * Each band is taken from a WorldPop age/sex file, named {@code F_15}, {@code M_80} and so on
+ * after the {@code _f_15_} / {@code _m_80_} in its file name. The categories are those of the
+ * script unless {@code -groups} names a file of {@code category: band band ...} lines. With
+ * {@code -base}, the sums are reprojected onto the base raster's grid by area-weighted sum,
+ * as the script's {@code reduceResolution(sum)} does.
+ *
+ * <p>Nothing is exported in between: the categories are one band-math image over the band
+ * files, reduced in a single pass. Each tile decodes every band file once, whichever
+ * categories share it, and every category's statistics come out of that same read. As in
+ * {@code reduceRegions}, masked pixels are skipped and zeros count.
+ */
+public final class AgeGroups {
+
+    /** The categories of process_worldpop_popdensity_GEE.py. */
+    public static final Map<String, List<String>> WORLDPOP;
+
+    static {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        groups.put("children_under_5", List.of("F_0", "F_1", "M_0", "M_1"));
+        groups.put("youth_15_24", List.of("F_15", "F_20", "M_15", "M_20"));
+        groups.put("all_men", ages("M_", 0, 80));
+        groups.put("women_reproductive_15_49", ages("F_", 15, 45));
+        groups.put("all_women", ages("F_", 0, 80));
+        groups.put("elderly_60_plus", concat(ages("F_", 60, 80), ages("M_", 60, 80)));
+        WORLDPOP = Collections.unmodifiableMap(groups);
+    }
+
+    private static final Pattern BAND = Pattern.compile("(?i)(?:^|_)([fm])_(\\d+)(?=_|\\.|$)");
+
+    private AgeGroups() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: AgeGroups <boundaries.shp> <name-field> <out.csv> [-base base.tif]"
+                    + " [-groups groups.txt] <worldpop-band.tif>...");
+            System.exit(2);
+        }
+        List<String> rest = new ArrayList<>(Arrays.asList(args).subList(3, args.length));
+        PixelGrid base = null;
+        int at = rest.indexOf("-base");
+        if (at >= 0) {
+            try (SceneImage b = new SceneImage(Collections.singletonList("base"),
+                    Collections.singletonList(Paths.get(rest.get(at + 1))), Collections.emptyMap())) {
+                base = b.grid();
+            }
+            rest.subList(at, at + 2).clear();
+        }
+        Map<String, List<String>> groups = WORLDPOP;
+        at = rest.indexOf("-groups");
+        if (at >= 0) {
+            groups = readGroups(Paths.get(rest.get(at + 1)));
+            rest.subList(at, at + 2).clear();
+        }
+        List<String> names = new ArrayList<>(rest.size());
+        List<Path> files = new ArrayList<>(rest.size());
+        for (String arg : rest) {
+            Path file = Paths.get(arg);
+            names.add(bandName(file));
+            files.add(file);
+        }
+
+        long t0 = System.nanoTime();
+        ZonalStatistics zones = ZonalStatistics.of(ShapefileReader.read(Paths.get(args[0])), args[1]);
+        ZonalTable table = new ZonalTable(zones.zones());
+        TileExecutor executor = TileExecutor.common();
+        try (SceneImage worldpop = new SceneImage(names, files, Collections.emptyMap())) {
+            Image categories = worldpop.sumBands(groups);
+            Image matched = base == null ? categories : categories.reproject(base, Resampling.SUM);
+            GroupedStats[] stats = zones.reduce(matched, false, executor);
+            List<String> bands = matched.bandNames();
+            for (int g = 0; g < stats.length; g++) {
+                table.add(bands.get(g), stats[g]);
+            }
+        }
+        table.write(Paths.get(args[2]));
+        System.err.printf("%d zones x %d categories from %d bands to %s in %.1f s%n", zones.zones().size(),
+                groups.size(), files.size(), args[2], (System.nanoTime() - t0) / 1e9);
+    }
+
+    /** {@code F_0}-style band name of a WorldPop age/sex file such as {@code ken_f_15_2020.tif}. */
+    private static String bandName(Path file) {
+        Matcher m = BAND.matcher(file.getFileName().toString());
+        if (!m.find()) {
+            throw new IllegalArgumentException("No _f_<age>_ or _m_<age>_ in file name " + file);
+        }
+        return m.group(1).toUpperCase(Locale.ROOT) + "_" + m.group(2);
+    }
+
+    /** Categories from {@code name: band band ...} lines; blank lines and {@code #} comments are skipped. */
+    private static Map<String, List<String>> readGroups(Path file) throws IOException {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            line = line.replaceFirst("#.*", "").trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            List<String> bands = colon < 0 ? List.of() : Arrays.asList(line.substring(colon + 1).trim().split("[\\s,]+"));
+            if (colon <= 0 || bands.get(0).isEmpty()) {
+                throw new IllegalArgumentException("Expected 'category: band band ...' in " + file + ": " + line);
+            }
+            groups.put(line.substring(0, colon).trim(), bands);
+        }
+        if (groups.isEmpty()) {
+            throw new IllegalArgumentException("No categories in " + file);
+        }
+        return groups;
+    }
+
+    /** {@code prefix} followed by each WorldPop age class from {@code from} to {@code to}: 0, 1, 5, 10, ... 80. */
+    private static List<String> ages(String prefix, int from, int to) {
+        List<String> out = new ArrayList<>();
+        for (int age = 0; age <= 80; age = age == 0 ? 1 : age == 1 ? 5 : age + 5) {
+            if (age >= from && age <= to) {
+                out.add(prefix + age);
+            }
+        }
+        return out;
+    }
+
+    private static List<String> concat(List<String> a, List<String> b) {
+        List<String> out = new ArrayList<>(a);
+        out.addAll(b);
+        return out;
+    }
+}
@@ -0,0 +1,62 @@
+package spatialmusings.engine.workflows;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.index.FeatureStore;
+import spatialmusings.engine.io.SceneImage;
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.TileExecutor;
+
+/**
+ * Local port of Methods/06.5-calculating_area.java: area of every land-cover class of a
+ * classified raster inside a county, in one pass, printed as CSV.
+ *
+ * <pre>
+ * java spatialmusings.engine.workflows.ClassArea &lt;classified.tif&gt; &lt;counties.shp&gt; [county] [field]
+ * </pre>
+ *
+ * Class numbers are named as in the script (0 urban, 1 bare, 2 vegetation). Where the script
+ * builds a {@code pixelArea()} band and groups its sum by class, this reduces the classified
+ * band alone and takes each pixel's area from its row, so no area raster is produced.
+ */
+public final class ClassArea {
+
+    private static final String[] CLASS_NAMES = {"urban", "bare", "vegetation"};
+
+    private ClassArea() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("usage: ClassArea <classified.tif> <counties.shp> [county] [field]");
+            System.exit(2);
+        }
+        Path classified = Paths.get(args[0]);
+        String county = args.length > 2 ? args[2] : "Kisii";
+        String field = args.length > 3 ? args[3] : "COUNTY";
+        List<Feature> matches = FeatureStore.load(Paths.get(args[1])).eq(field, county);
+        if (matches.isEmpty()) {
+            System.err.println("No feature with " + field + " = " + county);
+            System.exit(1);
+        }
+        Geometry geometry = matches.get(0).geometry();
+
+        long t0 = System.nanoTime();
+        GroupedStats stats;
+        try (SceneImage image = new SceneImage(Collections.singletonList("classification"),
+                Collections.singletonList(classified), Collections.emptyMap())) {
+            stats = image.reduceGroups(0, geometry, TileExecutor.common());
+        }
+        System.out.println("class,class_name,area_km2,pixels");
+        for (int c : stats.groups()) {
+            String name = c >= 0 && c < CLASS_NAMES.length ? CLASS_NAMES[c] : "";
+            System.out.printf("%d,%s,%.6f,%.0f%n", c, name, stats.area(c) / 1e6, stats.stats(c).count());
+        }
+        System.err.printf("%s in %.2f s%n", county, (System.nanoTime() - t0) / 1e9);
+    }
+}
@@ -0,0 +1,54 @@
+package spatialmusings.engine.workflows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.io.CogWriter;
+import spatialmusings.engine.io.SceneCatalog;
+
+/**
+ * Local port of Methods/01-clipping.java: median of a year of low-cloud Sentinel-2 scenes over
+ * a region, clipped to it and exported as a cloud-optimized GeoTIFF.
+ *
+ * <pre>
+ * java spatialmusings.engine.workflows.Clipping &lt;scene-archive&gt; &lt;region.wkt&gt; &lt;out.tif&gt; [start end]
+ * </pre>
+ *
+ * The region file holds WGS84 well-known text, e.g. the Kisii county boundary. Scenes are picked
+ * from the archive's {@link SceneCatalog}, which the first run builds.
+ */
+public final class Clipping {
+
+    private Clipping() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3 && args.length != 5) {
+            System.err.println("usage: Clipping <scene-archive> <region.wkt> <out.tif> [start end]");
+            System.exit(2);
+        }
+        Path archivePath = Paths.get(args[0]);
+        Geometry geometry = Geometry.fromWkt(
+                new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8), Crs.WGS84);
+        String start = args.length == 5 ? args[3] : "2019-01-01";
+        String end = args.length == 5 ? args[4] : "2020-01-01";
+
+        long t0 = System.nanoTime();
+        try (SceneCatalog catalog = SceneCatalog.openOrBuild(archivePath)) {
+            ImageCollection filtered = catalog.filter(Filter.lt("CLOUDY_PIXEL_PERCENTAGE", 30)
+                    .and(Filter.date(start, end))
+                    .and(Filter.bounds(geometry)), "B.*");
+            System.out.println("Scenes: " + filtered.size());
+            Image clipped = filtered.median().clip(geometry);
+            CogWriter.write(clipped, geometry, Paths.get(args[2]));
+        }
+        System.out.printf("Exported %s in %.1f s%n", args[2], (System.nanoTime() - t0) / 1e9);
+    }
+}
@@ -0,0 +1,63 @@
+package spatialmusings.engine.workflows;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.index.FeatureStore;
+import spatialmusings.engine.index.PointJoin;
+
+/**
+ * Local port of "Methods/Label points based on the polygons they fall in.Rmd": labels every
+ * point of a CSV such as data/kingfisher.csv with the county it falls in and totals the points
+ * and their counts per county, printed as CSV.
+ *
+ * <pre>
+ * java spatialmusings.engine.workflows.LabelPoints &lt;points.csv&gt; &lt;counties.shp&gt; [field] [labelled.csv]
+ * </pre>
+ *
+ * Coordinates are read from {@code longitudeDecimal} and {@code latitudeDecimal} in WGS84 and
+ * {@code individualCount} is summed, as in the Rmd; {@code field} defaults to {@code COUNTY}.
+ * Counties are listed in layer order, merging features that share a name, followed by a row
+ * with an empty name for points outside every county.
+ */
+public final class LabelPoints {
+
+    private LabelPoints() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("usage: LabelPoints <points.csv> <counties.shp> [field] [labelled.csv]");
+            System.exit(2);
+        }
+        String field = args.length > 2 ? args[2] : "COUNTY";
+        Path labelled = args.length > 3 ? Paths.get(args[3]) : null;
+
+        long t0 = System.nanoTime();
+        PointJoin join = new PointJoin(FeatureStore.load(Paths.get(args[1])).collection(), Crs.WGS84);
+        PointJoin.Counts counts = join.join(Paths.get(args[0]), "longitudeDecimal", "latitudeDecimal",
+                "individualCount", labelled, field, ForkJoinPool.commonPool());
+        Map<String, double[]> totals = new LinkedHashMap<>();
+        for (int i = 0; i < counts.size(); i++) {
+            Object name = join.polygon(i).get(field);
+            double[] t = totals.computeIfAbsent(name == null ? "" : name.toString(), k -> new double[2]);
+            t[0] += counts.points(i);
+            t[1] += counts.sum(i);
+        }
+        System.out.println(field + ",points,individualCount");
+        totals.forEach((name, t) -> {
+            if (t[0] > 0) {
+                System.out.printf("%s,%.0f,%.0f%n", name, t[0], t[1]);
+            }
+        });
+        if (counts.unmatched() > 0) {
+            System.out.printf(",%d,%.0f%n", counts.unmatched(), counts.unmatchedSum());
+        }
+        System.err.printf("%d points in %d polygons in %.2f s%n", counts.total(), join.size(),
+                (System.nanoTime() - t0) / 1e9);
+    }
+}
@@ -0,0 +1,82 @@
+package spatialmusings.engine.workflows;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.io.SceneCatalog;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.series.Temporal;
+import spatialmusings.engine.series.TimeSeries;
+
+/**
+ * Local port of Methods/05-monthly_temperature_nairobi.java: the monthly maximum temperature
+ * ({@code tmmx}) of a TerraClimate archive at a point, with its 12-month rolling mean and its
+ * anomaly against a baseline climatology, printed as {@code date,tmmx,tmmx_12mo,anomaly} CSV.
+ *
+ * <pre>
+ * java spatialmusings.engine.workflows.MonthlyTemperature &lt;terraclimate-archive&gt; &lt;lon&gt; &lt;lat&gt; [start end [from to]]
+ * </pre>
+ *
+ * The script's scaling factor of 0.1 is applied by {@link Temporal#scale} rather than by
+ * mapping {@code multiply(0.1)} over the collection. Dates default to the 50 years from 1970
+ * and the baseline to 1971-2000.
+ */
+public final class MonthlyTemperature {
+
+    private static final double SCALE = 0.1;
+
+    private MonthlyTemperature() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3 && args.length != 5 && args.length != 7) {
+            System.err.println("usage: MonthlyTemperature <terraclimate-archive> <lon> <lat> [start end [from to]]");
+            System.exit(2);
+        }
+        Geometry point = Geometry.point(Double.parseDouble(args[1]), Double.parseDouble(args[2]));
+        String start = args.length > 3 ? args[3] : "1970-01-01";
+        String end = args.length > 3 ? args[4] : "2020-01-01";
+        int from = args.length > 5 ? Integer.parseInt(args[5]) : 1971;
+        int to = args.length > 5 ? Integer.parseInt(args[6]) : 2000;
+
+        long t0 = System.nanoTime();
+        try (SceneCatalog terraclimate = SceneCatalog.openOrBuild(Paths.get(args[0]))) {
+            Temporal tmmx = Temporal.of(terraclimate.filter(Filter.date(start, end).and(Filter.bounds(point)), "tmmx"))
+                    .scale(SCALE);
+            TileExecutor executor = TileExecutor.common();
+            TimeSeries monthly = Temporal.series(tmmx.monthly(Reducer.mean()), Reducer.mean(), point, executor)
+                    .get("tmmx");
+            Map<String, TimeSeries> rolling = Temporal.series(tmmx.rolling(12, Reducer.mean()), Reducer.mean(), point,
+                    executor);
+            Map<String, TimeSeries> anomalies = Temporal.series(tmmx.anomalies(from, to), Reducer.mean(), point,
+                    executor);
+            System.out.println("date,tmmx,tmmx_12mo,anomaly");
+            for (int i = 0; i < monthly.size(); i++) {
+                System.out.println(Instant.ofEpochMilli(monthly.time(i)).atZone(ZoneOffset.UTC).toLocalDate() + ","
+                        + format(monthly.value(i)) + "," + format(valueAt(rolling.get("tmmx"), monthly.time(i)))
+                        + "," + format(valueAt(anomalies.get("tmmx"), monthly.time(i))));
+            }
+            System.err.printf("%d months from %d images in %.1f s%n", monthly.size(), tmmx.size(),
+                    (System.nanoTime() - t0) / 1e9);
+        }
+    }
+
+    /** Value of {@code series} at {@code time}; NaN if it has none there. */
+    private static double valueAt(TimeSeries series, long time) {
+        for (int i = 0; series != null && i < series.size(); i++) {
+            if (series.time(i) == time) {
+                return series.value(i);
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static String format(double v) {
+        return Double.isNaN(v) ? "" : String.format("%.2f", v);
+    }
+}
@@ -0,0 +1,75 @@
+package spatialmusings.engine.workflows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Map;
+
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.Reducer;
+import spatialmusings.engine.geom.Crs;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.io.SceneCatalog;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.series.SeriesStore;
+import spatialmusings.engine.series.TimeSeries;
+
+/**
+ * Local port of Methods/04-Time_series_NDVI.java: mean NDVI of Cloud Score+ masked Sentinel-2
+ * scenes over a region, one value per date, printed as {@code date,ndvi} CSV.
+ *
+ * <pre>
+ * java spatialmusings.engine.workflows.NdviSeries &lt;s2-archive&gt; &lt;cs-archive&gt; &lt;region.wkt&gt; &lt;store&gt; [start end]
+ * </pre>
+ *
+ * Scenes are picked from each archive's {@link SceneCatalog} (built on first run) and read at
+ * the script's {@code scale: 1000} from their GeoTIFF overviews where the files have them. Results are kept in a {@link SeriesStore} under the region file's name, so a
+ * rerun after new scenes land in the archive only reduces the new dates.
+ */
+public final class NdviSeries {
+
+    private static final double SCALE = 1000;
+
+    private NdviSeries() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4 && args.length != 6) {
+            System.err.println("usage: NdviSeries <s2-archive> <cs-archive> <region.wkt> <store> [start end]");
+            System.exit(2);
+        }
+        Path regionFile = Paths.get(args[2]);
+        Geometry geometry = Geometry.fromWkt(new String(Files.readAllBytes(regionFile), StandardCharsets.UTF_8), Crs.WGS84);
+        String fileName = regionFile.getFileName().toString();
+        String region = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+        String start = args.length == 6 ? args[4] : "2020-01-01";
+        String end = args.length == 6 ? args[5] : "2025-01-01";
+
+        long t0 = System.nanoTime();
+        try (SceneCatalog s2 = SceneCatalog.openOrBuild(Paths.get(args[0]));
+             SceneCatalog csPlus = SceneCatalog.openOrBuild(Paths.get(args[1]));
+             SeriesStore store = SeriesStore.open(Paths.get(args[3]))) {
+            Filter scenes = Filter.date(start, end).and(Filter.bounds(geometry));
+            ImageCollection filtered = s2.filter(scenes, SCALE, "B4", "B8");
+            ImageCollection ndvi = filtered.linkCollection(csPlus.filter(scenes, SCALE, "cs"), "cs")
+                    .map(image -> image.updateMask(image.select("cs").gte(0.5)))
+                    .map(image -> image.normalizedDifference("B8", "B4").rename("ndvi")
+                            .copyProperties(image, Filter.TIME_START));
+            Map<String, Geometry> regions = Collections.singletonMap(region, geometry);
+            int computed = store.update(ndvi, regions, Reducer.mean(), TileExecutor.common());
+            TimeSeries series = store.series(region, "ndvi", "mean", start, end);
+            System.out.println("date,ndvi");
+            for (int i = 0; i < series.size(); i++) {
+                System.out.println(Instant.ofEpochMilli(series.time(i)).atZone(ZoneOffset.UTC).toLocalDate()
+                        + "," + (Double.isNaN(series.value(i)) ? "" : series.value(i)));
+            }
+            System.err.printf("%d dates, %d newly reduced, in %.1f s (%s)%n", series.size(), computed,
+                    (System.nanoTime() - t0) / 1e9, store);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package spatialmusings.engine.workflows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Filter;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.ImageCollection;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.index.FeatureStore;
+import spatialmusings.engine.io.CogWriter;
+import spatialmusings.engine.io.SceneCatalog;
+import spatialmusings.engine.io.SceneImage;
+import spatialmusings.engine.jobs.RegionJob;
+import spatialmusings.engine.jobs.RegionScheduler;
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Runs the clipping (01), class area (06.5) or burned area (07) workflow for every region of
+ * a boundary layer, instead of once per edit of the script's county line, through a
+ * {@link RegionScheduler}.
+ *
+ * <pre>
+ * java spatialmusings.engine.workflows.PerRegion &lt;workflow&gt; &lt;regions.shp&gt; &lt;name-field&gt; &lt;work-dir&gt;
+ *      [-workers N] [-where field=value] &lt;workflow args&gt;
+ *
+ *   clipping &lt;scene-archive&gt; [start end]           COG per region in work-dir/out
+ *   area     &lt;classified.tif&gt;                       class areas per region
+ *   fire     &lt;s2-archive&gt; &lt;cs-archive&gt; [start end]  burned hectares per region
+ * </pre>
+ *
+ * {@code -where county=Kisii} keeps the wards of one county. {@code -workers N} starts N - 1
+ * more JVMs on the same work directory, splitting the cores between them. Rerunning after an
+ * interruption (or with more workers) skips the regions already done; the table is
+ * {@code work-dir/results.csv}.
+ */
+public final class PerRegion {
+
+    private static final String[] CLASS_NAMES = {"urban", "bare", "vegetation"};
+
+    private PerRegion() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> rest = new ArrayList<>(Arrays.asList(args));
+        int workers = Integer.parseInt(option(rest, "-workers", "1"));
+        String where = option(rest, "-where", null);
+        if (rest.size() < 5 || workers < 1) {
+            System.err.println("usage: PerRegion <clipping|area|fire> <regions.shp> <name-field> <work-dir>"
+                    + " [-workers N] [-where field=value] <workflow args>");
+            System.exit(2);
+        }
+        String workflow = rest.get(0);
+        Path dir = Paths.get(rest.get(3));
+        List<String> jobArgs = rest.subList(4, rest.size());
+        FeatureStore store = FeatureStore.load(Paths.get(rest.get(1)));
+        FeatureCollection regions = store.collection();
+        if (where != null) {
+            int eq = where.indexOf('=');
+            regions = store.filter(Filter.eq(where.substring(0, eq), where.substring(eq + 1)));
+        }
+
+        long t0 = System.nanoTime();
+        List<Process> children = new ArrayList<>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        TileExecutor executor = TileExecutor.common();
+        if (workers > 1) {
+            int share = Math.max(1, cores / workers);
+            List<String> command = new ArrayList<>();
+            command.add(ProcessHandle.current().info().command().orElse("java"));
+            command.add("-Djava.util.concurrent.ForkJoinPool.common.parallelism=" + share);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(PerRegion.class.getName());
+            command.addAll(rest);
+            if (where != null) {
+                command.add("-where");
+                command.add(where);
+            }
+            for (int w = 1; w < workers; w++) {
+                children.add(new ProcessBuilder(command).inheritIO().start());
+            }
+            executor = new TileExecutor(new ForkJoinPool(share), TileExecutor.DEFAULT_TILE_SIZE);
+        }
+        RegionScheduler scheduler = new RegionScheduler(regions, rest.get(2), dir, executor);
+        Path results;
+        switch (workflow) {
+            case "area":
+                try (SceneImage classified = new SceneImage(Collections.singletonList("classification"),
+                        Collections.singletonList(Paths.get(jobArgs.get(0))), Collections.emptyMap())) {
+                    results = scheduler.run(classArea(classified, executor));
+                }
+                break;
+            case "fire":
+                try (SceneCatalog s2 = SceneCatalog.openOrBuild(Paths.get(jobArgs.get(0)));
+                     SceneCatalog csPlus = SceneCatalog.openOrBuild(Paths.get(jobArgs.get(1)))) {
+                    String start = jobArgs.size() > 3 ? jobArgs.get(2) : "2025-01-15";
+                    String end = jobArgs.size() > 3 ? jobArgs.get(3) : "2025-01-25";
+                    results = scheduler.run(burnedArea(s2, csPlus, start, end, executor));
+                }
+                break;
+            case "clipping":
+                try (SceneCatalog s2 = SceneCatalog.openOrBuild(Paths.get(jobArgs.get(0)))) {
+                    String start = jobArgs.size() > 2 ? jobArgs.get(1) : "2019-01-01";
+                    String end = jobArgs.size() > 2 ? jobArgs.get(2) : "2020-01-01";
+                    results = scheduler.run(clipping(s2, start, end, rest.get(2), dir.resolve("out"), executor));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown workflow " + workflow + "; expected clipping, area or fire");
+        }
+        for (Process child : children) {
+            if (child.waitFor() != 0) {
+                System.err.println("A worker exited with " + child.exitValue() + "; rerun to finish its regions");
+            }
+        }
+        System.err.printf("%s over %d regions (%d run here, %d tiles) to %s in %.1f s%n", workflow, regions.size(),
+                scheduler.regionsRun(), scheduler.tilesRun(), results, (System.nanoTime() - t0) / 1e9);
+    }
+
+    /** 06.5: area of each class of one classified raster inside each region. */
+    static RegionJob<GroupedStats> classArea(Image classified, TileExecutor executor) {
+        return new RegionJob<GroupedStats>() {
+            @Override
+            public String header() {
+                return "class,class_name,area_km2,pixels";
+            }
+
+            @Override
+            public Region<GroupedStats> prepare(Feature region) {
+                return new GroupedRegion(classified, region.geometry(), executor) {
+                    @Override
+                    public List<String> finish(GroupedStats total) {
+                        List<String> rows = new ArrayList<>();
+                        for (int c : total.groups()) {
+                            String name = c >= 0 && c < CLASS_NAMES.length ? CLASS_NAMES[c] : "";
+                            rows.add(String.format("%d,%s,%.6f,%.0f", c, name, total.area(c) / 1e6,
+                                    total.stats(c).count()));
+                        }
+                        return rows;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * 07: pixels whose NBR drops by more than 0.2 between the two months before the fire and
+     * the month after it, in hectares, with the area that had clear scenes in both.
+     */
+    static RegionJob<GroupedStats> burnedArea(SceneCatalog s2, SceneCatalog csPlus, String fireStart,
+                                              String fireEnd, TileExecutor executor) {
+        LocalDate start = LocalDate.parse(fireStart), end = LocalDate.parse(fireEnd);
+        return new RegionJob<GroupedStats>() {
+            @Override
+            public String header() {
+                return "burned_ha,assessed_ha";
+            }
+
+            @Override
+            public Region<GroupedStats> prepare(Feature region) {
+                Geometry geometry = region.geometry();
+                Image before = nbr(s2, csPlus, geometry, start.minusMonths(2), start);
+                Image after = nbr(s2, csPlus, geometry, end, end.plusMonths(1));
+                if (before == null || after == null) {
+                    return new GroupedRegion(null, geometry, executor) {
+                        @Override
+                        public List<String> finish(GroupedStats total) {
+                            return Collections.singletonList(",");
+                        }
+                    };
+                }
+                Image burned = before.subtract(after).gt(0.2);
+                return new GroupedRegion(burned, geometry, executor) {
+                    @Override
+                    public List<String> finish(GroupedStats total) {
+                        double burnedArea = total.area(1);
+                        return Collections.singletonList(String.format("%.4f,%.4f", burnedArea / 1e4,
+                                (total.area(0) + burnedArea) / 1e4));
+                    }
+                };
+            }
+        };
+    }
+
+    /** Median NBR of the Cloud Score+ masked scenes over {@code geometry} in {@code [from, to)}, or null if none. */
+    static Image nbr(SceneCatalog s2, SceneCatalog csPlus, Geometry geometry, LocalDate from, LocalDate to) {
+        Filter scenes = Filter.date(from.toString(), to.toString()).and(Filter.bounds(geometry));
+        ImageCollection masked = s2.filter(scenes, "B8", "B12")
+                .linkCollection(csPlus.filter(scenes, "cs"), "cs")
+                .map(image -> image.updateMask(image.select("cs").gte(0.5)));
+        if (masked.size() == 0) {
+            return null;
+        }
+        return masked.median().normalizedDifference("B8", "B12").rename("nbr");
+    }
+
+    /** 01: median of a year of low-cloud scenes clipped to each region, exported as a COG. */
+    static RegionJob<Void> clipping(SceneCatalog s2, String start, String end, String nameField, Path out,
+                                    TileExecutor executor) {
+        return new RegionJob<Void>() {
+            @Override
+            public String header() {
+                return "scenes,file";
+            }
+
+            @Override
+            public Region<Void> prepare(Feature region) throws IOException {
+                Geometry geometry = region.geometry();
+                ImageCollection filtered = s2.filter(Filter.lt("CLOUDY_PIXEL_PERCENTAGE", 30)
+                        .and(Filter.date(start, end))
+                        .and(Filter.bounds(geometry)), "B.*");
+                Files.createDirectories(out);
+                return new Region<Void>() {
+                    @Override
+                    public List<Window> tiles() {
+                        return Collections.emptyList();
+                    }
+
+                    @Override
+                    public Void identity() {
+                        return null;
+                    }
+
+                    @Override
+                    public void tile(Void partial, Window tile) {
+                    }
+
+                    @Override
+                    public Void merge(Void left, Void right) {
+                        return null;
+                    }
+
+                    @Override
+                    public List<String> finish(Void total) throws IOException {
+                        if (filtered.size() == 0) {
+                            return Collections.singletonList("0,");
+                        }
+                        Image clipped = filtered.median().clip(geometry);
+                        PixelGrid grid = clipped.grid();
+                        Window window = grid.windowOf(geometry.transform(grid.crs()).envelope())
+                                .intersection(grid.bounds());
+                        Path file = out.resolve(region.get(nameField).toString().replaceAll("[^A-Za-z0-9._-]", "_")
+                                + ".tif");
+                        CogWriter.write(clipped, window, file, executor);
+                        return Collections.singletonList(filtered.size() + "," + file);
+                    }
+                };
+            }
+        };
+    }
+
+    /** A region reduced by class of a one-band image, each pixel counting its area. */
+    private abstract static class GroupedRegion implements RegionJob.Region<GroupedStats> {
+        private final Image image;
+        private final Geometry geometry;
+        private final List<Window> tiles;
+
+        GroupedRegion(Image image, Geometry geometry, TileExecutor executor) {
+            this.image = image;
+            if (image == null) {
+                this.geometry = geometry;
+                this.tiles = Collections.emptyList();
+            } else {
+                PixelGrid grid = image.grid();
+                this.geometry = geometry.transform(grid.crs());
+                this.tiles = executor.tiles(grid, grid.windowOf(this.geometry.envelope()));
+            }
+        }
+
+        @Override
+        public List<Window> tiles() {
+            return tiles;
+        }
+
+        @Override
+        public GroupedStats identity() {
+            return new GroupedStats();
+        }
+
+        @Override
+        public void tile(GroupedStats partial, Window tile) {
+            image.reduceGroups(partial, 0, geometry, tile);
+        }
+
+        @Override
+        public GroupedStats merge(GroupedStats left, GroupedStats right) {
+            return left.merge(right);
+        }
+    }
+
+    /** Removes {@code name value} from {@code args}, returning the value or {@code fallback}. */
+    private static String option(List<String> args, String name, String fallback) {
+        int i = args.indexOf(name);
+        if (i < 0 || i + 1 >= args.size()) {
+            return fallback;
+        }
+        String value = args.get(i + 1);
+        args.subList(i, i + 2).clear();
+        return value;
+    }
+}
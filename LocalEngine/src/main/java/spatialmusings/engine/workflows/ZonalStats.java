@@ -0,0 +1,83 @@
+package spatialmusings.engine.workflows;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import spatialmusings.engine.Image;
+import spatialmusings.engine.io.SceneImage;
+import spatialmusings.engine.io.ShapefileReader;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Resampling;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.zonal.ZonalStatistics;
+import spatialmusings.engine.zonal.ZonalTable;
+
+/**
+ * Local port of Engineering/extracting_zonalstatistics_xarray.py: mean, sum, min, max, std and
+ * count of every raster per admin unit, written as one CSV with a {@code Region} column and
+ * {@code <raster>.<stat>} columns.
+ *
+ * <pre>
+ * java spatialmusings.engine.workflows.ZonalStats &lt;boundaries.shp&gt; &lt;name-field&gt; &lt;out.csv&gt;
+ *      [-base base.tif] [-sum | -nearest] &lt;raster.tif&gt;... [-sum | -nearest] &lt;raster.tif&gt;...
+ * </pre>
+ *
+ * As in the script, the first band of each raster is used and zeros count as nodata. With
+ * {@code -base}, every raster is first reprojected onto the base raster's grid, by area-weighted
+ * sum ({@code match_raster_to_base}, the default) or by nearest neighbour ({@code upsample_raster})
+ * for the rasters after {@code -nearest}; all of them share one warp grid per source grid.
+ * Without it, rasters are used on their own grids. The units are rasterized once per distinct
+ * grid and every raster is read once.
+ */
+public final class ZonalStats {
+
+    private ZonalStats() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: ZonalStats <boundaries.shp> <name-field> <out.csv> [-base base.tif]"
+                    + " [-sum | -nearest] <raster.tif>...");
+            System.exit(2);
+        }
+        List<String> rasters = new ArrayList<>(Arrays.asList(args).subList(3, args.length));
+        PixelGrid base = null;
+        int at = rasters.indexOf("-base");
+        if (at >= 0) {
+            try (SceneImage b = new SceneImage(Collections.singletonList("base"),
+                    Collections.singletonList(Paths.get(rasters.get(at + 1))), Collections.emptyMap())) {
+                base = b.grid();
+            }
+            rasters.subList(at, at + 2).clear();
+        }
+        long t0 = System.nanoTime();
+        ZonalStatistics zones = ZonalStatistics.of(ShapefileReader.read(Paths.get(args[0])), args[1]);
+        ZonalTable table = new ZonalTable(zones.zones());
+        TileExecutor executor = TileExecutor.common();
+        Resampling resampling = Resampling.SUM;
+        int count = 0;
+        for (String arg : rasters) {
+            if (arg.equals("-sum") || arg.equals("-nearest")) {
+                resampling = arg.equals("-sum") ? Resampling.SUM : Resampling.NEAREST;
+                continue;
+            }
+            Path raster = Paths.get(arg);
+            String name = raster.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+            long t1 = System.nanoTime();
+            try (SceneImage image = new SceneImage(Collections.singletonList(name),
+                    Collections.singletonList(raster), Collections.emptyMap())) {
+                Image matched = base == null ? image : image.reproject(base, resampling);
+                table.add(name, zones.reduce(matched, true, executor)[0]);
+            }
+            count++;
+            System.err.printf("%s: %.2f s%n", name, (System.nanoTime() - t1) / 1e9);
+        }
+        table.write(Paths.get(args[2]));
+        System.err.printf("%d zones x %d rasters to %s in %.1f s%n", zones.zones().size(), count,
+                args[2], (System.nanoTime() - t0) / 1e9);
+    }
+}
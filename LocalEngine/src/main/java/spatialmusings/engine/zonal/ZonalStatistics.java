@@ -0,0 +1,128 @@
+package spatialmusings.engine.zonal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import spatialmusings.engine.Feature;
+import spatialmusings.engine.FeatureCollection;
+import spatialmusings.engine.Image;
+import spatialmusings.engine.geom.Geometry;
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.PixelGrid;
+import spatialmusings.engine.raster.Tile;
+import spatialmusings.engine.raster.TileExecutor;
+import spatialmusings.engine.raster.Window;
+
+/**
+ * Per-zone statistics of rasters over a boundary layer, one pass per raster whatever the
+ * number of zones.
+ *
+ * <p>The zones are rasterized once per grid into a {@link ZoneGrid}. Reducing an image then
+ * reads each of its tiles that holds zone pixels exactly once, with all bands, and adds every
+ * pixel to its zone's slot; each worker thread owns one {@link GroupedStats} per band (a stripe
+ * of primitive arrays indexed by zone), and the stripes are merged when the pass ends. Cost
+ * therefore grows with pixels, not pixels times zones, unlike reducing one polygon at a time.
+ *
+ * <p>Features sharing a zone name form one zone, as {@code GeoDataFrame.dissolve(by=name)}
+ * makes them; zones are ordered by name.
+ */
+public final class ZonalStatistics {
+
+    private final List<String> zones;
+    private final List<Geometry> geometries;
+    private final int[] zoneOf;
+    private final Map<PixelGrid, ZoneGrid> grids = new ConcurrentHashMap<>();
+
+    /** Zones from parallel lists of names and geometries; repeated names are merged. */
+    public ZonalStatistics(List<String> names, List<Geometry> geometries) {
+        if (names.size() != geometries.size()) {
+            throw new IllegalArgumentException("Need one name per geometry: " + names.size() + " vs " + geometries.size());
+        }
+        List<String> sorted = new ArrayList<>(new TreeSet<>(names));
+        this.zones = Collections.unmodifiableList(sorted);
+        this.geometries = Collections.unmodifiableList(new ArrayList<>(geometries));
+        this.zoneOf = new int[names.size()];
+        for (int i = 0; i < zoneOf.length; i++) {
+            zoneOf[i] = Collections.binarySearch(sorted, names.get(i));
+        }
+    }
+
+    /** Zones named by the string value of {@code nameProperty}. */
+    public static ZonalStatistics of(FeatureCollection features, String nameProperty) {
+        List<String> names = new ArrayList<>(features.size());
+        List<Geometry> geometries = new ArrayList<>(features.size());
+        for (Feature f : features) {
+            Object name = f.get(nameProperty);
+            if (name == null) {
+                throw new IllegalArgumentException("Feature without '" + nameProperty + "': " + f.properties());
+            }
+            names.add(name.toString());
+            geometries.add(f.geometry());
+        }
+        return new ZonalStatistics(names, geometries);
+    }
+
+    /** Zone names, ascending; zone {@code i} of every result is {@code zones().get(i)}. */
+    public List<String> zones() {
+        return zones;
+    }
+
+    /** The zones rasterized onto {@code grid}, built on first use and kept for later rasters. */
+    public ZoneGrid zoneGrid(PixelGrid grid, TileExecutor executor) {
+        return grids.computeIfAbsent(grid, g -> ZoneGrid.rasterize(geometries, zoneOf, g, executor));
+    }
+
+    /**
+     * Statistics of every band of {@code image} per zone, one {@link GroupedStats} per band
+     * with zones as groups. Masked pixels are skipped, and so are zeros if
+     * {@code zeroIsNoData}, matching rasterstats with {@code nodata=0}.
+     */
+    public GroupedStats[] reduce(Image image, boolean zeroIsNoData, TileExecutor executor) {
+        PixelGrid grid = image.grid();
+        ZoneGrid zoneGrid = zoneGrid(grid, executor);
+        int[] bands = image.allBands();
+        return executor.accumulate(zoneGrid.tiles(), () -> newStripe(bands.length),
+                (stripe, w) -> reduceTile(stripe, image, grid, zoneGrid.zones(w), w, bands, zeroIsNoData),
+                ZonalStatistics::merge);
+    }
+
+    private static void reduceTile(GroupedStats[] stripe, Image image, PixelGrid grid, int[] zones, Window w,
+                                   int[] bands, boolean zeroIsNoData) {
+        Tile t = image.read(w, bands);
+        int width = w.width();
+        for (int r = 0; r < w.height(); r++) {
+            double area = grid.pixelArea(w.y() + r);
+            for (int b = 0; b < bands.length; b++) {
+                GroupedStats stats = stripe[b];
+                float[] v = t.band(b);
+                for (int i = r * width, end = i + width; i < end; i++) {
+                    int zone = zones[i];
+                    float value = v[i];
+                    if (zone == ZoneGrid.NONE || Float.isNaN(value) || (zeroIsNoData && value == 0)) {
+                        continue;
+                    }
+                    stats.add(zone, value, area);
+                }
+            }
+        }
+    }
+
+    private static GroupedStats[] newStripe(int bands) {
+        GroupedStats[] stripe = new GroupedStats[bands];
+        for (int b = 0; b < bands; b++) {
+            stripe[b] = new GroupedStats();
+        }
+        return stripe;
+    }
+
+    private static GroupedStats[] merge(GroupedStats[] a, GroupedStats[] b) {
+        for (int i = 0; i < a.length; i++) {
+            a[i].merge(b[i]);
+        }
+        return a;
+    }
+}
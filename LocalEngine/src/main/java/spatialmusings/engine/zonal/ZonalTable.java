@@ -0,0 +1,92 @@
+package spatialmusings.engine.zonal;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import spatialmusings.engine.raster.GroupedStats;
+import spatialmusings.engine.raster.Stats;
+
+/**
+ * Zonal statistics of several rasters as one CSV in the layout of
+ * Engineering/extracting_zonalstatistics_xarray.py: a {@code Region} column, then
+ * {@code <raster>.mean, .sum, .min, .max, .std, .count} per raster in the order added.
+ *
+ * <p>As in the script, values are rounded to four decimals, and zones without pixels report
+ * 0 for every statistic; {@code std} is the population standard deviation.
+ */
+public final class ZonalTable {
+
+    public static final List<String> STATISTICS = List.of("mean", "sum", "min", "max", "std", "count");
+
+    private final List<String> zones;
+    private final List<String> names = new ArrayList<>();
+    private final List<GroupedStats> columns = new ArrayList<>();
+
+    public ZonalTable(List<String> zones) {
+        this.zones = zones;
+    }
+
+    /** Adds the statistics of one raster, whose groups are indices into the zone list. */
+    public ZonalTable add(String name, GroupedStats stats) {
+        names.add(name);
+        columns.add(stats);
+        return this;
+    }
+
+    public void write(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            write(out);
+        }
+    }
+
+    public void write(Writer writer) throws IOException {
+        BufferedWriter out = writer instanceof BufferedWriter ? (BufferedWriter) writer : new BufferedWriter(writer);
+        StringBuilder line = new StringBuilder("Region");
+        for (String name : names) {
+            for (String stat : STATISTICS) {
+                line.append(',').append(quote(name + "." + stat));
+            }
+        }
+        out.write(line.append('\n').toString());
+        for (int z = 0; z < zones.size(); z++) {
+            line.setLength(0);
+            line.append(quote(zones.get(z)));
+            for (GroupedStats column : columns) {
+                Stats s = column.stats(z);
+                double[] values = {s.mean(), s.sum(), s.min(), s.max(), s.stdDev(), s.count()};
+                for (double v : values) {
+                    line.append(',').append(format(v));
+                }
+            }
+            out.write(line.append('\n').toString());
+        }
+        out.flush();
+    }
+
+    /** Rounds half to even at four decimals, as numpy does, and prints like a Python float. */
+    static String format(double v) {
+        if (Double.isNaN(v)) {
+            return "0.0";
+        }
+        double rounded = Math.rint(v * 1e4) / 1e4;
+        if (Double.isInfinite(rounded)) {
+            return rounded > 0 ? "inf" : "-inf";
+        }
+        String s = BigDecimal.valueOf(rounded).stripTrailingZeros().toPlainString();
+        return s.indexOf('.') < 0 ? s + ".0" : s;
+    }
+
+    private static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,177 @@
+package spatialmusings.engine.expr;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernels on the {@code jdk.incubator.vector} API, at the widest lane count the CPU offers.
+ * Each operator has its own loop with the dispatch outside it; the scalar tail and the rarely
+ * used operators fall back to {@link ScalarKernels}. Loaded reflectively by
+ * {@link Kernels#best()}, so the main source set never depends on the incubator module.
+ */
+public final class VectorKernels implements Kernels {
+
+    private static final VectorSpecies<Float> S = FloatVector.SPECIES_PREFERRED;
+
+    public VectorKernels() {
+    }
+
+    @Override
+    public String name() {
+        return "vector" + S.length();
+    }
+
+    @Override
+    public void apply(Op op, float[] a, int ao, float[] b, int bo, float[] out, int oo, int n) {
+        int bound = S.loopBound(n);
+        int i = 0;
+        switch (op) {
+            case ADD:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).add(FloatVector.fromArray(S, b, bo + i)).intoArray(out, oo + i);
+                }
+                break;
+            case SUBTRACT:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).sub(FloatVector.fromArray(S, b, bo + i)).intoArray(out, oo + i);
+                }
+                break;
+            case MULTIPLY:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).mul(FloatVector.fromArray(S, b, bo + i)).intoArray(out, oo + i);
+                }
+                break;
+            case DIVIDE:
+                for (; i < bound; i += S.length()) {
+                    FloatVector x = FloatVector.fromArray(S, a, ao + i);
+                    FloatVector y = FloatVector.fromArray(S, b, bo + i);
+                    // x / 0 is +-inf or NaN in IEEE arithmetic; the engine masks it instead.
+                    x.div(y).blend(Float.NaN, y.eq(0f)).intoArray(out, oo + i);
+                }
+                break;
+            case NORMALIZED_DIFFERENCE:
+                for (; i < bound; i += S.length()) {
+                    FloatVector x = FloatVector.fromArray(S, a, ao + i);
+                    FloatVector y = FloatVector.fromArray(S, b, bo + i);
+                    FloatVector sum = x.add(y);
+                    VectorMask<Float> zero = sum.eq(0f);
+                    x.sub(y).div(sum).blend(0f, zero)
+                            .blend(Float.NaN, x.lt(0f).or(y.lt(0f)).or(nan(x)).or(nan(y)))
+                            .intoArray(out, oo + i);
+                }
+                break;
+            case MIN:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).min(FloatVector.fromArray(S, b, bo + i)).intoArray(out, oo + i);
+                }
+                break;
+            case MAX:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).max(FloatVector.fromArray(S, b, bo + i)).intoArray(out, oo + i);
+                }
+                break;
+            case GT:
+            case GTE:
+            case LT:
+            case LTE:
+            case EQ:
+            case NEQ: {
+                VectorOperators.Comparison cmp = comparison(op);
+                for (; i < bound; i += S.length()) {
+                    FloatVector x = FloatVector.fromArray(S, a, ao + i);
+                    FloatVector y = FloatVector.fromArray(S, b, bo + i);
+                    select(x.compare(cmp, y), nan(x).or(nan(y))).intoArray(out, oo + i);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        if (i < n) {
+            ScalarKernels.INSTANCE.apply(op, a, ao + i, b, bo + i, out, oo + i, n - i);
+        }
+    }
+
+    @Override
+    public void apply(Op op, float[] a, int ao, float c, float[] out, int oo, int n) {
+        if (Float.isNaN(c) || (op == Op.DIVIDE && c == 0) || op == Op.NORMALIZED_DIFFERENCE) {
+            ScalarKernels.INSTANCE.apply(op, a, ao, c, out, oo, n);
+            return;
+        }
+        int bound = S.loopBound(n);
+        int i = 0;
+        switch (op) {
+            case ADD:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).add(c).intoArray(out, oo + i);
+                }
+                break;
+            case SUBTRACT:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).sub(c).intoArray(out, oo + i);
+                }
+                break;
+            case MULTIPLY:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).mul(c).intoArray(out, oo + i);
+                }
+                break;
+            case DIVIDE:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).div(c).intoArray(out, oo + i);
+                }
+                break;
+            case MIN:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).min(c).intoArray(out, oo + i);
+                }
+                break;
+            case MAX:
+                for (; i < bound; i += S.length()) {
+                    FloatVector.fromArray(S, a, ao + i).max(c).intoArray(out, oo + i);
+                }
+                break;
+            case GT:
+            case GTE:
+            case LT:
+            case LTE:
+            case EQ:
+            case NEQ: {
+                VectorOperators.Comparison cmp = comparison(op);
+                for (; i < bound; i += S.length()) {
+                    FloatVector x = FloatVector.fromArray(S, a, ao + i);
+                    select(x.compare(cmp, c), nan(x)).intoArray(out, oo + i);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        if (i < n) {
+            ScalarKernels.INSTANCE.apply(op, a, ao + i, c, out, oo + i, n - i);
+        }
+    }
+
+    private static VectorMask<Float> nan(FloatVector v) {
+        return v.test(VectorOperators.IS_NAN);
+    }
+
+    /** 1 where {@code hit}, 0 elsewhere, NaN where {@code masked}. */
+    private static FloatVector select(VectorMask<Float> hit, VectorMask<Float> masked) {
+        return FloatVector.zero(S).blend(1f, hit).blend(Float.NaN, masked);
+    }
+
+    private static VectorOperators.Comparison comparison(Op op) {
+        switch (op) {
+            case GT: return VectorOperators.GT;
+            case GTE: return VectorOperators.GE;
+            case LT: return VectorOperators.LT;
+            case LTE: return VectorOperators.LE;
+            case EQ: return VectorOperators.EQ;
+            case NEQ: return VectorOperators.NE;
+            default: throw new AssertionError(op);
+        }
+    }
+}